@@ -0,0 +1,86 @@
+package ePortfolio.bench;
+
+import ePortfolio.AlertEngine;
+import ePortfolio.Portfolio;
+import ePortfolio.PriceAlert;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This measures the cost of a price tick with many pending alerts. Alerts are spread over the holdings
+ * at random thresholds away from the start price; comparing against {@code alerts = 0} gives the
+ * evaluation cost per tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlertEngineBenchmark {
+
+    @Param({"1000"})
+    public int holdings;
+
+    @Param({"0", "100000", "1000000"})
+    public int alerts;
+
+    private Portfolio portfolio;
+    private String[] symbols;
+    private double[] prices;
+    private SplittableRandom walk;
+
+    @Setup
+    public void setUp() {
+        portfolio = PortfolioGenerator.generate(holdings, 42L);
+        symbols = new String[holdings];
+        prices = new double[holdings];
+        for (int i = 0; i < holdings; i++) {
+            symbols[i] = PortfolioGenerator.symbol(i);
+            portfolio.updatePrice(symbols[i], 100.0);
+        }
+        Arrays.fill(prices, 100.0);
+
+        AlertEngine engine = portfolio.getAlertEngine();
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < alerts; i++) {
+            String symbol = symbols[random.nextInt(holdings)];
+            switch (i % 3) {
+                case 0:
+                    engine.addAlert(symbol, PriceAlert.Kind.STOP_LOSS, 50.0 + random.nextDouble(40.0));
+                    break;
+                case 1:
+                    engine.addAlert(symbol, PriceAlert.Kind.TAKE_PROFIT, 110.0 + random.nextDouble(40.0));
+                    break;
+                default:
+                    engine.addAlert(symbol, PriceAlert.Kind.PERCENT_MOVE, 10.0 + random.nextDouble(40.0));
+                    break;
+            }
+        }
+        walk = new SplittableRandom(11);
+    }
+
+    /**
+     * This applies one random walk tick; prices mean-revert towards 100 so alerts are crossed steadily
+     * instead of all firing early in the run.
+     */
+    @Benchmark
+    public void tick() {
+        int i = walk.nextInt(holdings);
+        double price = prices[i] + 0.05 * (100.0 - prices[i]) + prices[i] * 0.01 * walk.nextGaussian();
+        prices[i] = Math.max(0.01, price);
+        portfolio.updatePrice(symbols[i], prices[i]);
+    }
+}
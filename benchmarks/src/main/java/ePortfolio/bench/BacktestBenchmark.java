@@ -0,0 +1,122 @@
+package ePortfolio.bench;
+
+import ePortfolio.Backtester;
+import ePortfolio.ReplayTape;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This measures {@link Backtester} on a generated tape: one backtest, and a parameter sweep of a
+ * threshold strategy run one after another and in parallel. Setup checks that the parallel sweep gives
+ * exactly the same results as the sequential one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BacktestBenchmark {
+
+    @Param({"200000"})
+    public int ticks;
+
+    @Param({"50"})
+    public int symbols;
+
+    @Param({"64"})
+    public int sweep;
+
+    private Backtester backtester;
+
+    /**
+     * This buys 100 more units when a symbol falls a given fraction below the price it was last traded at,
+     * and sells 100 when it rises a given fraction above it.
+     */
+    static final class ThresholdStrategy implements Backtester.Strategy {
+        private final double drop;
+        private final double rise;
+        private double[] reference;
+
+        ThresholdStrategy(double drop, double rise) {
+            this.drop = drop;
+            this.rise = rise;
+        }
+
+        @Override
+        public void onTick(Backtester.Run run, int symbolIndex, double price) {
+            if (reference == null) {
+                reference = new double[run.getTape().symbolCount()];
+            }
+            double last = reference[symbolIndex];
+            if (last == 0) {
+                reference[symbolIndex] = price;
+            } else if (price <= last * (1 - drop) && run.getQuantity(symbolIndex) > 0) {
+                run.buy(symbolIndex, null, null, 100, price);  // This adds to the holding, so no name or type
+                reference[symbolIndex] = price;
+            } else if (price >= last * (1 + rise) && run.getQuantity(symbolIndex) > 100) {
+                run.sell(symbolIndex, 100, price);
+                reference[symbolIndex] = price;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("threshold(drop %.3f, rise %.3f)", drop, rise);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ReplayTape tape = PortfolioGenerator.replayTape(symbols, ticks, 42L);
+        backtester = new Backtester(tape);
+        List<Backtester.Result> sequential = sequentialSweep();
+        List<Backtester.Result> parallel = parallelSweep();
+        for (int i = 0; i < sweep; i++) {
+            if (!sequential.get(i).toString().equals(parallel.get(i).toString())
+                    || sequential.get(i).getTotalGain() != parallel.get(i).getTotalGain()) {
+                throw new IllegalStateException("Parallel sweep differs at " + i + ": " + parallel.get(i));
+            }
+        }
+    }
+
+    private List<ThresholdStrategy> strategies() {
+        List<ThresholdStrategy> strategies = new ArrayList<>();
+        for (int i = 0; i < sweep; i++) {
+            strategies.add(new ThresholdStrategy(0.01 + 0.005 * (i % 8), 0.01 + 0.005 * (i / 8)));
+        }
+        return strategies;
+    }
+
+    @Benchmark
+    public Backtester.Result single() {
+        return backtester.run(new ThresholdStrategy(0.02, 0.03));
+    }
+
+    @Benchmark
+    public List<Backtester.Result> sequentialSweep() {
+        List<Backtester.Result> results = new ArrayList<>();
+        for (ThresholdStrategy strategy : strategies()) {
+            results.add(backtester.run(strategy));
+        }
+        return results;
+    }
+
+    @Benchmark
+    public List<Backtester.Result> parallelSweep() {
+        return backtester.runAll(strategies());
+    }
+}
@@ -0,0 +1,97 @@
+package ePortfolio.bench;
+
+import ePortfolio.Investment;
+import ePortfolio.Order;
+import ePortfolio.Portfolio;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmarks executing 100,000 orders on a generated portfolio with {@link Portfolio#executeBatch(List)}
+ * against calling buyInvestment and sellInvestment for each. About 1% of the sells empty their holding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BatchOrderBenchmark {
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"100000"})
+    public int orderCount;
+
+    private List<Order> orders;
+    private Portfolio portfolio;
+
+    @Setup(Level.Trial)
+    public void planOrders() {
+        Portfolio generated = PortfolioGenerator.generate(size, 42L);
+        int[] held = new int[size];
+        String[] types = new String[size];
+        String[] names = new String[size];
+        double[] prices = new double[size];
+        for (int i = 0; i < size; i++) {
+            Investment investment = generated.findInvestmentBySymbol(PortfolioGenerator.symbol(i));
+            held[i] = investment.getQuantity();
+            types[i] = Order.typeOf(investment);
+            names[i] = investment.getName();
+            prices[i] = investment.getPrice();
+        }
+        SplittableRandom random = new SplittableRandom(7L);
+        orders = new ArrayList<>(orderCount);
+        for (int k = 0; k < orderCount; k++) {
+            int i = random.nextInt(size);
+            double price = Math.round(prices[i] * (0.95 + random.nextDouble(0.1)) * 100.0) / 100.0 + 0.001;
+            if (held[i] > 1 && random.nextBoolean()) {
+                int quantity = random.nextInt(100) == 0 ? held[i] : 1 + random.nextInt(held[i] / 2);
+                held[i] -= quantity;
+                orders.add(Order.sell(PortfolioGenerator.symbol(i), types[i], quantity, price));
+            } else {
+                int quantity = 1 + random.nextInt(100);
+                held[i] += quantity;
+                orders.add(Order.buy(PortfolioGenerator.symbol(i), names[i], types[i], quantity, price));
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void generate() {
+        portfolio = PortfolioGenerator.generate(size, 42L);
+    }
+
+    @Benchmark
+    public String executeBatch() {
+        return portfolio.executeBatch(orders);
+    }
+
+    @Benchmark
+    public Portfolio singleCalls() {
+        for (Order order : orders) {
+            if (order.getSide() == Order.Side.SELL) {
+                portfolio.sellInvestment(order.getSymbol(), order.getQuantity(), order.getPrice());
+            } else {
+                portfolio.buyInvestment(order.getSymbol(), order.getName(), order.getQuantity(), order.getPrice(),
+                        order.getType());
+            }
+        }
+        return portfolio;
+    }
+}
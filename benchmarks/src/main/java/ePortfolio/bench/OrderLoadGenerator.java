@@ -0,0 +1,238 @@
+package ePortfolio.bench;
+
+import ePortfolio.Investment;
+import ePortfolio.LatencyHistogram;
+import ePortfolio.Order;
+import ePortfolio.OrderServer;
+import ePortfolio.Portfolio;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+
+/**
+ * This drives an {@link OrderServer} with many clients at once and reports throughput and latency.
+ * Each client keeps one request outstanding and sends the next as soon as its response arrives: 40% buys,
+ * 40% sells of one unit, 15% price updates, 4% GAIN and 1% searches for one symbol. All clients run on one
+ * selector thread, so thousands of them need no thread each.
+ * <pre>
+ *   java -cp benchmarks/target/benchmarks.jar ePortfolio.bench.OrderLoadGenerator --clients=2000 --seconds=10
+ * </pre>
+ * Options are --clients, --seconds, --holdings (of the generated portfolio), --unix to serve over a Unix
+ * domain socket instead of a loopback port, and --connect=host:port or --connect=socket-path to drive a
+ * server already running; requests name the holdings of the portfolio generated for --holdings, so that
+ * server should be serving a portfolio saved from the same generator.
+ */
+public final class OrderLoadGenerator {
+
+    /**
+     * This is the state of one client.
+     */
+    private static final class Client {
+        final SplittableRandom random;
+        final ByteBuffer in = ByteBuffer.allocate(8192);
+        ByteBuffer out;
+        long sentAt;
+
+        Client(long seed) {
+            random = new SplittableRandom(seed);
+        }
+    }
+
+    private final String[] symbols;
+    private final String[] buys;  // The type and name ending each holding's BUY request
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long responses = 0;
+    private long errors = 0;
+
+    private OrderLoadGenerator(Portfolio portfolio, int holdings) {
+        symbols = new String[holdings];
+        buys = new String[holdings];
+        for (int i = 0; i < holdings; i++) {
+            Investment investment = portfolio.findInvestmentBySymbol(PortfolioGenerator.symbol(i));
+            symbols[i] = investment.getSymbol();
+            buys[i] = " " + Order.typeOf(investment) + " " + investment.getName() + "\n";
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int clients = 2000;
+        int seconds = 10;
+        int holdings = 10000;
+        boolean unix = false;
+        String connect = null;
+        for (String arg : args) {
+            if (arg.startsWith("--clients=")) {
+                clients = Integer.parseInt(arg.substring("--clients=".length()));
+            } else if (arg.startsWith("--seconds=")) {
+                seconds = Integer.parseInt(arg.substring("--seconds=".length()));
+            } else if (arg.startsWith("--holdings=")) {
+                holdings = Integer.parseInt(arg.substring("--holdings=".length()));
+            } else if (arg.equals("--unix")) {
+                unix = true;
+            } else if (arg.startsWith("--connect=")) {
+                connect = arg.substring("--connect=".length());
+            } else {
+                System.out.println("Usage: OrderLoadGenerator [--clients=n] [--seconds=n] [--holdings=n] [--unix]"
+                        + " [--connect=host:port|socket-path]");
+                return;
+            }
+        }
+        Portfolio portfolio = PortfolioGenerator.generate(holdings, 42L);
+        OrderServer server = null;
+        SocketAddress address;
+        if (connect != null) {
+            int colon = connect.lastIndexOf(':');
+            address = colon < 0 ? UnixDomainSocketAddress.of(connect)
+                    : new InetSocketAddress(connect.substring(0, colon), Integer.parseInt(connect.substring(colon + 1)));
+        } else {
+            if (unix) {
+                Path socket = Files.createTempFile("orders", ".sock");
+                Files.delete(socket);  // This leaves the name for the server to bind
+                address = UnixDomainSocketAddress.of(socket);
+            } else {
+                address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+            }
+            server = OrderServer.open(portfolio, address);
+            address = server.getAddress();
+        }
+        try {
+            new OrderLoadGenerator(portfolio, holdings).run(address, clients, seconds);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private void run(SocketAddress address, int clients, int seconds) throws IOException {
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < clients; i++) {
+                SocketChannel channel = address instanceof UnixDomainSocketAddress
+                        ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                        : SocketChannel.open();
+                channel.connect(address);
+                if (!(address instanceof UnixDomainSocketAddress)) {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new Client(i));
+            }
+            System.out.printf("%d clients connected to %s%n", clients, address);
+            for (SelectionKey key : selector.keys()) {
+                send(key);
+            }
+
+            // This warms up for a fifth of the run, then measures the rest
+            long start = System.nanoTime();
+            long warmedUp = start + seconds * 200_000_000L;
+            long end = start + seconds * 1_000_000_000L;
+            boolean measuring = false;
+            long measuredFrom = start;
+            while (true) {
+                long now = System.nanoTime();
+                if (now >= end) {
+                    break;
+                }
+                if (!measuring && now >= warmedUp) {
+                    latency.reset();
+                    responses = 0;
+                    errors = 0;
+                    measuring = true;
+                    measuredFrom = now;
+                }
+                selector.select(100);
+                Iterator<SelectionKey> ready = selector.selectedKeys().iterator();
+                while (ready.hasNext()) {
+                    SelectionKey key = ready.next();
+                    ready.remove();
+                    if (key.isWritable()) {
+                        write(key);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        receive(key);
+                    }
+                }
+            }
+            double elapsed = (System.nanoTime() - measuredFrom) / 1e9;
+            System.out.printf("%,d responses in %.1f s: %,.0f requests/s, %.2f%% errors%n",
+                    responses, elapsed, responses / elapsed, responses == 0 ? 0.0 : 100.0 * errors / responses);
+            System.out.printf("latency p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+                    latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6,
+                    latency.getPercentile(99.9) / 1e6, latency.getMax() / 1e6);
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        }
+    }
+
+    /**
+     * This sends a client's next request.
+     */
+    private void send(SelectionKey key) throws IOException {
+        Client client = (Client) key.attachment();
+        client.out = ByteBuffer.wrap(nextRequest(client.random).getBytes(StandardCharsets.UTF_8));
+        client.sentAt = System.nanoTime();
+        write(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Client client = (Client) key.attachment();
+        ((SocketChannel) key.channel()).write(client.out);
+        key.interestOps(client.out.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * This reads a client's response, records its latency and sends the next request.
+     */
+    private void receive(SelectionKey key) throws IOException {
+        Client client = (Client) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (channel.read(client.in) < 0) {
+            throw new IOException("The server closed a connection.");
+        }
+        ByteBuffer in = client.in;
+        for (int i = 0; i < in.position(); i++) {
+            if (in.get(i) == '\n') {
+                latency.record(System.nanoTime() - client.sentAt);
+                responses++;
+                if (in.get(0) != 'O') {
+                    errors++;
+                }
+                in.flip().position(i + 1);
+                in.compact();
+                send(key);
+                return;
+            }
+        }
+    }
+
+    private String nextRequest(SplittableRandom random) {
+        int holding = random.nextInt(symbols.length);
+        String symbol = symbols[holding];
+        int kind = random.nextInt(100);
+        String price = String.format("%.3f", 5.0 + random.nextDouble(95.0));
+        if (kind < 40) {
+            return "BUY " + symbol + " 1 " + price + buys[holding];
+        } else if (kind < 80) {
+            return "SELL " + symbol + " 1 " + price + "\n";
+        } else if (kind < 95) {
+            return "UPDATE " + symbol + " " + price + "\n";
+        } else if (kind < 99) {
+            return "GAIN\n";
+        }
+        return "SEARCH symbol = " + symbol + "\n";
+    }
+}
@@ -0,0 +1,67 @@
+package ePortfolio.bench;
+
+import ePortfolio.Portfolio;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmarks {@link Portfolio#loadInvestmentsFromFile(String, int)} on a growing number of workers
+ * against the single threaded {@link Portfolio#loadInvestmentsFromFile(String)}, over a file of a million
+ * holdings (about 130 MB). Run it with -p size=10000000 for a file over a gigabyte, given -Xmx of a few
+ * gigabytes. The sequential load does not use the workers parameter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ParallelLoadBenchmark {
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("eportfolio-parallel", ".txt");
+        PortfolioGenerator.generate(size, 42L).saveInvestmentsToFile(file.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public Portfolio parallel() {
+        Portfolio loaded = new Portfolio();
+        loaded.loadInvestmentsFromFile(file.getPath(), workers);
+        return loaded;
+    }
+
+    @Benchmark
+    public Portfolio sequential() {
+        Portfolio loaded = new Portfolio();
+        loaded.loadInvestmentsFromFile(file.getPath());
+        return loaded;
+    }
+}
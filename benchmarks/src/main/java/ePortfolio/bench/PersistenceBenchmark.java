@@ -0,0 +1,101 @@
+package ePortfolio.bench;
+
+import ePortfolio.BulkTransfer;
+import ePortfolio.Portfolio;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmarks {@link Portfolio#loadInvestmentsFromFile(String)} and
+ * {@link Portfolio#saveInvestmentsToFile(String)} over portfolio files of several sizes, along with the
+ * streaming CSV and JSON Lines import and export of {@link BulkTransfer}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private Portfolio portfolio;
+    private File loadFile;
+    private File saveFile;
+    private File csvFile;
+    private File jsonFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        portfolio = PortfolioGenerator.generate(size, 42L);
+        loadFile = File.createTempFile("eportfolio-load", ".txt");
+        saveFile = File.createTempFile("eportfolio-save", ".txt");
+        portfolio.saveInvestmentsToFile(loadFile.getPath());
+        csvFile = File.createTempFile("eportfolio-import", ".csv");
+        jsonFile = File.createTempFile("eportfolio-import", ".jsonl");
+        BulkTransfer.exportFile(portfolio, csvFile.getPath());
+        BulkTransfer.exportFile(portfolio, jsonFile.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        loadFile.delete();
+        saveFile.delete();
+        csvFile.delete();
+        jsonFile.delete();
+        new File(saveFile.getPath() + ".csv").delete();
+        new File(saveFile.getPath() + ".jsonl").delete();
+    }
+
+    @Benchmark
+    public Portfolio loadInvestmentsFromFile() {
+        Portfolio loaded = new Portfolio();
+        loaded.loadInvestmentsFromFile(loadFile.getPath());
+        return loaded;
+    }
+
+    @Benchmark
+    public void saveInvestmentsToFile() {
+        portfolio.saveInvestmentsToFile(saveFile.getPath());
+    }
+
+    @Benchmark
+    public Portfolio importCsv() throws IOException {
+        Portfolio imported = new Portfolio();
+        BulkTransfer.importFile(imported, csvFile.getPath());
+        return imported;
+    }
+
+    @Benchmark
+    public Portfolio importJsonLines() throws IOException {
+        Portfolio imported = new Portfolio();
+        BulkTransfer.importFile(imported, jsonFile.getPath());
+        return imported;
+    }
+
+    @Benchmark
+    public int exportCsv() throws IOException {
+        return BulkTransfer.exportFile(portfolio, saveFile.getPath() + ".csv");
+    }
+
+    @Benchmark
+    public int exportJsonLines() throws IOException {
+        return BulkTransfer.exportFile(portfolio, saveFile.getPath() + ".jsonl");
+    }
+}
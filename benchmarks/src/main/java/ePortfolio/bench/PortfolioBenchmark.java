@@ -0,0 +1,97 @@
+package ePortfolio.bench;
+
+import ePortfolio.Investment;
+import ePortfolio.Portfolio;
+import ePortfolio.PortfolioMetrics;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmarks the in-memory hot paths of {@link Portfolio} over portfolios of several sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PortfolioBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    /** This turns on PortfolioMetrics; run with -p metrics=false,true to see the instrumentation overhead. */
+    @Param({"false"})
+    public boolean metrics;
+
+    private Portfolio portfolio;
+    private String[] symbols;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        PortfolioMetrics.get().setEnabled(metrics);
+        portfolio = PortfolioGenerator.generate(size, 42L);
+        symbols = new String[size];
+        for (int i = 0; i < size; i++) {
+            symbols[i] = PortfolioGenerator.symbol(i);
+        }
+    }
+
+    /**
+     * This resets quantities every iteration so repeated buys and sells neither overflow nor empty a holding.
+     */
+    @Setup(Level.Iteration)
+    public void resetQuantities() {
+        for (Investment investment : portfolio.getInvestments()) {
+            investment.setQuantity(1_000_000_000);
+        }
+    }
+
+    private String nextSymbol() {
+        next = next + 1 == size ? 0 : next + 1;
+        return symbols[next];
+    }
+
+    @Benchmark
+    public Investment findInvestmentBySymbol() {
+        return portfolio.findInvestmentBySymbol(nextSymbol());
+    }
+
+    @Benchmark
+    public List<Investment> searchBySymbol() {
+        return portfolio.searchInvestment(nextSymbol(), "", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+    @Benchmark
+    public List<Investment> searchByKeywordsAndPrice() {
+        return portfolio.searchInvestment("", "global bank", 100, 200);
+    }
+
+    @Benchmark
+    public String buyInvestment() {
+        return portfolio.buyInvestment(nextSymbol(), "ignored", 1, 100.0, "stock");
+    }
+
+    @Benchmark
+    public String sellInvestment() {
+        return portfolio.sellInvestment(nextSymbol(), 1, 100.0);
+    }
+
+    @Benchmark
+    public double getGain() {
+        return portfolio.getGain();
+    }
+}
@@ -0,0 +1,121 @@
+package ePortfolio.bench;
+
+import ePortfolio.Investment;
+import ePortfolio.Portfolio;
+import ePortfolio.PortfolioDiff;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmarks {@link PortfolioDiff} comparing two copies of a book that differ in 1% of holdings,
+ * for text files and snapshots, and applying the diff to the older copy, against reconciling by loading
+ * both files into portfolios.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PortfolioDiffBenchmark {
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    private File before;
+    private File after;
+    private File beforeSnapshot;
+    private File afterSnapshot;
+    private File diff;
+    private Portfolio older;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Portfolio portfolio = PortfolioGenerator.generate(size, 42L);
+        before = File.createTempFile("eportfolio-diff", ".txt");
+        beforeSnapshot = File.createTempFile("eportfolio-diff", ".snap");
+        portfolio.saveInvestmentsToFile(before.getPath());
+        portfolio.saveSnapshotFile(beforeSnapshot.getPath());
+        for (int i = 0; i < size; i += 100) {  // This changes 1% of holdings: sells out, new prices and buys
+            String symbol = PortfolioGenerator.symbol(i);
+            Investment investment = portfolio.findInvestmentBySymbol(symbol);
+            if (i % 300 == 0) {
+                portfolio.sellInvestment(symbol, investment.getQuantity(), investment.getPrice());
+            } else if (i % 300 == 100) {
+                portfolio.updatePrice(symbol, investment.getPrice() + 1);
+            } else {
+                portfolio.buyInvestment("NEW" + i, "new listing", 10, 10.0, "stock");
+            }
+        }
+        after = File.createTempFile("eportfolio-diff", ".txt");
+        afterSnapshot = File.createTempFile("eportfolio-diff", ".snap");
+        portfolio.saveInvestmentsToFile(after.getPath());
+        portfolio.saveSnapshotFile(afterSnapshot.getPath());
+        diff = File.createTempFile("eportfolio-diff", ".csv");
+        PortfolioDiff.writeDiff(before.getPath(), after.getPath(), diff.getPath());
+    }
+
+    @Setup(Level.Invocation)
+    public void loadOlder() {
+        older = new Portfolio();
+        older.loadInvestmentsFromFile(before.getPath(), 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        before.delete();
+        after.delete();
+        beforeSnapshot.delete();
+        afterSnapshot.delete();
+        diff.delete();
+    }
+
+    @Benchmark
+    public PortfolioDiff.Summary diffText() throws IOException {
+        return PortfolioDiff.compare(before.getPath(), after.getPath(), change -> { });
+    }
+
+    @Benchmark
+    public PortfolioDiff.Summary diffSnapshot() throws IOException {
+        return PortfolioDiff.compare(beforeSnapshot.getPath(), afterSnapshot.getPath(), change -> { });
+    }
+
+    @Benchmark
+    public PortfolioDiff.Report applyDiff() throws IOException {
+        return PortfolioDiff.applyFile(older, diff.getPath());
+    }
+
+    /**
+     * This reconciles the way it was done before: load the newer file too and compare holding by holding.
+     */
+    @Benchmark
+    public List<String> loadBothAndCompare() {
+        Portfolio newer = new Portfolio();
+        newer.loadInvestmentsFromFile(after.getPath(), 0);
+        List<String> changed = new ArrayList<>();
+        for (Investment investment : newer.getInvestments()) {
+            Investment previous = older.findInvestmentBySymbol(investment.getSymbol());
+            if (previous == null || previous.getQuantity() != investment.getQuantity()
+                    || previous.getPrice() != investment.getPrice()) {
+                changed.add(investment.getSymbol());
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,112 @@
+package ePortfolio.bench;
+
+import ePortfolio.Portfolio;
+import ePortfolio.ReplayTape;
+import java.io.File;
+import java.util.SplittableRandom;
+
+/**
+ * This builds synthetic portfolios for benchmarks. The same size and seed always give the same portfolio,
+ * so results stay comparable from release to release.
+ */
+public final class PortfolioGenerator {
+    private static final String[] WORDS = {
+        "global", "capital", "energy", "bank", "tech", "health", "growth", "income", "bond", "index",
+        "america", "canada", "europe", "asia", "small", "large", "value", "dividend", "real", "estate"
+    };
+
+    private PortfolioGenerator() {
+    }
+
+    /**
+     * This gets the symbol used for the holding at a given position.
+     *
+     * @param i The position of the holding.
+     * @return The generated symbol.
+     */
+    public static String symbol(int i) {
+        return "SYM" + i;
+    }
+
+    /**
+     * This builds a portfolio of the given size, roughly two thirds stocks and one third mutual funds,
+     * with three word names drawn from a small vocabulary and prices between 1 and 500.
+     *
+     * @param size The number of holdings.
+     * @param seed The random seed.
+     * @return The generated portfolio.
+     */
+    public static Portfolio generate(int size, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Portfolio portfolio = new Portfolio();
+        for (int i = 0; i < size; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                    + " " + WORDS[random.nextInt(WORDS.length)];
+            int quantity = 1 + random.nextInt(10_000);
+            double price = Math.round((1 + random.nextDouble(499)) * 100.0) / 100.0;
+            String type = random.nextInt(3) == 0 ? "mutualfund" : "stock";
+            portfolio.buyInvestment(symbol(i), name, quantity, price, type);
+        }
+        return portfolio;
+    }
+
+    /**
+     * This writes a directory of account files for {@link ePortfolio.PortfolioManager}, named A0.txt,
+     * A1.txt and so on. Each account buys symbols drawn from a shared universe (a symbol drawn twice is
+     * merged into one holding), and a symbol always has the same name, as real accounts holding the same
+     * security would.
+     *
+     * @param directory The directory to write to.
+     * @param accounts  The number of accounts.
+     * @param holdings  The number of purchases per account.
+     * @param universe  The number of distinct symbols to draw from, at least holdings.
+     * @param seed      The random seed.
+     */
+    public static void writeAccounts(File directory, int accounts, int holdings, int universe, long seed) {
+        directory.mkdirs();
+        String[] names = new String[universe];
+        SplittableRandom naming = new SplittableRandom(seed);
+        for (int i = 0; i < universe; i++) {
+            names[i] = WORDS[naming.nextInt(WORDS.length)] + " " + WORDS[naming.nextInt(WORDS.length)]
+                    + " " + WORDS[naming.nextInt(WORDS.length)];
+        }
+        SplittableRandom random = new SplittableRandom(seed + 1);
+        for (int a = 0; a < accounts; a++) {
+            Portfolio portfolio = new Portfolio();
+            for (int h = 0; h < holdings; h++) {
+                int i = random.nextInt(universe);
+                double price = Math.round((1 + random.nextDouble(499)) * 100.0) / 100.0;
+                portfolio.buyInvestment(symbol(i), names[i], 1 + random.nextInt(10_000), price, "stock");
+            }
+            portfolio.saveInvestmentsToFile(new File(directory, "A" + a + ".txt").getPath());
+        }
+    }
+
+    /**
+     * This builds a replay tape that buys every symbol once and then random walks their prices, one tick
+     * every 150 seconds (about a year for 200,000 ticks), each move at most 1% either way.
+     *
+     * @param symbols The number of symbols, SYM0 upwards, bought 100 units each; every third is a mutual fund.
+     * @param ticks   The number of price ticks after the buys.
+     * @param seed    The random seed.
+     * @return The tape.
+     */
+    public static ReplayTape replayTape(int symbols, int ticks, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        ReplayTape.Builder builder = new ReplayTape.Builder();
+        long time = 1_700_000_000_000L;
+        double[] prices = new double[symbols];
+        for (int i = 0; i < symbols; i++) {
+            prices[i] = Math.round((10 + random.nextDouble(90)) * 100.0) / 100.0;
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+            builder.buy(time, symbol(i), name, i % 3 == 2 ? "mutualfund" : "stock", 100, prices[i]);
+        }
+        for (int t = 0; t < ticks; t++) {
+            time += 150_000L;
+            int i = random.nextInt(symbols);
+            prices[i] = Math.max(0.01, Math.round(prices[i] * (1 + random.nextDouble(-0.01, 0.01)) * 100.0) / 100.0);
+            builder.tick(time, symbol(i), prices[i]);
+        }
+        return builder.build();
+    }
+}
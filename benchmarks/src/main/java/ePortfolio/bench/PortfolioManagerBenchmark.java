@@ -0,0 +1,88 @@
+package ePortfolio.bench;
+
+import ePortfolio.PortfolioManager;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This measures account access latency through {@link PortfolioManager} when only part of the accounts
+ * fit the byte budget and accesses follow a Zipfian distribution. Sample time mode reports the
+ * percentiles, where the tail is the page-ins; the paging statistics are printed after each trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PortfolioManagerBenchmark {
+
+    @Param({"5000"})
+    public int accounts;
+
+    @Param({"20"})
+    public int holdings;
+
+    @Param({"5", "25", "100"})
+    public int budgetPercent;
+
+    @Param({"0.99"})
+    public double zipf;
+
+    private File directory;
+    private PortfolioManager manager;
+    private String[] ids;
+    private ZipfianGenerator accessPattern;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("eportfolio-accounts").toFile();
+        PortfolioGenerator.writeAccounts(directory, accounts, holdings, 2_000, 42L);
+        ids = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            ids[i] = "A" + i;
+        }
+
+        // This sizes the budget from the estimate for every account being resident
+        PortfolioManager sizing = new PortfolioManager(directory);
+        for (String id : ids) {
+            sizing.getPortfolio(id);
+        }
+        long budget = Math.max(1, sizing.getResidentBytes() * budgetPercent / 100);
+        manager = new PortfolioManager(directory, budget);
+        accessPattern = new ZipfianGenerator(accounts, zipf, 7L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println();
+        System.out.print(manager.getStatistics());
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public double access() {
+        return manager.getPortfolio(ids[accessPattern.next()]).getTotalMarketValue();
+    }
+}
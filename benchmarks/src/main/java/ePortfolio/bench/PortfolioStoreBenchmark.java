@@ -0,0 +1,100 @@
+package ePortfolio.bench;
+
+import ePortfolio.EmbeddedPortfolioStore;
+import ePortfolio.Portfolio;
+import ePortfolio.PortfolioStore;
+import ePortfolio.TextPortfolioStore;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmarks the cost of making one trade durable and of loading a whole portfolio, for the text
+ * file, which is rewritten whole after each trade, against the embedded database, which appends the
+ * traded holding as a transaction, with and without waiting for the disk on each commit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PortfolioStoreBenchmark {
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"text", "db", "db-nosync"})
+    public String store;
+
+    private File file;
+    private Portfolio portfolio;
+    private PortfolioStore opened;
+    private String[] symbols;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        portfolio = PortfolioGenerator.generate(size, 42L);
+        file = File.createTempFile("eportfolio-store", store.equals("text") ? ".txt" : ".db");
+        if (store.equals("text")) {
+            opened = new TextPortfolioStore(file.getPath());
+        } else {
+            file.delete();  // This lets the database create its own file
+            EmbeddedPortfolioStore database = EmbeddedPortfolioStore.open(file.getPath());
+            database.setSyncOnCommit(store.equals("db"));
+            opened = database;
+        }
+        opened.saveAll(portfolio);
+        portfolio.setStore(opened);
+        symbols = new String[1024];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = PortfolioGenerator.symbol((int) ((i * 2654435761L) % size));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        opened.close();
+        file.delete();
+        new File(file.getPath() + ".lock").delete();
+    }
+
+    /**
+     * This buys one unit and makes it durable: the text store has to rewrite the file, as the command line
+     * does on quit, while the database has already written it.
+     */
+    @Benchmark
+    public String durableTrade() throws IOException {
+        String symbol = symbols[next++ & (symbols.length - 1)];
+        String result = portfolio.buyInvestment(symbol, symbol, 1, 10.0, "stock");
+        if (opened instanceof TextPortfolioStore) {
+            opened.saveAll(portfolio);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public Portfolio fullLoad() throws IOException {
+        Portfolio loaded = new Portfolio();
+        opened.loadInto(loaded);
+        return loaded;
+    }
+}
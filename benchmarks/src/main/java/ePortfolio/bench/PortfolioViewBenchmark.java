@@ -0,0 +1,104 @@
+package ePortfolio.bench;
+
+import ePortfolio.Investment;
+import ePortfolio.Portfolio;
+import ePortfolio.PortfolioView;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmarks taking a {@link PortfolioView} after a price tick, and totalling the book while a feed
+ * thread applies ticks, reading a view against holding the portfolio's lock over the live holdings as
+ * readers had to before.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PortfolioViewBenchmark {
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    private Portfolio portfolio;
+    private String[] symbols;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        portfolio = PortfolioGenerator.generate(size, 42L);
+        symbols = new String[1024];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = PortfolioGenerator.symbol((int) ((i * 2654435761L) % size));
+        }
+    }
+
+    /**
+     * This applies one tick under the portfolio's lock, as a price feed does.
+     */
+    private boolean tick() {
+        String symbol = symbols[next++ & (symbols.length - 1)];
+        synchronized (portfolio) {
+            return portfolio.updatePrice(symbol, 10.0 + (next & 63));
+        }
+    }
+
+    /**
+     * This takes a view after each tick, so the view cannot be reused: the cost does not grow with the
+     * book, only the tick's leaf and its branches are copied on the next tick.
+     */
+    @Benchmark
+    @Group("takeView")
+    public PortfolioView tickThenView() {
+        tick();
+        return portfolio.view();
+    }
+
+    @Benchmark
+    @Group("readView")
+    @GroupThreads(1)
+    public double viewMarketValue() {
+        return portfolio.view().getMarketValue();
+    }
+
+    @Benchmark
+    @Group("readView")
+    @GroupThreads(1)
+    public boolean viewFeed() {
+        return tick();
+    }
+
+    @Benchmark
+    @Group("readLocked")
+    @GroupThreads(1)
+    public double lockedMarketValue() {
+        double total = 0.0;
+        synchronized (portfolio) {  // This keeps ticks out for the whole read, so the total is consistent
+            for (Investment investment : portfolio.getInvestments()) {
+                total += investment.getPrice() * investment.getQuantity();
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    @Group("readLocked")
+    @GroupThreads(1)
+    public boolean lockedFeed() {
+        return tick();
+    }
+}
@@ -0,0 +1,60 @@
+package ePortfolio.bench;
+
+import ePortfolio.Portfolio;
+import ePortfolio.Rebalancer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This measures {@link Rebalancer} planning a move of every generated holding to stock 70% and mutual
+ * funds 30%, and planning plus applying a sell-out of every mutual fund on a fresh copy of the book.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RebalanceBenchmark {
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    private Portfolio portfolio;
+    private Portfolio fresh;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        portfolio = PortfolioGenerator.generate(size, 42L);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpFresh() {
+        fresh = PortfolioGenerator.generate(size, 42L);
+    }
+
+    @Benchmark
+    public Rebalancer.Plan plan() {
+        Rebalancer rebalancer = new Rebalancer(portfolio);
+        rebalancer.setWeights("stock=70% mutualfund=30%");
+        return rebalancer.plan();
+    }
+
+    @Benchmark
+    public int planAndApplySellOut() {
+        Rebalancer rebalancer = new Rebalancer(fresh);
+        rebalancer.setWeights("stock=100% mutualfund=0");
+        return rebalancer.plan().apply().size();
+    }
+}
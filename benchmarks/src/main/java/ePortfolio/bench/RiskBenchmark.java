@@ -0,0 +1,57 @@
+package ePortfolio.bench;
+
+import ePortfolio.RiskSimulator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This measures {@link RiskSimulator} at different numbers of workers, to show how it scales with cores:
+ * with one worker per core the time per simulation should fall close to one over the worker count. The
+ * one factor model is measured, and the Cholesky model with one pair set explicitly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RiskBenchmark {
+
+    @Param({"50"})
+    public int holdings;
+
+    @Param({"1000000"})
+    public int paths;
+
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    @Param({"false", "true"})
+    public boolean fullMatrix;
+
+    private RiskSimulator simulator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        simulator = new RiskSimulator(PortfolioGenerator.generate(holdings, 42L));
+        if (fullMatrix) {
+            simulator.setCorrelation(PortfolioGenerator.symbol(0), PortfolioGenerator.symbol(1), 0.8);
+        }
+    }
+
+    @Benchmark
+    public double simulate() {
+        return simulator.simulate(paths, 42L, workers).getValueAtRisk(0.99);
+    }
+}
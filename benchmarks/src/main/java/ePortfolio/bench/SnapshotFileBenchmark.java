@@ -0,0 +1,74 @@
+package ePortfolio.bench;
+
+import ePortfolio.Investment;
+import ePortfolio.Portfolio;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmarks the time from opening a portfolio to the answer of its first symbol lookup, with
+ * {@link Portfolio#openSnapshotFile(String)} reading only the holding looked up, against loading every
+ * holding from the text file first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SnapshotFileBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private File textFile;
+    private File snapshotFile;
+    private String symbol;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Portfolio portfolio = PortfolioGenerator.generate(size, 42L);
+        textFile = File.createTempFile("eportfolio-lazy", ".txt");
+        snapshotFile = File.createTempFile("eportfolio-lazy", ".snap");
+        portfolio.saveInvestmentsToFile(textFile.getPath());
+        portfolio.saveSnapshotFile(snapshotFile.getPath());
+        symbol = PortfolioGenerator.symbol(size / 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        textFile.delete();
+        snapshotFile.delete();
+    }
+
+    @Benchmark
+    public Investment openSnapshotThenLookup() throws IOException {
+        Portfolio portfolio = new Portfolio();
+        portfolio.openSnapshotFile(snapshotFile.getPath());
+        return portfolio.findInvestmentBySymbol(symbol);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public Investment loadTextThenLookup() {
+        Portfolio portfolio = new Portfolio();
+        portfolio.loadInvestmentsFromFile(textFile.getPath(), 0);
+        return portfolio.findInvestmentBySymbol(symbol);
+    }
+}
@@ -0,0 +1,106 @@
+package ePortfolio.bench;
+
+import ePortfolio.TimeSeries;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This measures the compressed {@link TimeSeries} on a holding value history: a cent-rounded random walk
+ * price times a fixed quantity, sampled at a regular interval with the odd missed sample. The compression
+ * ratio against 16 raw bytes per point is printed after each trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeSeriesBenchmark {
+    private static final int POINTS = 1_000_000;
+    private static final long DAY = 86_400_000L;
+
+    @Param({"1", "60"})
+    public int intervalSeconds;
+
+    private long[] times;
+    private double[] values;
+    private TimeSeries series;
+    private SplittableRandom queries;
+    private double sink;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42L);
+        times = new long[POINTS];
+        values = new double[POINTS];
+        long time = 1_700_000_000_000L;
+        double price = 100.0;
+        for (int i = 0; i < POINTS; i++) {
+            time += intervalSeconds * 1000L * (random.nextInt(100) == 0 ? 2 : 1);  // This skips 1% of samples
+            if (random.nextInt(4) == 0) {  // This leaves the price unchanged for a quarter of the samples
+                price = Math.max(0.01, Math.round((price + random.nextGaussian() * 0.05) * 100.0) / 100.0);
+            }
+            times[i] = time;
+            values[i] = price * 250;
+        }
+        series = encode();
+        queries = new SplittableRandom(7L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        long bytes = series.getCompressedBytes();
+        System.out.printf("%n%,d points over %.0f days: %,d bytes, %.2f bytes/point, %.1fx smaller than raw%n",
+                series.getCount(), (series.getLastTime() - series.getFirstTime()) / (double) DAY, bytes,
+                (double) bytes / series.getCount(), 16.0 * series.getCount() / bytes);
+    }
+
+    private TimeSeries encode() {
+        TimeSeries encoded = new TimeSeries();
+        for (int i = 0; i < POINTS; i++) {
+            encoded.append(times[i], values[i]);
+        }
+        return encoded;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public TimeSeries appendPerPoint() {
+        return encode();
+    }
+
+    @Benchmark
+    public double rangeOneDay() {
+        long from = times[queries.nextInt(POINTS)];
+        sink = 0;
+        series.range(from, from + DAY, (time, value) -> sink += value);
+        return sink;
+    }
+
+    @Benchmark
+    public double rangeEverything() {
+        sink = 0;
+        series.range(Long.MIN_VALUE, Long.MAX_VALUE, (time, value) -> sink += value);
+        return sink;
+    }
+
+    @Benchmark
+    public TimeSeries.Points chartThirtyDays() {
+        long from = times[queries.nextInt(POINTS / 2)];
+        return series.sample(from, from + 30 * DAY, 500);
+    }
+}
@@ -0,0 +1,127 @@
+package ePortfolio.bench;
+
+import ePortfolio.Investment;
+import ePortfolio.Order;
+import ePortfolio.Portfolio;
+import ePortfolio.TradeEngine;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmarks four threads trading in one portfolio, each taking the portfolio's lock per trade,
+ * against publishing the trades to a {@link TradeEngine} that applies them on its writer thread. The mix
+ * is either price updates only, or 40% buys and 40% sells of one unit with 20% updates. The ring's
+ * throughput is what the writer keeps up with, since publishers wait while the ring is full.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TradeEngineBenchmark {
+
+    @Param({"10000"})
+    public int size;
+
+    @Param({"updates", "trades"})
+    public String mix;
+
+    private Portfolio portfolio;
+    private TradeEngine engine;
+    private String[] symbols;
+    private String[] names;
+    private String[] types;
+
+    /**
+     * This is one trading thread's requests, drawn up front so trading allocates nothing.
+     */
+    @State(Scope.Thread)
+    public static class Requests {
+        private static final int COUNT = 1 << 16;
+        final int[] holdings = new int[COUNT];
+        final int[] kinds = new int[COUNT];  // 0 to buy, 1 to sell, 2 to update
+        final double[] prices = new double[COUNT];
+        int next = 0;
+
+        @Setup
+        public void draw(TradeEngineBenchmark benchmark) {
+            SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+            for (int i = 0; i < COUNT; i++) {
+                holdings[i] = random.nextInt(benchmark.size);
+                int kind = random.nextInt(5);
+                kinds[i] = benchmark.mix.equals("updates") ? 2 : kind < 2 ? 0 : kind < 4 ? 1 : 2;
+                prices[i] = Math.round((5 + random.nextDouble(95)) * 100.0) / 100.0 + 0.001;
+            }
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        portfolio = PortfolioGenerator.generate(size, 42L);
+        symbols = new String[size];
+        names = new String[size];
+        types = new String[size];
+        for (int i = 0; i < size; i++) {
+            Investment investment = portfolio.findInvestmentBySymbol(PortfolioGenerator.symbol(i));
+            symbols[i] = investment.getSymbol();
+            names[i] = investment.getName();
+            types[i] = Order.typeOf(investment);
+        }
+        engine = new TradeEngine(portfolio, 1 << 16);
+        engine.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(4)
+    public Object lockPerTrade(Requests requests) {
+        int i = requests.next++ & (Requests.COUNT - 1);
+        int holding = requests.holdings[i];
+        synchronized (portfolio) {
+            switch (requests.kinds[i]) {
+                case 0:
+                    return portfolio.buyInvestment(symbols[holding], names[holding], 1, requests.prices[i], types[holding]);
+                case 1:
+                    return portfolio.sellInvestment(symbols[holding], 1, requests.prices[i]);
+                default:
+                    return portfolio.updatePrice(symbols[holding], requests.prices[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(4)
+    public long publishToRing(Requests requests) {
+        int i = requests.next++ & (Requests.COUNT - 1);
+        int holding = requests.holdings[i];
+        switch (requests.kinds[i]) {
+            case 0:
+                return engine.buy(symbols[holding], names[holding], 1, requests.prices[i], types[holding]);
+            case 1:
+                return engine.sell(symbols[holding], 1, requests.prices[i]);
+            default:
+                return engine.updatePrice(symbols[holding], requests.prices[i]);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ePortfolio.bench;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * This draws ranks from a Zipfian distribution, where rank k is picked with probability proportional
+ * to 1 / (k + 1)^s. Ranks are mapped through a seeded shuffle, so the hot items are spread over the
+ * whole range rather than being the lowest numbers.
+ */
+public final class ZipfianGenerator {
+    private final double[] cumulative;
+    private final int[] items;
+    private final SplittableRandom random;
+
+    /**
+     * This creates a generator over the items 0 to n - 1.
+     *
+     * @param n        The number of items.
+     * @param exponent The skew s; 0 is uniform, around 1 is typical of account activity.
+     * @param seed     The random seed.
+     */
+    public ZipfianGenerator(int n, double exponent, long seed) {
+        random = new SplittableRandom(seed);
+        cumulative = new double[n];
+        double total = 0;
+        for (int k = 0; k < n; k++) {
+            total += 1.0 / Math.pow(k + 1, exponent);
+            cumulative[k] = total;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= total;
+        }
+        items = new int[n];
+        for (int i = 0; i < n; i++) {
+            items[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = items[i];
+            items[i] = items[j];
+            items[j] = swap;
+        }
+    }
+
+    /**
+     * This draws the next item.
+     *
+     * @return An item between 0 and n - 1.
+     */
+    public int next() {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+        rank = rank < 0 ? -rank - 1 : rank;
+        return items[Math.min(rank, items.length - 1)];
+    }
+}
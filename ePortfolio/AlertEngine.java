@@ -0,0 +1,262 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This evaluates stop-loss, take-profit and percentage-move alerts on every price change in a portfolio.
+ * Alert thresholds are indexed per symbol in two sorted maps, one for falls and one for rises, so a price
+ * change only touches the alerts it actually crosses. Each symbol also caches its nearest thresholds as
+ * primitives, so a tick that crosses nothing costs one hash lookup and two comparisons.
+ * <p>
+ * Triggered alerts are removed and delivered to {@link AlertListener}s on a separate thread, so slow
+ * listeners (the CLI or GUI) never hold up price updates.
+ */
+public class AlertEngine implements PriceListener {
+
+    /**
+     * This is told when an alert fires. It runs on the engine's delivery thread.
+     */
+    @FunctionalInterface
+    public interface AlertListener {
+        /**
+         * This is called once when an alert fires.
+         *
+         * @param alert The alert that fired.
+         * @param price The price that triggered it.
+         */
+        void alertTriggered(PriceAlert alert, double price);
+    }
+
+    /**
+     * These are the sorted thresholds for one symbol.
+     */
+    private static final class SymbolAlerts {
+        final TreeMap<Double, List<PriceAlert>> below = new TreeMap<>();  // Fire when price <= key
+        final TreeMap<Double, List<PriceAlert>> above = new TreeMap<>();  // Fire when price >= key
+        double highestBelow = Double.NEGATIVE_INFINITY;  // Cached below.lastKey()
+        double lowestAbove = Double.POSITIVE_INFINITY;  // Cached above.firstKey()
+
+        void refreshBounds() {
+            highestBelow = below.isEmpty() ? Double.NEGATIVE_INFINITY : below.lastKey();
+            lowestAbove = above.isEmpty() ? Double.POSITIVE_INFINITY : above.firstKey();
+        }
+    }
+
+    private final Portfolio portfolio;
+    private final HashMap<String, SymbolAlerts> bySymbol = new HashMap<>();
+    private final HashMap<Long, PriceAlert> byId = new HashMap<>();
+    private final CopyOnWriteArrayList<AlertListener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService delivery = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "alert-delivery");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long nextId = 1;
+    private long triggered = 0;
+
+    /**
+     * This creates an engine watching every holding in the portfolio.
+     *
+     * @param portfolio The portfolio whose price changes are evaluated.
+     */
+    public AlertEngine(Portfolio portfolio) {
+        this.portfolio = portfolio;
+        portfolio.addPriceListener(this);
+    }
+
+    /**
+     * This registers a listener for triggered alerts.
+     *
+     * @param listener The listener to add.
+     */
+    public void addAlertListener(AlertListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * This removes a listener for triggered alerts.
+     *
+     * @param listener The listener to remove.
+     */
+    public void removeAlertListener(AlertListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * This registers a new alert on a held investment. If the current price already crosses the
+     * threshold, the alert fires straight away.
+     *
+     * @param symbol The symbol to watch.
+     * @param kind   The kind of alert.
+     * @param value  The threshold price, or the percentage for {@link PriceAlert.Kind#PERCENT_MOVE}.
+     * @return The registered alert.
+     * @throws IllegalArgumentException if the symbol is not held or the value is not positive.
+     */
+    public synchronized PriceAlert addAlert(String symbol, PriceAlert.Kind kind, double value) {
+        Investment investment = portfolio.findInvestmentBySymbol(symbol);
+        if (investment == null) {
+            throw new IllegalArgumentException("Investment not found: " + symbol);
+        }
+        if (!(value > 0)) {
+            throw new IllegalArgumentException("Alert value must be a positive number.");
+        }
+        String key = symbol.toUpperCase();
+        PriceAlert alert = new PriceAlert(nextId++, key, kind, value, investment.getPrice());
+        SymbolAlerts alerts = bySymbol.computeIfAbsent(key, k -> new SymbolAlerts());
+        double lower = alert.lowerThreshold();
+        double upper = alert.upperThreshold();
+        double price = investment.getPrice();
+        if ((!Double.isNaN(lower) && price <= lower) || (!Double.isNaN(upper) && price >= upper)) {
+            deliver(alert, price);  // This is already crossed
+            return alert;
+        }
+        if (!Double.isNaN(lower)) {
+            alerts.below.computeIfAbsent(lower, k -> new ArrayList<>()).add(alert);
+        }
+        if (!Double.isNaN(upper)) {
+            alerts.above.computeIfAbsent(upper, k -> new ArrayList<>()).add(alert);
+        }
+        alerts.refreshBounds();
+        byId.put(alert.getId(), alert);
+        return alert;
+    }
+
+    /**
+     * This removes an alert that has not fired yet.
+     *
+     * @param id The id of the alert.
+     * @return True if the alert was pending and is now removed.
+     */
+    public synchronized boolean removeAlert(long id) {
+        PriceAlert alert = byId.remove(id);
+        if (alert == null) {
+            return false;
+        }
+        SymbolAlerts alerts = bySymbol.get(alert.getSymbol());
+        removeFrom(alerts.below, alert.lowerThreshold(), alert);
+        removeFrom(alerts.above, alert.upperThreshold(), alert);
+        alerts.refreshBounds();
+        return true;
+    }
+
+    /**
+     * This lists every pending alert.
+     *
+     * @return The alerts that have not fired yet.
+     */
+    public synchronized List<PriceAlert> getAlerts() {
+        return new ArrayList<>(byId.values());
+    }
+
+    /**
+     * This gets the number of pending alerts.
+     *
+     * @return The pending alert count.
+     */
+    public synchronized int getPendingCount() {
+        return byId.size();
+    }
+
+    /**
+     * This gets the number of alerts that have fired.
+     *
+     * @return The triggered alert count.
+     */
+    public synchronized long getTriggeredCount() {
+        return triggered;
+    }
+
+    /**
+     * This evaluates the alerts for one symbol after its price changed.
+     */
+    @Override
+    public synchronized void priceChanged(Investment investment, double oldPrice, double newPrice) {
+        if (bySymbol.isEmpty()) {
+            return;
+        }
+        SymbolAlerts alerts = bySymbol.get(investment.getSymbol().toUpperCase());
+        if (alerts == null || (newPrice > alerts.highestBelow && newPrice < alerts.lowestAbove)) {
+            return;  // Nothing crossed
+        }
+        if (newPrice <= alerts.highestBelow) {
+            fire(alerts.below.tailMap(newPrice, true), alerts.above, true, newPrice);
+        }
+        if (newPrice >= alerts.lowestAbove) {
+            fire(alerts.above.headMap(newPrice, true), alerts.below, false, newPrice);
+        }
+        alerts.refreshBounds();
+    }
+
+    /**
+     * This fires and removes every alert in the crossed part of one side, along with the other side
+     * of any percentage move.
+     */
+    private void fire(NavigableMap<Double, List<PriceAlert>> crossed, TreeMap<Double, List<PriceAlert>> otherSide,
+                      boolean fell, double price) {
+        for (Iterator<Map.Entry<Double, List<PriceAlert>>> it = crossed.entrySet().iterator(); it.hasNext(); ) {
+            for (PriceAlert alert : it.next().getValue()) {
+                if (alert.getKind() == PriceAlert.Kind.PERCENT_MOVE) {
+                    removeFrom(otherSide, fell ? alert.upperThreshold() : alert.lowerThreshold(), alert);
+                }
+                byId.remove(alert.getId());
+                deliver(alert, price);
+            }
+            it.remove();
+        }
+    }
+
+    /**
+     * This removes one alert from the list stored under a threshold.
+     */
+    private static void removeFrom(TreeMap<Double, List<PriceAlert>> side, double threshold, PriceAlert alert) {
+        if (Double.isNaN(threshold)) {
+            return;
+        }
+        List<PriceAlert> list = side.get(threshold);
+        if (list != null) {
+            list.remove(alert);
+            if (list.isEmpty()) {
+                side.remove(threshold);
+            }
+        }
+    }
+
+    /**
+     * This hands a fired alert to the delivery thread.
+     */
+    private void deliver(PriceAlert alert, double price) {
+        triggered++;
+        if (listeners.isEmpty()) {
+            return;
+        }
+        delivery.execute(() -> {
+            for (AlertListener listener : listeners) {
+                listener.alertTriggered(alert, price);
+            }
+        });
+    }
+
+    /**
+     * This waits until every alert fired so far has been delivered.
+     *
+     * @param timeoutMillis The longest time to wait.
+     * @return True if delivery caught up in time.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitDelivery(long timeoutMillis) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        delivery.execute(done::countDown);
+        return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,350 @@
+package ePortfolio;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * This replays a {@link ReplayTape} against a fresh {@link Portfolio} and reports how it did. Ticks
+ * are applied as price changes, and recorded buys and sells, as well as those a {@link Strategy} places,
+ * go through {@link Portfolio#buyInvestment} and {@link Portfolio#sellInvestment}, so stock commissions
+ * and mutual fund redemption fees apply exactly as they do live.
+ * <p>
+ * A backtest runs on one thread with its own portfolio, and its clock is the tape, never the wall clock,
+ * so the same tape and strategy always give the same result. {@link #runAll(List)} runs independent
+ * backtests across cores, for parameter sweeps, and returns the results in the order given.
+ */
+public class Backtester {
+    private static final long DAY = 86_400_000L;
+
+    /**
+     * This decides on trades as the tape is replayed. A strategy object is used by one backtest only, so
+     * it may keep its own state, e.g. in arrays indexed by {@link ReplayTape#symbolIndex(int)}.
+     */
+    @FunctionalInterface
+    public interface Strategy {
+        /**
+         * This is called after each tick has been applied to the portfolio, whether or not it is held.
+         *
+         * @param run         The backtest, for placing trades and reading the portfolio.
+         * @param symbolIndex The tape position of the symbol that ticked.
+         * @param price       The new price.
+         */
+        void onTick(Run run, int symbolIndex, double price);
+    }
+
+    /** This is the strategy that only replays the recorded trades. */
+    public static final Strategy REPLAY_ONLY = new Strategy() {
+        @Override
+        public void onTick(Run run, int symbolIndex, double price) {
+        }
+
+        @Override
+        public String toString() {
+            return "replay";
+        }
+    };
+
+    private final ReplayTape tape;
+
+    /**
+     * This creates a backtester over a tape.
+     *
+     * @param tape The recorded ticks and trades.
+     */
+    public Backtester(ReplayTape tape) {
+        this.tape = tape;
+    }
+
+    /**
+     * This runs one backtest on the calling thread.
+     *
+     * @param strategy The strategy, or {@link #REPLAY_ONLY}.
+     * @return The result.
+     */
+    public Result run(Strategy strategy) {
+        Run run = new Run(tape);
+        PerformanceAnalytics analytics = new PerformanceAnalytics(run::getTime, DAY, 20);
+        analytics.track(run.portfolio);
+        long ticks = 0;
+        for (int i = 0, size = tape.size(); i < size; i++) {
+            run.time = tape.time(i);
+            int symbolIndex = tape.symbolIndex(i);
+            switch (tape.kind(i)) {
+                case ReplayTape.TICK:
+                    Investment holding = run.holdings[symbolIndex];
+                    if (holding != null) {
+                        holding.setPrice(tape.price(i));  // This is the same notification path as a live feed
+                    }
+                    ticks++;
+                    strategy.onTick(run, symbolIndex, tape.price(i));
+                    break;
+                case ReplayTape.BUY:
+                    run.buy(symbolIndex, tape.name(i), tape.type(i), tape.quantity(i), tape.price(i));
+                    break;
+                default:
+                    run.sell(symbolIndex, tape.quantity(i), tape.price(i));
+                    break;
+            }
+        }
+        analytics.untrack(run.portfolio);
+        return new Result(String.valueOf(strategy), run, ticks, analytics);
+    }
+
+    /**
+     * This runs one backtest per strategy in parallel on the common fork join pool.
+     *
+     * @param strategies The strategies, each used by one backtest only.
+     * @return The results, in the same order as the strategies.
+     */
+    public List<Result> runAll(List<? extends Strategy> strategies) {
+        return IntStream.range(0, strategies.size()).parallel()
+                .mapToObj(i -> run(strategies.get(i)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * This is one backtest in progress, passed to the strategy so it can trade and look at the portfolio.
+     */
+    public static final class Run {
+        private final ReplayTape tape;
+        private final Portfolio portfolio = new Portfolio();
+        private final Investment[] holdings;  // Held investment by tape symbol position, refreshed on each trade
+        private long time;
+        private int trades = 0;
+        private int rejectedTrades = 0;
+
+        Run(ReplayTape tape) {
+            this.tape = tape;
+            this.holdings = new Investment[tape.symbolCount()];
+        }
+
+        /**
+         * This buys through {@link Portfolio#buyInvestment}, adding to the holding if there is one.
+         *
+         * @param symbolIndex The tape position of the symbol.
+         * @param name        The investment name, used when the holding is new.
+         * @param type        "stock" or "mutualfund", used when the holding is new.
+         * @param quantity    The quantity to buy.
+         * @param price       The price per unit.
+         * @return True if the quantity was bought, false if the portfolio rejected the trade.
+         */
+        public boolean buy(int symbolIndex, String name, String type, int quantity, double price) {
+            int before = getQuantity(symbolIndex);
+            portfolio.buyInvestment(tape.symbol(symbolIndex), name, quantity, price, type);
+            return traded(symbolIndex, getQuantityAfterTrade(symbolIndex) > before);
+        }
+
+        /**
+         * This sells through {@link Portfolio#sellInvestment}.
+         *
+         * @param symbolIndex The tape position of the symbol.
+         * @param quantity    The quantity to sell.
+         * @param price       The price per unit.
+         * @return True if the quantity was sold, false if the portfolio rejected the trade.
+         */
+        public boolean sell(int symbolIndex, int quantity, double price) {
+            int before = getQuantity(symbolIndex);
+            portfolio.sellInvestment(tape.symbol(symbolIndex), quantity, price);
+            return traded(symbolIndex, getQuantityAfterTrade(symbolIndex) < before);
+        }
+
+        /**
+         * This looks the holding up again after a trade, which may have added or removed it.
+         */
+        private int getQuantityAfterTrade(int symbolIndex) {
+            holdings[symbolIndex] = portfolio.findInvestmentBySymbol(tape.symbol(symbolIndex));
+            return getQuantity(symbolIndex);
+        }
+
+        /**
+         * This counts a trade.
+         */
+        private boolean traded(int symbolIndex, boolean done) {
+            if (done) {
+                trades++;
+            } else {
+                rejectedTrades++;
+            }
+            return done;
+        }
+
+        /**
+         * This gets the quantity held of a symbol.
+         *
+         * @param symbolIndex The tape position of the symbol.
+         * @return The quantity, 0 if it is not held.
+         */
+        public int getQuantity(int symbolIndex) {
+            Investment holding = holdings[symbolIndex];
+            return holding == null ? 0 : holding.getQuantity();
+        }
+
+        /**
+         * This gets the portfolio being traded. Trades must go through {@link #buy} and {@link #sell}.
+         *
+         * @return The backtest's portfolio.
+         */
+        public Portfolio getPortfolio() {
+            return portfolio;
+        }
+
+        /**
+         * This gets the tape being replayed, e.g. for symbol names.
+         *
+         * @return The tape.
+         */
+        public ReplayTape getTape() {
+            return tape;
+        }
+
+        /**
+         * This gets the time of the event being replayed.
+         *
+         * @return The tape time in milliseconds since the epoch.
+         */
+        public long getTime() {
+            return time;
+        }
+    }
+
+    /**
+     * This is the outcome of one backtest.
+     */
+    public static final class Result {
+        private final String strategy;
+        private final long ticks;
+        private final int trades;
+        private final int rejectedTrades;
+        private final double realizedGain;
+        private final double unrealizedGain;
+        private final double marketValue;
+        private final double timeWeightedReturn;
+        private final double maxDrawdown;
+        private final double volatility;
+
+        Result(String strategy, Run run, long ticks, PerformanceAnalytics analytics) {
+            this.strategy = strategy;
+            this.ticks = ticks;
+            this.trades = run.trades;
+            this.rejectedTrades = run.rejectedTrades;
+            this.realizedGain = run.portfolio.getRealizedGain();
+            double unrealized = 0.0;
+            for (Investment investment : run.portfolio.getInvestments()) {
+                unrealized += investment.getGain();  // This is the gain if sold now, after fees
+            }
+            this.unrealizedGain = unrealized;
+            this.marketValue = run.portfolio.getTotalMarketValue();
+            this.timeWeightedReturn = analytics.getTimeWeightedReturn();
+            this.maxDrawdown = analytics.getMaxDrawdown();
+            this.volatility = analytics.getAnnualizedVolatility();
+        }
+
+        /**
+         * This gets the strategy's description.
+         *
+         * @return The strategy's toString.
+         */
+        public String getStrategy() {
+            return strategy;
+        }
+
+        /**
+         * This gets the number of ticks replayed.
+         *
+         * @return The tick count.
+         */
+        public long getTicks() {
+            return ticks;
+        }
+
+        /**
+         * This gets the number of trades done.
+         *
+         * @return The trade count.
+         */
+        public int getTrades() {
+            return trades;
+        }
+
+        /**
+         * This gets the number of trades the portfolio rejected, e.g. selling more than held.
+         *
+         * @return The rejected trade count.
+         */
+        public int getRejectedTrades() {
+            return rejectedTrades;
+        }
+
+        /**
+         * This gets the gain realized by sales, after fees.
+         *
+         * @return The realized gain.
+         */
+        public double getRealizedGain() {
+            return realizedGain;
+        }
+
+        /**
+         * This gets the gain the holdings left at the end would make if sold at the last price, after fees.
+         *
+         * @return The unrealized gain.
+         */
+        public double getUnrealizedGain() {
+            return unrealizedGain;
+        }
+
+        /**
+         * This gets the realized plus unrealized gain.
+         *
+         * @return The total gain.
+         */
+        public double getTotalGain() {
+            return realizedGain + unrealizedGain;
+        }
+
+        /**
+         * This gets the market value of the holdings left at the end.
+         *
+         * @return The market value.
+         */
+        public double getMarketValue() {
+            return marketValue;
+        }
+
+        /**
+         * This gets the time-weighted return over the tape.
+         *
+         * @return The return, e.g. 0.05 for 5%.
+         */
+        public double getTimeWeightedReturn() {
+            return timeWeightedReturn;
+        }
+
+        /**
+         * This gets the largest fall from a peak over the tape.
+         *
+         * @return The maximum drawdown, e.g. 0.2 for 20%.
+         */
+        public double getMaxDrawdown() {
+            return maxDrawdown;
+        }
+
+        /**
+         * This gets the annualized volatility of daily returns over the last 20 days of the tape.
+         *
+         * @return The volatility, or NaN if the tape spans fewer than three days.
+         */
+        public double getVolatility() {
+            return volatility;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: gain $%,.2f (realized $%,.2f, unrealized $%,.2f), market value $%,.2f, "
+                    + "return %.2f%%, max drawdown %.2f%%, %d trades (%d rejected), %,d ticks",
+                    strategy, getTotalGain(), realizedGain, unrealizedGain, marketValue,
+                    timeWeightedReturn * 100, maxDrawdown * 100, trades, rejectedTrades, ticks);
+        }
+    }
+}
@@ -0,0 +1,749 @@
+package ePortfolio;
+
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This imports holdings from broker statements and exports them for other systems, as CSV or JSON Lines.
+ * Records are read and written one at a time through a fixed buffer, so a statement of any size is
+ * ingested with the same memory, apart from the holdings it adds.
+ * <p>
+ * Each record is one holding with the fields type ("stock" or "mutualfund"), symbol, name, quantity,
+ * price and, optionally, bookValue. A CSV file may start with a header naming these columns in any
+ * order, with other columns ignored; without one the columns are in that order. A JSON Lines file has
+ * one object per line with these keys. Every record is checked by the same rules as the
+ * {@link Investment} constructor, and a bad record is counted and reported by line number without
+ * stopping the import. A record for a symbol already held of the same type is added to it as another
+ * lot, as a statement lists each purchase.
+ */
+public final class BulkTransfer {
+    private static final int MAX_RECORD_LENGTH = 65_536;  // Longer records are rejected, not buffered
+    private static final int MAX_REPORTED_ERRORS = 100;  // Bad records after these are only counted
+    private static final String[] FIELDS = {"type", "symbol", "name", "quantity", "price", "bookvalue"};
+    private static final int TYPE = 0;
+    private static final int SYMBOL = 1;
+    private static final int NAME = 2;
+    private static final int QUANTITY = 3;
+    private static final int PRICE = 4;
+    private static final int BOOK_VALUE = 5;
+
+    /**
+     * This is a file format for import and export.
+     */
+    public enum Format {
+        CSV, JSON_LINES;
+
+        /**
+         * This picks the format from a file name, JSON Lines for .jsonl, .ndjson and .json, CSV otherwise.
+         *
+         * @param filename The file name.
+         * @return The format.
+         */
+        public static Format forFile(String filename) {
+            String lower = filename.toLowerCase();
+            return lower.endsWith(".jsonl") || lower.endsWith(".ndjson") || lower.endsWith(".json") ? JSON_LINES : CSV;
+        }
+    }
+
+    private BulkTransfer() {
+    }
+
+    /**
+     * This imports a file into a portfolio, in the format its name implies.
+     *
+     * @param portfolio The portfolio to add the holdings to.
+     * @param filename  The file to read, in UTF-8.
+     * @return The counts of records read, added and rejected, with the first bad records.
+     * @throws IOException if the file cannot be read, or a CSV header lacks a required column.
+     */
+    public static Report importFile(Portfolio portfolio, String filename) throws IOException {
+        PersistenceEvent event = PersistenceEvent.start();
+        Report report = null;
+        try (Reader reader = new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8)) {
+            report = importFrom(portfolio, reader, Format.forFile(filename));
+            return report;
+        } finally {
+            if (event != null) {
+                event.finish("import", filename, report == null ? 0 : (int) Math.min(report.added + report.merged, Integer.MAX_VALUE));
+            }
+        }
+    }
+
+    /**
+     * This imports records from a reader into a portfolio. The reader is not closed.
+     *
+     * @param portfolio The portfolio to add the holdings to.
+     * @param reader    The records.
+     * @param format    The format of the records.
+     * @return The counts of records read, added and rejected, with the first bad records.
+     * @throws IOException if the reader fails, or a CSV header lacks a required column.
+     */
+    public static Report importFrom(Portfolio portfolio, Reader reader, Format format) throws IOException {
+        RecordReader records = new RecordReader(reader);
+        Report report = new Report();
+        String[] values = new String[FIELDS.length];
+        if (format == Format.CSV) {
+            int[] columns = {0, 1, 2, 3, 4, 5};  // This is the position of each field, -1 if absent
+            boolean first = true;
+            List<String> fields = new ArrayList<>();
+            while (true) {
+                String error = records.nextCsv(fields);
+                if (error == null && fields.isEmpty()) {
+                    break;  // This is the end of the input
+                }
+                if (error == null && fields.size() == 1 && fields.get(0).isEmpty()) {
+                    continue;  // This is a blank line
+                }
+                if (error == null && first && isHeader(fields)) {
+                    columns = headerColumns(fields);
+                    first = false;
+                    continue;
+                }
+                first = false;
+                report.rows++;
+                if (error == null) {
+                    for (int i = 0; i < FIELDS.length; i++) {
+                        values[i] = columns[i] >= 0 && columns[i] < fields.size() ? fields.get(columns[i]) : null;
+                    }
+                    error = add(portfolio, values, report);
+                }
+                if (error != null) {
+                    report.reject(records.getRecordLine(), error);
+                }
+            }
+        } else {
+            StringBuilder line = new StringBuilder();
+            while (true) {
+                String error = records.nextLine(line);
+                if (error == null && line.length() == 0 && records.isAtEnd()) {
+                    break;
+                }
+                if (error == null && isBlank(line)) {
+                    continue;
+                }
+                report.rows++;
+                if (error == null) {
+                    error = parseJson(line, values);
+                }
+                if (error == null) {
+                    error = add(portfolio, values, report);
+                }
+                if (error != null) {
+                    report.reject(records.getRecordLine(), error);
+                }
+            }
+        }
+        return report;
+    }
+
+    /**
+     * This exports every holding of a portfolio to a file, in the format its name implies.
+     *
+     * @param portfolio The portfolio to export.
+     * @param filename  The file to write, in UTF-8, replacing any file of that name.
+     * @return The number of holdings written.
+     * @throws IOException if the file cannot be written.
+     */
+    public static int exportFile(Portfolio portfolio, String filename) throws IOException {
+        PersistenceEvent event = PersistenceEvent.start();
+        int records = 0;
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(filename), StandardCharsets.UTF_8)) {
+            records = exportTo(portfolio, writer, Format.forFile(filename));
+            return records;
+        } finally {
+            if (event != null) {
+                event.finish("export", filename, records);
+            }
+        }
+    }
+
+    /**
+     * This exports every holding of a portfolio to a writer, which is flushed but not closed. Numbers are
+     * written in full so an import of the output gives back the same holdings.
+     *
+     * @param portfolio The portfolio to export.
+     * @param writer    Where to write the records.
+     * @param format    The format to write.
+     * @return The number of holdings written.
+     * @throws IOException if the writer fails.
+     */
+    public static int exportTo(Portfolio portfolio, Writer writer, Format format) throws IOException {
+        BufferedWriter out = new BufferedWriter(writer, MAX_RECORD_LENGTH);
+        StringBuilder record = new StringBuilder(256);
+        PortfolioView view;
+        synchronized (portfolio) {  // This is the lock price feeds hold while applying ticks, held only to take the view
+            view = portfolio.view();
+        }
+        if (format == Format.CSV) {
+            out.write("type,symbol,name,quantity,price,bookValue\n");
+        }
+        for (int i = 0; i < view.size(); i++) {
+            record.setLength(0);
+            if (format == Format.CSV) {
+                record.append(view.getType(i)).append(',');
+                appendCsv(record, view.getSymbol(i)).append(',');
+                appendCsv(record, view.getName(i)).append(',');
+                record.append(view.getQuantity(i)).append(',')
+                        .append(view.getPrice(i)).append(',')
+                        .append(view.getBookValue(i)).append('\n');
+            } else {
+                record.append("{\"type\":\"").append(view.getType(i)).append("\",\"symbol\":");
+                appendJson(record, view.getSymbol(i)).append(",\"name\":");
+                appendJson(record, view.getName(i)).append(",\"quantity\":")
+                        .append(view.getQuantity(i)).append(",\"price\":")
+                        .append(view.getPrice(i)).append(",\"bookValue\":")
+                        .append(view.getBookValue(i)).append("}\n");
+            }
+            out.append(record);
+        }
+        out.flush();
+        return view.size();
+    }
+
+    /**
+     * This checks one record and adds it to the portfolio, as a new holding or a lot of a held one.
+     *
+     * @return Null if it was added, otherwise why not.
+     */
+    private static String add(Portfolio portfolio, String[] values, Report report) {
+        String type = values[TYPE] == null ? "" : values[TYPE];
+        if (!type.equalsIgnoreCase("stock") && !type.equalsIgnoreCase("mutualfund")) {
+            return "type must be stock or mutualfund, not \"" + type + "\"";
+        }
+        int quantity;
+        double price;
+        double bookValue = Double.NaN;  // This is NaN when the record leaves it to the constructor
+        try {
+            quantity = parseWhole(required(values[QUANTITY], "quantity"), "quantity");
+            price = parseFinite(required(values[PRICE], "price"), "price");
+            if (values[BOOK_VALUE] != null && !values[BOOK_VALUE].isEmpty()) {
+                bookValue = parseFinite(values[BOOK_VALUE], "bookValue");
+                if (bookValue < 0) {
+                    return "bookValue must be zero or a positive value";
+                }
+            }
+        } catch (NumberFormatException e) {
+            return e.getMessage();
+        }
+        Investment investment;
+        try {
+            // This applies exactly the rules of the Investment constructor
+            investment = type.equalsIgnoreCase("stock")
+                    ? new Stock(values[SYMBOL], values[NAME], quantity, price)
+                    : new MutualFund(values[SYMBOL], values[NAME], quantity, price);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+        if (!Double.isNaN(bookValue)) {
+            investment.setBookValue(bookValue);
+        }
+        synchronized (portfolio) {  // This is the lock price feeds hold while applying ticks
+            Investment held = portfolio.findInvestmentBySymbol(investment.getSymbol());
+            if (held == null) {
+                portfolio.addInvestment(investment);
+                report.added++;
+                return null;
+            }
+            if (!Order.typeOf(held).equals(Order.typeOf(investment))) {
+                return investment.getSymbol() + " is already held as a " + Order.typeOf(held);
+            }
+            if (quantity > Integer.MAX_VALUE - held.getQuantity()) {
+                return "the total quantity of " + investment.getSymbol() + " would be too large";
+            }
+            held.setQuantity(held.getQuantity() + quantity);
+            held.setPrice(price);  // This is the latest price known for the holding
+            held.setBookValue(held.getBookValue() + investment.getBookValue());
+            report.merged++;
+            return null;
+        }
+    }
+
+    static String required(String value, String field) {
+        if (value == null || value.isEmpty()) {
+            throw new NumberFormatException(field + " is missing");
+        }
+        return value;
+    }
+
+    static int parseWhole(String value, String field) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException(field + " is not a whole number: \"" + value + "\"");
+        }
+    }
+
+    static double parseFinite(String value, String field) {
+        double number;
+        try {
+            number = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException(field + " is not a number: \"" + value + "\"");
+        }
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+            throw new NumberFormatException(field + " is not a finite number: \"" + value + "\"");
+        }
+        return number;
+    }
+
+    /**
+     * This decides whether the first CSV record is a header, which names a symbol column.
+     */
+    private static boolean isHeader(List<String> fields) {
+        for (String field : fields) {
+            if (field.equalsIgnoreCase("symbol")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This finds the position of each field in a CSV header, ignoring case, spaces and underscores.
+     */
+    private static int[] headerColumns(List<String> header) throws IOException {
+        int[] columns = new int[FIELDS.length];
+        for (int i = 0; i < FIELDS.length; i++) {
+            columns[i] = -1;
+            for (int column = 0; column < header.size(); column++) {
+                String name = header.get(column).toLowerCase().replace(" ", "").replace("_", "");
+                if (name.equals(FIELDS[i])) {
+                    columns[i] = column;
+                    break;
+                }
+            }
+            if (columns[i] < 0 && i != BOOK_VALUE) {
+                throw new IOException("The header has no " + FIELDS[i] + " column.");
+            }
+        }
+        return columns;
+    }
+
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This parses one flat JSON object into the field values, ignoring keys it does not know. Strings and
+     * numbers are both accepted for every field, as text.
+     *
+     * @return Null if it parsed, otherwise why not.
+     */
+    private static String parseJson(CharSequence line, String[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        JsonCursor cursor = new JsonCursor(line);
+        try {
+            cursor.expect('{');
+            if (cursor.peek() == '}') {
+                cursor.position++;
+            } else {
+                while (true) {
+                    String key = cursor.string();
+                    cursor.expect(':');
+                    String value = cursor.value();
+                    for (int i = 0; i < FIELDS.length; i++) {
+                        if (FIELDS[i].equalsIgnoreCase(key)) {
+                            values[i] = value;
+                        }
+                    }
+                    char next = cursor.next();
+                    if (next == '}') {
+                        break;
+                    }
+                    if (next != ',') {
+                        throw new IllegalArgumentException("expected , or } at column " + cursor.position);
+                    }
+                }
+            }
+            if (cursor.peek() != 0) {
+                throw new IllegalArgumentException("unexpected text after the object at column " + (cursor.position + 1));
+            }
+        } catch (IllegalArgumentException e) {
+            return "invalid JSON, " + e.getMessage();
+        }
+        return null;
+    }
+
+    static StringBuilder appendCsv(StringBuilder record, String value) {
+        boolean quote = value.isEmpty() || Character.isWhitespace(value.charAt(0))
+                || Character.isWhitespace(value.charAt(value.length() - 1));
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            return record.append(value);
+        }
+        record.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                record.append('"');
+            }
+            record.append(c);
+        }
+        return record.append('"');
+    }
+
+    private static StringBuilder appendJson(StringBuilder record, String value) {
+        record.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                record.append('\\').append(c);
+            } else if (c == '\n') {
+                record.append("\\n");
+            } else if (c == '\r') {
+                record.append("\\r");
+            } else if (c == '\t') {
+                record.append("\\t");
+            } else if (c < 0x20) {
+                record.append(String.format("\\u%04x", (int) c));
+            } else {
+                record.append(c);
+            }
+        }
+        return record.append('"');
+    }
+
+    /**
+     * This reads CSV records or lines through one fixed buffer, and keeps the line number each began on.
+     * {@link PortfolioDiff} reads diff files with it too.
+     */
+    static final class RecordReader {
+        private final Reader in;
+        private final char[] buffer = new char[8192];
+        private int position = 0;
+        private int limit = 0;
+        private boolean atEnd = false;
+        private long line = 1;  // The line the next character is on
+        private long recordLine = 0;
+        private final StringBuilder field = new StringBuilder();
+
+        RecordReader(Reader in) {
+            this.in = in;
+        }
+
+        private int read() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    atEnd = true;
+                    return -1;
+                }
+            }
+            char c = buffer[position++];
+            if (c == '\n') {
+                line++;
+            }
+            return c;
+        }
+
+        private int peek() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position];
+        }
+
+        /**
+         * This skips the rest of a record that is too long to keep.
+         */
+        private String skipLine() throws IOException {
+            int c;
+            do {
+                c = read();
+            } while (c != '\n' && c != -1);
+            return "record is longer than " + MAX_RECORD_LENGTH + " characters";
+        }
+
+        /**
+         * This reads the next CSV record into fields, with RFC 4180 quoting. Quoted fields may hold commas,
+         * doubled quotes and line breaks, and unquoted fields are trimmed.
+         *
+         * @return Null if a record was read or the input ended, which leaves fields empty, otherwise why
+         *         the record was skipped.
+         */
+        String nextCsv(List<String> fields) throws IOException {
+            fields.clear();
+            field.setLength(0);
+            recordLine = line;
+            int length = 0;
+            boolean quoted = false;
+            boolean wasQuoted = false;
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            while (true) {
+                if (++length > MAX_RECORD_LENGTH) {
+                    return c == '\n' ? "record is longer than " + MAX_RECORD_LENGTH + " characters" : skipLine();
+                }
+                if (quoted) {
+                    if (c == -1) {
+                        return "a quoted field is not closed";
+                    }
+                    if (c == '"') {
+                        if (peek() == '"') {
+                            read();
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == ',' || c == '\n' || c == -1) {
+                    fields.add(wasQuoted ? field.toString() : field.toString().trim());
+                    field.setLength(0);
+                    wasQuoted = false;
+                    if (c != ',') {
+                        return null;
+                    }
+                } else if (c == '"' && isBlank(field)) {
+                    field.setLength(0);
+                    quoted = true;
+                    wasQuoted = true;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        /**
+         * This reads the next line, without its line break.
+         *
+         * @return Null if a line was read, or the input ended leaving line empty, otherwise why the line
+         *         was skipped.
+         */
+        String nextLine(StringBuilder text) throws IOException {
+            text.setLength(0);
+            recordLine = line;
+            int c;
+            while ((c = read()) != '\n' && c != -1) {
+                if (text.length() == MAX_RECORD_LENGTH) {
+                    return skipLine();
+                }
+                if (c != '\r') {
+                    text.append((char) c);
+                }
+            }
+            return null;
+        }
+
+        boolean isAtEnd() {
+            return atEnd;
+        }
+
+        long getRecordLine() {
+            return recordLine;
+        }
+    }
+
+    /**
+     * This walks one JSON object, throwing IllegalArgumentException at the first thing it cannot read.
+     */
+    private static final class JsonCursor {
+        private final CharSequence text;
+        private int position = 0;
+
+        JsonCursor(CharSequence text) {
+            this.text = text;
+        }
+
+        /**
+         * This gets the next character that is not white space without moving past it, 0 at the end.
+         */
+        char peek() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+            return position < text.length() ? text.charAt(position) : 0;
+        }
+
+        char next() {
+            char c = peek();
+            if (c == 0) {
+                throw new IllegalArgumentException("the line ends inside the object");
+            }
+            position++;
+            return c;
+        }
+
+        void expect(char expected) {
+            if (next() != expected) {
+                throw new IllegalArgumentException("expected " + expected + " at column " + position);
+            }
+        }
+
+        /**
+         * This reads a string, number, true, false or null as text, null for a JSON null.
+         */
+        String value() {
+            char c = peek();
+            if (c == '"') {
+                return string();
+            }
+            if (c == '{' || c == '[') {
+                throw new IllegalArgumentException("nested values are not supported, at column " + (position + 1));
+            }
+            int start = position;
+            while (position < text.length() && ",}] \t\r\n".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            if (start == position) {
+                throw new IllegalArgumentException("expected a value at column " + (start + 1));
+            }
+            String literal = text.subSequence(start, position).toString();
+            return literal.equals("null") ? null : literal;
+        }
+
+        String string() {
+            if (next() != '"') {
+                throw new IllegalArgumentException("expected a string at column " + position);
+            }
+            StringBuilder value = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position == text.length()) {
+                    break;
+                }
+                char escape = text.charAt(position++);
+                switch (escape) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("incomplete \\u escape at column " + position);
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.subSequence(position, position + 4).toString(), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("invalid \\u escape at column " + position);
+                        }
+                        position += 4;
+                        break;
+                    default: value.append(escape); break;  // This covers \" \\ and \/
+                }
+            }
+            throw new IllegalArgumentException("a string is not closed");
+        }
+    }
+
+    /**
+     * This is the outcome of an import. Only the first 100 bad records are kept, so the report stays
+     * small however many records are rejected.
+     */
+    public static final class Report {
+        private long rows = 0;
+        private long added = 0;
+        private long merged = 0;
+        private long rejected = 0;
+        private final List<String> errors = new ArrayList<>();
+
+        private void reject(long line, String error) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add("line " + line + ": " + error);
+            }
+        }
+
+        /**
+         * This gets the number of records read, good or bad, not counting a header or blank lines.
+         *
+         * @return The record count.
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * This gets the number of records that became new holdings.
+         *
+         * @return The count of holdings added.
+         */
+        public long getAdded() {
+            return added;
+        }
+
+        /**
+         * This gets the number of records added as another lot of a holding already in the portfolio.
+         *
+         * @return The count of lots merged.
+         */
+        public long getMerged() {
+            return merged;
+        }
+
+        /**
+         * This gets the number of bad records, which were left out.
+         *
+         * @return The rejected count.
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * This gets the first bad records, each as "line N: reason".
+         *
+         * @return Up to 100 errors, in file order.
+         */
+        public List<String> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+
+        /**
+         * This describes the import for display.
+         *
+         * @return The counts followed by the errors kept, one per line.
+         */
+        public String getReport() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("Read %,d records: %,d holdings added, %,d lots merged, %,d rejected.%n",
+                    rows, added, merged, rejected));
+            for (String error : errors) {
+                report.append("  ").append(error).append(System.lineSeparator());
+            }
+            if (rejected > errors.size()) {
+                report.append(String.format("  ... and %,d more rejected records%n", rejected - errors.size()));
+            }
+            return report.toString();
+        }
+    }
+}
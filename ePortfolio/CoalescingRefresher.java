@@ -0,0 +1,91 @@
+package ePortfolio;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
+
+/**
+ * This is a price listener that turns any number of change events into at most one refresh per frame.
+ * The first event after a refresh schedules the next one; later events in the same frame only mark it
+ * pending. The refresh runs on the given executor, e.g. the Swing event thread.
+ */
+public class CoalescingRefresher implements PriceListener {
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "coalescing-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long frameNanos;
+    private final Runnable refresh;
+    private final Executor deliverOn;
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+    private volatile long lastRefreshNanos = System.nanoTime() - Long.MAX_VALUE / 2;
+    private volatile long refreshCount = 0;
+
+    /**
+     * This creates a refresher that delivers on the given executor.
+     *
+     * @param frameMillis The shortest time between two refreshes.
+     * @param refresh     The refresh to run.
+     * @param deliverOn   The executor to run the refresh on.
+     */
+    public CoalescingRefresher(long frameMillis, Runnable refresh, Executor deliverOn) {
+        this.frameNanos = TimeUnit.MILLISECONDS.toNanos(frameMillis);
+        this.refresh = refresh;
+        this.deliverOn = deliverOn;
+    }
+
+    /**
+     * This creates a refresher for a Swing view, running at most one refresh per 60Hz frame on the event thread.
+     *
+     * @param refresh The view refresh to run.
+     * @return The refresher.
+     */
+    public static CoalescingRefresher forSwing(Runnable refresh) {
+        return new CoalescingRefresher(16, refresh, SwingUtilities::invokeLater);
+    }
+
+    @Override
+    public void priceChanged(Investment investment, double oldPrice, double newPrice) {
+        requestRefresh();
+    }
+
+    @Override
+    public void quantityChanged(Investment investment, int oldQuantity, int newQuantity) {
+        requestRefresh();
+    }
+
+    /**
+     * This asks for a refresh. Requests made while one is already pending are merged into it.
+     */
+    public void requestRefresh() {
+        if (!pending.compareAndSet(false, true)) {
+            return;  // A refresh is already on its way
+        }
+        long wait = lastRefreshNanos + frameNanos - System.nanoTime();
+        SCHEDULER.schedule(() -> deliverOn.execute(this::runRefresh), Math.max(0, wait), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * This runs the refresh, clearing the pending flag first so changes made during it schedule another.
+     */
+    private void runRefresh() {
+        pending.set(false);
+        lastRefreshNanos = System.nanoTime();
+        refreshCount++;
+        refresh.run();
+    }
+
+    /**
+     * This gets how many refreshes have actually run.
+     *
+     * @return The refresh count.
+     */
+    public long getRefreshCount() {
+        return refreshCount;
+    }
+}
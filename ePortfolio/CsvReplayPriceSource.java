@@ -0,0 +1,66 @@
+package ePortfolio;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * This replays recorded ticks from a CSV file, one tick per line, in file order.
+ * Each line is either {@code symbol,price} or {@code timestamp,symbol,price}; the timestamp is ignored.
+ * Blank lines, lines starting with '#' and a header line are skipped.
+ */
+public class CsvReplayPriceSource implements PriceSource {
+    private final BufferedReader reader;
+    private final String filename;
+    private long lineNumber = 0;
+
+    /**
+     * This opens a CSV file for replay.
+     *
+     * @param filename The file to read ticks from.
+     * @throws IOException if the file cannot be opened.
+     */
+    public CsvReplayPriceSource(String filename) throws IOException {
+        this.filename = filename;
+        this.reader = new BufferedReader(new FileReader(filename));
+    }
+
+    @Override
+    public boolean nextTick(Sink sink) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            if (fields.length < 2) {
+                throw new IOException(filename + " line " + lineNumber + ": expected symbol,price");
+            }
+            String symbol = fields[fields.length - 2].trim();
+            String priceText = fields[fields.length - 1].trim();
+            double price;
+            try {
+                price = Double.parseDouble(priceText);
+            } catch (NumberFormatException e) {
+                if (lineNumber == 1) {
+                    continue;  // This is the header line
+                }
+                throw new IOException(filename + " line " + lineNumber + ": invalid price '" + priceText + "'");
+            }
+            if (!(price >= 0) || Double.isInfinite(price)) {
+                throw new IOException(filename + " line " + lineNumber + ": price must be zero or a positive value, not '"
+                        + priceText + "'");
+            }
+            sink.onTick(symbol, price);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,723 @@
+package ePortfolio;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * This is a local database file for a portfolio, a {@link PortfolioStore} that writes each trade as a
+ * transaction instead of rewriting the whole portfolio.
+ * <p>
+ * The file is a log: each transaction appends the new state of the holdings it changed (or their
+ * removal) and then a commit record with a CRC32 of those bytes, written in one call and, unless
+ * {@link #setSyncOnCommit(boolean) turned off}, forced to disk. On opening, the log is replayed into an
+ * index of where each holding's latest record is, with its symbol, quantity, price and book value in
+ * memory, and anything after the last complete commit, e.g. from a crash mid-write, is cut off. So a
+ * transaction is kept whole or not at all. Old records are dropped by {@link #compact()}, which runs by
+ * itself once they outweigh the live ones.
+ * <p>
+ * Holdings can be looked up by symbol, or by price range through a sorted price index, without loading
+ * the portfolio. Only one process may have the file open, enforced by a lock on a .lock file beside it.
+ */
+public final class EmbeddedPortfolioStore implements PortfolioStore {
+    private static final int MAGIC = 0x45504442;  // "EPDB"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte COMMIT = 3;
+    private static final byte STOCK = 0;
+    private static final byte MUTUAL_FUND = 1;
+    private static final long COMPACT_MIN_GARBAGE = 1L << 20;  // Smaller logs are never worth rewriting
+
+    private final Path file;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private FileChannel channel;
+    private long end;  // Position after the last commit record
+    private long liveBytes = 0;  // Bytes of the latest record of each holding
+    private boolean syncOnCommit = true;
+
+    // This is the index, one slot per holding in the order first stored; a removed holding's slot stays empty
+    private final HashMap<String, Integer> slotOfKey = new HashMap<>();  // Lower case symbol to slot
+    private String[] keys = new String[1024];  // Null once removed
+    private long[] offsets = new long[1024];
+    private int[] lengths = new int[1024];
+    private int[] quantities = new int[1024];
+    private double[] prices = new double[1024];
+    private double[] bookValues = new double[1024];
+    private int slotCount = 0;
+    private int liveCount = 0;
+    private double[] sortedPrices;  // Price index values, sorted ascending
+    private int[] sortedSlots;  // Slots matching sortedPrices
+    private boolean priceIndexStale = true;
+
+    // This is the open transaction
+    private final ByteArrayOutputStream transaction = new ByteArrayOutputStream();
+    private final DataOutputStream transactionOut = new DataOutputStream(transaction);
+    private final ArrayList<Change> changes = new ArrayList<>();
+    private final HashSet<String> changedKeys = new HashSet<>();
+    private boolean inTransaction = false;
+
+    /**
+     * This is one record of a transaction, applied to the index once it is committed.
+     */
+    private static final class Change {
+        final String key;
+        final boolean put;
+        final long position;  // Relative to the start of the transaction
+        final int length;
+        final int quantity;
+        final double price;
+        final double bookValue;
+
+        Change(String key, boolean put, long position, int length, int quantity, double price, double bookValue) {
+            this.key = key;
+            this.put = put;
+            this.position = position;
+            this.length = length;
+            this.quantity = quantity;
+            this.price = price;
+            this.bookValue = bookValue;
+        }
+    }
+
+    private EmbeddedPortfolioStore(Path file) throws IOException {
+        this.file = file;
+        lockChannel = FileChannel.open(file.resolveSibling(file.getFileName() + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired = null;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // This is another store in this process holding it
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IOException(file + " is open in another process.");
+        }
+        lock = acquired;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() == 0) {
+                writeFully(ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putLong(0).flip(), 0);
+                channel.force(true);
+            }
+            recover();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * This opens a database file, creating it if it does not exist.
+     *
+     * @param filename The file.
+     * @return The open store.
+     * @throws IOException if the file cannot be opened, is not a portfolio database, or is open elsewhere.
+     */
+    public static EmbeddedPortfolioStore open(String filename) throws IOException {
+        return new EmbeddedPortfolioStore(Paths.get(filename));
+    }
+
+    /**
+     * This sets whether each commit waits for the disk. Without it, a commit survives the process
+     * crashing but not the machine, and is much quicker.
+     *
+     * @param syncOnCommit True to force each commit to disk, the default.
+     */
+    public synchronized void setSyncOnCommit(boolean syncOnCommit) {
+        this.syncOnCommit = syncOnCommit;
+    }
+
+    /**
+     * This replays the log into the index, cutting off anything after the last complete commit.
+     */
+    private void recover() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(header, 0);
+        if (header.position() < 8 || header.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a portfolio database.");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException(file + " is a portfolio database of unsupported version " + header.getInt(4) + ".");
+        }
+        end = HEADER_BYTES;
+        long size = channel.size();
+        List<Change> staged = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        try (LogReader reader = new LogReader(HEADER_BYTES, size)) {
+            long transactionStart = HEADER_BYTES;
+            while (reader.next()) {
+                if (reader.kind == COMMIT) {
+                    ByteBuffer commit = ByteBuffer.wrap(reader.body);
+                    if (commit.getInt() != staged.size() || commit.getInt() != (int) crc.getValue()) {
+                        break;  // This is a damaged transaction
+                    }
+                    apply(staged, transactionStart);
+                    end = reader.position;
+                    transactionStart = end;
+                    staged.clear();
+                    crc.reset();
+                } else {
+                    crc.update(reader.kind);
+                    crc.update(ByteBuffer.allocate(4).putInt(reader.body.length).array());
+                    crc.update(reader.body);
+                    staged.add(reader.change(reader.recordStart - transactionStart));
+                }
+            }
+        }
+        if (end < size) {
+            channel.truncate(end);  // This drops a transaction that was never committed
+            channel.force(true);
+        }
+    }
+
+    /**
+     * This applies committed changes to the index.
+     */
+    private void apply(List<Change> committed, long base) {
+        for (Change change : committed) {
+            Integer found = slotOfKey.get(change.key);
+            if (!change.put) {
+                if (found != null) {
+                    int slot = found;
+                    slotOfKey.remove(change.key);
+                    keys[slot] = null;
+                    liveBytes -= lengths[slot];
+                    liveCount--;
+                }
+                continue;
+            }
+            int slot;
+            if (found == null) {
+                if (slotCount == keys.length) {
+                    int capacity = slotCount * 2;
+                    keys = Arrays.copyOf(keys, capacity);
+                    offsets = Arrays.copyOf(offsets, capacity);
+                    lengths = Arrays.copyOf(lengths, capacity);
+                    quantities = Arrays.copyOf(quantities, capacity);
+                    prices = Arrays.copyOf(prices, capacity);
+                    bookValues = Arrays.copyOf(bookValues, capacity);
+                }
+                slot = slotCount++;
+                keys[slot] = change.key;
+                slotOfKey.put(change.key, slot);
+                liveCount++;
+            } else {
+                slot = found;
+                liveBytes -= lengths[slot];
+            }
+            offsets[slot] = base + change.position;
+            lengths[slot] = change.length;
+            quantities[slot] = change.quantity;
+            prices[slot] = change.price;
+            bookValues[slot] = change.bookValue;
+            liveBytes += change.length;
+        }
+        priceIndexStale = true;
+    }
+
+    @Override
+    public synchronized int loadInto(Portfolio portfolio) throws IOException {
+        Investment[] loaded = new Investment[slotCount];
+        try (LogReader reader = new LogReader(HEADER_BYTES, end)) {  // This reads the log once, front to back
+            while (reader.next()) {
+                if (reader.kind == PUT) {
+                    Integer slot = slotOfKey.get(keyOf(reader.body));
+                    if (slot != null && offsets[slot] == reader.recordStart) {
+                        loaded[slot] = decode(reader.body);
+                    }
+                }
+            }
+        }
+        int count = 0;
+        for (Investment investment : loaded) {
+            if (investment != null) {
+                portfolio.addInvestment(investment);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized int saveAll(Portfolio portfolio) throws IOException {
+        boolean own = !inTransaction;
+        if (own) {
+            begin();
+        }
+        try {
+            int written = 0;
+            for (Investment investment : portfolio.getInvestments()) {
+                if (write(investment)) {
+                    written++;
+                }
+            }
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (keys[slot] != null && portfolio.findInvestmentBySymbol(keys[slot]) == null) {
+                    remove(keys[slot]);
+                }
+            }
+            if (own) {
+                commit();
+            }
+            return written;
+        } catch (IOException | RuntimeException e) {
+            if (own) {
+                rollback();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void begin() {
+        if (inTransaction) {
+            throw new IllegalStateException("A transaction is already open.");
+        }
+        inTransaction = true;
+    }
+
+    @Override
+    public synchronized void put(Investment investment) throws IOException {
+        write(investment);
+    }
+
+    /**
+     * This writes a holding unless the store already has it exactly as it is.
+     *
+     * @return True if a record was written.
+     */
+    private boolean write(Investment investment) throws IOException {
+        String key = investment.getSymbol().toLowerCase();
+        Integer slot = slotOfKey.get(key);
+        if (slot != null && !changedKeys.contains(key) && quantities[slot] == investment.getQuantity()
+                && prices[slot] == investment.getPrice() && bookValues[slot] == investment.getBookValue()) {
+            return false;
+        }
+        boolean own = !inTransaction;
+        if (own) {
+            begin();
+        }
+        byte[] symbol = bytesOf(investment.getSymbol());
+        byte[] name = bytesOf(investment.getName());
+        int bodyLength = 1 + 2 + symbol.length + 2 + name.length + 4 + 8 + 8;
+        long position = transaction.size();
+        transactionOut.writeByte(PUT);
+        transactionOut.writeInt(bodyLength);
+        transactionOut.writeByte(investment instanceof MutualFund ? MUTUAL_FUND : STOCK);
+        transactionOut.writeShort(symbol.length);
+        transactionOut.write(symbol);
+        transactionOut.writeShort(name.length);
+        transactionOut.write(name);
+        transactionOut.writeInt(investment.getQuantity());
+        transactionOut.writeDouble(investment.getPrice());
+        transactionOut.writeDouble(investment.getBookValue());
+        changes.add(new Change(key, true, position, 5 + bodyLength,
+                investment.getQuantity(), investment.getPrice(), investment.getBookValue()));
+        changedKeys.add(key);
+        if (own) {
+            commit();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void remove(String symbol) throws IOException {
+        String key = symbol.toLowerCase();
+        if (!slotOfKey.containsKey(key) && !changedKeys.contains(key)) {
+            return;
+        }
+        boolean own = !inTransaction;
+        if (own) {
+            begin();
+        }
+        byte[] bytes = bytesOf(symbol);
+        long position = transaction.size();
+        transactionOut.writeByte(DELETE);
+        transactionOut.writeInt(2 + bytes.length);
+        transactionOut.writeShort(bytes.length);
+        transactionOut.write(bytes);
+        changes.add(new Change(key, false, position, 5 + 2 + bytes.length, 0, 0, 0));
+        changedKeys.add(key);
+        if (own) {
+            commit();
+        }
+    }
+
+    @Override
+    public synchronized void commit() throws IOException {
+        if (!inTransaction) {
+            throw new IllegalStateException("No transaction is open.");
+        }
+        if (changes.isEmpty()) {
+            inTransaction = false;
+            return;
+        }
+        byte[] records = transaction.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(records);
+        ByteBuffer buffer = ByteBuffer.allocate(records.length + 13);
+        buffer.put(records).put(COMMIT).putInt(8).putInt(changes.size()).putInt((int) crc.getValue()).flip();
+        try {
+            writeFully(buffer, end);
+            if (syncOnCommit) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(end);
+            } catch (IOException ignored) {
+                // This is left for recovery, which drops a transaction without a valid commit
+            }
+            rollback();
+            throw e;
+        }
+        apply(changes, end);
+        end += buffer.limit();
+        rollback();  // This clears the transaction, now committed
+        if (end - HEADER_BYTES - liveBytes > Math.max(COMPACT_MIN_GARBAGE, liveBytes)) {
+            try {
+                compact();
+            } catch (IOException e) {
+                // This is tried again after a later commit; the transaction is already safe
+            }
+        }
+    }
+
+    @Override
+    public synchronized void rollback() {
+        transaction.reset();
+        changes.clear();
+        changedKeys.clear();
+        inTransaction = false;
+    }
+
+    /**
+     * This rewrites the file with only the latest record of each holding, as one transaction, and
+     * replaces the old file with it once it is on disk.
+     *
+     * @throws IOException if the new file cannot be written or moved into place, in which case the old one
+     *                     is kept and stays open.
+     * @throws IllegalStateException if a transaction is open.
+     */
+    public synchronized void compact() throws IOException {
+        if (inTransaction) {
+            throw new IllegalStateException("A transaction is open.");
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        long[] newOffsets = new long[keys.length];
+        CRC32 crc = new CRC32();
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(0);
+            long position = HEADER_BYTES;
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (keys[slot] == null) {
+                    continue;
+                }
+                ByteBuffer record = readRecord(slot);
+                crc.update(record.array());
+                if (buffer.remaining() < record.remaining()) {
+                    writeAll(out, buffer.flip());
+                    buffer.clear();
+                }
+                if (buffer.remaining() < record.remaining()) {
+                    writeAll(out, record);  // This record is larger than the buffer
+                } else {
+                    buffer.put(record);
+                }
+                newOffsets[slot] = position;
+                position += lengths[slot];
+            }
+            if (buffer.remaining() < 13) {
+                writeAll(out, buffer.flip());
+                buffer.clear();
+            }
+            buffer.put(COMMIT).putInt(8).putInt(liveCount).putInt((int) crc.getValue());
+            writeAll(out, buffer.flip());
+            out.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        // This keeps the old file open until the new one replaces it, so a failed move leaves the store as it was
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        FileChannel replaced = channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } finally {
+            replaced.close();  // This is closed even if the new file cannot be opened, as it is no longer the file
+        }
+
+        int live = 0;
+        for (int slot = 0; slot < slotCount; slot++) {  // This closes up the slots of removed holdings
+            if (keys[slot] != null) {
+                keys[live] = keys[slot];
+                offsets[live] = newOffsets[slot];
+                lengths[live] = lengths[slot];
+                quantities[live] = quantities[slot];
+                prices[live] = prices[slot];
+                bookValues[live] = bookValues[slot];
+                slotOfKey.put(keys[live], live);
+                live++;
+            }
+        }
+        Arrays.fill(keys, live, slotCount, null);
+        slotCount = live;
+        end = channel.size();
+        priceIndexStale = true;
+    }
+
+    /**
+     * This reads one holding by symbol, without loading the portfolio.
+     *
+     * @param symbol The symbol (case insensitive).
+     * @return The holding as last committed, or null if it is not stored.
+     * @throws IOException if the file cannot be read.
+     */
+    public synchronized Investment find(String symbol) throws IOException {
+        Integer slot = slotOfKey.get(symbol.toLowerCase());
+        return slot == null ? null : read(slot);
+    }
+
+    /**
+     * This reads the holdings with a price in a range, through the price index.
+     *
+     * @param minPrice The lowest price, inclusive.
+     * @param maxPrice The highest price, inclusive.
+     * @return The holdings, cheapest first.
+     * @throws IOException if the file cannot be read.
+     */
+    public synchronized List<Investment> findByPrice(double minPrice, double maxPrice) throws IOException {
+        if (priceIndexStale) {
+            Integer[] order = new Integer[liveCount];
+            int count = 0;
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (keys[slot] != null) {
+                    order[count++] = slot;
+                }
+            }
+            Arrays.sort(order, Comparator.comparingDouble(slot -> prices[slot]));
+            sortedPrices = new double[count];
+            sortedSlots = new int[count];
+            for (int i = 0; i < count; i++) {
+                sortedSlots[i] = order[i];
+                sortedPrices[i] = prices[order[i]];
+            }
+            priceIndexStale = false;
+        }
+        int low = 0;
+        int high = sortedPrices.length;
+        while (low < high) {  // This finds the first price at or above minPrice
+            int middle = (low + high) >>> 1;
+            if (sortedPrices[middle] < minPrice) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        List<Investment> found = new ArrayList<>();
+        for (int i = low; i < sortedPrices.length && sortedPrices[i] <= maxPrice; i++) {
+            found.add(read(sortedSlots[i]));
+        }
+        return found;
+    }
+
+    /**
+     * This gets the number of holdings stored.
+     *
+     * @return The holding count.
+     */
+    public synchronized int size() {
+        return liveCount;
+    }
+
+    /**
+     * This gets the size of the file, including records that {@link #compact()} would drop.
+     *
+     * @return The committed length in bytes.
+     */
+    public synchronized long getFileSize() {
+        return end;
+    }
+
+    private Investment read(int slot) throws IOException {
+        ByteBuffer record = readRecord(slot);
+        return decode(Arrays.copyOfRange(record.array(), 5, record.capacity()));
+    }
+
+    /**
+     * This reads the latest record of a holding, ready to be written out again.
+     */
+    private ByteBuffer readRecord(int slot) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(lengths[slot]);
+        while (record.hasRemaining()) {
+            if (channel.read(record, offsets[slot] + record.position()) < 0) {
+                throw new EOFException(file + " ends inside a record.");
+            }
+        }
+        return record.flip();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void writeAll(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static byte[] bytesOf(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("A symbol or name is too long for the database.");
+        }
+        return bytes;
+    }
+
+    /**
+     * This gets the lower case symbol of a put or delete record body, which both start with the symbol
+     * after the type byte of a put.
+     */
+    private static String keyOf(byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        buffer.get();  // This is the type
+        int length = buffer.getShort() & 0xFFFF;
+        return new String(body, 3, length, StandardCharsets.UTF_8).toLowerCase();
+    }
+
+    /**
+     * This decodes a put record body into a new investment.
+     */
+    private static Investment decode(byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        byte type = buffer.get();
+        int symbolLength = buffer.getShort() & 0xFFFF;
+        String symbol = new String(body, buffer.position(), symbolLength, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + symbolLength);
+        int nameLength = buffer.getShort() & 0xFFFF;
+        String name = new String(body, buffer.position(), nameLength, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + nameLength);
+        int quantity = buffer.getInt();
+        double price = buffer.getDouble();
+        double bookValue = buffer.getDouble();
+        Investment investment = type == MUTUAL_FUND
+                ? new MutualFund(symbol, name, quantity, price)
+                : new Stock(symbol, name, quantity, price);
+        investment.setBookValue(bookValue);
+        return investment;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        rollback();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+            lockChannel.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+
+    /**
+     * This reads the records of the log in order, stopping at the end or at a record that is cut short.
+     */
+    private final class LogReader implements AutoCloseable {
+        private final DataInputStream in;
+        private final long limit;
+        long position;
+        long recordStart;
+        byte kind;
+        byte[] body;
+
+        LogReader(long from, long limit) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ).position(from)), 1 << 16));
+            this.position = from;
+            this.limit = limit;
+        }
+
+        boolean next() throws IOException {
+            if (limit - position < 5) {
+                return false;
+            }
+            recordStart = position;
+            try {
+                kind = in.readByte();
+                int length = in.readInt();
+                if ((kind != PUT && kind != DELETE && kind != COMMIT) || length < 0 || length > limit - position - 5) {
+                    return false;
+                }
+                body = new byte[length];
+                in.readFully(body);
+                position += 5 + length;
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        /**
+         * This describes the current put or delete record as a change to the index.
+         */
+        Change change(long relativePosition) {
+            if (kind == DELETE) {
+                int length = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+                String key = new String(body, 2, length, StandardCharsets.UTF_8).toLowerCase();
+                return new Change(key, false, relativePosition, 5 + body.length, 0, 0, 0);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            int tail = body.length - 20;  // This is where quantity, price and book value start
+            return new Change(keyOf(body), true, relativePosition, 5 + body.length,
+                    buffer.getInt(tail), buffer.getDouble(tail + 4), buffer.getDouble(tail + 12));
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package ePortfolio;
+
+import java.util.List;
+
+/**
+ * This keeps the quantity, price, book value and realized gain of every holding, in portfolio order, in a
+ * persistent vector from which {@link PortfolioView}s are taken in constant time.
+ * <p>
+ * The vector is a 32-way trie whose leaves hold 32 holdings in parallel arrays. Each node belongs to an
+ * epoch, and taking a view starts a new one: the view keeps the root as it is, and a later write copies
+ * only the leaf and the branches above it that still belong to an older epoch, once per epoch, then writes
+ * in place again. So views share every node that has not changed since, and a price tick costs no
+ * allocation unless a view was taken since the last tick on that leaf.
+ * <p>
+ * {@link Portfolio} writes to it from its holding listener, on whichever thread changed the investment, so
+ * writes and views are serialized on the vector's own monitor, held only for the copy of a few values.
+ */
+final class HoldingVector {
+    static final int BITS = 5;
+    static final int WIDTH = 1 << BITS;
+    static final int MASK = WIDTH - 1;
+
+    /**
+     * This is a node of the trie, belonging to the epoch that created it.
+     */
+    abstract static class Node {
+        final Object epoch;
+
+        Node(Object epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+    static final class Branch extends Node {
+        final Node[] children;
+
+        Branch(Object epoch, Node[] children) {
+            super(epoch);
+            this.children = children;
+        }
+    }
+
+    static final class Leaf extends Node {
+        final Investment[] investments;  // For the symbol, name and type, which never change
+        final int[] quantities;
+        final double[] prices;
+        final double[] bookValues;
+        final double[] realizedGains;
+
+        Leaf(Object epoch) {
+            super(epoch);
+            investments = new Investment[WIDTH];
+            quantities = new int[WIDTH];
+            prices = new double[WIDTH];
+            bookValues = new double[WIDTH];
+            realizedGains = new double[WIDTH];
+        }
+
+        Leaf(Object epoch, Leaf other) {
+            super(epoch);
+            investments = other.investments.clone();
+            quantities = other.quantities.clone();
+            prices = other.prices.clone();
+            bookValues = other.bookValues.clone();
+            realizedGains = other.realizedGains.clone();
+        }
+
+        void set(int slot, Investment investment) {
+            investments[slot] = investment;
+            quantities[slot] = investment.getQuantity();
+            prices[slot] = investment.getPrice();
+            bookValues[slot] = investment.getBookValue();
+            realizedGains[slot] = investment.realizedGain;  // This is unrounded; the view rounds it like the holding does
+        }
+    }
+
+    private Object epoch = new Object();  // Nodes of this epoch may be written in place
+    private Node root = null;  // A leaf while shift is 0
+    private int shift = 0;  // Bits of position below the root's children
+    private int size = 0;
+    private PortfolioView view;  // The latest view, if nothing was written since
+
+    /**
+     * This appends a holding.
+     *
+     * @param investment The holding, whose current values are copied.
+     */
+    synchronized void add(Investment investment) {
+        if (root == null) {
+            root = new Leaf(epoch);
+        } else if (size == WIDTH << shift) {  // This is full, so the trie grows a level
+            Node[] children = new Node[WIDTH];
+            children[0] = root;
+            root = new Branch(epoch, children);
+            shift += BITS;
+        }
+        writableLeaf(size).set(size & MASK, investment);
+        size++;
+        view = null;
+    }
+
+    /**
+     * This copies the current values of the holding at a position, or puts another holding there.
+     *
+     * @param position   The position, from 0 to the size - 1.
+     * @param investment The holding now at that position.
+     */
+    synchronized void set(int position, Investment investment) {
+        writableLeaf(position).set(position & MASK, investment);
+        view = null;
+    }
+
+    /**
+     * This replaces every holding, e.g. after a removal shifts the positions, in a new epoch so no view
+     * sees the change.
+     *
+     * @param investments The holdings, in portfolio order.
+     */
+    synchronized void rebuild(List<Investment> investments) {
+        epoch = new Object();
+        root = null;
+        shift = 0;
+        size = 0;
+        for (Investment investment : investments) {
+            add(investment);
+        }
+        view = null;
+    }
+
+    /**
+     * This takes a view of the holdings as they are now, starting a new epoch so later writes leave it
+     * alone. Taking views with no writes in between returns the same one.
+     *
+     * @return The view.
+     */
+    synchronized PortfolioView view() {
+        if (view == null) {
+            view = new PortfolioView(root, shift, size);
+            epoch = new Object();
+        }
+        return view;
+    }
+
+    /**
+     * This finds the leaf for a position, first copying the path to it that belongs to older epochs.
+     */
+    private Leaf writableLeaf(int position) {
+        if (shift == 0) {
+            Leaf leaf = (Leaf) root;
+            if (leaf.epoch != epoch) {
+                root = leaf = new Leaf(epoch, leaf);
+            }
+            return leaf;
+        }
+        Branch branch = (Branch) root;
+        if (branch.epoch != epoch) {
+            root = branch = new Branch(epoch, branch.children.clone());
+        }
+        for (int level = shift; level > BITS; level -= BITS) {
+            int index = (position >>> level) & MASK;
+            Branch child = (Branch) branch.children[index];
+            if (child == null) {
+                child = new Branch(epoch, new Node[WIDTH]);
+            } else if (child.epoch != epoch) {
+                child = new Branch(epoch, child.children.clone());
+            }
+            branch.children[index] = child;
+            branch = child;
+        }
+        int index = (position >>> BITS) & MASK;
+        Leaf leaf = (Leaf) branch.children[index];
+        if (leaf == null) {
+            leaf = new Leaf(epoch);
+        } else if (leaf.epoch != epoch) {
+            leaf = new Leaf(epoch, leaf);
+        }
+        branch.children[index] = leaf;
+        return leaf;
+    }
+}
@@ -0,0 +1,183 @@
+package ePortfolio;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This is the canonical registry of instruments shared by every portfolio in the JVM. Each distinct
+ * symbol and name pair gets a compact int id, and its symbol, name and name keywords are stored once,
+ * in arrays indexed by that id. An {@link Investment} is registered when it first joins a portfolio and
+ * then points at the registry's text, so a thousand accounts holding the same instrument share one copy
+ * of it, and the portfolio indexes work on int keys.
+ * <p>
+ * Lookups by id are plain array reads and never lock; registering a new instrument takes a short lock.
+ * Ids are never reused, so the registry grows with the instruments ever held, not with the holdings.
+ * Investments that are never held, such as trial copies and rejected trades, are never registered.
+ */
+public final class InstrumentRegistry {
+    private static final InstrumentRegistry INSTANCE = new InstrumentRegistry();
+    private static final int[] NONE = new int[0];
+
+    private volatile String[] symbols = new String[1024];
+    private volatile String[] names = new String[1024];
+    private volatile int[][] keywords = new int[1024][];  // Keyword ids of each name, without duplicates
+    private volatile int size = 0;  // Written under the lock, after the arrays
+    private final ConcurrentHashMap<String, int[]> bySymbol = new ConcurrentHashMap<>();  // Lower case symbol to ids
+    private final ConcurrentHashMap<String, Integer> keywordIds = new ConcurrentHashMap<>();
+
+    private InstrumentRegistry() {
+    }
+
+    /**
+     * This gets the registry shared by every portfolio.
+     *
+     * @return The registry for this JVM.
+     */
+    public static InstrumentRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * This gets the id of an instrument, registering it if it is new. The same symbol under a different
+     * name, or in a different case, is a different instrument, so no holding ever changes its text.
+     *
+     * @param symbol The instrument symbol.
+     * @param name   The instrument name.
+     * @return The instrument id.
+     */
+    public int register(String symbol, String name) {
+        int id = find(bySymbol.get(symbol.toLowerCase()), symbol, name);
+        if (id >= 0) {
+            return id;  // This is the common case, no locking
+        }
+        synchronized (this) {
+            String key = symbol.toLowerCase();
+            int[] ids = bySymbol.get(key);
+            id = find(ids, symbol, name);
+            if (id >= 0) {
+                return id;
+            }
+            id = size;
+            if (id == symbols.length) {
+                int capacity = id * 2;
+                keywords = Arrays.copyOf(keywords, capacity);
+                names = Arrays.copyOf(names, capacity);
+                symbols = Arrays.copyOf(symbols, capacity);
+            }
+            symbols[id] = symbol;
+            names[id] = name;
+            keywords[id] = keywordIdsOf(name);
+            size = id + 1;
+            int[] updated = ids == null ? new int[1] : Arrays.copyOf(ids, ids.length + 1);
+            updated[updated.length - 1] = id;
+            bySymbol.put(key, updated);  // This publishes the id to lock-free readers
+            return id;
+        }
+    }
+
+    /**
+     * This finds the id with exactly this symbol and name among the ids sharing a lower case symbol.
+     */
+    private int find(int[] ids, String symbol, String name) {
+        if (ids != null) {
+            String[] symbolTable = symbols;
+            String[] nameTable = names;
+            for (int id : ids) {
+                if (symbolTable[id].equals(symbol) && nameTable[id].equals(name)) {
+                    return id;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * This splits a name into distinct lower case keywords and maps each to its keyword id.
+     */
+    private int[] keywordIdsOf(String name) {
+        String[] words = name.toLowerCase().split("\\s+");
+        int[] ids = new int[words.length];
+        int count = 0;
+        for (String word : words) {
+            int id = keywordIds.computeIfAbsent(word, w -> keywordIds.size());
+            boolean seen = false;
+            for (int i = 0; i < count && !seen; i++) {
+                seen = ids[i] == id;
+            }
+            if (!seen) {
+                ids[count++] = id;
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * This gets the symbol of an instrument.
+     *
+     * @param id The instrument id.
+     * @return The symbol as first registered.
+     */
+    public String symbol(int id) {
+        return symbols[id];
+    }
+
+    /**
+     * This gets the name of an instrument.
+     *
+     * @param id The instrument id.
+     * @return The name as first registered.
+     */
+    public String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * This gets the keyword ids of an instrument's name.
+     *
+     * @param id The instrument id.
+     * @return The distinct keyword ids, in name order. The array must not be changed.
+     */
+    int[] keywords(int id) {
+        return keywords[id];
+    }
+
+    /**
+     * This gets every instrument id registered under a symbol, ignoring case.
+     *
+     * @param symbol The symbol to look up.
+     * @return The ids, usually one, or an empty array. The array must not be changed.
+     */
+    int[] idsOfSymbol(String symbol) {
+        int[] ids = bySymbol.get(symbol.toLowerCase());
+        return ids == null ? NONE : ids;
+    }
+
+    /**
+     * This gets the id of a lower case name keyword.
+     *
+     * @param keyword The keyword to look up.
+     * @return The keyword id, or -1 if no registered name contains it.
+     */
+    int keywordId(String keyword) {
+        Integer id = keywordIds.get(keyword);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * This gets the number of instruments registered.
+     *
+     * @return The instrument count.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * This gets the number of distinct name keywords registered.
+     *
+     * @return The keyword count.
+     */
+    public int keywordCount() {
+        return keywordIds.size();
+    }
+}
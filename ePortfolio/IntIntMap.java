@@ -0,0 +1,102 @@
+package ePortfolio;
+
+import java.util.Arrays;
+
+/**
+ * This is a small open addressing hash map from non-negative int keys to int values, used by the
+ * portfolio indexes so they hold no boxed keys, values or entry objects. It is not thread safe.
+ */
+final class IntIntMap {
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    /**
+     * This creates an empty map.
+     */
+    IntIntMap() {
+        keys = new int[8];
+        values = new int[8];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * This finds the slot holding a key, or the empty slot where it would go.
+     */
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int hash = key * 0x9E3779B9;  // This spreads sequential ids over the table
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * This gets the value stored under a key.
+     *
+     * @param key The key, zero or more.
+     * @return The value, or -1 if the key is absent.
+     */
+    int get(int key) {
+        int slot = slot(key);
+        return keys[slot] == EMPTY ? -1 : values[slot];
+    }
+
+    /**
+     * This stores a value under a key, replacing any value already there.
+     *
+     * @param key   The key, zero or more.
+     * @param value The value.
+     */
+    void put(int key, int value) {
+        int slot = slot(key);
+        if (keys[slot] == EMPTY) {
+            if ((size + 1) * 4 > keys.length * 3) {  // This keeps the table at most three quarters full
+                resize();
+                slot = slot(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * This doubles the table and reinserts every entry.
+     */
+    private void resize() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * This gets the number of keys stored.
+     *
+     * @return The map size.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * This removes every entry, keeping the table.
+     */
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+}
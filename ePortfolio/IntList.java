@@ -0,0 +1,65 @@
+package ePortfolio;
+
+import java.util.Arrays;
+
+/**
+ * This is a growable list of ints, used for the keyword index position lists so positions are not boxed.
+ * It is not thread safe.
+ */
+final class IntList {
+    /** This is a shared empty list, which must never be added to. */
+    static final IntList EMPTY = new IntList(0);
+
+    private int[] values;
+    private int size;
+
+    /**
+     * This creates an empty list.
+     *
+     * @param capacity The initial capacity.
+     */
+    IntList(int capacity) {
+        values = new int[capacity];
+    }
+
+    /**
+     * This appends a value.
+     *
+     * @param value The value to add.
+     */
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.max(4, size * 2));
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * This gets a value.
+     *
+     * @param index The index, less than {@link #size()}.
+     * @return The value at that index.
+     */
+    int get(int index) {
+        return values[index];
+    }
+
+    /**
+     * This gets the number of values.
+     *
+     * @return The list size.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * This searches a list kept in ascending order.
+     *
+     * @param value The value to find.
+     * @return True if the value is in the list.
+     */
+    boolean containsSorted(int value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+}
@@ -3,6 +3,8 @@
 
 package ePortfolio;
 
+import java.util.Arrays;
+
 /**
  * This represents a general investment with attributes such as symbol, name, price, and quantity.
  * It provides methods to manage investments, including updating prices and managing book value.
@@ -10,11 +12,13 @@ package ePortfolio;
 public abstract class Investment {
     // Investment attributes
     /**
-    * The symbol of the investment, representing its unique identifier.
+    * The symbol of the investment, representing its unique identifier. Subclasses read it with
+    * {@link #getSymbol()}; it must not change once the investment is held in a portfolio.
     */
     protected String symbol;
     /**
-    * The name of the investment.
+    * The name of the investment. Subclasses read it with {@link #getName()}; it must not change once the
+    * investment is held in a portfolio.
     */
     protected String name; 
     /**
@@ -33,6 +37,12 @@ public abstract class Investment {
     * The total realized gain from selling portions of the investment.
     */
     protected double realizedGain; // Track realized gain for each investment 
+    /**
+    * The listeners told about price, quantity and book value changes, replaced as a whole on every add or remove.
+    */
+    private volatile PriceListener[] listeners = NO_LISTENERS;
+    private static final PriceListener[] NO_LISTENERS = new PriceListener[0];
+    private int instrument = -1;  // Id in the InstrumentRegistry, or -1 until the investment is first held
     
 
     /**
@@ -83,6 +93,7 @@ public abstract class Investment {
     public Investment(Investment other) {
         this.symbol = other.symbol;
         this.name = other.name;
+        this.instrument = other.instrument;
         this.quantity = other.quantity;
         this.price = other.price;
         this.bookValue = other.bookValue;
@@ -126,6 +137,27 @@ public abstract class Investment {
         return name;
     }
 
+    /**
+     * This gets the id of the investment's instrument in the {@link InstrumentRegistry}. The instrument
+     * is registered the first time this is asked, which a portfolio does when the investment joins it, so
+     * short-lived copies and trial investments never add to the registry. From then on the symbol and
+     * name are the registry's copies, shared by every holding of the instrument.
+     *
+     * @return The instrument id.
+     */
+    public int getInstrumentId() {
+        int id = instrument;
+        if (id < 0) {
+            // This may run on two threads at once, which is harmless: both get the same id and text
+            InstrumentRegistry registry = InstrumentRegistry.get();
+            id = registry.register(symbol, name);
+            symbol = registry.symbol(id);
+            name = registry.name(id);
+            instrument = id;
+        }
+        return id;
+    }
+
     /**
      * This gets the investment's quantity.
      *
@@ -170,7 +202,13 @@ public abstract class Investment {
      */
     public void setPrice(double price) {
         if (price >= 0) {
+            double oldPrice = this.price;
             this.price = price;
+            if (oldPrice != price) {
+                for (PriceListener listener : listeners) {
+                    listener.priceChanged(this, oldPrice, price);
+                }
+            }
         } else {
             throw new IllegalArgumentException("Price cannot be negative.");
         }
@@ -184,12 +222,55 @@ public abstract class Investment {
      */
     public void setQuantity(int quantity) {
         if (quantity >= 0) {
-            this.quantity = quantity;
+            changeQuantity(quantity);
         } else {
             throw new IllegalArgumentException("Quantity cannot be negative.");
         }
     }
 
+    /**
+     * This changes the quantity and notifies listeners. Subclasses use it when selling.
+     *
+     * @param quantity The new quantity.
+     */
+    protected void changeQuantity(int quantity) {
+        int oldQuantity = this.quantity;
+        this.quantity = quantity;
+        if (oldQuantity != quantity) {
+            for (PriceListener listener : listeners) {
+                listener.quantityChanged(this, oldQuantity, quantity);
+            }
+        }
+    }
+
+    /**
+     * This registers a listener for price and quantity changes on this investment.
+     *
+     * @param listener The listener to add.
+     */
+    public synchronized void addPriceListener(PriceListener listener) {
+        PriceListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * This removes a listener previously added with {@link #addPriceListener(PriceListener)}.
+     *
+     * @param listener The listener to remove.
+     */
+    public synchronized void removePriceListener(PriceListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                PriceListener[] updated = new PriceListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, updated, 0, i);
+                System.arraycopy(listeners, i + 1, updated, i, listeners.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
     /**
      * This will Sets the investment's book value.
      *
@@ -197,6 +278,7 @@ public abstract class Investment {
      */
     public void setBookValue(double bookValue) {
         this.bookValue = bookValue;
+        bookChanged();
     }
 
     /**
@@ -206,6 +288,27 @@ public abstract class Investment {
      */
     public void updateRealizedGain(double gain) {
         this.realizedGain += gain;
+        bookChanged();
+    }
+
+    /**
+     * This sets the realized gain, e.g. to what it was before an undone sale.
+     *
+     * @param realizedGain The realized gain, unrounded.
+     */
+    void setRealizedGain(double realizedGain) {
+        this.realizedGain = realizedGain;
+        bookChanged();
+    }
+
+    /**
+     * This notifies listeners that the book value or realized gain changed. Subclasses call it after
+     * changing the book value themselves.
+     */
+    protected void bookChanged() {
+        for (PriceListener listener : listeners) {
+            listener.bookChanged(this);
+        }
     }
 
     /**
@@ -237,7 +340,7 @@ public abstract class Investment {
     @Override
     public String toString() {
         return String.format("Investment [symbol=%s, name=%s, quantity=%d, price=%.2f, bookValue=%.2f, realizedGain=%.2f]",
-                symbol, name, quantity, price, bookValue, realizedGain);
+                getSymbol(), getName(), quantity, price, bookValue, realizedGain);
     }
 
      /**
@@ -247,7 +350,7 @@ public abstract class Investment {
      */
     public String toDisplayString() {
         return String.format("Symbol: %s, Name: %s, Quantity: %d, Price: %.2f, Book Value: %.2f",
-                symbol, name, quantity, price, bookValue);
+                getSymbol(), getName(), quantity, price, bookValue);
     } 
 
     /**
@@ -0,0 +1,610 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is a parsed search query over portfolio holdings. Queries are built from terms on the fields
+ * symbol, keyword, type, price, quantity, bookValue, gain and weight, combined with AND, OR, NOT and brackets.
+ * For example:
+ * <pre>
+ *   type = stock and (price in [-5, 10] or gain &gt; 100) and not keyword = "bank"
+ * </pre>
+ * Numeric fields support {@code = != < <= > >=} and the inclusive range form {@code in [min, max]}.
+ */
+public abstract class InvestmentQuery {
+
+    /**
+     * This tests one investment against the query.
+     *
+     * @param investment The investment to test.
+     * @param totalValue The total market value of the portfolio, used for the weight field.
+     * @return True if the investment matches.
+     */
+    public abstract boolean matches(Investment investment, double totalValue);
+
+    /**
+     * This tells whether the query needs the portfolio total value (it uses the weight field).
+     *
+     * @return True if weight is referenced anywhere in the query.
+     */
+    boolean usesWeight() {
+        return false;
+    }
+
+    /**
+     * This builds the query equivalent to the classic symbol, keywords and price range search.
+     *
+     * @param symbol       The symbol to match, or empty for any.
+     * @param nameKeywords The keywords that must all appear in the name, or empty for any.
+     * @param minPrice     The minimum price (inclusive).
+     * @param maxPrice     The maximum price (inclusive).
+     * @return The equivalent query.
+     */
+    public static InvestmentQuery of(String symbol, String nameKeywords, double minPrice, double maxPrice) {
+        List<InvestmentQuery> terms = new ArrayList<>();
+        if (symbol != null && !symbol.trim().isEmpty()) {
+            terms.add(new SymbolTerm(symbol.trim()));
+        }
+        if (nameKeywords != null && !nameKeywords.trim().isEmpty()) {
+            terms.add(new KeywordTerm(nameKeywords));
+        }
+        if (minPrice != Double.NEGATIVE_INFINITY || maxPrice != Double.POSITIVE_INFINITY) {
+            terms.add(new RangeTerm(Field.PRICE, minPrice, maxPrice));
+        }
+        if (terms.isEmpty()) {
+            return new All();
+        }
+        return terms.size() == 1 ? terms.get(0) : new And(terms);
+    }
+
+    /**
+     * This parses a query written in the query language. An empty query matches everything.
+     *
+     * @param text The query text.
+     * @return The parsed query.
+     * @throws IllegalArgumentException if the text is not a valid query.
+     */
+    public static InvestmentQuery parse(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return new All();
+        }
+        Parser parser = new Parser(text);
+        InvestmentQuery query = parser.parseOr();
+        if (parser.peek() != null) {
+            throw new IllegalArgumentException("Unexpected '" + parser.peek() + "' in query.");
+        }
+        return query;
+    }
+
+    /**
+     * This parses a price range typed as "min-max", "min-" or "-max", where either bound may itself be negative
+     * (for example "-5--1" is the range from -5 to -1). A single number means that exact price.
+     *
+     * @param text The range text; empty means no limits.
+     * @return A two element array holding the minimum and maximum price.
+     * @throws NumberFormatException if a bound is not a number.
+     */
+    public static double[] parsePriceRange(String text) {
+        double[] range = {Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY};
+        String trimmed = text == null ? "" : text.trim();
+        if (trimmed.isEmpty()) {
+            return range;
+        }
+
+        // The separator is the first '-' that follows a digit or '.', anything else is a sign
+        int separator = -1;
+        for (int i = 1; i < trimmed.length() && separator < 0; i++) {
+            if (trimmed.charAt(i) == '-') {
+                String before = trimmed.substring(0, i).trim();
+                char last = before.isEmpty() ? ' ' : before.charAt(before.length() - 1);
+                if (Character.isDigit(last) || last == '.') {
+                    separator = i;
+                }
+            }
+        }
+
+        String min;
+        String max;
+        if (separator >= 0) {
+            min = trimmed.substring(0, separator).trim();
+            max = trimmed.substring(separator + 1).trim();
+        } else if (trimmed.startsWith("-")) {
+            min = "";  // "-20" keeps its classic meaning of everything up to 20, "--5" is up to -5
+            max = trimmed.substring(1).trim();
+        } else {
+            min = trimmed;
+            max = trimmed;
+        }
+        if (!min.isEmpty()) {
+            range[0] = Double.parseDouble(min);
+        }
+        if (!max.isEmpty()) {
+            range[1] = Double.parseDouble(max);
+        }
+        return range;
+    }
+
+    /**
+     * These are the numeric fields a query can compare.
+     */
+    enum Field {
+        PRICE, QUANTITY, BOOKVALUE, GAIN, WEIGHT;
+
+        /**
+         * This reads the field value from an investment.
+         *
+         * @param investment The investment to read.
+         * @param totalValue The total market value, used for weight.
+         * @return The field value.
+         */
+        double valueOf(Investment investment, double totalValue) {
+            switch (this) {
+                case PRICE:
+                    return investment.getPrice();
+                case QUANTITY:
+                    return investment.getQuantity();
+                case BOOKVALUE:
+                    return investment.getBookValue();
+                case GAIN:
+                    return investment.getGain();
+                default:
+                    return totalValue == 0 ? 0 : investment.getPrice() * investment.getQuantity() / totalValue;
+            }
+        }
+    }
+
+    /** This matches every investment. */
+    static final class All extends InvestmentQuery {
+        @Override
+        public boolean matches(Investment investment, double totalValue) {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "all";
+        }
+    }
+
+    /** This matches investments whose symbol equals the given one, ignoring case. */
+    static final class SymbolTerm extends InvestmentQuery {
+        final String symbol;
+
+        SymbolTerm(String symbol) {
+            this.symbol = symbol;
+        }
+
+        @Override
+        public boolean matches(Investment investment, double totalValue) {
+            return investment.getSymbol().equalsIgnoreCase(symbol);
+        }
+
+        @Override
+        public String toString() {
+            return "symbol = \"" + symbol + "\"";
+        }
+    }
+
+    /** This matches investments whose name contains every given keyword as a whole word. */
+    static final class KeywordTerm extends InvestmentQuery {
+        final String[] keywords;
+
+        KeywordTerm(String text) {
+            this.keywords = text.trim().toLowerCase().split("\\s+");
+        }
+
+        @Override
+        public boolean matches(Investment investment, double totalValue) {
+            String[] words = investment.getName().toLowerCase().split("\\s+");
+            for (String keyword : keywords) {
+                boolean found = false;
+                for (String word : words) {
+                    if (word.equals(keyword)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "keyword = \"" + String.join(" ", keywords) + "\"";
+        }
+    }
+
+    /** This matches investments of one type (stock or mutual fund). */
+    static final class TypeTerm extends InvestmentQuery {
+        final boolean stock;
+
+        TypeTerm(boolean stock) {
+            this.stock = stock;
+        }
+
+        @Override
+        public boolean matches(Investment investment, double totalValue) {
+            return stock ? investment instanceof Stock : investment instanceof MutualFund;
+        }
+
+        @Override
+        public String toString() {
+            return "type = " + (stock ? "stock" : "mutualfund");
+        }
+    }
+
+    /** This matches investments whose numeric field lies in an inclusive range. */
+    static final class RangeTerm extends InvestmentQuery {
+        final Field field;
+        final double min;
+        final double max;
+
+        RangeTerm(Field field, double min, double max) {
+            this.field = field;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public boolean matches(Investment investment, double totalValue) {
+            double value = field.valueOf(investment, totalValue);
+            return value >= min && value <= max;
+        }
+
+        @Override
+        boolean usesWeight() {
+            return field == Field.WEIGHT;
+        }
+
+        @Override
+        public String toString() {
+            return field.name().toLowerCase() + " in [" + min + ", " + max + "]";
+        }
+    }
+
+    /** This matches investments using a strict numeric comparison (less than, greater than or not equal). */
+    static final class CompareTerm extends InvestmentQuery {
+        final Field field;
+        final String op;
+        final double value;
+
+        CompareTerm(Field field, String op, double value) {
+            this.field = field;
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        public boolean matches(Investment investment, double totalValue) {
+            double actual = field.valueOf(investment, totalValue);
+            switch (op) {
+                case "<":
+                    return actual < value;
+                case ">":
+                    return actual > value;
+                default:
+                    return actual != value;
+            }
+        }
+
+        @Override
+        boolean usesWeight() {
+            return field == Field.WEIGHT;
+        }
+
+        @Override
+        public String toString() {
+            return field.name().toLowerCase() + " " + op + " " + value;
+        }
+    }
+
+    /** This matches when every child matches. */
+    static final class And extends InvestmentQuery {
+        final List<InvestmentQuery> terms;
+
+        And(List<InvestmentQuery> terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        public boolean matches(Investment investment, double totalValue) {
+            for (InvestmentQuery term : terms) {
+                if (!term.matches(investment, totalValue)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        boolean usesWeight() {
+            for (InvestmentQuery term : terms) {
+                if (term.usesWeight()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return join(terms, " and ");
+        }
+    }
+
+    /** This matches when any child matches. */
+    static final class Or extends InvestmentQuery {
+        final List<InvestmentQuery> terms;
+
+        Or(List<InvestmentQuery> terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        public boolean matches(Investment investment, double totalValue) {
+            for (InvestmentQuery term : terms) {
+                if (term.matches(investment, totalValue)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        boolean usesWeight() {
+            for (InvestmentQuery term : terms) {
+                if (term.usesWeight()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return join(terms, " or ");
+        }
+    }
+
+    /** This matches when its child does not. */
+    static final class Not extends InvestmentQuery {
+        final InvestmentQuery term;
+
+        Not(InvestmentQuery term) {
+            this.term = term;
+        }
+
+        @Override
+        public boolean matches(Investment investment, double totalValue) {
+            return !term.matches(investment, totalValue);
+        }
+
+        @Override
+        boolean usesWeight() {
+            return term.usesWeight();
+        }
+
+        @Override
+        public String toString() {
+            return "not (" + term + ")";
+        }
+    }
+
+    /**
+     * This joins child queries in brackets with the given operator.
+     */
+    private static String join(List<InvestmentQuery> terms, String operator) {
+        StringBuilder text = new StringBuilder("(");
+        for (int i = 0; i < terms.size(); i++) {
+            if (i > 0) {
+                text.append(operator);
+            }
+            text.append(terms.get(i));
+        }
+        return text.append(")").toString();
+    }
+
+    /**
+     * This is a small recursive descent parser for the query language.
+     */
+    private static final class Parser {
+        private final List<String> tokens = new ArrayList<>();
+        private int next = 0;
+
+        Parser(String text) {
+            tokenize(text);
+        }
+
+        /**
+         * This splits the text into words, numbers, quoted strings and operators.
+         * A minus sign is read as part of a number, so negative bounds such as {@code [-5, -1]} work.
+         */
+        private void tokenize(String text) {
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '"' || c == '\'') {
+                    int end = text.indexOf(c, i + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unclosed quote in query.");
+                    }
+                    tokens.add(text.substring(i, end + 1));
+                    i = end + 1;
+                } else if ("()[],".indexOf(c) >= 0) {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                } else if (c == '<' || c == '>' || c == '!' || c == '=') {
+                    if (i + 1 < text.length() && text.charAt(i + 1) == '=') {
+                        tokens.add(text.substring(i, i + 2));
+                        i += 2;
+                    } else if (c == '!') {
+                        throw new IllegalArgumentException("Expected '!=' in query.");
+                    } else {
+                        tokens.add(String.valueOf(c));
+                        i++;
+                    }
+                } else {
+                    int start = i;
+                    while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                            && "()[],<>!=\"'".indexOf(text.charAt(i)) < 0) {
+                        i++;
+                    }
+                    tokens.add(text.substring(start, i));
+                }
+            }
+        }
+
+        String peek() {
+            return next < tokens.size() ? tokens.get(next) : null;
+        }
+
+        private String take() {
+            String token = peek();
+            if (token == null) {
+                throw new IllegalArgumentException("Query ended unexpectedly.");
+            }
+            next++;
+            return token;
+        }
+
+        private boolean takeIf(String word) {
+            String token = peek();
+            if (token != null && token.equalsIgnoreCase(word)) {
+                next++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String word) {
+            if (!takeIf(word)) {
+                throw new IllegalArgumentException("Expected '" + word + "' but found '" + peek() + "'.");
+            }
+        }
+
+        InvestmentQuery parseOr() {
+            List<InvestmentQuery> terms = new ArrayList<>();
+            terms.add(parseAnd());
+            while (takeIf("or")) {
+                terms.add(parseAnd());
+            }
+            return terms.size() == 1 ? terms.get(0) : new Or(terms);
+        }
+
+        private InvestmentQuery parseAnd() {
+            List<InvestmentQuery> terms = new ArrayList<>();
+            terms.add(parseUnary());
+            while (takeIf("and")) {
+                terms.add(parseUnary());
+            }
+            return terms.size() == 1 ? terms.get(0) : new And(terms);
+        }
+
+        private InvestmentQuery parseUnary() {
+            if (takeIf("not")) {
+                return new Not(parseUnary());
+            }
+            if (takeIf("(")) {
+                InvestmentQuery inner = parseOr();
+                expect(")");
+                return inner;
+            }
+            return parseTerm();
+        }
+
+        private InvestmentQuery parseTerm() {
+            String field = take().toLowerCase();
+            String op = take().toLowerCase();
+            switch (field) {
+                case "symbol":
+                    return equalityOnly(field, op, new SymbolTerm(unquote(take())));
+                case "keyword":
+                case "keywords":
+                case "name":
+                    return equalityOnly(field, op, new KeywordTerm(unquote(take())));
+                case "type":
+                    String type = unquote(take()).toLowerCase().replace(" ", "");
+                    if (!type.equals("stock") && !type.equals("mutualfund")) {
+                        throw new IllegalArgumentException("Unknown type '" + type + "'.");
+                    }
+                    return equalityOnly(field, op, new TypeTerm(type.equals("stock")));
+                default:
+                    return parseNumeric(numericField(field), op);
+            }
+        }
+
+        private InvestmentQuery equalityOnly(String field, String op, InvestmentQuery term) {
+            if (op.equals("=")) {
+                return term;
+            }
+            if (op.equals("!=")) {
+                return new Not(term);
+            }
+            throw new IllegalArgumentException("Field '" + field + "' only supports = and !=.");
+        }
+
+        private InvestmentQuery parseNumeric(Field field, String op) {
+            if (op.equals("in")) {
+                expect("[");
+                double min = number(take());
+                expect(",");
+                double max = number(take());
+                expect("]");
+                return new RangeTerm(field, min, max);
+            }
+            double value = number(take());
+            switch (op) {
+                case "=":
+                    return new RangeTerm(field, value, value);
+                case "<=":
+                    return new RangeTerm(field, Double.NEGATIVE_INFINITY, value);
+                case ">=":
+                    return new RangeTerm(field, value, Double.POSITIVE_INFINITY);
+                case "<":
+                case ">":
+                case "!=":
+                    return new CompareTerm(field, op, value);
+                default:
+                    throw new IllegalArgumentException("Unknown operator '" + op + "'.");
+            }
+        }
+
+        private Field numericField(String field) {
+            switch (field) {
+                case "price":
+                    return Field.PRICE;
+                case "quantity":
+                    return Field.QUANTITY;
+                case "bookvalue":
+                    return Field.BOOKVALUE;
+                case "gain":
+                    return Field.GAIN;
+                case "weight":
+                    return Field.WEIGHT;
+                default:
+                    throw new IllegalArgumentException("Unknown field '" + field + "'.");
+            }
+        }
+
+        private double number(String token) {
+            try {
+                return Double.parseDouble(token);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected a number but found '" + token + "'.");
+            }
+        }
+
+        private String unquote(String token) {
+            if (token.length() >= 2 && (token.charAt(0) == '"' || token.charAt(0) == '\'')) {
+                return token.substring(1, token.length() - 1);
+            }
+            return token;
+        }
+    }
+}
@@ -23,6 +23,24 @@ public class MutualFund extends Investment {
         this.bookValue = calculateInitialBookValue(quantity, price);  // Initial book value without additional fees
     }
 
+    /**
+     * This copies a mutual fund without its listeners, e.g. to try trades on before making them.
+     *
+     * @param other The mutual fund to copy.
+     */
+    public MutualFund(MutualFund other) {
+        super(other);
+    }
+
+    /**
+     * This returns the fixed redemption fee charged on each mutual fund sale.
+     *
+     * @return The redemption fee as a double.
+     */
+    public static double getRedemptionFee() {
+        return REDEMPTION_FEE;  // Return the fixed redemption fee
+    }
+
     /**
      * This calculates the initial book value when buying mutual funds (no additional fees).
      * 
@@ -51,14 +69,13 @@ public class MutualFund extends Investment {
 
         double payment = quantity * price - REDEMPTION_FEE;  // This will calculate payment after redemption fee
         double gain = payment - (bookValue * ((double) quantity / this.quantity));  // This will calculate gain
-        this.quantity -= quantity;  // This will reduce the quantity of units
+        reduceBookValue(quantity);  // This will adjust the book value proportionally, while the quantity is still the one held before
+        changeQuantity(this.quantity - quantity);  // This will reduce the quantity of units
 
-        // This will check if all units are sold, if so reset the book value to 0
+        // This will check if all units are sold, if so reset the book value to exactly 0
         if (this.quantity == 0) {
             this.bookValue = 0;
-        } else {
-            // This will adjust the book value proportionally if some units remain
-            reduceBookValue(quantity);
+            bookChanged();
         }
 
         return gain;  // This will return the gain from the sale
@@ -73,6 +90,7 @@ public class MutualFund extends Investment {
     */
     public void updateBookValue(double price, int quantity) {
         this.bookValue += quantity * price;
+        bookChanged();
     }
 
     /**
@@ -97,8 +115,8 @@ public class MutualFund extends Investment {
 
    @Override
     public String toDisplayString() {
-        return "Symbol: " + symbol + 
-               ", Name: " + name + 
+        return "Symbol: " + getSymbol() + 
+               ", Name: " + getName() + 
                ", Quantity: " + quantity + 
                ", Price: $" + String.format("%.2f", price) + 
                ", Book Value: $" + String.format("%.2f", bookValue);
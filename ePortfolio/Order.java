@@ -0,0 +1,169 @@
+package ePortfolio;
+
+/**
+ * This is one buy or sell instruction for a portfolio, with the commission or redemption fee it will be
+ * charged. Orders are immutable; they are planned first, for a report, and executed later.
+ */
+public final class Order {
+
+    /**
+     * This is the direction of an order.
+     */
+    public enum Side {
+        BUY, SELL
+    }
+
+    private final Side side;
+    private final String symbol;
+    private final String name;  // Only needed to buy something not yet held
+    private final String type;  // "stock" or "mutualfund"
+    private final int quantity;
+    private final double price;
+
+    private Order(Side side, String symbol, String name, String type, int quantity, double price) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Order quantity must be positive.");
+        }
+        if (price < 0) {
+            throw new IllegalArgumentException("Order price cannot be negative.");
+        }
+        this.side = side;
+        this.symbol = symbol;
+        this.name = name;
+        this.type = type;
+        this.quantity = quantity;
+        this.price = price;
+    }
+
+    /**
+     * This creates a buy order.
+     *
+     * @param symbol   The symbol to buy.
+     * @param name     The investment name, used if the symbol is not held yet.
+     * @param type     "stock" or "mutualfund".
+     * @param quantity The quantity to buy, more than 0.
+     * @param price    The price per unit.
+     * @return The order.
+     * @throws IllegalArgumentException if the quantity is not positive or the price is negative.
+     */
+    public static Order buy(String symbol, String name, String type, int quantity, double price) {
+        return new Order(Side.BUY, symbol, name, type, quantity, price);
+    }
+
+    /**
+     * This creates a sell order.
+     *
+     * @param symbol   The symbol to sell.
+     * @param type     "stock" or "mutualfund", for the fee.
+     * @param quantity The quantity to sell, more than 0.
+     * @param price    The price per unit.
+     * @return The order.
+     * @throws IllegalArgumentException if the quantity is not positive or the price is negative.
+     */
+    public static Order sell(String symbol, String type, int quantity, double price) {
+        return new Order(Side.SELL, symbol, null, type, quantity, price);
+    }
+
+    /**
+     * This gets the fee this order will be charged: the stock commission on any stock trade, or the
+     * redemption fee on a mutual fund sale.
+     *
+     * @param type "stock" or "mutualfund".
+     * @param side The direction of the trade.
+     * @return The fee in dollars.
+     */
+    public static double feeOf(String type, Side side) {
+        if ("mutualfund".equalsIgnoreCase(type)) {
+            return side == Side.SELL ? MutualFund.getRedemptionFee() : 0.0;
+        }
+        return Stock.getCommission();
+    }
+
+    /**
+     * This gets the type name used by {@link Portfolio#buyInvestment} for an investment.
+     *
+     * @param investment The investment.
+     * @return "mutualfund" or "stock".
+     */
+    public static String typeOf(Investment investment) {
+        return investment instanceof MutualFund ? "mutualfund" : "stock";
+    }
+
+    /**
+     * This gets the direction.
+     *
+     * @return BUY or SELL.
+     */
+    public Side getSide() {
+        return side;
+    }
+
+    /**
+     * This gets the symbol.
+     *
+     * @return The symbol.
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * This gets the investment name given to a buy.
+     *
+     * @return The name, or null for a sell.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * This gets the investment type.
+     *
+     * @return "stock" or "mutualfund".
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * This gets the quantity.
+     *
+     * @return The quantity, always positive.
+     */
+    public int getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * This gets the price per unit.
+     *
+     * @return The price.
+     */
+    public double getPrice() {
+        return price;
+    }
+
+    /**
+     * This gets the value traded, before fees.
+     *
+     * @return The quantity times the price.
+     */
+    public double getValue() {
+        return quantity * price;
+    }
+
+    /**
+     * This gets the fee the order will be charged.
+     *
+     * @return The fee in dollars.
+     */
+    public double getFee() {
+        return feeOf(type, side);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d %s @ $%.2f ($%,.2f, fee $%.2f)",
+                side == Side.BUY ? "Buy" : "Sell", quantity, symbol, price, getValue(), getFee());
+    }
+}
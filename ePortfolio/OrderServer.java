@@ -0,0 +1,396 @@
+package ePortfolio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * This serves a portfolio to other processes on the same host, over a loopback TCP port or a Unix domain
+ * socket, with a line protocol. Each request is one line and gets one response line, "OK ..." or
+ * "ERR ...":
+ * <pre>
+ *   BUY symbol quantity price stock|mutualfund name   -&gt; OK Bought 10 units of ...
+ *   SELL symbol quantity price                        -&gt; OK Success!! Sold 10 shares of ...
+ *   UPDATE symbol price                               -&gt; OK symbol price
+ *   SEARCH query                                      -&gt; OK count symbol symbol ...
+ *   GAIN                                              -&gt; OK total realized gain
+ *   QUIT                                              -&gt; OK Bye. and the connection is closed
+ * </pre>
+ * Commands are not case sensitive, names may contain spaces, and searches use the query language of
+ * {@link Portfolio#search(String)}. A client may send several requests before reading the responses,
+ * which come back in order.
+ * <p>
+ * One selector thread serves every connection: it reads whole lines, executes those read together under
+ * the portfolio's monitor, the lock price feeds hold while applying ticks, and writes the responses, so an
+ * idle connection costs only its buffers and thousands of clients need no thread each.
+ */
+public final class OrderServer implements Closeable {
+    static final int MAX_LINE = 4096;  // Longest request, in bytes
+    private static final int MAX_PENDING = 64 * 1024;  // Unsent response bytes at which a client is not read
+    private static final int MAX_SEARCH_SYMBOLS = 100;  // Symbols listed in a search response
+
+    private final Portfolio portfolio;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final SocketAddress address;
+    private final Thread loop;
+    private volatile boolean running = true;
+    private volatile long requests = 0;  // Written only by the selector thread
+    private volatile int connections = 0;  // Written only by the selector thread
+    private volatile IOException failure;
+
+    /**
+     * This is the state of one client connection.
+     */
+    private static final class Connection {
+        final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        ByteBuffer out = ByteBuffer.allocate(256);  // Responses not yet written, in fill mode
+        boolean closing = false;  // Set after QUIT, to close once the responses are written
+    }
+
+    private OrderServer(Portfolio portfolio, ServerSocketChannel server, Selector selector) throws IOException {
+        this.portfolio = portfolio;
+        this.server = server;
+        this.selector = selector;
+        this.address = server.getLocalAddress();
+        this.loop = new Thread(this::run, "order-server");
+        loop.setDaemon(true);
+    }
+
+    /**
+     * This opens a server on an address and starts serving.
+     *
+     * @param portfolio The portfolio to serve.
+     * @param address   A loopback {@link InetSocketAddress}, port 0 for any free port, or a
+     *                  {@link UnixDomainSocketAddress} whose file does not exist yet.
+     * @return The running server.
+     * @throws IOException if the address cannot be bound.
+     * @throws IllegalArgumentException if the address is not a loopback address or a Unix domain socket.
+     */
+    public static OrderServer open(Portfolio portfolio, SocketAddress address) throws IOException {
+        // This serves only this host, as requests are not authenticated
+        if (!(address instanceof UnixDomainSocketAddress) && !(address instanceof InetSocketAddress
+                && ((InetSocketAddress) address).getAddress() != null
+                && ((InetSocketAddress) address).getAddress().isLoopbackAddress())) {
+            throw new IllegalArgumentException("Orders can only be served on a loopback address or a Unix domain socket.");
+        }
+        ServerSocketChannel server = address instanceof UnixDomainSocketAddress
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open();
+        Selector selector = null;
+        try {
+            server.bind(address, 4096);
+            server.configureBlocking(false);
+            selector = Selector.open();
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            OrderServer opened = new OrderServer(portfolio, server, selector);
+            opened.loop.start();
+            return opened;
+        } catch (IOException | RuntimeException e) {
+            server.close();
+            if (selector != null) {
+                selector.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * This gets the address the server is bound to, with the port chosen if 0 was asked for.
+     *
+     * @return The address.
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * This gets the number of requests served.
+     *
+     * @return The count.
+     */
+    public long getRequestCount() {
+        return requests;
+    }
+
+    /**
+     * This gets the number of clients connected now.
+     *
+     * @return The count.
+     */
+    public int getConnectionCount() {
+        return connections;
+    }
+
+    /**
+     * This gets the error that stopped the server, if it stopped by itself.
+     *
+     * @return The error, or null.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * This stops serving, closing every connection, and removes the socket file of a Unix domain socket.
+     *
+     * @throws IOException if the socket file cannot be removed.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            loop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+        }
+    }
+
+    /**
+     * This is the selector loop, run until the server is closed.
+     */
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> ready = selector.selectedKeys().iterator();
+                while (ready.hasNext()) {
+                    SelectionKey key = ready.next();
+                    ready.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                flush(key);
+                            }
+                        }
+                    } catch (IOException e) {
+                        disconnect(key);  // This drops a client whose connection broke
+                    }
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    // This is closing anyway
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // This is closing anyway
+            }
+            connections = 0;
+        }
+    }
+
+    /**
+     * This accepts every client waiting to connect.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            if (!(address instanceof UnixDomainSocketAddress)) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);  // Responses are small and awaited
+            }
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+            connections++;
+        }
+    }
+
+    /**
+     * This reads what a client sent and executes every whole line of it.
+     */
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        if (((SocketChannel) key.channel()).read(connection.in) < 0) {
+            disconnect(key);
+            return;
+        }
+        ByteBuffer in = connection.in;
+        byte[] bytes = in.array();
+        int start = 0;
+        int end = in.position();
+        int served = 0;
+        synchronized (portfolio) {
+            for (int i = 0; i < end && !connection.closing; i++) {
+                if (bytes[i] == '\n') {
+                    int length = i > start && bytes[i - 1] == '\r' ? i - 1 - start : i - start;
+                    String line = new String(bytes, start, length, StandardCharsets.UTF_8);
+                    respond(connection, execute(portfolio, line));
+                    connection.closing = line.trim().equalsIgnoreCase("quit");
+                    start = i + 1;
+                    served++;
+                }
+            }
+        }
+        requests += served;
+        in.position(start).limit(end);
+        in.compact();
+        if (!in.hasRemaining() && !connection.closing) {
+            respond(connection, "ERR Request longer than " + MAX_LINE + " bytes.");
+            connection.closing = true;
+        }
+        flush(key);
+    }
+
+    /**
+     * This adds a response line to what is to be written to a client.
+     */
+    private static void respond(Connection connection, String response) {
+        byte[] bytes = (response + "\n").getBytes(StandardCharsets.UTF_8);
+        if (connection.out.remaining() < bytes.length) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(connection.out.capacity() * 2,
+                    connection.out.position() + bytes.length));
+            connection.out.flip();
+            grown.put(connection.out);
+            connection.out = grown;
+        }
+        connection.out.put(bytes);
+    }
+
+    /**
+     * This writes as much of the pending responses as the client takes, then waits to read more, to
+     * write the rest, or both. A client that does not read its responses is not read from either.
+     */
+    private void flush(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer out = connection.out;
+        out.flip();
+        ((SocketChannel) key.channel()).write(out);
+        out.compact();
+        int pending = out.position();
+        if (pending == 0 && connection.closing) {
+            disconnect(key);
+        } else if (pending == 0) {
+            key.interestOps(SelectionKey.OP_READ);
+        } else if (pending < MAX_PENDING && !connection.closing) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void disconnect(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // This is closing anyway
+        }
+        connections--;
+    }
+
+    /**
+     * This executes one request line. The caller holds the portfolio's monitor.
+     *
+     * @param portfolio The portfolio.
+     * @param line      The request, without its line end.
+     * @return The response, without its line end.
+     */
+    static String execute(Portfolio portfolio, String line) {
+        String[] words = line.trim().split("\\s+", 6);
+        String command = words[0].toUpperCase(Locale.ROOT);
+        try {
+            switch (command) {
+                case "BUY":
+                    if (words.length < 6) {
+                        return "ERR Usage: BUY symbol quantity price stock|mutualfund name";
+                    }
+                    return trade(portfolio, words[1], () -> portfolio.buyInvestment(words[1], words[5],
+                            quantity(words[2]), price(words[3]), words[4]));
+                case "SELL":
+                    if (words.length != 4) {
+                        return "ERR Usage: SELL symbol quantity price";
+                    }
+                    return trade(portfolio, words[1], () -> portfolio.sellInvestment(words[1],
+                            quantity(words[2]), price(words[3])));
+                case "UPDATE":
+                    if (words.length != 3) {
+                        return "ERR Usage: UPDATE symbol price";
+                    }
+                    double price = price(words[2]);
+                    return portfolio.updatePrice(words[1], price)
+                            ? "OK " + words[1] + " " + price
+                            : "ERR Investment not found.";
+                case "SEARCH":
+                    List<Investment> found = portfolio.search(line.trim().substring(command.length()).trim());
+                    StringBuilder response = new StringBuilder("OK ").append(found.size());
+                    for (int i = 0; i < Math.min(found.size(), MAX_SEARCH_SYMBOLS); i++) {
+                        response.append(' ').append(found.get(i).getSymbol());
+                    }
+                    return response.toString();
+                case "GAIN":
+                    return String.format("OK %.2f", portfolio.getGain());
+                case "QUIT":
+                    return "OK Bye.";
+                case "":
+                    return "ERR Empty request.";
+                default:
+                    return "ERR Unknown command: " + words[0];
+            }
+        } catch (RuntimeException e) {
+            return "ERR " + e.getMessage();  // This covers bad numbers, bad queries and store failures
+        }
+    }
+
+    /**
+     * This runs a buy or sell and tells whether it succeeded by whether the holding's quantity changed,
+     * since both return a message either way, and whether it was saved to the store.
+     */
+    private static String trade(Portfolio portfolio, String symbol, Supplier<String> trade) {
+        int before = quantityOf(portfolio, symbol);
+        String message = trade.get().replace('\n', ' ');
+        boolean succeeded = quantityOf(portfolio, symbol) != before && !portfolio.lastSaveFailed();
+        return (succeeded ? "OK " : "ERR ") + message;
+    }
+
+    private static int quantityOf(Portfolio portfolio, String symbol) {
+        Investment investment = portfolio.findInvestmentBySymbol(symbol);
+        return investment == null ? 0 : investment.getQuantity();
+    }
+
+    private static int quantity(String text) {
+        int quantity = Integer.parseInt(text);
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive.");
+        }
+        return quantity;
+    }
+
+    private static double price(String text) {
+        double price = Double.parseDouble(text);
+        if (!(price >= 0) || Double.isInfinite(price)) {
+            throw new IllegalArgumentException("Price must be zero or a positive value.");
+        }
+        return price;
+    }
+}
@@ -0,0 +1,232 @@
+package ePortfolio;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * This parses a portfolio file, in the format {@link Portfolio#saveInvestmentsToFile(String)} writes,
+ * on several threads. The file is memory-mapped and cut into chunks at record boundaries, each a line
+ * starting with "type = ", and the chunks are parsed in parallel into investments that are not yet in
+ * any portfolio. {@link Portfolio#loadInvestmentsFromFile(String, int)} then adds them in file order, so
+ * the result is the same as a load on one thread.
+ */
+final class ParallelLoader {
+    private static final long MIN_CHUNK_BYTES = 1L << 20;  // Smaller files are parsed in one chunk
+    private static final long MAX_CHUNK_BYTES = 64L << 20;  // Larger files get more chunks than workers
+    private static final int SEARCH_WINDOW = 1 << 16;  // Bytes mapped at a time when looking for a boundary
+    private static final byte[] RECORD_START = "type = ".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * This is what was parsed from one chunk, up to the first bad record if there was one.
+     */
+    static final class Chunk {
+        final List<Investment> investments = new ArrayList<>();
+        String error;  // Why parsing stopped early, or null
+    }
+
+    private ParallelLoader() {
+    }
+
+    /**
+     * This parses a file on a given number of workers.
+     *
+     * @param file    The portfolio file.
+     * @param workers The number of worker threads, or 0 for the common fork join pool.
+     * @return The chunks, in file order.
+     * @throws IOException if the file cannot be opened or mapped.
+     */
+    static Chunk[] parse(Path file, int workers) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int parallelism = workers > 0 ? workers : ForkJoinPool.getCommonPoolParallelism();
+            long wanted = Math.max(parallelism * 4L, (size + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+            int count = (int) Math.max(1, Math.min(size / MIN_CHUNK_BYTES, wanted));
+            long[] bounds = new long[count + 1];
+            for (int c = 1; c < count; c++) {
+                bounds[c] = nextRecordStart(channel, Math.max(bounds[c - 1], size / count * c), size);
+            }
+            bounds[count] = size;
+
+            Chunk[] chunks = new Chunk[count];
+            if (count == 1) {
+                chunks[0] = parseChunk(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+                return chunks;  // This is a small file, not worth handing to other threads
+            }
+            List<Callable<Void>> tasks = new ArrayList<>(count);
+            for (int c = 0; c < count; c++) {
+                long start = bounds[c];
+                long length = bounds[c + 1] - start;
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("No record boundary found in " + length + " bytes from offset " + start + ".");
+                }
+                int index = c;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                tasks.add(() -> {
+                    chunks[index] = parseChunk(buffer);
+                    return null;
+                });
+            }
+            ForkJoinPool pool = workers > 0 ? new ForkJoinPool(workers) : ForkJoinPool.commonPool();
+            try {
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Loading interrupted.", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Loading failed: " + e.getCause(), e.getCause());
+            } finally {
+                if (workers > 0) {
+                    pool.shutdown();
+                }
+            }
+            return chunks;
+        }
+    }
+
+    /**
+     * This finds the first record start at or after an offset, or the end of the file if there is none.
+     */
+    private static long nextRecordStart(FileChannel channel, long from, long size) throws IOException {
+        if (from == 0) {
+            return 0;
+        }
+        long position = from - 1;  // This includes the line break before a record at from
+        while (position < size) {
+            int length = (int) Math.min(SEARCH_WINDOW, size - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            for (int i = 1; i < length; i++) {
+                if (window.get(i - 1) == '\n' && position + i >= from && startsWith(window, i, length)) {
+                    return position + i;
+                }
+            }
+            if (position + length >= size) {
+                break;
+            }
+            position += length - RECORD_START.length;  // This overlaps windows, for a record start crossing them
+        }
+        return size;
+    }
+
+    private static boolean startsWith(MappedByteBuffer buffer, int position, int limit) {
+        if (limit - position < RECORD_START.length) {
+            return false;
+        }
+        for (int i = 0; i < RECORD_START.length; i++) {
+            if (buffer.get(position + i) != RECORD_START[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This parses the records of one chunk the way {@link Portfolio#loadInvestmentsFromFile(String)}
+     * does: six "key = value" lines with the quotes dropped, then a line that is skipped.
+     */
+    private static Chunk parseChunk(MappedByteBuffer buffer) {
+        Chunk chunk = new Chunk();
+        Charset charset = Charset.defaultCharset();  // This is the charset the file was saved in
+        byte[] scratch = new byte[256];
+        int limit = buffer.limit();
+        int position = 0;
+        try {
+            while (position < limit) {
+                String type = null;
+                String symbol = null;
+                String name = null;
+                int quantity = 0;
+                double price = 0;
+                double bookValue = 0;
+                for (int field = 0; field < 6; field++) {
+                    if (position >= limit) {
+                        throw new IllegalArgumentException("The last record is incomplete.");
+                    }
+                    int end = lineEnd(buffer, position, limit);
+                    int length = value(buffer, position, end, scratch);
+                    if (length > scratch.length) {
+                        scratch = new byte[length * 2];
+                        length = value(buffer, position, end, scratch);
+                    }
+                    switch (field) {
+                        case 0: type = new String(scratch, 0, length, StandardCharsets.ISO_8859_1); break;
+                        case 1: symbol = new String(scratch, 0, length, charset); break;
+                        case 2: name = new String(scratch, 0, length, charset); break;
+                        case 3: quantity = Integer.parseInt(new String(scratch, 0, length, StandardCharsets.ISO_8859_1)); break;
+                        case 4: price = Double.parseDouble(new String(scratch, 0, length, StandardCharsets.ISO_8859_1)); break;
+                        default: bookValue = Double.parseDouble(new String(scratch, 0, length, StandardCharsets.ISO_8859_1)); break;
+                    }
+                    position = end + 1;
+                }
+                if (position < limit) {
+                    position = lineEnd(buffer, position, limit) + 1;  // This will skip blank line between entries
+                }
+
+                Investment investment;
+                if (type.equalsIgnoreCase("stock")) {
+                    investment = new Stock(symbol, name, quantity, price);
+                } else if (type.equalsIgnoreCase("mutualfund")) {
+                    investment = new MutualFund(symbol, name, quantity, price);
+                } else {
+                    continue;
+                }
+                investment.setBookValue(bookValue);  // This sets the book value as read from file
+                chunk.investments.add(investment);
+            }
+        } catch (RuntimeException e) {  // This includes an invalid number or a rejected investment
+            chunk.error = e.getMessage();
+        }
+        return chunk;
+    }
+
+    private static int lineEnd(MappedByteBuffer buffer, int position, int limit) {
+        while (position < limit && buffer.get(position) != '\n') {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * This copies the value of a "key = value" line into scratch, without quotes or a carriage return.
+     *
+     * @return The value length, which is more than scratch holds if it did not fit.
+     */
+    private static int value(MappedByteBuffer buffer, int position, int end, byte[] scratch) {
+        int start = -1;
+        for (int i = position; i + 2 < end; i++) {
+            if (buffer.get(i) == ' ' && buffer.get(i + 1) == '=' && buffer.get(i + 2) == ' ') {
+                start = i + 3;
+                break;
+            }
+        }
+        if (start < 0) {
+            throw new IllegalArgumentException("Expected a key = value line.");
+        }
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b != '"') {
+                if (length < scratch.length) {
+                    scratch[length] = b;
+                }
+                length++;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,422 @@
+package ePortfolio;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * This measures the performance of a portfolio as it happens: time-weighted and money-weighted return,
+ * volatility over a rolling window of periods, maximum drawdown and each holding's contribution to the
+ * return. It sees every price move and every buy or sell, either as a {@link PriceListener} on a
+ * portfolio or fed directly through {@link #priceMove} and {@link #cashFlow} when replaying.
+ * <p>
+ * Every update is O(1) and allocation free. The time-weighted return uses unit pricing, as a fund does:
+ * money coming in buys units at the current unit value, so only price moves change the unit value.
+ * Volatility is the standard deviation of the log return of each period (a day by default), kept with a
+ * sliding Welford update over a ring buffer so the window is never summed again. Periods without any
+ * activity are skipped, like market holidays. The money-weighted return is the one figure that needs
+ * all cash flows; they are kept in primitive arrays, one entry per trade, and solved on request.
+ */
+public class PerformanceAnalytics implements PriceListener {
+    private static final long DAY = 86_400_000L;
+
+    private final LongSupplier clock;
+    private final long periodMillis;
+
+    // This is the unit pricing state behind the time-weighted return
+    private double value = 0.0;  // Market value of everything tracked
+    private double units = 0.0;
+    private double unitValue = 1.0;
+    private double peakUnitValue = 1.0;
+    private double maxDrawdown = 0.0;
+
+    // This is the period return state behind the volatility
+    private long periodEnd = Long.MIN_VALUE;  // End of the current period, exclusive
+    private double periodStartUnitValue = 1.0;
+    private final double[] window;  // Ring buffer of the last period log returns
+    private int windowCount = 0;
+    private int windowNext = 0;
+    private double windowMean = 0.0;
+    private double windowM2 = 0.0;  // Sum of squared deviations over the window
+    private long periods = 0;
+    private double allMean = 0.0;
+    private double allM2 = 0.0;
+
+    // This is the contribution of each holding, by slot
+    private final IntIntMap slotByInstrument = new IntIntMap();
+    private int[] instruments = new int[16];
+    private double[] contributions = new double[16];
+    private double[] profits = new double[16];
+    private int slots = 0;
+
+    // This is every external cash flow, for the money-weighted return
+    private long[] flowTimes = new long[64];
+    private double[] flowAmounts = new double[64];
+    private int flows = 0;
+    private long lastTime = Long.MIN_VALUE;
+
+    /**
+     * This creates analytics on the wall clock with daily periods and a 20 day volatility window.
+     */
+    public PerformanceAnalytics() {
+        this(System::currentTimeMillis, DAY, 20);
+    }
+
+    /**
+     * This creates analytics with its own clock and period.
+     *
+     * @param clock        The source of timestamps for listener events, in milliseconds since the epoch.
+     * @param periodMillis The length of one volatility period.
+     * @param window       The number of periods in the rolling volatility window.
+     * @throws IllegalArgumentException if the period or window is not positive.
+     */
+    public PerformanceAnalytics(LongSupplier clock, long periodMillis, int window) {
+        if (periodMillis <= 0 || window <= 0) {
+            throw new IllegalArgumentException("Period and window must be positive.");
+        }
+        this.clock = clock;
+        this.periodMillis = periodMillis;
+        this.window = new double[window];
+    }
+
+    /**
+     * This starts tracking a portfolio. Its current holdings are taken as money invested now, and every
+     * later price move, buy and sell is recorded as it happens.
+     *
+     * @param portfolio The portfolio to track.
+     */
+    public void track(Portfolio portfolio) {
+        synchronized (portfolio) {  // This is the lock price feeds hold while applying ticks
+            synchronized (this) {
+                long time = clock.getAsLong();
+                for (Investment investment : portfolio.getInvestments()) {
+                    cashFlow(time, investment.getInstrumentId(), investment.getPrice() * investment.getQuantity());
+                }
+                portfolio.addPriceListener(this);
+            }
+        }
+    }
+
+    /**
+     * This stops tracking a portfolio. The figures recorded so far are kept.
+     *
+     * @param portfolio The portfolio to stop tracking.
+     */
+    public void untrack(Portfolio portfolio) {
+        portfolio.removePriceListener(this);
+    }
+
+    @Override
+    public void priceChanged(Investment investment, double oldPrice, double newPrice) {
+        priceMove(clock.getAsLong(), investment.getInstrumentId(), (newPrice - oldPrice) * investment.getQuantity());
+    }
+
+    @Override
+    public void quantityChanged(Investment investment, int oldQuantity, int newQuantity) {
+        // This values the trade at the current mark; a new trade price arrives next as a price move
+        cashFlow(clock.getAsLong(), investment.getInstrumentId(), (double) (newQuantity - oldQuantity) * investment.getPrice());
+    }
+
+    /**
+     * This records a change in market value caused by a price move on one holding.
+     *
+     * @param time       The time of the move, in milliseconds since the epoch.
+     * @param instrument The instrument id of the holding.
+     * @param change     The change in the holding's market value.
+     */
+    public synchronized void priceMove(long time, int instrument, double change) {
+        advance(time);
+        if (value > 0 && units > 0) {
+            int slot = slot(instrument);
+            contributions[slot] += change / value * unitValue;  // This is the move's share of the unit value change
+            profits[slot] += change;
+            value += change;
+            unitValue = Math.max(0.0, value / units);
+            if (unitValue > peakUnitValue) {
+                peakUnitValue = unitValue;
+            } else {
+                maxDrawdown = Math.max(maxDrawdown, 1.0 - unitValue / peakUnitValue);
+            }
+        } else {
+            value += change;
+        }
+    }
+
+    /**
+     * This records money moved into or out of one holding, by a buy (positive) or a sell (negative).
+     *
+     * @param time       The time of the trade, in milliseconds since the epoch.
+     * @param instrument The instrument id of the holding.
+     * @param amount     The market value bought, or minus the value sold.
+     */
+    public synchronized void cashFlow(long time, int instrument, double amount) {
+        advance(time);
+        if (amount == 0) {
+            return;
+        }
+        slot(instrument);  // This lists the holding even before it moves
+        value += amount;
+        if (value <= 1e-9) {
+            value = 0.0;
+            units = 0.0;  // This is a fully sold portfolio, the unit value is kept for new money
+        } else if (unitValue > 0) {
+            units += amount / unitValue;
+        }
+        if (flows == flowTimes.length) {
+            flowTimes = Arrays.copyOf(flowTimes, flows * 2);
+            flowAmounts = Arrays.copyOf(flowAmounts, flows * 2);
+        }
+        flowTimes[flows] = lastTime;  // This is the time as clamped by advance
+        flowAmounts[flows++] = amount;
+    }
+
+    /**
+     * This closes the current period if the time has moved past it, adding its return to the windows.
+     */
+    private void advance(long time) {
+        if (time < lastTime) {
+            time = lastTime;  // This keeps a clock that steps back from reopening a closed period
+        }
+        lastTime = time;
+        if (time < periodEnd) {
+            return;
+        }
+        if (periodEnd != Long.MIN_VALUE && periodStartUnitValue > 0 && unitValue > 0) {
+            addPeriodReturn(Math.log(unitValue / periodStartUnitValue));
+        }
+        periodStartUnitValue = unitValue;
+        periodEnd = Math.floorDiv(time, periodMillis) * periodMillis + periodMillis;
+    }
+
+    /**
+     * This adds a period return to the rolling window, sliding out the oldest once full, and to the whole
+     * history.
+     */
+    private void addPeriodReturn(double r) {
+        if (windowCount < window.length) {
+            windowCount++;
+            double delta = r - windowMean;
+            windowMean += delta / windowCount;
+            windowM2 += delta * (r - windowMean);
+        } else {
+            double old = window[windowNext];
+            double oldMean = windowMean;
+            windowMean += (r - old) / windowCount;
+            windowM2 += (r - old) * (r - windowMean + old - oldMean);
+            windowM2 = Math.max(0.0, windowM2);  // This absorbs rounding when the window is nearly constant
+        }
+        window[windowNext] = r;
+        windowNext = (windowNext + 1) % window.length;
+        periods++;
+        double delta = r - allMean;
+        allMean += delta / periods;
+        allM2 += delta * (r - allMean);
+    }
+
+    /**
+     * This gets the contribution slot of an instrument, adding one on first use.
+     */
+    private int slot(int instrument) {
+        int slot = slotByInstrument.get(instrument);
+        if (slot >= 0) {
+            return slot;
+        }
+        if (slots == instruments.length) {
+            instruments = Arrays.copyOf(instruments, slots * 2);
+            contributions = Arrays.copyOf(contributions, slots * 2);
+            profits = Arrays.copyOf(profits, slots * 2);
+        }
+        instruments[slots] = instrument;
+        slotByInstrument.put(instrument, slots);
+        return slots++;
+    }
+
+    /**
+     * This gets the time-weighted return, which ignores when and how much money was added or taken out.
+     *
+     * @return The return since tracking started, e.g. 0.05 for 5%.
+     */
+    public synchronized double getTimeWeightedReturn() {
+        return unitValue - 1.0;
+    }
+
+    /**
+     * This gets the money-weighted return, the single rate that grows every cash flow into today's market
+     * value, so it rewards having more money in during good times. It is a rate over the whole tracked
+     * span, comparable to the time-weighted return, not annualized.
+     *
+     * @return The return since tracking started, or NaN if no time has passed or no rate fits.
+     */
+    public synchronized double getMoneyWeightedReturn() {
+        if (flows == 0 || lastTime <= flowTimes[0]) {
+            return Double.NaN;
+        }
+        double span = lastTime - flowTimes[0];
+        double low = -20.0;  // This is the log of one plus the rate, bisected
+        double high = 20.0;
+        double fLow = futureValue(low, span) - value;
+        double fHigh = futureValue(high, span) - value;
+        if (Double.isNaN(fLow) || Double.isNaN(fHigh) || Math.signum(fLow) == Math.signum(fHigh)) {
+            return Double.NaN;
+        }
+        for (int i = 0; i < 100 && high - low > 1e-12; i++) {
+            double mid = (low + high) / 2;
+            double fMid = futureValue(mid, span) - value;
+            if (Math.signum(fMid) == Math.signum(fLow)) {
+                low = mid;
+                fLow = fMid;
+            } else {
+                high = mid;
+            }
+        }
+        return Math.expm1((low + high) / 2);
+    }
+
+    /**
+     * This grows every cash flow to the last time at a log rate over the whole span.
+     */
+    private double futureValue(double logRate, double span) {
+        double total = 0.0;
+        for (int i = 0; i < flows; i++) {
+            total += flowAmounts[i] * Math.exp(logRate * (lastTime - flowTimes[i]) / span);
+        }
+        return total;
+    }
+
+    /**
+     * This gets the volatility over the rolling window: the standard deviation of the period log returns.
+     *
+     * @return The volatility per period, or NaN with fewer than two closed periods.
+     */
+    public synchronized double getVolatility() {
+        return windowCount < 2 ? Double.NaN : Math.sqrt(windowM2 / (windowCount - 1));
+    }
+
+    /**
+     * This gets the rolling window volatility scaled to a year of calendar periods.
+     *
+     * @return The annualized volatility, or NaN with fewer than two closed periods.
+     */
+    public synchronized double getAnnualizedVolatility() {
+        return getVolatility() * Math.sqrt(365.25 * DAY / periodMillis);
+    }
+
+    /**
+     * This gets the volatility over every closed period since tracking started.
+     *
+     * @return The volatility per period, or NaN with fewer than two closed periods.
+     */
+    public synchronized double getVolatilitySinceStart() {
+        return periods < 2 ? Double.NaN : Math.sqrt(allM2 / (periods - 1));
+    }
+
+    /**
+     * This gets the number of periods closed so far.
+     *
+     * @return The period count.
+     */
+    public synchronized long getPeriodCount() {
+        return periods;
+    }
+
+    /**
+     * This gets the largest fall of the unit value from an earlier peak, over every recorded move.
+     *
+     * @return The maximum drawdown, e.g. 0.2 for a 20% fall.
+     */
+    public synchronized double getMaxDrawdown() {
+        return maxDrawdown;
+    }
+
+    /**
+     * This gets how far the unit value is now below its peak.
+     *
+     * @return The current drawdown, 0 at a new high.
+     */
+    public synchronized double getCurrentDrawdown() {
+        return 1.0 - unitValue / peakUnitValue;
+    }
+
+    /**
+     * This gets each holding's contribution to the time-weighted return. The contributions add up to the
+     * time-weighted return, as each price move is weighted by the unit value it moved.
+     *
+     * @return The contribution by symbol, largest first.
+     */
+    public synchronized Map<String, Double> getContributions() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int slot : slotsByContribution()) {
+            result.merge(InstrumentRegistry.get().symbol(instruments[slot]), contributions[slot], Double::sum);
+        }
+        return result;
+    }
+
+    /**
+     * This orders the holding slots by contribution, largest first.
+     */
+    private Integer[] slotsByContribution() {
+        Integer[] order = new Integer[slots];
+        for (int i = 0; i < slots; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(contributions[b], contributions[a]));
+        return order;
+    }
+
+    /**
+     * This gets the profit each holding made from price moves, ignoring money moved in or out.
+     *
+     * @param symbol The symbol of the holding (case insensitive).
+     * @return The profit from price moves, 0 if the holding never moved.
+     */
+    public synchronized double getProfit(String symbol) {
+        double profit = 0.0;
+        for (int id : InstrumentRegistry.get().idsOfSymbol(symbol)) {
+            int slot = slotByInstrument.get(id);
+            if (slot >= 0) {
+                profit += profits[slot];
+            }
+        }
+        return profit;
+    }
+
+    /**
+     * This gets the market value of everything tracked.
+     *
+     * @return The market value.
+     */
+    public synchronized double getMarketValue() {
+        return value;
+    }
+
+    /**
+     * This describes every figure in a few lines, for the console and the GUI.
+     *
+     * @return The report text.
+     */
+    public synchronized String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Time-weighted return:   %s%n", percent(getTimeWeightedReturn())));
+        report.append(String.format("Money-weighted return:  %s%n", percent(getMoneyWeightedReturn())));
+        report.append(String.format("Volatility (%d periods): %s per period, %s annualized%n",
+                window.length, percent(getVolatility()), percent(getAnnualizedVolatility())));
+        report.append(String.format("Volatility since start: %s per period over %d periods%n",
+                percent(getVolatilitySinceStart()), periods));
+        report.append(String.format("Max drawdown:           %s (now %s)%n",
+                percent(maxDrawdown), percent(getCurrentDrawdown())));
+        report.append("Contribution by holding:\n");
+        for (int slot : slotsByContribution()) {
+            report.append(String.format("  %-10s %s  ($%,.2f)%n", InstrumentRegistry.get().symbol(instruments[slot]),
+                    percent(contributions[slot]), profits[slot]));
+        }
+        return report.toString();
+    }
+
+    /**
+     * This formats a fraction as a signed percentage, or n/a when it is not known yet.
+     */
+    private static String percent(double fraction) {
+        return Double.isNaN(fraction) ? "n/a" : String.format("%+.2f%%", fraction * 100);
+    }
+}
@@ -0,0 +1,71 @@
+package ePortfolio;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * This is the Java Flight Recorder event emitted for each load or save of a portfolio file, and each
+ * bulk import or export through {@link BulkTransfer}, and each diff written or applied through {@link PortfolioDiff}.
+ */
+@Name("ePortfolio.Persistence")
+@Label("Portfolio Load/Save")
+@Category({"ePortfolio"})
+@Description("A loadInvestmentsFromFile or saveInvestmentsToFile call, a bulk import or export, or a diff or patch")
+@StackTrace(false)
+@Threshold("0 ms")
+class PersistenceEvent extends jdk.jfr.Event {
+    private static final EventType TYPE = EventType.getEventType(PersistenceEvent.class);
+
+    @Label("Operation")
+    @Description("load, save, import, export, diff or patch")
+    String operation;
+
+    @Label("File")
+    String file;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Records")
+    int records;
+
+    /**
+     * This starts timing a load or save if a recording wants the event. When none does, no event is allocated,
+     * so the hot path costs one flag read.
+     *
+     * @return The started event, or null if the event is not being recorded.
+     */
+    static PersistenceEvent start() {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * This ends the event and commits it if the recording wants it.
+     *
+     * @param operation "load" or "save".
+     * @param file      The file read or written.
+     * @param records   The number of investments read or written.
+     */
+    void finish(String operation, String file, int records) {
+        end();
+        if (shouldCommit()) {
+            this.operation = operation;
+            this.file = file;
+            this.bytes = new java.io.File(file).length();
+            this.records = records;
+            commit();
+        }
+    }
+}
@@ -12,34 +12,182 @@ import javax.swing.SwingUtilities;
  */
 public class Portfolio {
     private ArrayList<Investment> investments;  // Unified list of investments
-    private HashMap<String, ArrayList<Integer>> keywordIndex;  // Index for keywords
+    private IntIntMap keywordIndex;  // Index for keyword ids to slots in keywordPositions
+    private ArrayList<IntList> keywordPositions;  // Positions for each indexed keyword, in position order
+    private IntIntMap symbolIndex;  // Index for instrument ids to positions
+    private final InstrumentRegistry registry = InstrumentRegistry.get();  // Shared symbols, names and keywords
+    private double[] sortedPrices;  // Price index values, sorted ascending
+    private int[] sortedPricePositions;  // Positions matching sortedPrices
+    private boolean priceIndexStale = true;  // Set whenever a price or the list changes
+    private double marketValue = 0.0;  // Running total of price times quantity, kept up to date by holdingListener
+    private volatile PriceListener[] listeners = new PriceListener[0];  // Portfolio wide listeners
+    private AlertEngine alertEngine;  // Created on first use
+    private PerformanceAnalytics analytics;  // Created on first use
+    private final PortfolioMetrics metrics = PortfolioMetrics.get();  // Shared hot path metrics
+    private volatile SnapshotFile snapshot;  // Holdings still to be read from an open snapshot file, or null
+    private IntIntMap readFromSnapshot;  // Snapshot record positions already read, to their instrument ids
+    private double snapshotValue = 0.0;  // Market value of the holdings still in the snapshot
+    private PortfolioStore store;  // Where each trade is written as it happens, or null
+    private boolean saveFailed = false;  // Set when the last trade could not be written to the store
+    private final HoldingVector holdings = new HoldingVector();  // Values of each holding, in list order, for views
+    private final TradeLog tradeLog = new TradeLog(Integer.getInteger("eportfolio.undo.trades", 100000));  // Trades that can be undone
+    private int transactionDepth = 0;  // Nesting of transaction calls
+    private int tradeDepth = 0;  // Nesting of buy, sell and price update calls in progress
+    private final ArrayList<Investment> touched = new ArrayList<>();  // Holdings changed since views were brought up to date
+    private boolean touchedAll = false;  // Set when more changed than are held, to copy every holding instead
 
     /**
-     * This initializes a new Portfolio with an empty list of investments and an empty keyword index.
+     * This listens to every held investment, keeping the market value total and price index in step,
+     * noting the holding for views, and forwarding each change to the portfolio listeners.
+     */
+    private final PriceListener holdingListener = new PriceListener() {
+        @Override
+        public void priceChanged(Investment investment, double oldPrice, double newPrice) {
+            marketValue += (newPrice - oldPrice) * investment.getQuantity();
+            priceIndexStale = true;
+            touch(investment);
+            for (PriceListener listener : listeners) {
+                listener.priceChanged(investment, oldPrice, newPrice);
+            }
+        }
+
+        @Override
+        public void quantityChanged(Investment investment, int oldQuantity, int newQuantity) {
+            marketValue += (double) (newQuantity - oldQuantity) * investment.getPrice();
+            touch(investment);
+            for (PriceListener listener : listeners) {
+                listener.quantityChanged(investment, oldQuantity, newQuantity);
+            }
+        }
+
+        @Override
+        public void bookChanged(Investment investment) {
+            touch(investment);
+        }
+    };
+
+    /**
+     * This initializes a new Portfolio with an empty list of investments and empty indexes.
      */
     public Portfolio() {
         investments = new ArrayList<>();
-        keywordIndex = new HashMap<>();
+        keywordIndex = new IntIntMap();
+        keywordPositions = new ArrayList<>();
+        symbolIndex = new IntIntMap();
     }  
 
     /**
-    * This Retrieves the list of all investments in the portfolio.
+    * This Retrieves the list of all investments in the portfolio, reading the rest of an open snapshot
+    * file first. The list is a copy that cannot be changed, so later trades do not move it; the
+    * investments in it are the live holdings. To read values consistently without the lock, use
+    * {@link #view()} instead.
     *
-    * @return An ArrayList of all investments currently in the portfolio.
+    * @return An unmodifiable list of all investments currently in the portfolio.
     */
-    public ArrayList<Investment> getInvestments() {
+    public synchronized List<Investment> getInvestments() {
+        loadRest();
+        return Collections.unmodifiableList(new ArrayList<>(investments));
+    }
+
+    /**
+     * This gets the holdings read so far, without reading the rest of an open snapshot file.
+     *
+     * @return The list of holdings in memory.
+     */
+    ArrayList<Investment> heldInvestments() {
         return investments;
     }
 
+    /**
+     * This gets the number of holdings, counting those of an open snapshot file not read yet, without
+     * reading them. It takes no lock, so while another thread trades it may be a trade behind.
+     *
+     * @return The number of holdings.
+     */
+    public int size() {
+        return investments.size() + getUnreadCount();
+    }
+
+    /**
+     * This takes an immutable view of every holding as it is now, reading the rest of an open snapshot
+     * first. Taking a view copies nothing, and later trades and price changes do not show in it, so it
+     * can be read on any thread without holding the portfolio's monitor. Taking it holds the monitor
+     * briefly, so it waits for a trade or batch in progress on another thread to finish. One taken inside a
+     * trade or batch, e.g. by a listener, shows the holdings as they were before it, never half changed.
+     *
+     * @return The view.
+     */
+    public synchronized PortfolioView view() {
+        loadRest();
+        if (tradeDepth == 0 && batchDepth == 0) {
+            updateHoldings();  // This picks up changes made directly on held investments
+        }
+        return holdings.view();
+    }
+
+    /**
+     * This notes that a held investment changed, for {@link #updateHoldings()}. Only the last holding noted
+     * is checked for repeats, which catches the several changes of one trade; past one note per holding,
+     * every holding is copied instead, so the notes stay bounded.
+     */
+    private void touch(Investment investment) {
+        if (touchedAll || (!touched.isEmpty() && touched.get(touched.size() - 1) == investment)) {
+            return;
+        }
+        if (touched.size() >= investments.size()) {
+            touched.clear();
+            touchedAll = true;
+        } else {
+            touched.add(investment);
+        }
+    }
+
+    /**
+     * This copies the holdings changed since the last call into the holdings views are taken from, once a
+     * trade or batch has finished, so a view never shows one half applied. The caller holds the monitor.
+     */
+    private void updateHoldings() {
+        if (touchedAll) {
+            holdings.rebuild(investments);
+        } else {
+            for (Investment investment : touched) {
+                refreshHolding(investment);
+            }
+        }
+        touched.clear();
+        touchedAll = false;
+    }
+
+    /**
+     * This ends a buy, sell or price update, bringing the holdings for views up to date once the outermost
+     * one ends outside any batch.
+     */
+    private void endTrade() {
+        if (--tradeDepth == 0 && batchDepth == 0) {
+            updateHoldings();
+        }
+    }
+
+    /**
+     * This copies the current values of a held investment into the holdings views are taken from.
+     */
+    private void refreshHolding(Investment investment) {
+        int position = symbolIndex.get(investment.getInstrumentId());
+        if (position >= 0 && position < investments.size() && investments.get(position) == investment) {
+            holdings.set(position, investment);
+        }
+    }
+
     /**
     * This Retrieves a list of display strings for all investments in the portfolio.
     *
     * @return A list of strings, each representing an investment's display information.
     */
     public List<String> getInvestmentDisplayList() {
-        List<String> displayList = new ArrayList<>();
-        for (Investment investment : investments) {
-            displayList.add(investment.toDisplayString());
+        PortfolioView view = view();
+        List<String> displayList = new ArrayList<>(view.size());
+        for (int i = 0; i < view.size(); i++) {
+            displayList.add(view.toDisplayString(i));
         }
         return displayList;
     } 
@@ -52,12 +200,7 @@ public class Portfolio {
      * @return True if the symbol exists, false otherwise.
      */
     public boolean isSymbolUnique(String symbol) {
-        for (Investment investment : investments) {
-            if (investment.getSymbol().equalsIgnoreCase(symbol)) {
-                return false;
-            }
-        }
-        return true;
+        return positionOfSymbol(symbol) < 0;
     }
 
     /**
@@ -70,44 +213,110 @@ public class Portfolio {
      * @param type     The type of investment ("stock" or "mutualfund").
      * @return A message indicating the success or failure of the operation.
      */
-    public String buyInvestment(String symbol, String name, int quantity, double price, String type) { 
-        StringBuilder message = new StringBuilder(); // Initialize the StringBuilder
-        Investment existingInvestment = findInvestmentBySymbol(symbol);
-        if (existingInvestment != null) {
-            existingInvestment.setQuantity(existingInvestment.getQuantity() + quantity);
-            existingInvestment.setPrice(price);
-        
-            // Below it will update the book value based on the type of investment
-            if (existingInvestment instanceof Stock) {
-                ((Stock) existingInvestment).updateBookValue(price, quantity);
-            } else if (existingInvestment instanceof MutualFund) {
-                ((MutualFund) existingInvestment).updateBookValue(price, quantity);
+    public synchronized String buyInvestment(String symbol, String name, int quantity, double price, String type) {
+        tradeDepth++;
+        TradeEvent event = TradeEvent.start();
+        long start = metrics.startTime(PortfolioMetrics.Operation.BUY);
+        long allocated = metrics.allocatedBytes(PortfolioMetrics.Operation.BUY);
+        String result = null;
+        try {
+            Investment held = findInvestmentBySymbol(symbol);
+            tradeLog.before(held);
+            result = buy(held, symbol, name, quantity, price, type);
+            logTrade(false, held != null ? held : findInvestmentBySymbol(symbol), 0.0, result);
+            result = persist(symbol, result);
+            return result;
+        } finally {
+            metrics.record(PortfolioMetrics.Operation.BUY, start, allocated);
+            if (event != null) {
+                event.finish("buy", symbol, quantity, price, result);
             }
-             message.append("Added ").append(quantity).append(" more units of ").append(symbol)
+            endTrade();
+        }
+    }
+
+    /**
+     * This buys as {@link #buyInvestment(String, String, int, double, String)} does, but returns only
+     * whether it bought, building no message. It is for {@link TradeEngine}, whose writer holds the
+     * portfolio's monitor. It is recorded for undo and written to the store as the public call would be,
+     * and counted in the metrics, but emits no flight recorder event.
+     *
+     * @return True if the investment was bought.
+     * @throws IllegalStateException if the trade cannot be saved to the store.
+     */
+    boolean applyBuy(String symbol, String name, int quantity, double price, String type) {
+        tradeDepth++;
+        long start = metrics.startTime(PortfolioMetrics.Operation.BUY);
+        long allocated = metrics.allocatedBytes(PortfolioMetrics.Operation.BUY);
+        try {
+            Investment held = findInvestmentBySymbol(symbol);
+            tradeLog.before(held);
+            Investment bought = buyHolding(held, symbol, name, quantity, price, type);
+            logTrade(false, bought, 0.0, "Unrecognized investment type.");
+            persistOrThrow(symbol);
+            return bought != null;
+        } finally {
+            metrics.record(PortfolioMetrics.Operation.BUY, start, allocated);
+            endTrade();
+        }
+    }
+
+    /**
+     * This does the work of {@link #buyInvestment(String, String, int, double, String)}.
+     */
+    private String buy(Investment held, String symbol, String name, int quantity, double price, String type) {
+        if (held == null && !isSymbolUnique(symbol)) {
+            return "Error: Symbol already used by another investment.";
+        }
+        Investment bought = buyHolding(held, symbol, name, quantity, price, type);
+        if (bought == null) {
+            return "Unrecognized investment type.";
+        }
+        StringBuilder message = new StringBuilder(); // Initialize the StringBuilder
+        if (held != null) {
+            message.append("Added ").append(quantity).append(" more units of ").append(symbol)
                .append(" at $").append(price).append(" each.");
         } else {
-            // It will ensure the symbol is unique across all investments
-            if (!isSymbolUnique(symbol)) {
-                return "Error: Symbol already used by another investment.";
-            }
+            message.append("Bought ").append(quantity).append(" units of ").append(name)
+               .append(" (").append(symbol).append(") at $").append(price).append(" each.");
+        }
+        return message.toString();
+    }
 
-            Investment newInvestment;
-            if (type.equalsIgnoreCase("stock")) {
-                newInvestment = new Stock(symbol, name, quantity, price);
-            } else if (type.equalsIgnoreCase("mutualfund")) {
-                newInvestment = new MutualFund(symbol, name, quantity, price);
-            } else {
-                return "Unrecognized investment type.";
-            }
+    /**
+     * This makes a buy: it adds to the held investment, or adds a new one.
+     *
+     * @param held The investment held under the symbol, or null if there is none.
+     * @return The investment bought, or null if the type is not recognized.
+     */
+    private Investment buyHolding(Investment held, String symbol, String name, int quantity, double price, String type) {
+        if (held != null) {
+            held.setQuantity(held.getQuantity() + quantity);
+            held.setPrice(price);
 
-            addInvestment(newInvestment);
-             message.append("Bought ").append(quantity).append(" units of ").append(name)
-               .append(" (").append(symbol).append(") at $").append(price).append(" each.");
-        } 
-         return message.toString();
-    } 
+            // Below it will update the book value based on the type of investment
+            if (held instanceof Stock) {
+                ((Stock) held).updateBookValue(price, quantity);
+            } else if (held instanceof MutualFund) {
+                ((MutualFund) held).updateBookValue(price, quantity);
+            }
+            return held;
+        }
+        Investment newInvestment;
+        if (type.equalsIgnoreCase("stock")) {
+            newInvestment = new Stock(symbol, name, quantity, price);
+        } else if (type.equalsIgnoreCase("mutualfund")) {
+            newInvestment = new MutualFund(symbol, name, quantity, price);
+        } else {
+            return null;
+        }
+        addInvestment(newInvestment);
+        return newInvestment;
+    }
 
     private double realizedGain = 0;
+    private int batchDepth = 0;  // Nesting of beginBatch calls
+    private boolean rebuildInBatch = false;  // Set when a batch leaves a holding at zero or replaces one
 
     /**
     * This sells a specified quantity of an investment and updates the price.
@@ -117,33 +326,618 @@ public class Portfolio {
     * @param price    The selling price per unit. 
     * @return A message indicating the success or failure of the sale.
     */ 
-    public String sellInvestment(String symbol, int quantity, double price) {
-        Investment investment = findInvestmentBySymbol(symbol);
+    public synchronized String sellInvestment(String symbol, int quantity, double price) {
+        tradeDepth++;
+        TradeEvent event = TradeEvent.start();
+        long start = metrics.startTime(PortfolioMetrics.Operation.SELL);
+        long allocated = metrics.allocatedBytes(PortfolioMetrics.Operation.SELL);
+        String result = null;
+        try {
+            Investment held = findInvestmentBySymbol(symbol);
+            tradeLog.before(held);
+            double realizedBefore = realizedGain;
+            result = sell(held, symbol, quantity, price);
+            logTrade(true, held, realizedGain - realizedBefore, result);
+            result = persist(symbol, result);
+            return result;
+        } finally {
+            metrics.record(PortfolioMetrics.Operation.SELL, start, allocated);
+            if (event != null) {
+                event.finish("sell", symbol, quantity, price, result);
+            }
+            endTrade();
+        }
+    }
+
+    /**
+     * This sells as {@link #sellInvestment(String, int, double)} does, but returns only whether it sold,
+     * building no message. It is for {@link TradeEngine}, whose writer holds the portfolio's monitor. It
+     * is recorded for undo and written to the store as the public call would be, and counted in the
+     * metrics, but emits no flight recorder event.
+     *
+     * @return True if the investment was sold.
+     * @throws IllegalStateException if the trade cannot be saved to the store.
+     */
+    boolean applySell(String symbol, int quantity, double price) {
+        tradeDepth++;
+        long start = metrics.startTime(PortfolioMetrics.Operation.SELL);
+        long allocated = metrics.allocatedBytes(PortfolioMetrics.Operation.SELL);
+        try {
+            Investment held = findInvestmentBySymbol(symbol);
+            tradeLog.before(held);
+            double realizedBefore = realizedGain;
+            boolean sold = held != null && !Double.isNaN(sellHolding(held, quantity, price));
+            logTrade(true, held, realizedGain - realizedBefore, "Sale failed. Check quantity.");
+            persistOrThrow(symbol);
+            return sold;
+        } finally {
+            metrics.record(PortfolioMetrics.Operation.SELL, start, allocated);
+            endTrade();
+        }
+    }
+
+    /**
+     * This does the work of {@link #sellInvestment(String, int, double)}.
+     */
+    private String sell(Investment investment, String symbol, int quantity, double price) {
         if (investment == null) {
             return "Investment not found.";
         }
+        double gain = sellHolding(investment, quantity, price);  // This will perform the sale
+        if (Double.isNaN(gain)) {
+            return "Sale failed. Check quantity.";
+        }
         StringBuilder message = new StringBuilder(); // This will initialize the StringBuilder
-        double gain = investment.sell(quantity, price);  // This will perform the sale
+        message.append("Success!! Sold ").append(quantity).append(" shares of ")
+            .append(symbol).append(" at $").append(price).append(" per share.\n");
+        message.append("Sold stock with gain: $").append(gain);
+        if (investment.getQuantity() == 0) {
+            message.append("\nAll units of ").append(symbol).append(" sold. Investment removed from portfolio.");
+        }
+        return message.toString();
+    }
 
+    /**
+     * This makes a sale of a held investment, adding its gain to the realized gains and taking it out of
+     * the portfolio if sold out.
+     *
+     * @return The gain, rounded to cents, or NaN if the quantity cannot be sold.
+     */
+    private double sellHolding(Investment investment, int quantity, double price) {
+        double gain = investment.sell(quantity, price);
         if (gain == -1) {
-            return "Sale failed. Check quantity.";
+            return Double.NaN;
+        }
+        investment.updateRealizedGain(gain); // This will add gain to realized gains for this investment
+        investment.setPrice(price); // This will update the price to reflect the sale price
+        gain = Math.round(gain * 100.0) / 100.0; // Round to 2 decimal places
+        realizedGain += gain; // This will add to the total portfolio gain
+        if (investment.getQuantity() == 0) {
+            detachSoldOut(investment);
+        }
+        return gain;
+    }
+
+    /**
+     * This records a trade in the trade log, if it changed anything. In a transaction, a trade that
+     * changed nothing failed, and so fails the transaction.
+     *
+     * @param sell          True for a sell, false for a buy.
+     * @param held          The holding traded, or null if there is none.
+     * @param portfolioGain What the trade added to the portfolio's realized gain.
+     * @param result        The trade's message.
+     * @throws IllegalStateException with the trade's message if it failed in a transaction.
+     */
+    private void logTrade(boolean sell, Investment held, double portfolioGain, String result) {
+        if (!tradeLog.after(sell, held, portfolioGain) && transactionDepth > 0) {
+            throw new IllegalStateException(result);
+        }
+    }
+
+    /**
+     * This writes the holding a trade touched to the store, if there is one: its new state, or its
+     * removal once sold out. A failed trade changed nothing, which the store skips.
+     *
+     * @param symbol The symbol traded.
+     * @param result The trade's message, to which a write error is added.
+     * @return The message.
+     */
+    private String persist(String symbol, String result) {
+        saveFailed = false;
+        try {
+            persistHolding(symbol);
+        } catch (IOException e) {
+            saveFailed = true;
+            return result + "\nError saving the trade: " + e.getMessage();
+        }
+        return result;
+    }
+
+    /**
+     * This writes the holding a trade touched to the store, as {@link #persist(String, String)} does, but
+     * throws if it cannot.
+     *
+     * @throws IllegalStateException if the store cannot be written.
+     */
+    private void persistOrThrow(String symbol) {
+        try {
+            persistHolding(symbol);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not save " + symbol + " to " + store + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * This tells whether the last buy or sell could not be written to the store, its message then ending
+     * with the error. The caller holds the portfolio's monitor since making the trade.
+     *
+     * @return True if the write failed.
+     */
+    boolean lastSaveFailed() {
+        return saveFailed;
+    }
+
+    /**
+     * This writes the current state of one holding to the store, if there is one.
+     *
+     * @param symbol The symbol of the holding, which is removed from the store if no longer held.
+     * @throws IOException if the store cannot be written.
+     */
+    void persistHolding(String symbol) throws IOException {
+        if (store == null) {
+            return;
+        }
+        Investment investment = findInvestmentBySymbol(symbol);
+        if (investment == null || investment.getQuantity() == 0) {
+            store.remove(symbol);
+        } else {
+            store.put(investment);
+        }
+    }
+
+    /**
+     * This takes a holding sold down to zero out of the portfolio, or in a batch leaves it for
+     * {@link #endBatch()} to remove with the others.
+     */
+    private void detachSoldOut(Investment investment) {
+        if (batchDepth > 0) {
+            rebuildInBatch = true;  // This is removed with the others when the batch ends
         } else {
-            investment.updateRealizedGain(gain); // This will add gain to realized gains for this investment
-            investment.setPrice(price); // This will update the price to reflect the sale price
-            gain = Math.round(gain * 100.0) / 100.0; // Round to 2 decimal places
-            message.append("Success!! Sold ").append(quantity).append(" shares of ")
-                .append(symbol).append(" at $").append(price).append(" per share.\n");
-            message.append("Sold stock with gain: $").append(gain);
-            realizedGain += gain; // This will add to the total portfolio gain
-            if (investment.getQuantity() == 0) {
-                investments.remove(investment);
-                message.append("\nAll units of ").append(symbol).append(" sold. Investment removed from portfolio.");
+            investments.remove(investment);
+            investment.removePriceListener(holdingListener);
+            rebuildIndexes(); // Positions after the removed holding have shifted
+        }
+    }
+
+    /**
+     * This removes a holding without selling it, e.g. to reconcile with another copy of the portfolio.
+     * Listeners see its quantity go to zero. The caller holds the portfolio's monitor.
+     *
+     * @param investment A held investment.
+     */
+    void removeInvestment(Investment investment) {
+        investment.setQuantity(0);
+        detachSoldOut(investment);
+    }
+
+    /**
+     * This puts a new investment in the place of a held one with the same symbol, for a change of name or
+     * type, which an investment cannot make itself. Listeners see the old one go to zero and the new one
+     * come from zero. The caller holds the portfolio's monitor.
+     *
+     * @param held        A held investment.
+     * @param replacement The investment to hold instead, not yet in any portfolio.
+     */
+    void replaceInvestment(Investment held, Investment replacement) {
+        int position = heldPositionOfSymbol(held.getSymbol());
+        held.setQuantity(0);
+        held.removePriceListener(holdingListener);
+        investments.set(position, replacement);
+        symbolIndex.put(replacement.getInstrumentId(), position);
+        touch(replacement);
+        marketValue += replacement.getPrice() * replacement.getQuantity();
+        replacement.addPriceListener(holdingListener);
+        for (PriceListener listener : listeners) {
+            listener.quantityChanged(replacement, 0, replacement.getQuantity());
+        }
+        if (batchDepth > 0) {
+            rebuildInBatch = true;  // The name keywords are reindexed when the batch ends
+        } else {
+            rebuildIndexes();
+        }
+    }
+
+    /**
+     * This runs trades as one transaction: a single batch, undone and redone as one step. If the trades
+     * throw, or a buy or sell among them fails, every trade they made is rolled back, in memory and in the
+     * store, before the exception is passed on. In a transaction, a failed buy or sell throws an
+     * IllegalStateException with its message instead of returning it.
+     *
+     * @param trades The trades, made through this portfolio.
+     * @throws IllegalStateException if a trade failed, or the transaction cannot be saved to the store.
+     */
+    public synchronized void transaction(Runnable trades) {
+        beginBatch();
+        transactionDepth++;
+        long mark = tradeLog.mark();
+        try {
+            trades.run();
+        } catch (RuntimeException | Error e) {
+            for (int record = tradeLog.applied() - 1; record >= tradeLog.recordAt(mark); record--) {
+                restore(record, true);
+            }
+            tradeLog.truncate(mark);
+            throw e;
+        } finally {
+            transactionDepth--;
+            endBatch();
+        }
+    }
+
+    /**
+     * This executes a batch of orders all or nothing, with the same result as calling
+     * {@link #buyInvestment} and {@link #sellInvestment} for each in turn. Every order is first tried, in
+     * order, on a copy of its holding, with the same fees and arithmetic; if any would fail, nothing is
+     * changed. Otherwise each holding is set to its final state once, as one transaction and one undo step,
+     * so listeners and the store see one change per holding rather than per order, and the holdings sold
+     * out are removed with a single rebuild of the indexes.
+     *
+     * @param orders The orders, applied in list order.
+     * @return A summary of what was executed.
+     * @throws IllegalArgumentException naming the first order that would fail, in which case nothing changed.
+     * @throws IllegalStateException if the trades cannot be saved to the store, in which case nothing changed.
+     */
+    public synchronized String executeBatch(List<Order> orders) {
+        // This keys holdings by instrument id, or by lower case symbol when not held, as symbols match
+        // regardless of case
+        Map<Object, BatchHolding> byHolding = new HashMap<>();
+        List<BatchHolding> planned = new ArrayList<>();
+        int sells = 0;
+        for (int i = 0; i < orders.size(); i++) {
+            Order order = orders.get(i);
+            Investment held = findInvestmentBySymbol(order.getSymbol());
+            Object key = held != null ? (Object) held.getInstrumentId()
+                    : order.getSymbol() == null ? null : order.getSymbol().toLowerCase();
+            BatchHolding holding = byHolding.get(key);
+            if (holding == null) {
+                holding = new BatchHolding(held);
+                byHolding.put(key, holding);
+                planned.add(holding);
+            }
+            String failure = holding.apply(order, i);
+            if (failure != null) {
+                throw new IllegalArgumentException("Order " + (i + 1) + " (" + order + ") would fail: " + failure);
+            }
+            sells += order.getSide() == Order.Side.SELL ? 1 : 0;
+        }
+        List<BatchHolding> bought = new ArrayList<>();
+        for (BatchHolding holding : planned) {
+            if (holding.boughtAt >= 0) {
+                bought.add(holding);
+            }
+        }
+        bought.sort((a, b) -> Integer.compare(a.boughtAt, b.boughtAt));  // This adds them in the order single buys would
+        double gainBefore = realizedGain;
+        transaction(() -> {
+            for (BatchHolding holding : planned) {
+                holding.commitHeld();
+            }
+            for (BatchHolding holding : bought) {
+                holding.commitBought();
+            }
+        });
+        return String.format("Executed %d orders (%d buys, %d sells) on %d holdings, realized gain $%.2f.",
+                orders.size(), orders.size() - sells, sells, planned.size(), realizedGain - gainBefore);
+    }
+
+    /**
+     * This is one symbol's part of {@link #executeBatch(List)}: a copy the orders are tried on, and the
+     * held investment, if any, that it is then written to. As with single trades, a holding sold out and
+     * bought again is a new holding, at the end of the list.
+     */
+    private final class BatchHolding {
+        private final Investment held;  // The holding, or null if there is none
+        private Investment trial;  // The copy the orders are applied to, null until bought if not held
+        private Investment soldOut;  // The copy of the held one, once sold out and bought again
+        private boolean gone = false;  // Set while the copy is sold out, as if removed
+        private int boughtAt = -1;  // The order that bought the copy new, or -1 if it is the held one
+        private double portfolioGain = 0;  // What the sales add to the portfolio's realized gain
+        private double heldGain = 0;  // The part of it from selling the held one
+
+        BatchHolding(Investment held) {
+            this.held = held;
+            if (held instanceof MutualFund) {
+                trial = new MutualFund((MutualFund) held);
+            } else if (held != null) {
+                trial = new Stock((Stock) held);
+            }
+        }
+
+        /**
+         * This tries one order on the copy, as {@link #buy} or {@link #sell} would make it.
+         *
+         * @return Null if it succeeded, otherwise why not.
+         */
+        String apply(Order order, int index) {
+            if (order.getSide() == Order.Side.SELL) {
+                if (trial == null || gone) {
+                    return "Investment not found.";
+                }
+                double gain = trial.sell(order.getQuantity(), order.getPrice());
+                if (gain == -1) {
+                    return "Sale failed. Check quantity.";
+                }
+                trial.updateRealizedGain(gain);
+                trial.setPrice(order.getPrice());
+                portfolioGain += Math.round(gain * 100.0) / 100.0;
+                gone = trial.getQuantity() == 0;
+            } else if (trial == null || gone) {
+                Investment bought;
+                String type = order.getType() == null ? "" : order.getType();
+                try {
+                    if (type.equalsIgnoreCase("stock")) {
+                        bought = new Stock(order.getSymbol(), order.getName(), order.getQuantity(), order.getPrice());
+                    } else if (type.equalsIgnoreCase("mutualfund")) {
+                        bought = new MutualFund(order.getSymbol(), order.getName(), order.getQuantity(), order.getPrice());
+                    } else {
+                        return "Unrecognized investment type.";
+                    }
+                } catch (IllegalArgumentException e) {
+                    return e.getMessage();
+                }
+                if (held != null && soldOut == null) {
+                    soldOut = trial;  // This keeps how the held one was left, for the holding itself
+                    heldGain = portfolioGain;
+                }
+                trial = bought;
+                boughtAt = index;
+                gone = false;
+            } else {
+                trial.setQuantity(trial.getQuantity() + order.getQuantity());
+                trial.setPrice(order.getPrice());
+                if (trial instanceof Stock) {
+                    ((Stock) trial).updateBookValue(order.getPrice(), order.getQuantity());
+                } else {
+                    ((MutualFund) trial).updateBookValue(order.getPrice(), order.getQuantity());
+                }
+            }
+            return null;
+        }
+
+        /**
+         * This writes the final state of the held investment, in the transaction of the batch.
+         */
+        void commitHeld() {
+            if (held == null) {
+                return;
+            }
+            Investment state = soldOut != null ? soldOut : trial;
+            tradeLog.before(held);
+            int quantityBefore = held.getQuantity();
+            held.setQuantity(state.getQuantity());
+            held.setPrice(state.getPrice());
+            held.setBookValue(state.getBookValue());
+            held.setRealizedGain(state.realizedGain);
+            double gain = soldOut != null ? heldGain : portfolioGain;
+            realizedGain += gain;
+            if (held.getQuantity() == 0) {
+                detachSoldOut(held);
+            }
+            tradeLog.after(held.getQuantity() < quantityBefore, held, gain);
+            save(held);
+        }
+
+        /**
+         * This adds the investment bought new, in the transaction of the batch.
+         */
+        void commitBought() {
+            tradeLog.before(null);
+            addInvestment(trial);
+            double gain = portfolioGain - heldGain;
+            realizedGain += gain;
+            if (trial.getQuantity() == 0) {
+                detachSoldOut(trial);
+            }
+            tradeLog.after(false, trial, gain);
+            save(trial);
+        }
+
+        private void save(Investment investment) {
+            try {
+                persistHolding(investment.getSymbol());
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not save " + investment.getSymbol() + " to " + store + ": " + e.getMessage(), e);
             }
-            return message.toString();
         }
     }
 
+    /**
+     * This undoes the last step of trades still in effect: a buy or sell, or every trade of a transaction
+     * or applied rebalance. Each holding gets back the quantity, book value and realized gain it had
+     * before, a sold out one included (back at the end of the list), and its price unless the price has
+     * moved since. Undone steps can be redone until the next trade.
+     *
+     * @return A description of the trades undone, or null if there is nothing to undo.
+     * @throws IllegalStateException if a holding has been changed since other than by price, e.g. by an
+     *                               import or a patch, or if called during a batch.
+     */
+    public synchronized String undo() {
+        int end = tradeLog.applied();
+        int start = tradeLog.undoStart();
+        if (start < 0) {
+            return null;
+        }
+        applyStep(start, end, true);
+        tradeLog.setApplied(start);
+        return tradeLog.describe(start, end);
+    }
 
+    /**
+     * This redoes the step of trades undone last.
+     *
+     * @return A description of the trades redone, or null if there is nothing to redo.
+     * @throws IllegalStateException if a holding has been changed since other than by price, or if
+     *                               called during a batch.
+     */
+    public synchronized String redo() {
+        int start = tradeLog.applied();
+        int end = tradeLog.redoEnd();
+        if (end < 0) {
+            return null;
+        }
+        applyStep(start, end, false);
+        tradeLog.setApplied(end);
+        return tradeLog.describe(start, end);
+    }
+
+    /**
+     * This checks that every holding of a step is as the step left it, for an undo, or as it found it,
+     * for a redo, then puts them back to the other state as one batch.
+     */
+    private void applyStep(int from, int to, boolean undo) {
+        if (batchDepth > 0) {
+            throw new IllegalStateException("Trades cannot be undone or redone during a batch.");
+        }
+        IntIntMap checked = new IntIntMap();
+        for (int i = 0; i < to - from; i++) {
+            int record = undo ? to - 1 - i : from + i;  // The state to expect is the one nearest now
+            int id = tradeLog.instrumentId(record);
+            if (checked.get(id) >= 0) {
+                continue;
+            }
+            checked.put(id, record);
+            Investment held = findInvestmentByInstrument(id);
+            int quantity = held == null ? 0 : held.getQuantity();
+            if (quantity != tradeLog.quantity(record, !undo)
+                    || (quantity != 0 && held.getBookValue() != tradeLog.bookValue(record, !undo))) {
+                throw new IllegalStateException("Cannot " + (undo ? "undo " : "redo ") + tradeLog.describe(from, to)
+                        + ": " + registry.symbol(id) + " has changed since.");
+            }
+        }
+        beginBatch();
+        try {
+            for (int i = 0; i < to - from; i++) {
+                restore(undo ? to - 1 - i : from + i, undo);
+            }
+        } finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * This puts the holding of a trade record back to its state before or after the trade, and the
+     * portfolio's realized gain with it. The caller holds the portfolio's monitor in a batch.
+     *
+     * @param record The record.
+     * @param before True for the state before the trade, false for after.
+     */
+    private void restore(int record, boolean before) {
+        int id = tradeLog.instrumentId(record);
+        int quantity = tradeLog.quantity(record, before);
+        double price = tradeLog.price(record, before);
+        Investment held = findInvestmentByInstrument(id);
+        if (held == null) {
+            if (quantity > 0) {
+                Investment investment = tradeLog.isMutualFund(record)
+                        ? new MutualFund(registry.symbol(id), registry.name(id), quantity, price)
+                        : new Stock(registry.symbol(id), registry.name(id), quantity, price);
+                investment.setBookValue(tradeLog.bookValue(record, before));
+                investment.setRealizedGain(tradeLog.realizedGain(record, before));
+                addInvestment(investment);
+            }
+        } else if (quantity == 0) {
+            if (held.getQuantity() != 0) {
+                removeInvestment(held);
+            }
+        } else {
+            if (held.getQuantity() == 0 || held.getPrice() == tradeLog.price(record, !before)) {
+                held.setPrice(price);  // A price that has moved since the trade is kept, unless sold out since
+            }
+            held.setQuantity(quantity);
+            held.setBookValue(tradeLog.bookValue(record, before));
+            held.setRealizedGain(tradeLog.realizedGain(record, before));
+        }
+        realizedGain += before ? -tradeLog.portfolioGain(record) : tradeLog.portfolioGain(record);
+        try {
+            persistHolding(registry.symbol(id));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not save " + registry.symbol(id) + " to " + store + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * This sets the store each trade is written to as it happens, e.g. a database file the portfolio was
+     * loaded from. The trades of a batch are written as one transaction.
+     *
+     * @param store The store, or null to write nothing until saved.
+     */
+    public void setStore(PortfolioStore store) {
+        this.store = store;
+    }
+
+    /**
+     * This gets the store trades are written to.
+     *
+     * @return The store, or null if there is none.
+     */
+    public PortfolioStore getStore() {
+        return store;
+    }
+
+    /**
+     * This starts a batch of trades. Until the matching {@link #endBatch()}, holdings sold down to zero
+     * stay in place, so a batch that sells out many holdings shifts the list and rebuilds the indexes
+     * once instead of once per holding. The caller holds the portfolio's monitor for the whole batch.
+     * With a store set, the batch's trades are written as one transaction.
+     */
+    void beginBatch() {
+        if (batchDepth++ == 0) {
+            if (store != null) {
+                try {
+                    store.begin();
+                } catch (IOException e) {
+                    batchDepth--;
+                    throw new IllegalStateException("Could not start a transaction in " + store + ": " + e.getMessage(), e);
+                }
+            }
+            tradeLog.startStep();  // The batch's trades are undone together
+        }
+    }
+
+    /**
+     * This ends a batch of trades, removing every holding it sold out that was not bought back, and
+     * commits the batch's transaction.
+     *
+     * @throws IllegalStateException if the transaction cannot be committed, in which case none of the
+     *                               batch's trades are in the store.
+     */
+    void endBatch() {
+        if (--batchDepth > 0) {
+            return;
+        }
+        tradeLog.endStep();
+        if (tradeDepth == 0) {
+            updateHoldings();  // This comes before removing the sold out holdings, whose rebuild copies them all
+        }
+        if (rebuildInBatch) {
+            rebuildInBatch = false;
+            investments.removeIf(investment -> {
+                if (investment.getQuantity() != 0) {
+                    return false;
+                }
+                investment.removePriceListener(holdingListener);
+                return true;
+            });
+            rebuildIndexes();
+        }
+        if (store != null) {
+            try {
+                store.commit();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not save the trades to " + store + ": " + e.getMessage(), e);
+            }
+        }
+    }
 
     /**
      * This adds an investment to the portfolio and indexes its keywords.
@@ -151,8 +945,102 @@ public class Portfolio {
      * @param investment The investment to be added.
      */
     public void addInvestment(Investment investment) {
+        attach(investment);
+        for (PriceListener listener : listeners) {
+            listener.quantityChanged(investment, 0, investment.getQuantity());
+        }
+    }
+
+    /**
+     * This adds an investment to the list, indexes and market value without telling the portfolio
+     * listeners, for a holding that was already in the portfolio but not yet read.
+     */
+    private void attach(Investment investment) {
         investments.add(investment);
-        indexInvestmentKeywords(investment, investments.size() - 1);
+        indexInvestment(investment, investments.size() - 1);
+        holdings.add(investment);
+        marketValue += investment.getPrice() * investment.getQuantity();
+        investment.addPriceListener(holdingListener);
+    }
+
+    /**
+     * This registers a listener told about price and quantity changes on every holding in the portfolio,
+     * including holdings added later. A newly added holding is reported as a quantity change from zero.
+     *
+     * @param listener The listener to add.
+     */
+    public synchronized void addPriceListener(PriceListener listener) {
+        PriceListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * This removes a listener previously added with {@link #addPriceListener(PriceListener)}.
+     *
+     * @param listener The listener to remove.
+     */
+    public synchronized void removePriceListener(PriceListener listener) {
+        List<PriceListener> remaining = new ArrayList<>(Arrays.asList(listeners));
+        remaining.remove(listener);
+        listeners = remaining.toArray(new PriceListener[0]);
+    }
+
+    /**
+     * This gets the alert engine evaluating price alerts on this portfolio, creating it on first use.
+     *
+     * @return The portfolio's alert engine.
+     */
+    public synchronized AlertEngine getAlertEngine() {
+        if (alertEngine == null) {
+            alertEngine = new AlertEngine(this);
+        }
+        return alertEngine;
+    }
+
+    /**
+     * This gets the performance analytics tracking this portfolio, creating it on first use. Returns are
+     * measured from that moment, with the holdings then held taken as the money invested.
+     *
+     * @return The portfolio's performance analytics.
+     */
+    public synchronized PerformanceAnalytics getAnalytics() {
+        if (analytics == null) {
+            loadRest();
+            analytics = new PerformanceAnalytics();
+            analytics.track(this);
+        }
+        return analytics;
+    }
+
+    /**
+     * This indexes the symbol and keywords of an investment at the given position.
+     *
+     * @param investment The investment to index.
+     * @param position   The position of the investment in the list.
+     */
+    private void indexInvestment(Investment investment, int position) {
+        symbolIndex.put(investment.getInstrumentId(), position);
+        indexInvestmentKeywords(investment, position);
+        priceIndexStale = true;
+    }
+
+    /**
+     * This rebuilds every index from scratch, used after a holding is removed from the list.
+     */
+    private void rebuildIndexes() {
+        keywordIndex.clear();
+        keywordPositions.clear();
+        symbolIndex.clear();
+        for (int i = 0; i < investments.size(); i++) {
+            indexInvestment(investments.get(i), i);
+        }
+        holdings.rebuild(investments);
+        if (tradeDepth == 0 && batchDepth == 0) {
+            touched.clear();  // This copied every holding as it is
+            touchedAll = false;
+        }
+        priceIndexStale = true;
     }
 
     /**
@@ -162,9 +1050,14 @@ public class Portfolio {
      * @param position   The position of the investment in the list.
      */
     private void indexInvestmentKeywords(Investment investment, int position) {
-        String[] keywords = investment.getName().toLowerCase().split("\\s+");
-        for (String keyword : keywords) {
-            keywordIndex.computeIfAbsent(keyword, k -> new ArrayList<>()).add(position);
+        for (int keyword : registry.keywords(investment.getInstrumentId())) {  // Split once, when registered
+            int slot = keywordIndex.get(keyword);
+            if (slot < 0) {
+                slot = keywordPositions.size();
+                keywordPositions.add(new IntList(2));
+                keywordIndex.put(keyword, slot);
+            }
+            keywordPositions.get(slot).add(position);
         }
     }
 
@@ -174,6 +1067,205 @@ public class Portfolio {
     * @param filename The name of the file to load investments from.
     */
     public void loadInvestmentsFromFile(String filename) {
+        PersistenceEvent event = PersistenceEvent.start();
+        long start = metrics.startTime(PortfolioMetrics.Operation.LOAD);
+        long allocated = metrics.allocatedBytes(PortfolioMetrics.Operation.LOAD);
+        int records = 0;
+        try {
+            records = load(filename);
+        } finally {
+            metrics.record(PortfolioMetrics.Operation.LOAD, start, allocated);
+            if (event != null) {
+                event.finish("load", filename, records);
+            }
+        }
+    }
+
+    /**
+     * This loads investments from a file, parsing it on several threads. The file is memory-mapped and
+     * split at record boundaries, and the investments are added in file order, so the portfolio ends up
+     * the same as after {@link #loadInvestmentsFromFile(String)}.
+     *
+     * @param filename The name of the file to load investments from.
+     * @param workers  The number of parsing threads, or 0 for the common fork join pool.
+     */
+    public void loadInvestmentsFromFile(String filename, int workers) {
+        PersistenceEvent event = PersistenceEvent.start();
+        long start = metrics.startTime(PortfolioMetrics.Operation.LOAD);
+        long allocated = metrics.allocatedBytes(PortfolioMetrics.Operation.LOAD);
+        int records = 0;
+        try {
+            records = loadParallel(filename, workers);
+        } finally {
+            metrics.record(PortfolioMetrics.Operation.LOAD, start, allocated);
+            if (event != null) {
+                event.finish("load", filename, records);
+            }
+        }
+    }
+
+    /**
+     * This does the work of {@link #loadInvestmentsFromFile(String, int)}.
+     *
+     * @return The number of investments read.
+     */
+    private int loadParallel(String filename, int workers) {
+        ParallelLoader.Chunk[] chunks;
+        try {
+            chunks = ParallelLoader.parse(new File(filename).toPath(), workers);
+        } catch (java.nio.file.NoSuchFileException e) {
+            System.out.println("File not found. A new file will be created when saving.");
+            return 0;
+        } catch (IOException e) {
+            System.out.println("Error reading file: " + e.getMessage());
+            return 0;
+        }
+        int records = 0;
+        for (ParallelLoader.Chunk chunk : chunks) {
+            records += chunk.investments.size();
+        }
+        investments.ensureCapacity(investments.size() + records);
+        records = 0;
+        for (ParallelLoader.Chunk chunk : chunks) {  // This merges in file order, as one thread would have read them
+            for (Investment investment : chunk.investments) {
+                addInvestment(investment);
+                records++;
+            }
+            if (chunk.error != null) {
+                System.out.println("Error reading file: " + chunk.error);
+                break;  // This keeps what came before the bad record, as a load on one thread does
+            }
+        }
+        return records;
+    }
+
+    /**
+     * This opens a snapshot file written by {@link #saveSnapshotFile(String)} without reading its holdings.
+     * The file is memory-mapped, and a holding is read the first time it is looked up by symbol, including
+     * by buys, sells, price updates and searches on one symbol. Anything that needs every holding, such
+     * as other searches, saving or listing, reads the rest in file order first. The market value is known
+     * from the start, so time to the first lookup does not depend on the number of holdings.
+     *
+     * @param filename The snapshot file.
+     * @throws IOException if the file cannot be mapped or is not a snapshot.
+     * @throws IllegalStateException if the portfolio already has holdings.
+     */
+    public void openSnapshotFile(String filename) throws IOException {
+        if (!investments.isEmpty() || snapshot != null) {
+            throw new IllegalStateException("A snapshot file can only be opened into an empty portfolio.");
+        }
+        PersistenceEvent event = PersistenceEvent.start();
+        SnapshotFile opened = null;
+        try {
+            opened = SnapshotFile.open(new File(filename).toPath());
+            if (opened.size() > 0) {
+                snapshot = opened;
+                readFromSnapshot = new IntIntMap();
+                snapshotValue = opened.getMarketValue();
+            }
+        } finally {
+            if (event != null) {
+                event.finish("open", filename, opened == null ? 0 : opened.size());
+            }
+        }
+    }
+
+    /**
+     * This saves every holding to a snapshot file for {@link #openSnapshotFile(String)}, reading the rest
+     * of an open snapshot first. The file is replaced only once it is complete.
+     *
+     * @param filename The snapshot file.
+     * @throws IOException if the file cannot be written.
+     */
+    public void saveSnapshotFile(String filename) throws IOException {
+        PersistenceEvent event = PersistenceEvent.start();
+        int records = 0;
+        try {
+            SnapshotFile.write(new File(filename).toPath(), getInvestments());
+            records = investments.size();
+        } finally {
+            if (event != null) {
+                event.finish("save", filename, records);
+            }
+        }
+    }
+
+    /**
+     * This gets the number of holdings of an open snapshot file not yet read.
+     *
+     * @return The count still only in the file, 0 once everything is read.
+     */
+    public int getUnreadCount() {
+        SnapshotFile file = snapshot;  // These are read once, as another thread may finish reading it meanwhile
+        IntIntMap read = readFromSnapshot;
+        return file == null || read == null ? 0 : file.size() - read.size();
+    }
+
+    /**
+     * This reads the holdings of a symbol from the open snapshot file, unless already read. The caller
+     * holds the portfolio's monitor.
+     *
+     * @return True if any holding was read.
+     */
+    private boolean readSymbol(String symbol) {
+        boolean read = false;
+        for (int ordinal : snapshot.find(symbol)) {
+            if (readFromSnapshot.get(ordinal) < 0) {
+                Investment investment = snapshot.read(ordinal);
+                readFromSnapshot.put(ordinal, investment.getInstrumentId());
+                snapshotValue -= investment.getPrice() * investment.getQuantity();
+                attach(investment);  // This was held all along, so the listeners are not told of a change
+                read = true;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * This reads every holding left in the open snapshot file, placing the holdings in file order with
+     * those read or bought since after them. A holding read and then sold out stays sold out.
+     */
+    private synchronized void loadRest() {
+        SnapshotFile file = snapshot;
+        if (file == null) {
+            return;
+        }
+        ArrayList<Investment> held = investments;
+        boolean[] placed = new boolean[held.size()];
+        investments = new ArrayList<>(file.size() + held.size());
+        for (int ordinal = 0; ordinal < file.size(); ordinal++) {
+            int id = readFromSnapshot.get(ordinal);
+            if (id < 0) {
+                Investment investment = file.read(ordinal);
+                investment.addPriceListener(holdingListener);
+                marketValue += investment.getPrice() * investment.getQuantity();
+                investments.add(investment);
+            } else {
+                int position = symbolIndex.get(id);
+                if (position >= 0 && !placed[position]) {
+                    placed[position] = true;
+                    investments.add(held.get(position));
+                }
+            }
+        }
+        for (int i = 0; i < held.size(); i++) {
+            if (!placed[i]) {
+                investments.add(held.get(i));
+            }
+        }
+        snapshotValue = 0.0;
+        rebuildIndexes();
+        snapshot = null;  // This is cleared last, as lookups that find it cleared no longer take the monitor
+        readFromSnapshot = null;
+    }
+
+    /**
+     * This does the work of {@link #loadInvestmentsFromFile(String)}.
+     *
+     * @return The number of investments read.
+     */
+    private int load(String filename) {
+        int records = 0;
         try (Scanner scanner = new Scanner(new File(filename))) {
             while (scanner.hasNextLine()) {
                 String type = scanner.nextLine().split(" = ")[1].replace("\"", "");
@@ -194,6 +1286,7 @@ public class Portfolio {
 
                 investment.setBookValue(bookValue);  // This sets the book value as read from file
                 addInvestment(investment);
+                records++;
                 if (scanner.hasNextLine()) scanner.nextLine();  // This will skip blank line between entries
             }
         } catch (FileNotFoundException e) {
@@ -201,6 +1294,7 @@ public class Portfolio {
         } catch (Exception e) {
             System.out.println("Error reading file: " + e.getMessage());
         }
+        return records;
     }
 
     /**
@@ -209,18 +1303,41 @@ public class Portfolio {
     * @param filename The name of the file to save investments to.
     */
     public void saveInvestmentsToFile(String filename) {
+        PersistenceEvent event = PersistenceEvent.start();
+        long start = metrics.startTime(PortfolioMetrics.Operation.SAVE);
+        long allocated = metrics.allocatedBytes(PortfolioMetrics.Operation.SAVE);
+        int records = 0;
+        try {
+            records = save(filename);
+        } finally {
+            metrics.record(PortfolioMetrics.Operation.SAVE, start, allocated);
+            if (event != null) {
+                event.finish("save", filename, records);
+            }
+        }
+    }
+
+    /**
+     * This does the work of {@link #saveInvestmentsToFile(String)}.
+     *
+     * @return The number of investments written, or 0 if the file could not be written.
+     */
+    private int save(String filename) {
+        PortfolioView view = view();  // This writes one consistent book while trading goes on
         try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
-            for (Investment investment : investments) {
-                writer.println("type = \"" + (investment instanceof Stock ? "stock" : "mutualfund") + "\"");
-                writer.println("symbol = \"" + investment.getSymbol() + "\"");
-                writer.println("name = \"" + investment.getName() + "\"");
-                writer.println("quantity = \"" + investment.getQuantity() + "\"");
-                writer.println("price = \"" + investment.getPrice() + "\"");
-                writer.println("bookValue = \"" + investment.getBookValue() + "\"");
+            for (int i = 0; i < view.size(); i++) {
+                writer.println("type = \"" + view.getType(i) + "\"");
+                writer.println("symbol = \"" + view.getSymbol(i) + "\"");
+                writer.println("name = \"" + view.getName(i) + "\"");
+                writer.println("quantity = \"" + view.getQuantity(i) + "\"");
+                writer.println("price = \"" + view.getPrice(i) + "\"");
+                writer.println("bookValue = \"" + view.getBookValue(i) + "\"");
                 writer.println();  // This is the blank line between entries
             }
+            return view.size();
         } catch (IOException e) {
             System.out.println("Error saving to file: " + e.getMessage());
+            return 0;
         }
     }
 
@@ -232,12 +1349,213 @@ public class Portfolio {
      * @return The matching investment if found, otherwise null.
      */
     public Investment findInvestmentBySymbol(String symbol) {
-        for (Investment investment : investments) {
-            if (investment.getSymbol().equalsIgnoreCase(symbol)) {
-                return investment;
+        if (snapshot != null) {
+            synchronized (this) {  // This keeps the position valid, as reading the file may move holdings
+                int position = positionOfSymbol(symbol);
+                return position < 0 ? null : investments.get(position);
+            }
+        }
+        int position = positionOfSymbol(symbol);
+        return position < 0 ? null : investments.get(position);
+    }
+
+    /**
+     * This looks up the list position of a symbol through the symbol index.
+     *
+     * @param symbol The symbol to look up (case insensitive).
+     * @return The position of the investment, or -1 if it is not held.
+     */
+    int positionOfSymbol(String symbol) {
+        if (symbol == null) {
+            return -1;
+        }
+        if (snapshot != null) {
+            synchronized (this) {  // This reads from the file under the monitor, as it changes the holdings
+                int position = heldPositionOfSymbol(symbol);
+                if (position < 0 && snapshot != null && readSymbol(symbol)) {
+                    position = heldPositionOfSymbol(symbol);
+                }
+                return position;
+            }
+        }
+        return heldPositionOfSymbol(symbol);
+    }
+
+    private int heldPositionOfSymbol(String symbol) {
+        for (int id : registry.idsOfSymbol(symbol)) {  // Usually one instrument per symbol
+            int position = symbolIndex.get(id);
+            if (position >= 0) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * This returns the positions indexed under a single lower case name keyword.
+     *
+     * @param keyword The keyword to look up.
+     * @return The positions holding that keyword in ascending order, or an empty list. It must not be changed.
+     */
+    IntList keywordPositions(String keyword) {
+        int id = registry.keywordId(keyword);
+        int slot = id < 0 ? -1 : keywordIndex.get(id);
+        return slot < 0 ? IntList.EMPTY : keywordPositions.get(slot);
+    }
+
+    /**
+     * This finds a held investment by its instrument id.
+     *
+     * @param instrumentId The id from {@link InstrumentRegistry}.
+     * @return The matching investment if held, otherwise null.
+     */
+    public Investment findInvestmentByInstrument(int instrumentId) {
+        if (snapshot != null) {
+            synchronized (this) {  // This reads from the file under the monitor, as it changes the holdings
+                int position = symbolIndex.get(instrumentId);
+                if (position < 0 && snapshot != null && instrumentId >= 0 && instrumentId < registry.size()
+                        && readSymbol(registry.symbol(instrumentId))) {
+                    position = symbolIndex.get(instrumentId);
+                }
+                return position < 0 ? null : investments.get(position);
+            }
+        }
+        int position = symbolIndex.get(instrumentId);
+        return position < 0 ? null : investments.get(position);
+    }
+
+    /**
+     * This returns the sorted price index, rebuilding it first if any price changed since the last build.
+     * The caller holds the portfolio's monitor.
+     *
+     * @return True if the index had to be rebuilt for this call.
+     */
+    boolean refreshPriceIndex() {
+        if (!priceIndexStale) {
+            return false;
+        }
+        int size = investments.size();
+        double[] prices = new double[size];
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            prices[i] = investments.get(i).getPrice();
+            order[i] = i;
+        }
+        sortByPrice(order, new int[size], prices, 0, size);
+        sortedPrices = new double[size];
+        for (int i = 0; i < size; i++) {
+            sortedPrices[i] = prices[order[i]];
+        }
+        sortedPricePositions = order;
+        priceIndexStale = false;
+        return true;
+    }
+
+    /**
+     * This sorts positions by their price with a stable merge sort, so equal prices stay in portfolio
+     * order, without boxing the positions.
+     */
+    private static void sortByPrice(int[] order, int[] spare, double[] prices, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sortByPrice(order, spare, prices, from, middle);
+        sortByPrice(order, spare, prices, middle, to);
+        if (Double.compare(prices[order[middle - 1]], prices[order[middle]]) <= 0) {
+            return;  // This leaves halves already in order as they are
+        }
+        System.arraycopy(order, from, spare, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && Double.compare(prices[spare[left]], prices[spare[right]]) <= 0)) {
+                order[i] = spare[left++];
+            } else {
+                order[i] = spare[right++];
+            }
+        }
+    }
+
+    /**
+     * This finds the first slot of the price index whose price is at least the given value.
+     *
+     * @param price The lower bound to search for.
+     * @return The first slot with a price greater than or equal to {@code price}.
+     */
+    int priceIndexLowerBound(double price) {
+        int low = 0;
+        int high = sortedPrices.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedPrices[mid] < price) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * This finds the first slot of the price index whose price is above the given value.
+     *
+     * @param price The upper bound to search for.
+     * @return The first slot with a price strictly greater than {@code price}.
+     */
+    int priceIndexUpperBound(double price) {
+        int low = 0;
+        int high = sortedPrices.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedPrices[mid] <= price) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
         }
-        return null;
+        return low;
+    }
+
+    /**
+     * This returns the investment position stored at a slot of the price index.
+     *
+     * @param slot The slot in the sorted price index.
+     * @return The position of the investment in the list.
+     */
+    int priceIndexPosition(int slot) {
+        return sortedPricePositions[slot];
+    }
+
+    /**
+     * This updates the price of a single held investment and keeps the price index in step.
+     *
+     * @param symbol The symbol of the investment to update.
+     * @param price  The new price.
+     * @return True if the investment was found and updated.
+     */
+    public synchronized boolean updatePrice(String symbol, double price) {
+        Investment investment = findInvestmentBySymbol(symbol);
+        if (investment == null) {
+            return false;
+        }
+        tradeDepth++;
+        try {
+            investment.setPrice(price);
+        } finally {
+            endTrade();
+        }
+        return true;
+    }
+
+    /**
+     * This gets the current market value of all holdings (price times quantity). The total is kept up to
+     * date incrementally as prices and quantities change, so this does not walk the holdings.
+     *
+     * @return The total market value of the portfolio.
+     */
+    public double getTotalMarketValue() {
+        return marketValue + snapshotValue;  // This includes holdings not yet read from a snapshot file
     }
 
      /**
@@ -251,44 +1569,76 @@ public class Portfolio {
      */ 
 
     public List<Investment> searchInvestment(String symbol, String nameKeywords, double minPrice, double maxPrice) {
-        Set<Integer> filteredPositions = new HashSet<>();
+        return search(InvestmentQuery.of(symbol, nameKeywords, minPrice, maxPrice));
+    }
 
-        // It will filter by keywords
-        if (nameKeywords != null && !nameKeywords.isEmpty()) {
-            String[] keywordArray = nameKeywords.toLowerCase().split("\\s+");
+    /**
+     * This searches for investments matching a query written in the query language,
+     * for example {@code type = stock and price in [-5, 10] and not keyword = "bank"}.
+     *
+     * @param query The query text to parse.
+     * @return A list of investments matching the query, in portfolio order.
+     * @throws IllegalArgumentException if the query cannot be parsed.
+     */
+    public List<Investment> search(String query) {
+        return search(InvestmentQuery.parse(query));
+    }
 
-            for (String kw : keywordArray) {
-                if (keywordIndex.containsKey(kw)) {
-                    if (filteredPositions.isEmpty()) {
-                        filteredPositions.addAll(keywordIndex.get(kw));
-                    } else {
-                        filteredPositions.retainAll(keywordIndex.get(kw)); // This will intersection to match all keywords
-                    }
-                } else {
-                    filteredPositions.clear();
-                    break; // If no matching keyword means no results
-                }
+    /**
+     * This searches for investments matching an already parsed query. It holds the portfolio's monitor,
+     * the lock trades and feeds hold, so it never sees a trade half made.
+     *
+     * @param query The query to run.
+     * @return A list of investments matching the query, in portfolio order.
+     */
+    public synchronized List<Investment> search(InvestmentQuery query) {
+        SearchEvent event = SearchEvent.start();
+        long start = metrics.startTime(PortfolioMetrics.Operation.SEARCH);
+        long allocated = metrics.allocatedBytes(PortfolioMetrics.Operation.SEARCH);
+        QueryPlan plan = null;
+        List<Investment> results = null;
+        try {
+            loadForQuery(query);
+            plan = QueryPlan.plan(this, query);
+            results = plan.execute();
+            return results;
+        } finally {
+            metrics.record(PortfolioMetrics.Operation.SEARCH, start, allocated);
+            if (event != null) {
+                event.finish(query, plan, results == null ? 0 : results.size());
             }
-        } else {
-            // If no keywords provided, include all positions
-            for (int i = 0; i < investments.size(); i++) {
-                filteredPositions.add(i);
-            }   
         }
+    }
 
-        // This will filter by symbol and price range
-        List<Investment> results = new ArrayList<>();
-        for (Integer pos : filteredPositions) {
-            Investment investment = investments.get(pos);
+    /**
+     * This explains how a query would be run, naming the index the planner picked.
+     *
+     * @param query The query text to parse.
+     * @return A short description of the chosen plan.
+     */
+    public synchronized String explain(String query) {
+        InvestmentQuery parsed = InvestmentQuery.parse(query);
+        loadForQuery(parsed);
+        return QueryPlan.plan(this, parsed).explain();
+    }
 
-            boolean matchesSymbol = symbol.isEmpty() || investment.getSymbol().equalsIgnoreCase(symbol);
-            boolean matchesPrice = investment.getPrice() >= minPrice && investment.getPrice() <= maxPrice;
-            if (matchesSymbol && matchesPrice) {
-                results.add(investment);
+    /**
+     * This reads what a query needs from an open snapshot file: only the holdings of its symbol when it
+     * is limited to one, otherwise everything.
+     */
+    private void loadForQuery(InvestmentQuery query) {
+        if (snapshot == null) {
+            return;
+        }
+        List<InvestmentQuery> terms = query instanceof InvestmentQuery.And
+                ? ((InvestmentQuery.And) query).terms : List.of(query);
+        for (InvestmentQuery term : terms) {
+            if (term instanceof InvestmentQuery.SymbolTerm) {
+                positionOfSymbol(((InvestmentQuery.SymbolTerm) term).symbol);  // This reads the only holdings that can match
+                return;
             }
         }
-
-        return results;
+        loadRest();
     }
 
 
@@ -296,6 +1646,7 @@ public class Portfolio {
      * This updates the prices of all investments based on user input.
      */
     public void updatePrices() {
+        loadRest();
         if (investments.isEmpty()) {
             System.out.println("No investments to update.");
             return;
@@ -317,14 +1668,17 @@ public class Portfolio {
      */
         
     public double getGain() {
-        double totalGain = 0.0;
-
-        // This will Iterate through all investments to calculate total realized gain
-        for (Investment investment : investments) {
-            totalGain += investment.getRealizedGain(); // This is Assuming realizedGain is tracked in each investment
-        }
+        return view().getGain(); // This totals each holding's realized gain from one consistent view
+    }
 
-        return totalGain; // This will return the total realized gain
+    /**
+     * This gets the gain realized by every sale since the portfolio was created, including sales of
+     * holdings that have since been sold out and removed.
+     *
+     * @return The total realized gain, after fees.
+     */
+    public double getRealizedGain() {
+        return realizedGain;
     }
 
     /**
@@ -335,13 +1689,14 @@ public class Portfolio {
     *         "Symbol: [symbol], Gain: $[realized gain]".
     */
     public List<String> getIndividualGains() {
-        List<String> individualGains = new ArrayList<>(); // This will Use a list to store gains for all investments
+        PortfolioView view = view(); // This reads every gain from one consistent view
+        List<String> individualGains = new ArrayList<>(view.size()); // This will Use a list to store gains for all investments
 
-        for (Investment investment : investments) {
+        for (int i = 0; i < view.size(); i++) {
             //  Below it will fetch realized gain for each investment
-            double individualGain = investment.getRealizedGain();
+            double individualGain = view.getRealizedGain(i);
             // Below it will add investment details and its realized gain to the list
-            individualGains.add("Symbol: " + investment.getSymbol() + ", Gain: $" + String.format("%.2f", individualGain));
+            individualGains.add("Symbol: " + view.getSymbol(i) + ", Gain: $" + String.format("%.2f", individualGain));
         }
 
         return individualGains; // This will return the complete list of gains
@@ -350,10 +1705,11 @@ public class Portfolio {
     /**
     * This will retrieves all investments in the portfolio.
     *
-    * @return An ArrayList containing all Investment objects currently in the portfolio.
+    * @return An unmodifiable list of all Investment objects currently in the portfolio, as
+    *         {@link #getInvestments()} gives it.
     */
-    public ArrayList<Investment> getAllInvestments() {
-        return investments;
+    public List<Investment> getAllInvestments() {
+        return getInvestments();
     }
 } 
 
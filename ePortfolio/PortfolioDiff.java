@@ -0,0 +1,872 @@
+package ePortfolio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * This compares two saved portfolios holding by holding, and applies the differences to a portfolio in
+ * memory, so two copies of a book can be reconciled without loading either. Each file may be a text file,
+ * as {@link Portfolio#saveInvestmentsToFile(String)} writes it, or a snapshot (.snap).
+ * <p>
+ * The older file is read into a hash table by symbol and the newer one is streamed past it, so each file
+ * is read once. A file too large for that is first split by a hash of the symbol into partitions in
+ * temporary files, which are then compared one at a time, so memory stays within about 200,000 holdings
+ * whatever the size. Holdings are read as plain fields, not investments, so nothing is added to the
+ * {@link InstrumentRegistry}.
+ * <p>
+ * A diff file is CSV with a header. Each record is the change (added, removed or changed), the type,
+ * symbol, name, quantity, price and book value the holding has after the change (before it, for a
+ * removal), then the quantity, price and book value deltas.
+ */
+public final class PortfolioDiff {
+    private static final int PARTITION_HOLDINGS = 200_000;  // Holdings of the older file kept in memory at once
+    private static final int TEXT_RECORD_BYTES = 96;  // A typical text record, to estimate the holdings in a file
+    private static final int MAX_PARTITIONS = 4096;
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int MAX_REPORTED_ERRORS = 100;  // Bad records after these are only counted
+    private static final String HEADER = "change,type,symbol,name,quantity,price,bookValue,quantityDelta,priceDelta,bookValueDelta";
+
+    /**
+     * This is what happened to a holding between the two files.
+     */
+    public enum Kind {
+        ADDED, REMOVED, CHANGED
+    }
+
+    /**
+     * This receives each difference as it is found.
+     */
+    public interface Handler {
+
+        /**
+         * This is called once for each holding that differs.
+         *
+         * @param change The difference.
+         * @throws IOException if the handler cannot write it, which stops the comparison.
+         */
+        void change(Change change) throws IOException;
+    }
+
+    private PortfolioDiff() {
+    }
+
+    /**
+     * This compares two saved portfolios, passing each difference to a handler. Differences come in the
+     * newer file's order, then the removals in the older file's order, except that a large comparison goes
+     * partition by partition.
+     *
+     * @param before  The older portfolio file.
+     * @param after   The newer portfolio file.
+     * @param handler What to do with each difference.
+     * @return The counts of holdings added, removed, changed and unchanged.
+     * @throws IOException if a file cannot be read or is not a portfolio, or the handler fails.
+     */
+    public static Summary compare(String before, String after, Handler handler) throws IOException {
+        return compare(Paths.get(before), Paths.get(after), handler, PARTITION_HOLDINGS);
+    }
+
+    /**
+     * This compares two files with a given partition size, which is small in a test of the partitioned path.
+     */
+    static Summary compare(Path before, Path after, Handler handler, int partitionHoldings) throws IOException {
+        Summary summary = new Summary();
+        long estimate = SnapshotFile.isSnapshotName(before.toString())
+                ? SnapshotFile.open(before).size()
+                : Files.size(before) / TEXT_RECORD_BYTES;
+        int partitions = (int) Math.min(MAX_PARTITIONS, Math.max(1, (estimate + partitionHoldings - 1) / partitionHoldings));
+        if (partitions == 1) {
+            try (HoldingSource older = open(before); HoldingSource newer = open(after)) {
+                compare(older, newer, handler, summary);
+            }
+            return summary;
+        }
+        Path directory = Files.createTempDirectory("eportfolio-diff");
+        try {
+            Path[] olderParts = split(before, directory, "before", partitions);
+            Path[] newerParts = split(after, directory, "after", partitions);
+            for (int p = 0; p < partitions; p++) {
+                try (HoldingSource older = new SpillSource(olderParts[p]); HoldingSource newer = new SpillSource(newerParts[p])) {
+                    compare(older, newer, handler, summary);
+                }
+                Files.delete(olderParts[p]);
+                Files.delete(newerParts[p]);
+            }
+        } finally {
+            try (DirectoryStream<Path> left = Files.newDirectoryStream(directory)) {  // This is only left after a failure
+                for (Path part : left) {
+                    Files.deleteIfExists(part);
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+        return summary;
+    }
+
+    /**
+     * This compares one pair of sources, holding the older one in memory.
+     */
+    private static void compare(HoldingSource older, HoldingSource newer, Handler handler, Summary summary) throws IOException {
+        LinkedHashMap<String, Holding> remaining = new LinkedHashMap<>();
+        for (Holding holding = older.next(); holding != null; holding = older.next()) {
+            remaining.put(holding.key(), holding);
+        }
+        for (Holding holding = newer.next(); holding != null; holding = newer.next()) {
+            Holding previous = remaining.remove(holding.key());
+            if (previous == null) {
+                summary.added++;
+                handler.change(new Change(Kind.ADDED, null, holding));
+            } else if (previous.sameAs(holding)) {
+                summary.unchanged++;
+            } else {
+                summary.changed++;
+                handler.change(new Change(Kind.CHANGED, previous, holding));
+            }
+        }
+        for (Holding holding : remaining.values()) {
+            summary.removed++;
+            handler.change(new Change(Kind.REMOVED, holding, null));
+        }
+    }
+
+    /**
+     * This writes the holdings of a file into partition files by a hash of the symbol.
+     */
+    private static Path[] split(Path file, Path directory, String prefix, int partitions) throws IOException {
+        Path[] parts = new Path[partitions];
+        DataOutputStream[] outs = new DataOutputStream[partitions];
+        try (HoldingSource source = open(file)) {
+            for (int p = 0; p < partitions; p++) {
+                parts[p] = directory.resolve(prefix + p);
+                outs[p] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(parts[p]), BUFFER_BYTES / 4));
+            }
+            for (Holding holding = source.next(); holding != null; holding = source.next()) {
+                DataOutputStream out = outs[Math.floorMod(holding.key().hashCode() * 0x9E3779B9, partitions)];
+                out.writeBoolean(holding.mutualFund);
+                out.writeUTF(holding.symbol);
+                out.writeUTF(holding.name);
+                out.writeInt(holding.quantity);
+                out.writeDouble(holding.price);
+                out.writeDouble(holding.bookValue);
+            }
+        } finally {
+            for (DataOutputStream out : outs) {
+                if (out != null) {
+                    out.close();
+                }
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * This compares two saved portfolios and writes the differences to a diff file.
+     *
+     * @param before   The older portfolio file.
+     * @param after    The newer portfolio file.
+     * @param diffFile The diff file to write, in UTF-8, replacing any file of that name.
+     * @return The counts of holdings added, removed, changed and unchanged.
+     * @throws IOException if a file cannot be read or written.
+     */
+    public static Summary writeDiff(String before, String after, String diffFile) throws IOException {
+        PersistenceEvent event = PersistenceEvent.start();
+        Summary summary = null;
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(diffFile), StandardCharsets.UTF_8)) {
+            summary = diffTo(before, after, writer);
+            return summary;
+        } finally {
+            if (event != null) {
+                event.finish("diff", diffFile, summary == null ? 0 : (int) Math.min(summary.getDifferences(), Integer.MAX_VALUE));
+            }
+        }
+    }
+
+    /**
+     * This compares two saved portfolios and writes the differences as a diff file to a writer, which is
+     * flushed but not closed. Numbers are written in full so the diff applies exactly.
+     *
+     * @param before The older portfolio file.
+     * @param after  The newer portfolio file.
+     * @param writer Where to write the diff.
+     * @return The counts of holdings added, removed, changed and unchanged.
+     * @throws IOException if a file cannot be read or the writer fails.
+     */
+    public static Summary diffTo(String before, String after, Writer writer) throws IOException {
+        BufferedWriter out = new BufferedWriter(writer, BUFFER_BYTES);
+        StringBuilder record = new StringBuilder(256);
+        out.write(HEADER);
+        out.write('\n');
+        Summary summary = compare(before, after, change -> {
+            Holding holding = change.kind == Kind.REMOVED ? change.before : change.after;
+            record.setLength(0);
+            record.append(change.kind.name().toLowerCase()).append(',').append(holding.getType()).append(',');
+            BulkTransfer.appendCsv(record, holding.symbol).append(',');
+            BulkTransfer.appendCsv(record, holding.name).append(',');
+            record.append(holding.quantity).append(',')
+                    .append(holding.price).append(',')
+                    .append(holding.bookValue).append(',')
+                    .append(change.getQuantityDelta()).append(',')
+                    .append(change.getPriceDelta()).append(',')
+                    .append(change.getBookValueDelta()).append('\n');
+            out.append(record);
+        });
+        out.flush();
+        return summary;
+    }
+
+    /**
+     * This applies a diff file to a portfolio, as {@link #applyFrom(Portfolio, Reader)} does.
+     *
+     * @param portfolio The portfolio to change, normally loaded from the diff's older file.
+     * @param diffFile  The diff file, in UTF-8.
+     * @return The counts of changes applied and rejected, with the first rejected ones.
+     * @throws IOException if the file cannot be read.
+     */
+    public static Report applyFile(Portfolio portfolio, String diffFile) throws IOException {
+        PersistenceEvent event = PersistenceEvent.start();
+        Report report = null;
+        try (Reader reader = new InputStreamReader(new FileInputStream(diffFile), StandardCharsets.UTF_8)) {
+            report = applyFrom(portfolio, reader);
+            return report;
+        } finally {
+            if (event != null) {
+                event.finish("patch", diffFile, report == null ? 0 : (int) Math.min(report.getApplied(), Integer.MAX_VALUE));
+            }
+        }
+    }
+
+    /**
+     * This applies a diff to a portfolio in place, as one batch under the portfolio's monitor, so only the
+     * holdings named are touched and a store set on the portfolio gets them as one transaction. A change is
+     * rejected, and the rest still applied, if the holding is not in the state the diff starts from: an
+     * added holding must not be held, and a removed or changed one must be held with the quantity the diff
+     * expects. The reader is not closed.
+     *
+     * @param portfolio The portfolio to change, normally loaded from the diff's older file.
+     * @param reader    The diff.
+     * @return The counts of changes applied and rejected, with the first rejected ones.
+     * @throws IOException if the reader fails.
+     */
+    public static Report applyFrom(Portfolio portfolio, Reader reader) throws IOException {
+        BulkTransfer.RecordReader records = new BulkTransfer.RecordReader(reader);
+        Report report = new Report();
+        List<String> fields = new ArrayList<>();
+        synchronized (portfolio) {  // This is the lock price feeds hold while applying ticks
+            portfolio.beginBatch();
+            try {
+                boolean first = true;
+                while (true) {
+                    String error = records.nextCsv(fields);
+                    if (error == null && fields.isEmpty()) {
+                        break;  // This is the end of the input
+                    }
+                    if (error == null && fields.size() == 1 && fields.get(0).isEmpty()) {
+                        continue;  // This is a blank line
+                    }
+                    if (error == null && first && fields.get(0).equalsIgnoreCase("change")) {
+                        first = false;
+                        continue;  // This is the header
+                    }
+                    first = false;
+                    report.rows++;
+                    if (error == null) {
+                        error = apply(portfolio, fields, report);
+                    }
+                    if (error != null) {
+                        report.reject(records.getRecordLine(), error);
+                    }
+                }
+            } finally {
+                portfolio.endBatch();
+            }
+        }
+        return report;
+    }
+
+    /**
+     * This checks one diff record against the portfolio and applies it.
+     *
+     * @return Null if it was applied, otherwise why not.
+     */
+    private static String apply(Portfolio portfolio, List<String> fields, Report report) throws IOException {
+        if (fields.size() < 8) {
+            return "expected at least 8 fields, found " + fields.size();
+        }
+        String kind = fields.get(0).toLowerCase();
+        String type = fields.get(1);
+        String symbol = fields.get(2);
+        String name = fields.get(3);
+        if (!type.equalsIgnoreCase("stock") && !type.equalsIgnoreCase("mutualfund")) {
+            return "type must be stock or mutualfund, not \"" + type + "\"";
+        }
+        int quantity;
+        int quantityDelta;
+        double price;
+        double bookValue;
+        try {
+            quantity = BulkTransfer.parseWhole(BulkTransfer.required(fields.get(4), "quantity"), "quantity");
+            price = BulkTransfer.parseFinite(BulkTransfer.required(fields.get(5), "price"), "price");
+            bookValue = BulkTransfer.parseFinite(BulkTransfer.required(fields.get(6), "bookValue"), "bookValue");
+            quantityDelta = BulkTransfer.parseWhole(BulkTransfer.required(fields.get(7), "quantityDelta"), "quantityDelta");
+        } catch (NumberFormatException e) {
+            return e.getMessage();
+        }
+        Investment investment;
+        try {
+            // This applies exactly the rules of the Investment constructor
+            investment = type.equalsIgnoreCase("stock")
+                    ? new Stock(symbol, name, quantity, price)
+                    : new MutualFund(symbol, name, quantity, price);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+        investment.setBookValue(bookValue);
+
+        Investment held = portfolio.findInvestmentBySymbol(symbol);
+        boolean isHeld = held != null && held.getQuantity() > 0;  // A holding removed earlier in the batch is not
+        switch (kind) {
+            case "added":
+                if (isHeld) {
+                    return symbol + " is already held";
+                }
+                if (held == null) {
+                    portfolio.addInvestment(investment);
+                } else {
+                    portfolio.replaceInvestment(held, investment);
+                }
+                report.added++;
+                break;
+            case "removed":
+                if (!isHeld) {
+                    return symbol + " is not held";
+                }
+                if (held.getQuantity() != quantity) {
+                    return symbol + " has a quantity of " + held.getQuantity() + ", not " + quantity + " as the diff expects";
+                }
+                portfolio.removeInvestment(held);
+                report.removed++;
+                break;
+            case "changed":
+                if (!isHeld) {
+                    return symbol + " is not held";
+                }
+                if (held.getQuantity() != (long) quantity - quantityDelta) {
+                    return symbol + " has a quantity of " + held.getQuantity() + ", not "
+                            + ((long) quantity - quantityDelta) + " as the diff expects";
+                }
+                if (quantity == 0) {
+                    portfolio.removeInvestment(held);
+                } else if (!Order.typeOf(held).equalsIgnoreCase(type) || !held.getName().equals(name)) {
+                    portfolio.replaceInvestment(held, investment);
+                } else {
+                    held.setQuantity(quantity);
+                    held.setPrice(price);
+                    held.setBookValue(bookValue);
+                }
+                report.changed++;
+                break;
+            default:
+                return "change must be added, removed or changed, not \"" + fields.get(0) + "\"";
+        }
+        portfolio.persistHolding(symbol);
+        return null;
+    }
+
+    private static HoldingSource open(Path file) throws IOException {
+        if (SnapshotFile.isSnapshotName(file.toString())) {
+            return new SnapshotSource(SnapshotFile.open(file));
+        }
+        return new TextSource(file);
+    }
+
+    /**
+     * This is a holding as saved in a file, its fields only.
+     */
+    public static final class Holding {
+        private final boolean mutualFund;
+        private final String symbol;
+        private final String name;
+        private final int quantity;
+        private final double price;
+        private final double bookValue;
+
+        Holding(boolean mutualFund, String symbol, String name, int quantity, double price, double bookValue) {
+            this.mutualFund = mutualFund;
+            this.symbol = symbol;
+            this.name = name;
+            this.quantity = quantity;
+            this.price = price;
+            this.bookValue = bookValue;
+        }
+
+        private String key() {
+            return symbol.toLowerCase();
+        }
+
+        private boolean sameAs(Holding other) {
+            return mutualFund == other.mutualFund && quantity == other.quantity
+                    && Double.compare(price, other.price) == 0 && Double.compare(bookValue, other.bookValue) == 0
+                    && symbol.equals(other.symbol) && name.equals(other.name);
+        }
+
+        /**
+         * This tells whether the holding is a mutual fund rather than a stock.
+         *
+         * @return True for a mutual fund.
+         */
+        public boolean isMutualFund() {
+            return mutualFund;
+        }
+
+        /**
+         * This gets the type as it is written in files.
+         *
+         * @return "stock" or "mutualfund".
+         */
+        public String getType() {
+            return mutualFund ? "mutualfund" : "stock";
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public double getBookValue() {
+            return bookValue;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s (%s): %d at $%.2f, book value $%.2f", getType(), symbol, name, quantity, price, bookValue);
+        }
+    }
+
+    /**
+     * This is one difference between the files. A missing side counts as zero in the deltas.
+     */
+    public static final class Change {
+        private final Kind kind;
+        private final Holding before;
+        private final Holding after;
+
+        Change(Kind kind, Holding before, Holding after) {
+            this.kind = kind;
+            this.before = before;
+            this.after = after;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getSymbol() {
+            return (after != null ? after : before).symbol;
+        }
+
+        /**
+         * This gets the holding as it was in the older file.
+         *
+         * @return The holding, or null if it was added.
+         */
+        public Holding getBefore() {
+            return before;
+        }
+
+        /**
+         * This gets the holding as it is in the newer file.
+         *
+         * @return The holding, or null if it was removed.
+         */
+        public Holding getAfter() {
+            return after;
+        }
+
+        public long getQuantityDelta() {
+            return (after == null ? 0L : after.quantity) - (before == null ? 0L : before.quantity);
+        }
+
+        public double getPriceDelta() {
+            return (after == null ? 0.0 : after.price) - (before == null ? 0.0 : before.price);
+        }
+
+        public double getBookValueDelta() {
+            return (after == null ? 0.0 : after.bookValue) - (before == null ? 0.0 : before.bookValue);
+        }
+
+        @Override
+        public String toString() {
+            if (kind == Kind.ADDED) {
+                return "added   " + after;
+            }
+            if (kind == Kind.REMOVED) {
+                return "removed " + before;
+            }
+            StringBuilder text = new StringBuilder("changed ").append(getSymbol()).append(':');
+            if (getQuantityDelta() != 0) {
+                text.append(String.format(" quantity %+d (to %d)", getQuantityDelta(), after.quantity));
+            }
+            if (Double.compare(before.price, after.price) != 0) {
+                text.append(String.format(" price %+.2f (to $%.2f)", getPriceDelta(), after.price));
+            }
+            if (Double.compare(before.bookValue, after.bookValue) != 0) {
+                text.append(String.format(" book value %+.2f (to $%.2f)", getBookValueDelta(), after.bookValue));
+            }
+            if (before.mutualFund != after.mutualFund) {
+                text.append(" type ").append(before.getType()).append(" to ").append(after.getType());
+            }
+            if (!before.name.equals(after.name)) {
+                text.append(" name \"").append(before.name).append("\" to \"").append(after.name).append('"');
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * This is the outcome of a comparison.
+     */
+    public static final class Summary {
+        private long added = 0;
+        private long removed = 0;
+        private long changed = 0;
+        private long unchanged = 0;
+
+        public long getAdded() {
+            return added;
+        }
+
+        public long getRemoved() {
+            return removed;
+        }
+
+        public long getChanged() {
+            return changed;
+        }
+
+        public long getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * This gets the number of holdings that differ.
+         *
+         * @return Added, removed and changed together.
+         */
+        public long getDifferences() {
+            return added + removed + changed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d added, %,d removed, %,d changed, %,d unchanged.", added, removed, changed, unchanged);
+        }
+    }
+
+    /**
+     * This is the outcome of applying a diff. Only the first 100 rejected changes are kept, so the report
+     * stays small however many are rejected.
+     */
+    public static final class Report {
+        private long rows = 0;
+        private long added = 0;
+        private long removed = 0;
+        private long changed = 0;
+        private long rejected = 0;
+        private final List<String> errors = new ArrayList<>();
+
+        private void reject(long line, String error) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add("line " + line + ": " + error);
+            }
+        }
+
+        /**
+         * This gets the number of changes read, applied or not, not counting the header or blank lines.
+         *
+         * @return The record count.
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * This gets the number of changes applied.
+         *
+         * @return Holdings added, removed and changed together.
+         */
+        public long getApplied() {
+            return added + removed + changed;
+        }
+
+        public long getAdded() {
+            return added;
+        }
+
+        public long getRemoved() {
+            return removed;
+        }
+
+        public long getChanged() {
+            return changed;
+        }
+
+        /**
+         * This gets the number of changes left out, as bad records or not matching the portfolio.
+         *
+         * @return The rejected count.
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * This gets the first rejected changes, each as "line N: reason".
+         *
+         * @return Up to 100 errors, in file order.
+         */
+        public List<String> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+
+        /**
+         * This describes the patch for display.
+         *
+         * @return The counts followed by the errors kept, one per line.
+         */
+        public String getReport() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("Read %,d changes: %,d holdings added, %,d removed, %,d changed, %,d rejected.%n",
+                    rows, added, removed, changed, rejected));
+            for (String error : errors) {
+                report.append("  ").append(error).append(System.lineSeparator());
+            }
+            if (rejected > errors.size()) {
+                report.append(String.format("  ... and %,d more rejected changes%n", rejected - errors.size()));
+            }
+            return report.toString();
+        }
+    }
+
+    /**
+     * This reads the holdings of one file in order, one at a time.
+     */
+    private interface HoldingSource extends Closeable {
+
+        /**
+         * This reads the next holding.
+         *
+         * @return The holding, or null at the end.
+         */
+        Holding next() throws IOException;
+    }
+
+    /**
+     * This reads a text portfolio file the way {@link Portfolio#loadInvestmentsFromFile(String)} does: six
+     * "key = value" lines with the quotes dropped, records of other types skipped. Lines are scanned as
+     * bytes, as {@link ParallelLoader} does, and only the symbol and name are decoded. Unlike a load, a bad
+     * record stops the comparison, as a diff against half a file would be wrong.
+     */
+    private static final class TextSource implements HoldingSource {
+        private final Path file;
+        private final InputStream in;
+        private final Charset charset = Charset.defaultCharset();  // This is the charset the file was saved in
+        private final byte[] buffer = new byte[BUFFER_BYTES];
+        private int position = 0;
+        private int limit = 0;
+        private byte[] text = new byte[256];  // The current line
+        private int length;  // Its length, or -1 at the end of the file
+        private long line = 0;
+
+        TextSource(Path file) throws IOException {
+            this.file = file;
+            in = Files.newInputStream(file);
+        }
+
+        @Override
+        public Holding next() throws IOException {
+            while (true) {
+                do {
+                    readLine();  // This will skip blank lines between entries
+                } while (length == 0);
+                if (length < 0) {
+                    return null;
+                }
+                String type = value(StandardCharsets.ISO_8859_1);
+                String symbol = nextValue(charset);
+                String name = nextValue(charset);
+                int quantity;
+                double price;
+                double bookValue;
+                try {
+                    quantity = Integer.parseInt(nextValue(StandardCharsets.ISO_8859_1));
+                    price = Double.parseDouble(nextValue(StandardCharsets.ISO_8859_1));
+                    bookValue = Double.parseDouble(nextValue(StandardCharsets.ISO_8859_1));
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + " line " + line + ": " + e.getMessage(), e);
+                }
+                if (type.equalsIgnoreCase("stock") || type.equalsIgnoreCase("mutualfund")) {
+                    return new Holding(type.equalsIgnoreCase("mutualfund"), symbol, name, quantity, price, bookValue);
+                }
+            }
+        }
+
+        /**
+         * This reads the next line into text, without its line break or a carriage return.
+         */
+        private void readLine() throws IOException {
+            length = 0;
+            boolean any = false;
+            while (true) {
+                if (position == limit) {
+                    limit = in.read(buffer, 0, buffer.length);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        if (!any) {
+                            length = -1;
+                        }
+                        break;
+                    }
+                }
+                any = true;
+                byte b = buffer[position++];
+                if (b == '\n') {
+                    break;
+                }
+                if (length == text.length) {
+                    text = Arrays.copyOf(text, length * 2);
+                }
+                text[length++] = b;
+            }
+            line++;
+            if (length > 0 && text[length - 1] == '\r') {
+                length--;
+            }
+        }
+
+        private String nextValue(Charset decoding) throws IOException {
+            readLine();
+            if (length < 0) {
+                throw new IOException(file + " ends inside a record.");
+            }
+            return value(decoding);
+        }
+
+        /**
+         * This gets the value of the current "key = value" line, without quotes.
+         */
+        private String value(Charset decoding) throws IOException {
+            int start = -1;
+            for (int i = 0; i + 2 < length; i++) {
+                if (text[i] == ' ' && text[i + 1] == '=' && text[i + 2] == ' ') {
+                    start = i + 3;
+                    break;
+                }
+            }
+            if (start < 0) {
+                throw new IOException(file + " line " + line + ": expected a key = value line.");
+            }
+            int quotes = 0;
+            for (int i = start; i < length; i++) {
+                if (text[i] == '"') {
+                    quotes++;
+                }
+            }
+            if (quotes == 2 && text[start] == '"' && text[length - 1] == '"') {
+                return new String(text, start + 1, length - start - 2, decoding);  // This is the usual value, quoted once
+            }
+            int end = start;
+            for (int i = start; i < length; i++) {
+                if (text[i] != '"') {
+                    text[end++] = text[i];
+                }
+            }
+            return new String(text, start, end - start, decoding);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * This reads a snapshot file in record order.
+     */
+    private static final class SnapshotSource implements HoldingSource {
+        private final SnapshotFile snapshot;
+        private int ordinal = 0;
+
+        SnapshotSource(SnapshotFile snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public Holding next() {
+            return ordinal < snapshot.size() ? snapshot.readHolding(ordinal++) : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * This reads back one partition written by {@link #split(Path, Path, String, int)}.
+     */
+    private static final class SpillSource implements HoldingSource {
+        private final DataInputStream in;
+
+        SpillSource(Path part) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(part), BUFFER_BYTES / 4));
+        }
+
+        @Override
+        public Holding next() throws IOException {
+            int mutualFund = in.read();
+            if (mutualFund < 0) {
+                return null;
+            }
+            return new Holding(mutualFund != 0, in.readUTF(), in.readUTF(), in.readInt(), in.readDouble(), in.readDouble());
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -24,9 +24,13 @@ public class PortfolioGUI extends JFrame {
     /** This is the filename used for saving and loading investments. */
     private String filename; // This is the file for saving and loading investments
     /** This is the panel displayed when the application starts (Welcome Panel). */
-    private JPanel welcomePanel, buyPanel, sellPanel, updatePanel, gainPanel, searchPanel; // This is for the panels for each command
+    private JPanel welcomePanel, buyPanel, sellPanel, updatePanel, gainPanel, analyticsPanel, riskPanel, searchPanel; // This is for the panels for each command
     /** This is the area for displaying messages or results to the user. */
     private JTextArea messageArea; // This is for displaying messages or results
+    /** This is the text area of the Analytics panel, refreshed each time the panel is shown. */
+    private JTextArea analyticsArea; // This is for the returns, volatility and drawdown report
+    /** This is the status line showing the live market value, refreshed at most once per frame. */
+    private JLabel statusLabel; // This is for the live portfolio totals
 
     /**
     * The PortfolioGUI represents the Graphical user interface GUI for managing an investment portfolio.
@@ -76,14 +80,22 @@ public class PortfolioGUI extends JFrame {
         JMenuItem sellItem = new JMenuItem("Sell");
         JMenuItem updateItem = new JMenuItem("Update");
         JMenuItem getGainItem = new JMenuItem("Get Gain");
+        JMenuItem analyticsItem = new JMenuItem("Analytics");
+        JMenuItem riskItem = new JMenuItem("Risk");
         JMenuItem searchItem = new JMenuItem("Search");
+        JMenuItem undoItem = new JMenuItem("Undo");
+        JMenuItem redoItem = new JMenuItem("Redo");
         JMenuItem quitItem = new JMenuItem("Quit");
 
         commandsMenu.add(buyItem);
         commandsMenu.add(sellItem);
         commandsMenu.add(updateItem);
         commandsMenu.add(getGainItem);
+        commandsMenu.add(analyticsItem);
+        commandsMenu.add(riskItem);
         commandsMenu.add(searchItem);
+        commandsMenu.add(undoItem);
+        commandsMenu.add(redoItem);
         commandsMenu.add(quitItem);
         menuBar.add(commandsMenu);
         setJMenuBar(menuBar);
@@ -93,10 +105,21 @@ public class PortfolioGUI extends JFrame {
         sellItem.addActionListener(e -> showSellPanel());
         updateItem.addActionListener(e -> showUpdatePanel());
         getGainItem.addActionListener(e -> showGainPanel());
+        analyticsItem.addActionListener(e -> showAnalyticsPanel());
+        riskItem.addActionListener(e -> showRiskPanel());
         searchItem.addActionListener(e -> showSearchPanel());
+        undoItem.addActionListener(e -> undoTrades(true));
+        redoItem.addActionListener(e -> undoTrades(false));
         quitItem.addActionListener(e -> {
             try {
-                portfolio.saveInvestmentsToFile(filename);
+                if (SnapshotFile.isSnapshotName(filename)) {
+                    portfolio.saveSnapshotFile(filename);
+                } else if (portfolio.getStore() != null) {
+                    portfolio.getStore().saveAll(portfolio);
+                    portfolio.getStore().close();
+                } else {
+                    portfolio.saveInvestmentsToFile(filename);
+                }
                 messageArea.setText("Portfolio saved successfully. Exiting...");
                 System.exit(0);
             } catch (Exception ex) {
@@ -109,6 +132,26 @@ public class PortfolioGUI extends JFrame {
         messageArea.setEditable(false);
         JScrollPane scrollPane = new JScrollPane(messageArea);
         add(scrollPane, BorderLayout.SOUTH);
+
+        // This is the live status line, price changes are coalesced to one repaint per frame
+        statusLabel = new JLabel();
+        statusLabel.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
+        add(statusLabel, BorderLayout.NORTH);
+        refreshStatus();
+        portfolio.addPriceListener(CoalescingRefresher.forSwing(this::refreshStatus));
+
+        // This will show price alerts in the message area as they fire
+        portfolio.getAlertEngine().addAlertListener((alert, price) -> SwingUtilities.invokeLater(() ->
+                messageArea.append(String.format("ALERT: %s triggered at $%.2f%n", alert, price))));
+    }
+
+    /**
+    * This refreshes the status line with the current market value and number of holdings, without
+    * reading the rest of an open snapshot file.
+    */
+    private void refreshStatus() {
+        statusLabel.setText(String.format("Holdings: %d    Market Value: $%.2f",
+                portfolio.size(), portfolio.getTotalMarketValue()));
     }
 
     /**
@@ -430,7 +473,8 @@ public class PortfolioGUI extends JFrame {
 
         // This is the helper method to display current investment
         Runnable displayInvestment = () -> {
-            if (portfolio.getInvestments().isEmpty()) {
+            PortfolioView view = portfolio.view();  // This reads the holding from one consistent view
+            if (view.size() == 0) {
                 symbolField.setText("");
                 nameField.setText("");
                 priceField.setText("");
@@ -438,34 +482,39 @@ public class PortfolioGUI extends JFrame {
                 return;
             }
 
-            Investment currentInvestment = portfolio.getInvestments().get(currentIndex[0]);
-            symbolField.setText(currentInvestment.getSymbol());
-            nameField.setText(currentInvestment.getName());
-            priceField.setText(String.valueOf(currentInvestment.getPrice()));
-            messageArea.setText("Displaying investment " + (currentIndex[0] + 1) + " of " + portfolio.getInvestments().size());
+            currentIndex[0] = Math.min(currentIndex[0], view.size() - 1);  // The list may have shrunk since
+            symbolField.setText(view.getSymbol(currentIndex[0]));
+            nameField.setText(view.getName(currentIndex[0]));
+            priceField.setText(String.valueOf(view.getPrice(currentIndex[0])));
+            messageArea.setText("Displaying investment " + (currentIndex[0] + 1) + " of " + view.size());
         };
 
         // This will attach action listeners
         prevButton.addActionListener(e -> {
-            if (portfolio.getInvestments().isEmpty()) return;
-            currentIndex[0] = (currentIndex[0] - 1 + portfolio.getInvestments().size()) % portfolio.getInvestments().size();
+            int size = portfolio.view().size();
+            if (size == 0) return;
+            currentIndex[0] = (currentIndex[0] - 1 + size) % size;
             displayInvestment.run();
         });
 
         nextButton.addActionListener(e -> {
-            if (portfolio.getInvestments().isEmpty()) return;
-            currentIndex[0] = (currentIndex[0] + 1) % portfolio.getInvestments().size();
+            int size = portfolio.view().size();
+            if (size == 0) return;
+            currentIndex[0] = (currentIndex[0] + 1) % size;
             displayInvestment.run();
         });
 
         saveButton.addActionListener(e -> {
-            if (portfolio.getInvestments().isEmpty()) return;
+            String symbol = symbolField.getText();  // This is the holding on display
+            if (symbol.isEmpty()) return;
             try {
                 double newPrice = Double.parseDouble(priceField.getText());
                 if (newPrice <= 0) throw new NumberFormatException("Price must be positive.");
-                Investment currentInvestment = portfolio.getInvestments().get(currentIndex[0]);
-                currentInvestment.setPrice(newPrice);
-                messageArea.setText("Price updated for " + currentInvestment.getSymbol() + ": $" + newPrice);
+                if (portfolio.updatePrice(symbol, newPrice)) {
+                    messageArea.setText("Price updated for " + symbol + ": $" + newPrice);
+                } else {
+                    messageArea.setText("Investment " + symbol + " is no longer held.");
+                }
             } catch (NumberFormatException ex) {
                 messageArea.setText("Invalid input for price. Please enter a positive number.");
             }
@@ -478,6 +527,25 @@ public class PortfolioGUI extends JFrame {
         switchPanel(updatePanel);
     }
 
+    /**
+    * This will undo the last step of trades, or redo the last one undone, and show what was done.
+    *
+    * @param undo True to undo, false to redo.
+    */
+    private void undoTrades(boolean undo) {
+        try {
+            String trades = undo ? portfolio.undo() : portfolio.redo();
+            if (trades == null) {
+                messageArea.setText("Nothing to " + (undo ? "undo." : "redo."));
+            } else {
+                messageArea.setText((undo ? "Undid: " : "Redid: ") + trades);
+            }
+        } catch (IllegalStateException ex) {
+            messageArea.setText("Error: " + ex.getMessage());
+        }
+        refreshStatus();
+    }
+
     /**
     * This displays the Gain panel, showing the total and individual gains for investments.
     */
@@ -529,10 +597,11 @@ public class PortfolioGUI extends JFrame {
         double totalGain = 0; // This will start with zero for total realized gain
         StringBuilder individualGains = new StringBuilder();
 
-        for (Investment investment : portfolio.getInvestments()) { // This will iterate over all investments
-            double realizedGain = investment.getRealizedGain(); // This will fetch realized gain for this investment
+        PortfolioView view = portfolio.view(); // This reads every gain from one consistent view
+        for (int i = 0; i < view.size(); i++) { // This will iterate over all investments
+            double realizedGain = view.getRealizedGain(i); // This will fetch realized gain for this investment
             totalGain += realizedGain; // This will add to the total realized gain
-            individualGains.append(String.format("Symbol: %s, Gain: %.2f\n", investment.getSymbol(), realizedGain));
+            individualGains.append(String.format("Symbol: %s, Gain: %.2f\n", view.getSymbol(i), realizedGain));
         }
 
         // This will update the total gain field
@@ -542,6 +611,118 @@ public class PortfolioGUI extends JFrame {
         messageArea.setText(individualGains.toString());
     }
 
+    /**
+    * This displays the Analytics panel, showing time and money weighted returns, volatility, drawdown and
+    * the contribution of each holding since the session started.
+    */
+    private void showAnalyticsPanel() {
+        if (analyticsPanel == null) {
+            analyticsPanel = new JPanel(new BorderLayout(10, 10));
+            analyticsPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
+
+            // For the Title
+            JLabel titleLabel = new JLabel("Performance Analytics", JLabel.CENTER);
+            titleLabel.setFont(new Font("Arial", Font.BOLD, 20));
+            analyticsPanel.add(titleLabel, BorderLayout.NORTH);
+
+            // For the Report Area
+            analyticsArea = new JTextArea(12, 50);
+            analyticsArea.setEditable(false); // Non-editable
+            analyticsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13)); // This keeps the report columns aligned
+            analyticsPanel.add(new JScrollPane(analyticsArea), BorderLayout.CENTER);
+
+            // For the Refresh Button
+            JButton refreshButton = new JButton("Refresh");
+            refreshButton.addActionListener(e -> analyticsArea.setText(portfolio.getAnalytics().getReport()));
+            JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+            buttonPanel.add(refreshButton);
+            analyticsPanel.add(buttonPanel, BorderLayout.SOUTH);
+        }
+
+        analyticsArea.setText(portfolio.getAnalytics().getReport()); // This will show the figures as of now
+        switchPanel(analyticsPanel);
+    }
+
+    /**
+    * This displays the Risk panel, which simulates the Value-at-Risk and expected shortfall of the current
+    * holdings. The simulation runs in the background so the window stays responsive.
+    */
+    private void showRiskPanel() {
+        if (riskPanel == null) {
+            riskPanel = new JPanel(new BorderLayout(10, 10));
+            riskPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
+
+            // For the Title
+            JLabel titleLabel = new JLabel("Value-at-Risk Simulation", JLabel.CENTER);
+            titleLabel.setFont(new Font("Arial", Font.BOLD, 20));
+            riskPanel.add(titleLabel, BorderLayout.NORTH);
+
+            // For the Form Panel
+            JPanel formPanel = new JPanel(new GridLayout(4, 2, 10, 10));
+            JTextField pathsField = new JTextField("1000000");
+            JTextField horizonField = new JTextField("1");
+            JTextField volatilityField = new JTextField("25");
+            JTextField correlationField = new JTextField("0.3");
+            formPanel.add(new JLabel("Paths:"));
+            formPanel.add(pathsField);
+            formPanel.add(new JLabel("Horizon (trading days):"));
+            formPanel.add(horizonField);
+            formPanel.add(new JLabel("Annual Volatility (%):"));
+            formPanel.add(volatilityField);
+            formPanel.add(new JLabel("Correlation (0-1):"));
+            formPanel.add(correlationField);
+
+            // For the Report Area
+            JTextArea reportArea = new JTextArea(6, 50);
+            reportArea.setEditable(false); // Non-editable
+            reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+
+            // For the Simulate Button
+            JButton simulateButton = new JButton("Simulate");
+            simulateButton.addActionListener(e -> {
+                RiskSimulator simulator = new RiskSimulator(portfolio);
+                int paths;
+                try {
+                    paths = Integer.parseInt(pathsField.getText().trim());
+                    simulator.setHorizonDays(Integer.parseInt(horizonField.getText().trim()));
+                    simulator.setVolatility(Double.parseDouble(volatilityField.getText().trim()) / 100);
+                    simulator.setCorrelation(Double.parseDouble(correlationField.getText().trim()));
+                } catch (IllegalArgumentException ex) {
+                    messageArea.setText("Invalid risk settings: " + ex.getMessage());
+                    return;
+                }
+                simulateButton.setEnabled(false);
+                reportArea.setText("Simulating...");
+                new SwingWorker<String, Void>() {
+                    @Override
+                    protected String doInBackground() {
+                        return simulator.simulate(paths, 42L).getReport(); // This runs on the simulation workers
+                    }
+
+                    @Override
+                    protected void done() {
+                        try {
+                            reportArea.setText(get());
+                        } catch (Exception ex) {
+                            reportArea.setText("Simulation failed: " + ex.getCause().getMessage());
+                        }
+                        simulateButton.setEnabled(true);
+                    }
+                }.execute();
+            });
+
+            JPanel inputPanel = new JPanel(new BorderLayout(10, 10));
+            inputPanel.add(formPanel, BorderLayout.CENTER);
+            JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+            buttonPanel.add(simulateButton);
+            inputPanel.add(buttonPanel, BorderLayout.SOUTH);
+            riskPanel.add(inputPanel, BorderLayout.CENTER);
+            riskPanel.add(new JScrollPane(reportArea), BorderLayout.SOUTH);
+        }
+
+        switchPanel(riskPanel);
+    }
+
     /**
     * This displays the Search panel, allowing users to search for investments by symbol, keywords, or price range.
     */
@@ -608,9 +789,9 @@ public class PortfolioGUI extends JFrame {
                 try {
                     String symbol = symbolField.getText().trim();
                     String keywords = keywordsField.getText().trim();
-                    String[] prices = priceRangeField.getText().trim().split("-");
-                    double minPrice = prices[0].isEmpty() ? 0 : Double.parseDouble(prices[0]);
-                    double maxPrice = prices.length > 1 ? Double.parseDouble(prices[1]) : Double.MAX_VALUE;
+                    double[] prices = InvestmentQuery.parsePriceRange(priceRangeField.getText());
+                    double minPrice = prices[0];
+                    double maxPrice = prices[1];
 
                     // This is to perform search
                     List<Investment> results = portfolio.searchInvestment(symbol, keywords, minPrice, maxPrice);
@@ -644,6 +825,8 @@ public class PortfolioGUI extends JFrame {
        getContentPane().removeAll(); // This will clear existing components
         add(panel, BorderLayout.CENTER); // This will add the new panel to the center
         add(new JScrollPane(messageArea), BorderLayout.SOUTH); // This will re add the message area at the bottom
+        add(statusLabel, BorderLayout.NORTH); // This will re add the live status line at the top
+        refreshStatus();
 
         revalidate(); // This will refresh the UI layout
         repaint();    // This will repaint the UI to show updates
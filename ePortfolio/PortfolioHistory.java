@@ -0,0 +1,278 @@
+package ePortfolio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * This records how the value of a portfolio and each of its holdings evolves, as compressed
+ * {@link TimeSeries}. Values are recorded either on every price or quantity change, or as a snapshot of
+ * every holding at a fixed interval, which suits fast price feeds better. A holding's value is its
+ * price times quantity; the total is the portfolio's market value.
+ * <p>
+ * Recording and queries may run on different threads; the history locks itself around both.
+ */
+public class PortfolioHistory implements PriceListener {
+    private static final int MAGIC = 0x45504831;  // "EPH1"
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "portfolio-history");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Portfolio portfolio;
+    private final LongSupplier clock;
+    private TimeSeries total = new TimeSeries();
+    private final TreeMap<String, TimeSeries> holdings = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final IntIntMap seriesByInstrument = new IntIntMap();  // Instrument id to slot in seriesSlots
+    private final ArrayList<TimeSeries> seriesSlots = new ArrayList<>();
+    private boolean onChange = false;
+    private ScheduledFuture<?> sampling;
+
+    /**
+     * This creates a history of a portfolio using the wall clock. Nothing is recorded until
+     * {@link #recordChanges()}, {@link #startSampling(long)} or {@link #snapshot()} is called.
+     *
+     * @param portfolio The portfolio to record.
+     */
+    public PortfolioHistory(Portfolio portfolio) {
+        this(portfolio, System::currentTimeMillis);
+    }
+
+    /**
+     * This creates a history of a portfolio with its own clock, e.g. the tick time of a replay.
+     *
+     * @param portfolio The portfolio to record.
+     * @param clock     The source of timestamps, in milliseconds since the epoch.
+     */
+    public PortfolioHistory(Portfolio portfolio, LongSupplier clock) {
+        this.portfolio = portfolio;
+        this.clock = clock;
+    }
+
+    /**
+     * This starts recording the changed holding and the total on every price or quantity change.
+     */
+    public synchronized void recordChanges() {
+        if (!onChange) {
+            onChange = true;
+            portfolio.addPriceListener(this);
+        }
+    }
+
+    /**
+     * This starts recording a snapshot of every holding at a fixed interval, replacing any earlier interval.
+     *
+     * @param intervalMillis The time between snapshots.
+     */
+    public synchronized void startSampling(long intervalMillis) {
+        if (sampling != null) {
+            sampling.cancel(false);
+        }
+        sampling = SAMPLER.scheduleAtFixedRate(this::snapshot, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This stops recording changes and snapshots.
+     */
+    public synchronized void stop() {
+        if (onChange) {
+            onChange = false;
+            portfolio.removePriceListener(this);
+        }
+        if (sampling != null) {
+            sampling.cancel(false);
+            sampling = null;
+        }
+    }
+
+    /**
+     * This checks if the history is recording.
+     *
+     * @return True if changes or snapshots are being recorded.
+     */
+    public synchronized boolean isRecording() {
+        return onChange || sampling != null;
+    }
+
+    /**
+     * This records the value of every holding and the total now.
+     */
+    public void snapshot() {
+        synchronized (portfolio) {  // This is the lock price feeds hold while applying ticks
+            synchronized (this) {
+                long time = clock.getAsLong();
+                for (Investment investment : portfolio.getInvestments()) {
+                    series(investment).append(time, investment.getPrice() * investment.getQuantity());
+                }
+                total.append(time, portfolio.getTotalMarketValue());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void priceChanged(Investment investment, double oldPrice, double newPrice) {
+        long time = clock.getAsLong();
+        series(investment).append(time, newPrice * investment.getQuantity());
+        total.append(time, portfolio.getTotalMarketValue());
+    }
+
+    @Override
+    public synchronized void quantityChanged(Investment investment, int oldQuantity, int newQuantity) {
+        long time = clock.getAsLong();
+        series(investment).append(time, investment.getPrice() * newQuantity);
+        total.append(time, portfolio.getTotalMarketValue());
+    }
+
+    /**
+     * This gets the series of a holding, creating it on first use.
+     */
+    private TimeSeries series(Investment investment) {
+        int slot = seriesByInstrument.get(investment.getInstrumentId());
+        if (slot >= 0) {
+            return seriesSlots.get(slot);  // This is the per tick path, no string work
+        }
+        TimeSeries series = holdings.get(investment.getSymbol());
+        if (series == null) {
+            series = new TimeSeries();
+            holdings.put(investment.getSymbol(), series);
+        }
+        seriesByInstrument.put(investment.getInstrumentId(), seriesSlots.size());
+        seriesSlots.add(series);
+        return series;
+    }
+
+    /**
+     * This gets the recorded points of the total value between two times, inclusive.
+     *
+     * @param from      The earliest time wanted.
+     * @param to        The latest time wanted.
+     * @param maxPoints The most points wanted; longer ranges keep the last point of each equal time bucket.
+     * @return The points.
+     */
+    public synchronized TimeSeries.Points getTotal(long from, long to, int maxPoints) {
+        return total.sample(from, to, maxPoints);
+    }
+
+    /**
+     * This gets the recorded points of one holding's value between two times, inclusive.
+     *
+     * @param symbol    The symbol of the holding (case insensitive).
+     * @param from      The earliest time wanted.
+     * @param to        The latest time wanted.
+     * @param maxPoints The most points wanted; longer ranges keep the last point of each equal time bucket.
+     * @return The points, or null if the holding was never recorded.
+     */
+    public synchronized TimeSeries.Points getHolding(String symbol, long from, long to, int maxPoints) {
+        TimeSeries series = holdings.get(symbol);
+        return series == null ? null : series.sample(from, to, maxPoints);
+    }
+
+    /**
+     * This passes every recorded point of the total value in a range to a consumer, without sampling.
+     *
+     * @param from     The earliest time wanted.
+     * @param to       The latest time wanted.
+     * @param consumer The consumer of the points.
+     */
+    public synchronized void forEachTotal(long from, long to, TimeSeries.PointConsumer consumer) {
+        total.range(from, to, consumer);
+    }
+
+    /**
+     * This lists the symbols with recorded values.
+     *
+     * @return The symbols in alphabetical order.
+     */
+    public synchronized List<String> getSymbols() {
+        return new ArrayList<>(holdings.keySet());
+    }
+
+    /**
+     * This gets the number of points recorded over every series.
+     *
+     * @return The point count.
+     */
+    public synchronized long getPointCount() {
+        long points = total.getCount();
+        for (TimeSeries series : holdings.values()) {
+            points += series.getCount();
+        }
+        return points;
+    }
+
+    /**
+     * This describes how much has been recorded and how well it compressed.
+     *
+     * @return A short summary of points, bytes and compression ratio.
+     */
+    public synchronized String getStatistics() {
+        long points = getPointCount();
+        long bytes = total.getCompressedBytes();
+        for (TimeSeries series : holdings.values()) {
+            bytes += series.getCompressedBytes();
+        }
+        long raw = points * 16;  // This is a long time and a double value per point
+        return String.format("%s, %d holding series, %,d points, %,d bytes compressed (%.2f bytes/point, %.1fx smaller than raw)",
+                isRecording() ? "recording" : "stopped", holdings.size(), points, bytes,
+                points == 0 ? 0.0 : (double) bytes / points, bytes == 0 ? 0.0 : (double) raw / bytes);
+    }
+
+    /**
+     * This saves every series to a file in its compressed form.
+     *
+     * @param file The file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public synchronized void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            total.writeTo(out);
+            out.writeInt(holdings.size());
+            for (Map.Entry<String, TimeSeries> entry : holdings.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().writeTo(out);
+            }
+        }
+    }
+
+    /**
+     * This replaces the recorded series with those saved in a file, so recording carries on from them.
+     *
+     * @param file The file to read.
+     * @throws IOException if the file cannot be read or is not a history file.
+     */
+    public synchronized void load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a portfolio history file: " + file);
+            }
+            TimeSeries loadedTotal = TimeSeries.readFrom(in);
+            TreeMap<String, TimeSeries> loaded = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String symbol = in.readUTF();
+                loaded.put(symbol, TimeSeries.readFrom(in));
+            }
+            total = loadedTotal;
+            holdings.clear();
+            holdings.putAll(loaded);
+            seriesByInstrument.clear();
+            seriesSlots.clear();
+        }
+    }
+}
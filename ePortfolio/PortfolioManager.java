@@ -0,0 +1,537 @@
+package ePortfolio;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * This hosts many client accounts in one JVM. Each account is a {@link Portfolio} persisted as
+ * {@code <accountId>.txt} in one directory, in the same format as the single portfolio application.
+ * Accounts are loaded the first time they are used and can be evicted (saved and dropped) when cold.
+ * Symbols and names live once in the {@link InstrumentRegistry}, however many accounts hold them.
+ * <p>
+ * Resident accounts are kept under a byte budget. When loading an account takes the estimated total
+ * over the budget, cold accounts are paged out with the CLOCK (second chance) approximation of LRU:
+ * an access only sets a flag, so hits never take a lock, and the eviction sweep skips, and clears,
+ * accounts used since it last passed them. Accounts that changed while resident are saved on the way
+ * out; unchanged ones are simply dropped. A paged out account is reloaded from its file on next access.
+ * <p>
+ * A resident portfolio is locked with {@code synchronized (portfolio)} while the manager reads or saves
+ * it, the same lock {@link PriceFeed} uses, so callers changing a shared account from several threads
+ * should hold it too. Since any load can page an account out, callers should not keep a portfolio
+ * across units of work but call {@link #getPortfolio(String)} again.
+ */
+public class PortfolioManager {
+    /** This is the file extension of an account file. */
+    public static final String EXTENSION = ".txt";
+    private static final Pattern ACCOUNT_ID = Pattern.compile("[A-Za-z0-9_-]+");
+
+    /**
+     * This is a loaded account. It listens to its own portfolio to keep its size estimate and dirty
+     * flag up to date.
+     */
+    private final class Account implements PriceListener {
+        final String id;
+        final Portfolio portfolio;
+        volatile long lastAccessNanos = System.nanoTime();
+        volatile boolean referenced = true;  // Set on every access, cleared by the eviction sweep
+        volatile boolean dirty = false;  // Set when the portfolio changes after loading
+        volatile boolean evicted = false;
+        long bytes;  // Estimated footprint, guarded by the portfolio lock
+
+        Account(String id, Portfolio portfolio) {
+            this.id = id;
+            this.portfolio = portfolio;
+            this.bytes = estimateBytes(portfolio);
+            portfolio.addPriceListener(this);
+        }
+
+        @Override
+        public void priceChanged(Investment investment, double oldPrice, double newPrice) {
+            dirty = true;
+        }
+
+        @Override
+        public void quantityChanged(Investment investment, int oldQuantity, int newQuantity) {
+            dirty = true;
+            if (oldQuantity == 0 || newQuantity == 0) {  // This is a holding added or removed
+                long delta = oldQuantity == 0 ? estimateBytes(investment) : -estimateBytes(investment);
+                bytes += delta;
+                residentBytes.addAndGet(delta);
+            }
+        }
+    }
+
+    /**
+     * This is the combined position in one symbol across accounts.
+     */
+    public static final class Exposure {
+        private final String symbol;
+        private long quantity;
+        private double marketValue;
+        private double bookValue;
+        private int accounts;
+
+        Exposure(String symbol) {
+            this.symbol = symbol;
+        }
+
+        /**
+         * This adds one holding to the total.
+         */
+        void add(Investment investment) {
+            quantity += investment.getQuantity();
+            marketValue += investment.getPrice() * investment.getQuantity();
+            bookValue += investment.getBookValue();
+            accounts++;
+        }
+
+        /**
+         * This adds another partial total for the same symbol.
+         */
+        void merge(Exposure other) {
+            quantity += other.quantity;
+            marketValue += other.marketValue;
+            bookValue += other.bookValue;
+            accounts += other.accounts;
+        }
+
+        /**
+         * This gets the symbol.
+         *
+         * @return The symbol, in upper case.
+         */
+        public String getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * This gets the total quantity held.
+         *
+         * @return The quantity summed over every account.
+         */
+        public long getQuantity() {
+            return quantity;
+        }
+
+        /**
+         * This gets the total market value held.
+         *
+         * @return The price times quantity summed over every account.
+         */
+        public double getMarketValue() {
+            return marketValue;
+        }
+
+        /**
+         * This gets the total book value held.
+         *
+         * @return The book value summed over every account.
+         */
+        public double getBookValue() {
+            return bookValue;
+        }
+
+        /**
+         * This gets the number of accounts holding the symbol.
+         *
+         * @return The account count.
+         */
+        public int getAccounts() {
+            return accounts;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-8s quantity %,d  market value $%,.2f  book value $%,.2f  in %d account(s)",
+                    symbol, quantity, marketValue, bookValue, accounts);
+        }
+    }
+
+    // Rough heap cost of a portfolio, calibrated on a 64-bit JVM with compressed references. Symbol and
+    // name text is not counted since it lives once in the instrument registry.
+    private static final long PORTFOLIO_BYTES = 1_024;  // Lists, indexes, listener arrays
+    private static final long HOLDING_BYTES = 96;  // Investment, listener array, list slot, symbol index slot
+    private static final long KEYWORD_BYTES = 36;  // Keyword index slot and position per name word
+
+    private final File directory;
+    private final long byteBudget;
+    private final ConcurrentHashMap<String, Account> resident = new ConcurrentHashMap<>();
+    private final ArrayDeque<Account> clock = new ArrayDeque<>();  // Eviction order, guarded by itself
+    private final AtomicLong residentBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder writeBacks = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    /**
+     * This creates a manager for the accounts stored in a directory, creating the directory if needed.
+     * The byte budget is read from {@code -Deportfolio.accounts.budgetMB}, unlimited by default.
+     *
+     * @param directory The directory holding one file per account.
+     * @throws IllegalArgumentException if the directory cannot be used.
+     */
+    public PortfolioManager(File directory) {
+        this(directory, defaultBudget());
+    }
+
+    /**
+     * This reads the default byte budget from the system properties.
+     */
+    private static long defaultBudget() {
+        long megabytes = Long.getLong("eportfolio.accounts.budgetMB", 0);
+        return megabytes > 0 ? megabytes << 20 : Long.MAX_VALUE;
+    }
+
+    /**
+     * This creates a manager that pages accounts out once their estimated size passes a budget.
+     *
+     * @param directory  The directory holding one file per account.
+     * @param byteBudget The estimated bytes resident accounts may use.
+     * @throws IllegalArgumentException if the directory cannot be used or the budget is not positive.
+     */
+    public PortfolioManager(File directory, long byteBudget) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Not a directory: " + directory);
+        }
+        if (byteBudget <= 0) {
+            throw new IllegalArgumentException("Byte budget must be positive.");
+        }
+        this.directory = directory;
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * This estimates how much heap a portfolio uses.
+     */
+    private static long estimateBytes(Portfolio portfolio) {
+        long bytes = PORTFOLIO_BYTES;
+        for (Investment investment : portfolio.getInvestments()) {
+            bytes += estimateBytes(investment);
+        }
+        return bytes;
+    }
+
+    /**
+     * This estimates how much heap one holding adds to a portfolio.
+     */
+    private static long estimateBytes(Investment investment) {
+        String name = investment.getName();
+        int words = 1;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) == ' ') {
+                words++;
+            }
+        }
+        return HOLDING_BYTES + KEYWORD_BYTES * words;
+    }
+
+    /**
+     * This gets the file an account is persisted in.
+     *
+     * @param accountId The account id.
+     * @return The account file.
+     * @throws IllegalArgumentException if the id is not letters, digits, '_' or '-'.
+     */
+    public File getAccountFile(String accountId) {
+        if (accountId == null || !ACCOUNT_ID.matcher(accountId).matches()) {
+            throw new IllegalArgumentException("Invalid account id: " + accountId);
+        }
+        return new File(directory, accountId + EXTENSION);
+    }
+
+    /**
+     * This lists every account, resident or on disk.
+     *
+     * @return The account ids in sorted order.
+     */
+    public List<String> getAccountIds() {
+        TreeSet<String> ids = new TreeSet<>(resident.keySet());
+        String[] files = directory.list();
+        if (files != null) {
+            for (String file : files) {
+                if (file.endsWith(EXTENSION)) {
+                    String id = file.substring(0, file.length() - EXTENSION.length());
+                    if (ACCOUNT_ID.matcher(id).matches()) {
+                        ids.add(id);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * This gets an account, loading it from its file on first use. An account with no file starts empty.
+     * Loading may page out other accounts to stay within the byte budget.
+     *
+     * @param accountId The account id.
+     * @return The resident portfolio of the account.
+     * @throws IllegalArgumentException if the id is invalid.
+     */
+    public Portfolio getPortfolio(String accountId) {
+        Account account = resident.get(accountId);
+        if (account != null) {
+            hits.increment();
+        } else {
+            File file = getAccountFile(accountId);
+            boolean[] loaded = new boolean[1];
+            // This loads under the map's lock for the id, so an eviction saving the same account finishes first
+            account = resident.computeIfAbsent(accountId, id -> {
+                long start = System.nanoTime();
+                Account created = new Account(id, load(file));
+                loadNanos.add(System.nanoTime() - start);
+                loaded[0] = true;
+                return created;
+            });
+            if (loaded[0]) {
+                misses.increment();
+                residentBytes.addAndGet(account.bytes);
+                synchronized (clock) {
+                    clock.addLast(account);
+                }
+                enforceBudget(account);
+            } else {
+                hits.increment();
+            }
+        }
+        account.referenced = true;
+        account.lastAccessNanos = System.nanoTime();
+        return account.portfolio;
+    }
+
+    /**
+     * This loads an account file into a new portfolio.
+     */
+    private Portfolio load(File file) {
+        Portfolio portfolio = new Portfolio();
+        if (file.exists()) {
+            portfolio.loadInvestmentsFromFile(file.getPath());
+        }
+        return portfolio;
+    }
+
+    /**
+     * This pages out accounts with the CLOCK sweep until the resident estimate fits the budget. The
+     * account just loaded is never paged out by its own load, so one oversized account can stay resident.
+     */
+    private void enforceBudget(Account justLoaded) {
+        if (residentBytes.get() <= byteBudget) {
+            return;
+        }
+        synchronized (clock) {
+            int passes = 0;  // This bounds the sweep when every account is referenced
+            while (residentBytes.get() > byteBudget && !clock.isEmpty() && passes <= 2 * clock.size()) {
+                Account candidate = clock.pollFirst();
+                if (candidate.evicted) {
+                    continue;  // This was already evicted through evict() or evictIdle()
+                }
+                if (candidate == justLoaded || candidate.referenced) {
+                    candidate.referenced = false;  // This is its second chance
+                    clock.addLast(candidate);
+                    passes++;
+                    continue;
+                }
+                evict(candidate.id);
+            }
+        }
+    }
+
+    /**
+     * This checks if an account is currently in memory.
+     *
+     * @param accountId The account id.
+     * @return True if the account is resident.
+     */
+    public boolean isResident(String accountId) {
+        return resident.containsKey(accountId);
+    }
+
+    /**
+     * This gets the number of accounts in memory.
+     *
+     * @return The resident account count.
+     */
+    public int getResidentCount() {
+        return resident.size();
+    }
+
+    /**
+     * This gets the estimated heap used by resident accounts.
+     *
+     * @return The resident size estimate in bytes.
+     */
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    /**
+     * This gets the byte budget for resident accounts.
+     *
+     * @return The budget in bytes.
+     */
+    public long getByteBudget() {
+        return byteBudget;
+    }
+
+    /**
+     * This saves an account if it changed and drops it from memory. The next {@link #getPortfolio(String)}
+     * reloads it.
+     *
+     * @param accountId The account id.
+     * @return True if the account was resident.
+     */
+    public boolean evict(String accountId) {
+        boolean[] evicted = new boolean[1];
+        resident.computeIfPresent(accountId, (id, account) -> {
+            synchronized (account.portfolio) {
+                if (account.dirty) {
+                    save(id, account.portfolio);
+                    writeBacks.increment();
+                }
+                account.evicted = true;
+                account.portfolio.removePriceListener(account);
+                residentBytes.addAndGet(-account.bytes);
+            }
+            evicted[0] = true;
+            return null;
+        });
+        if (evicted[0]) {
+            evictions.increment();
+        }
+        return evicted[0];
+    }
+
+    /**
+     * This evicts every account that has not been used for a while.
+     *
+     * @param idleMillis How long an account must have been unused to be evicted.
+     * @return The number of accounts evicted.
+     */
+    public int evictIdle(long idleMillis) {
+        long cutoff = System.nanoTime() - idleMillis * 1_000_000L;
+        int evicted = 0;
+        for (Map.Entry<String, Account> entry : resident.entrySet()) {
+            if (entry.getValue().lastAccessNanos - cutoff <= 0 && evict(entry.getKey())) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * This saves every resident account that changed, keeping them in memory.
+     */
+    public void saveAll() {
+        resident.forEach((id, account) -> {
+            synchronized (account.portfolio) {
+                if (account.dirty) {
+                    save(id, account.portfolio);
+                    account.dirty = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * This saves one portfolio to its account file.
+     */
+    private void save(String accountId, Portfolio portfolio) {
+        synchronized (portfolio) {
+            portfolio.saveInvestmentsToFile(getAccountFile(accountId).getPath());
+        }
+    }
+
+    /**
+     * This gets the number of accesses that found the account resident.
+     *
+     * @return The hit count.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * This gets the number of accesses that had to load the account.
+     *
+     * @return The miss count.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * This gets the number of accounts paged out or evicted.
+     *
+     * @return The eviction count.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * This gets the number of evictions that had to save a changed account.
+     *
+     * @return The write back count.
+     */
+    public long getWriteBacks() {
+        return writeBacks.sum();
+    }
+
+    /**
+     * This describes the paging statistics.
+     *
+     * @return A summary of residency, hit rate, evictions and load time.
+     */
+    public String getStatistics() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long total = hitCount + missCount;
+        String budget = byteBudget == Long.MAX_VALUE ? "unlimited" : String.format("%,d KB", byteBudget >> 10);
+        return String.format("%d account(s) loaded, about %,d KB of %s%n"
+                        + "%,d access(es), hit rate %.1f%%, %,d load(s) averaging %.2f ms%n"
+                        + "%,d eviction(s), %,d written back%n",
+                resident.size(), residentBytes.get() >> 10, budget,
+                total, total == 0 ? 0.0 : 100.0 * hitCount / total,
+                missCount, missCount == 0 ? 0.0 : loadNanos.sum() / 1e6 / missCount,
+                evictions.sum(), writeBacks.sum());
+    }
+
+    /**
+     * This totals the position in every symbol across all accounts, resident or not, in parallel.
+     * Resident accounts are read in place; cold accounts are read from disk without being kept, so the
+     * aggregation does not fill memory with accounts nobody is using.
+     *
+     * @return The exposure per symbol, keyed by upper case symbol.
+     */
+    public Map<String, Exposure> getExposureBySymbol() {
+        return getAccountIds().parallelStream().collect(HashMap::new,
+                (totals, id) -> addExposure(totals, id),
+                (left, right) -> right.forEach((symbol, exposure) -> left.merge(symbol, exposure, (a, b) -> {
+                    a.merge(b);
+                    return a;
+                })));
+    }
+
+    /**
+     * This adds the holdings of one account to a partial total.
+     */
+    private void addExposure(Map<String, Exposure> totals, String accountId) {
+        Account account = resident.get(accountId);
+        Portfolio portfolio = account != null ? account.portfolio : load(getAccountFile(accountId));
+        synchronized (portfolio) {
+            for (Investment investment : portfolio.getInvestments()) {
+                totals.computeIfAbsent(investment.getSymbol().toUpperCase(), Exposure::new).add(investment);
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package ePortfolio;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * This records call counts, latency histograms and allocated bytes for the hot {@link Portfolio} operations.
+ * Recording is off by default and is turned on with {@code -Deportfolio.metrics=true}, the CLI
+ * {@code metrics} command or JMX. When off, an operation pays for one volatile read. When on, every call is
+ * counted, but latency and allocation are measured on a sample of calls to keep the overhead low.
+ * <p>
+ * There is one instance per JVM, shared by every portfolio, and it is exposed over JMX as
+ * {@code ePortfolio:type=PortfolioMetrics}.
+ */
+public final class PortfolioMetrics implements PortfolioMetricsMXBean {
+
+    /**
+     * These are the instrumented operations.
+     */
+    public enum Operation {
+        BUY(true), SELL(true), SEARCH(true), LOAD(false), SAVE(false);
+
+        private final boolean fast;  // Fast operations are timed on a sample of calls, slow ones on every call
+
+        Operation(boolean fast) {
+            this.fast = fast;
+        }
+    }
+
+    private static final PortfolioMetrics INSTANCE = new PortfolioMetrics();
+    private static final int ALLOCATION_SAMPLE_MASK = 63;  // Allocation is measured on 1 call in 64
+    private static final int LATENCY_SAMPLE_MASK = sampleMask(Integer.getInteger("eportfolio.metrics.sampleEvery", 16));
+
+
+    private volatile boolean enabled = Boolean.getBoolean("eportfolio.metrics");
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final LongAdder[] allocated = new LongAdder[Operation.values().length];
+    private final LongAdder[] allocationSamples = new LongAdder[Operation.values().length];
+    private final LongAdder[] calls = new LongAdder[Operation.values().length];  // Exact call counts
+    private final int[] latencyCounters = new int[Operation.values().length];  // Racy on purpose, only picks samples
+    private final int[] allocationCounters = new int[Operation.values().length];
+    private final com.sun.management.ThreadMXBean threads;  // Null if the JVM cannot count allocations
+
+    private PortfolioMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            allocated[i] = new LongAdder();
+            allocationSamples[i] = new LongAdder();
+            calls[i] = new LongAdder();
+        }
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocationBean = null;
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            allocationBean = (com.sun.management.ThreadMXBean) bean;
+            allocationBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        threads = allocationBean;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("ePortfolio:type=PortfolioMetrics"));
+        } catch (Exception e) {
+            System.out.println("Portfolio metrics are not available over JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This gets the shared metrics instance.
+     *
+     * @return The metrics for this JVM.
+     */
+    public static PortfolioMetrics get() {
+        return INSTANCE;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * This rounds a sampling interval up to a power of two and returns it as a bit mask.
+     */
+    private static int sampleMask(int every) {
+        int interval = Integer.highestOneBit(Math.max(1, Math.min(every, 1 << 20)) * 2 - 1);
+        return interval - 1;
+    }
+
+    /**
+     * This counts a call and reads the clock if the call is sampled for latency. Load and save are always
+     * timed; for buy, sell and search one call in 16 is timed by default (set
+     * {@code -Deportfolio.metrics.sampleEvery=1} to time every call), since the clock read costs about as
+     * much as the fastest operations.
+     *
+     * @param operation The operation starting.
+     * @return The start time in nanoseconds, or -1 if this call is not timed or metrics are off.
+     */
+    long startTime(Operation operation) {
+        if (!enabled) {
+            return -1;
+        }
+        calls[operation.ordinal()].increment();
+        if (operation.fast && (++latencyCounters[operation.ordinal()] & LATENCY_SAMPLE_MASK) != 0) {
+            return -1;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * This reads how many bytes the current thread has allocated so far, for a sample of calls only,
+     * since asking the JVM costs more than a fast operation itself.
+     *
+     * @param operation The operation starting.
+     * @return The allocated byte count, or -1 if this call is not sampled or metrics are off.
+     */
+    long allocatedBytes(Operation operation) {
+        if (!enabled || threads == null
+                || (operation.fast && (++allocationCounters[operation.ordinal()] & ALLOCATION_SAMPLE_MASK) != 0)) {
+            return -1;
+        }
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * This records one finished operation.
+     *
+     * @param operation      The operation that finished.
+     * @param startNanos     The value of {@link #startTime(Operation)} when it began.
+     * @param startAllocated The value of {@link #allocatedBytes(Operation)} when it began.
+     */
+    void record(Operation operation, long startNanos, long startAllocated) {
+        if (startNanos >= 0) {
+            latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+        }
+        if (startAllocated >= 0) {
+            allocated[operation.ordinal()].add(threads.getCurrentThreadAllocatedBytes() - startAllocated);
+            allocationSamples[operation.ordinal()].increment();
+        }
+    }
+
+    /**
+     * This gets the exact number of calls to one operation.
+     *
+     * @param operation The operation.
+     * @return The call count.
+     */
+    public long getCount(Operation operation) {
+        return calls[operation.ordinal()].sum();
+    }
+
+    /**
+     * This gets the latency histogram of one operation, in nanoseconds, over the timed sample of calls.
+     *
+     * @param operation The operation.
+     * @return Its histogram.
+     */
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            counts.put(name(operation), getCount(operation));
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getMeanMicros() {
+        Map<String, Double> means = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            means.put(name(operation), getLatency(operation).getMean() / 1000.0);
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Double> getP99Micros() {
+        Map<String, Double> p99 = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            p99.put(name(operation), getLatency(operation).getPercentile(99) / 1000.0);
+        }
+        return p99;
+    }
+
+    @Override
+    public Map<String, Double> getMaxMicros() {
+        Map<String, Double> max = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            max.put(name(operation), getLatency(operation).getMax() / 1000.0);
+        }
+        return max;
+    }
+
+    @Override
+    public Map<String, Long> getMeanAllocatedBytes() {
+        Map<String, Long> bytes = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            long samples = allocationSamples[operation.ordinal()].sum();
+            bytes.put(name(operation), samples == 0 ? 0 : allocated[operation.ordinal()].sum() / samples);
+        }
+        return bytes;
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("Metrics %s%n", enabled ? "enabled" : "disabled"));
+        text.append(String.format("%-8s %10s %12s %12s %12s %12s %14s%n",
+                "op", "count", "mean(us)", "p50(us)", "p99(us)", "max(us)", "alloc/op(B)"));
+        Map<String, Long> bytes = getMeanAllocatedBytes();
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = getLatency(operation);
+            text.append(String.format("%-8s %10d %12.2f %12.2f %12.2f %12.2f %14d%n", name(operation),
+                    getCount(operation), histogram.getMean() / 1000.0, histogram.getPercentile(50) / 1000.0,
+                    histogram.getPercentile(99) / 1000.0, histogram.getMax() / 1000.0, bytes.get(name(operation))));
+        }
+        return text.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i].reset();
+            allocated[i].reset();
+            allocationSamples[i].reset();
+            calls[i].reset();
+        }
+    }
+
+    private static String name(Operation operation) {
+        return operation.name().toLowerCase();
+    }
+}
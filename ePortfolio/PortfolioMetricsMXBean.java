@@ -0,0 +1,71 @@
+package ePortfolio;
+
+import java.util.Map;
+
+/**
+ * This is the JMX view of {@link PortfolioMetrics}, registered as {@code ePortfolio:type=PortfolioMetrics}.
+ * Every map is keyed by operation name (buy, sell, search, load, save).
+ */
+public interface PortfolioMetricsMXBean {
+
+    /**
+     * This tells whether metrics are being recorded.
+     *
+     * @return True if recording is on.
+     */
+    boolean isEnabled();
+
+    /**
+     * This turns recording on or off.
+     *
+     * @param enabled True to record.
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * This gets the number of calls per operation.
+     *
+     * @return The call counts.
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * This gets the mean latency per operation in microseconds.
+     *
+     * @return The mean latencies.
+     */
+    Map<String, Double> getMeanMicros();
+
+    /**
+     * This gets the 99th percentile latency per operation in microseconds.
+     *
+     * @return The p99 latencies.
+     */
+    Map<String, Double> getP99Micros();
+
+    /**
+     * This gets the largest latency per operation in microseconds.
+     *
+     * @return The maximum latencies.
+     */
+    Map<String, Double> getMaxMicros();
+
+    /**
+     * This gets the mean bytes allocated by the calling thread per operation, measured on a sample of calls.
+     *
+     * @return The mean allocations.
+     */
+    Map<String, Long> getMeanAllocatedBytes();
+
+    /**
+     * This gets a plain text dump of every metric.
+     *
+     * @return The dump.
+     */
+    String dump();
+
+    /**
+     * This clears every metric.
+     */
+    void reset();
+}
@@ -0,0 +1,88 @@
+package ePortfolio;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * This is where a {@link Portfolio} is persisted. A store is given to {@link Portfolio#setStore} after
+ * loading from it, and from then on every buy and sell is written to it as it happens, with the trades of
+ * a batch (e.g. an applied rebalance) written as one transaction. {@link #saveAll(Portfolio)} brings the
+ * store fully up to date, e.g. with price changes, on quit.
+ * <p>
+ * {@link TextPortfolioStore} is the original one file text format, which can only be written whole, so
+ * it keeps nothing until {@link #saveAll(Portfolio)}. {@link EmbeddedPortfolioStore} is a local database
+ * file that writes each trade as a transaction.
+ */
+public interface PortfolioStore extends Closeable {
+
+    /**
+     * This opens the store for a file, the embedded database for a name ending in .db and the text
+     * format otherwise.
+     *
+     * @param filename The file.
+     * @return The open store.
+     * @throws IOException if the database cannot be opened.
+     */
+    static PortfolioStore open(String filename) throws IOException {
+        if (filename.toLowerCase().endsWith(".db")) {
+            return EmbeddedPortfolioStore.open(filename);
+        }
+        return new TextPortfolioStore(filename);
+    }
+
+    /**
+     * This adds every stored holding to a portfolio, in stored order.
+     *
+     * @param portfolio The portfolio, normally empty.
+     * @return The number of holdings added.
+     * @throws IOException if the store cannot be read.
+     */
+    int loadInto(Portfolio portfolio) throws IOException;
+
+    /**
+     * This makes the store hold exactly the holdings of a portfolio, as they are now.
+     *
+     * @param portfolio The portfolio.
+     * @return The number of holdings written, which may be fewer than held if the store skips unchanged ones.
+     * @throws IOException if the store cannot be written.
+     */
+    int saveAll(Portfolio portfolio) throws IOException;
+
+    /**
+     * This starts a transaction: the writes up to {@link #commit()} are kept all together or not at all.
+     * Writes outside a transaction are each committed at once.
+     *
+     * @throws IOException if the store cannot be written.
+     * @throws IllegalStateException if a transaction is already open.
+     */
+    void begin() throws IOException;
+
+    /**
+     * This writes the current state of one holding, adding it if it is new.
+     *
+     * @param investment The holding.
+     * @throws IOException if the store cannot be written.
+     */
+    void put(Investment investment) throws IOException;
+
+    /**
+     * This removes a holding, e.g. once it is sold out.
+     *
+     * @param symbol The symbol (case insensitive).
+     * @throws IOException if the store cannot be written.
+     */
+    void remove(String symbol) throws IOException;
+
+    /**
+     * This commits the open transaction.
+     *
+     * @throws IOException if the store cannot be written, in which case nothing of the transaction is kept.
+     * @throws IllegalStateException if no transaction is open.
+     */
+    void commit() throws IOException;
+
+    /**
+     * This drops the writes of the open transaction, if there is one.
+     */
+    void rollback();
+}
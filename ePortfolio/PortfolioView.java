@@ -0,0 +1,205 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is an immutable view of a portfolio's holdings at one moment, taken with {@link Portfolio#view()}.
+ * <p>
+ * Taking a view copies nothing, and trades and price changes made afterwards leave it as it was, so a
+ * reader can total, list or save a consistent book while feeds and traders keep writing, without holding
+ * the portfolio's monitor. Holdings are read by position, in portfolio order.
+ */
+public final class PortfolioView {
+    private final HoldingVector.Node root;
+    private final int shift;
+    private final int size;
+
+    PortfolioView(HoldingVector.Node root, int shift, int size) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    /**
+     * This gets the number of holdings in the view.
+     *
+     * @return The number of holdings.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * This gets the symbol of a holding.
+     *
+     * @param position The position, from 0 to {@link #size()} - 1.
+     * @return The symbol.
+     */
+    public String getSymbol(int position) {
+        return leaf(position).investments[position & HoldingVector.MASK].getSymbol();
+    }
+
+    /**
+     * This gets the name of a holding.
+     *
+     * @param position The position, from 0 to {@link #size()} - 1.
+     * @return The name.
+     */
+    public String getName(int position) {
+        return leaf(position).investments[position & HoldingVector.MASK].getName();
+    }
+
+    /**
+     * This gets the type of a holding, as it is written to a portfolio file.
+     *
+     * @param position The position, from 0 to {@link #size()} - 1.
+     * @return "stock" or "mutualfund".
+     */
+    public String getType(int position) {
+        return Order.typeOf(leaf(position).investments[position & HoldingVector.MASK]);
+    }
+
+    /**
+     * This checks whether a holding is a mutual fund.
+     *
+     * @param position The position, from 0 to {@link #size()} - 1.
+     * @return True for a mutual fund, false for a stock.
+     */
+    public boolean isMutualFund(int position) {
+        return leaf(position).investments[position & HoldingVector.MASK] instanceof MutualFund;
+    }
+
+    /**
+     * This gets the quantity of a holding.
+     *
+     * @param position The position, from 0 to {@link #size()} - 1.
+     * @return The quantity.
+     */
+    public int getQuantity(int position) {
+        return leaf(position).quantities[position & HoldingVector.MASK];
+    }
+
+    /**
+     * This gets the price of a holding.
+     *
+     * @param position The position, from 0 to {@link #size()} - 1.
+     * @return The price per unit.
+     */
+    public double getPrice(int position) {
+        return leaf(position).prices[position & HoldingVector.MASK];
+    }
+
+    /**
+     * This gets the book value of a holding.
+     *
+     * @param position The position, from 0 to {@link #size()} - 1.
+     * @return The book value.
+     */
+    public double getBookValue(int position) {
+        return leaf(position).bookValues[position & HoldingVector.MASK];
+    }
+
+    /**
+     * This gets the realized gain of a holding.
+     *
+     * @param position The position, from 0 to {@link #size()} - 1.
+     * @return The realized gain rounded to 2 decimal places, as {@link Investment#getRealizedGain()} gives it.
+     */
+    public double getRealizedGain(int position) {
+        return Math.round(leaf(position).realizedGains[position & HoldingVector.MASK] * 100.0) / 100.0;
+    }
+
+    /**
+     * This gets the display string of a holding, as {@link Investment#toDisplayString()} gives it.
+     *
+     * @param position The position, from 0 to {@link #size()} - 1.
+     * @return The display string.
+     */
+    public String toDisplayString(int position) {
+        return "Symbol: " + getSymbol(position) +
+               ", Name: " + getName(position) +
+               ", Quantity: " + getQuantity(position) +
+               ", Price: $" + String.format("%.2f", getPrice(position)) +
+               ", Book Value: $" + String.format("%.2f", getBookValue(position));
+    }
+
+    /**
+     * This calculates the market value of the holdings in the view.
+     *
+     * @return The total of price times quantity.
+     */
+    public double getMarketValue() {
+        double total = 0.0;
+        for (int start = 0; start < size; start += HoldingVector.WIDTH) {
+            HoldingVector.Leaf leaf = leaf(start);
+            int end = Math.min(HoldingVector.WIDTH, size - start);
+            for (int slot = 0; slot < end; slot++) {
+                total += leaf.prices[slot] * leaf.quantities[slot];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * This calculates the total realized gain of the holdings in the view, as {@link Portfolio#getGain()} does.
+     *
+     * @return The total of each holding's rounded realized gain.
+     */
+    public double getGain() {
+        double total = 0.0;
+        for (int start = 0; start < size; start += HoldingVector.WIDTH) {
+            HoldingVector.Leaf leaf = leaf(start);
+            int end = Math.min(HoldingVector.WIDTH, size - start);
+            for (int slot = 0; slot < end; slot++) {
+                total += Math.round(leaf.realizedGains[slot] * 100.0) / 100.0;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * This makes a detached copy of a holding as it was in the view, which is in no portfolio.
+     *
+     * @param position The position, from 0 to {@link #size()} - 1.
+     * @return A new stock or mutual fund.
+     */
+    public Investment getInvestment(int position) {
+        HoldingVector.Leaf leaf = leaf(position);
+        int slot = position & HoldingVector.MASK;
+        Investment held = leaf.investments[slot];
+        Investment copy = held instanceof MutualFund
+                ? new MutualFund(held.getSymbol(), held.getName(), leaf.quantities[slot], leaf.prices[slot])
+                : new Stock(held.getSymbol(), held.getName(), leaf.quantities[slot], leaf.prices[slot]);
+        copy.bookValue = leaf.bookValues[slot];
+        copy.realizedGain = leaf.realizedGains[slot];
+        return copy;
+    }
+
+    /**
+     * This makes detached copies of every holding in the view.
+     *
+     * @return A new list of new investments, in portfolio order.
+     */
+    public List<Investment> toInvestments() {
+        List<Investment> copies = new ArrayList<>(size);
+        for (int position = 0; position < size; position++) {
+            copies.add(getInvestment(position));
+        }
+        return copies;
+    }
+
+    /**
+     * This finds the leaf holding a position.
+     */
+    private HoldingVector.Leaf leaf(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + " is not in a view of " + size + " holdings.");
+        }
+        HoldingVector.Node node = root;
+        for (int level = shift; level > 0; level -= HoldingVector.BITS) {
+            node = ((HoldingVector.Branch) node).children[(position >>> level) & HoldingVector.MASK];
+        }
+        return (HoldingVector.Leaf) node;
+    }
+}
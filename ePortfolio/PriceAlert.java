@@ -0,0 +1,120 @@
+package ePortfolio;
+
+/**
+ * This is a one-shot price alert on a holding. A stop-loss fires when the price falls to or below its
+ * threshold, a take-profit fires when the price rises to or above it, and a percentage move fires when
+ * the price moves the given percentage away from the price at the time the alert was created.
+ */
+public class PriceAlert {
+
+    /**
+     * These are the kinds of alert supported.
+     */
+    public enum Kind {
+        /** This fires when the price falls to or below the threshold. */
+        STOP_LOSS,
+        /** This fires when the price rises to or above the threshold. */
+        TAKE_PROFIT,
+        /** This fires when the price moves the given percentage up or down from the reference price. */
+        PERCENT_MOVE
+    }
+
+    private final long id;
+    private final String symbol;
+    private final Kind kind;
+    private final double value;  // Threshold price, or percentage for PERCENT_MOVE
+    private final double referencePrice;  // Price when the alert was created
+
+    /**
+     * This creates an alert; use {@link AlertEngine#addAlert(String, Kind, double)} to register one.
+     *
+     * @param id             The alert id.
+     * @param symbol         The symbol the alert watches.
+     * @param kind           The kind of alert.
+     * @param value          The threshold price, or the percentage for a percentage move.
+     * @param referencePrice The price when the alert was created.
+     */
+    PriceAlert(long id, String symbol, Kind kind, double value, double referencePrice) {
+        this.id = id;
+        this.symbol = symbol;
+        this.kind = kind;
+        this.value = value;
+        this.referencePrice = referencePrice;
+    }
+
+    /**
+     * This gets the alert id.
+     *
+     * @return The id given when the alert was registered.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * This gets the symbol the alert watches.
+     *
+     * @return The symbol, in upper case.
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * This gets the kind of alert.
+     *
+     * @return The alert kind.
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * This gets the price at or below which the alert fires, or NaN if it never fires on a fall.
+     *
+     * @return The lower threshold.
+     */
+    double lowerThreshold() {
+        switch (kind) {
+            case STOP_LOSS:
+                return value;
+            case PERCENT_MOVE:
+                return referencePrice * (1 - value / 100.0);
+            default:
+                return Double.NaN;
+        }
+    }
+
+    /**
+     * This gets the price at or above which the alert fires, or NaN if it never fires on a rise.
+     *
+     * @return The upper threshold.
+     */
+    double upperThreshold() {
+        switch (kind) {
+            case TAKE_PROFIT:
+                return value;
+            case PERCENT_MOVE:
+                return referencePrice * (1 + value / 100.0);
+            default:
+                return Double.NaN;
+        }
+    }
+
+    /**
+     * This provides a user friendly description of the alert.
+     *
+     * @return A display string for the alert.
+     */
+    @Override
+    public String toString() {
+        switch (kind) {
+            case STOP_LOSS:
+                return String.format("#%d %s stop-loss at $%.2f", id, symbol, value);
+            case TAKE_PROFIT:
+                return String.format("#%d %s take-profit at $%.2f", id, symbol, value);
+            default:
+                return String.format("#%d %s move of %.2f%% from $%.2f", id, symbol, value, referencePrice);
+        }
+    }
+}
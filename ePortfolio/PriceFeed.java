@@ -0,0 +1,169 @@
+package ePortfolio;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This streams ticks from a {@link PriceSource} into a {@link Portfolio}. A producer thread reads the
+ * source and offers ticks to a {@link TickIngestionQueue} in small batches; an applier thread drains the
+ * coalesced batches and applies each one to the portfolio as a single revaluation.
+ * <p>
+ * The applier holds the portfolio's monitor while it applies a batch.
+ */
+public class PriceFeed {
+    private static final int PRODUCER_BATCH = 256;  // Ticks buffered by the producer per lock acquisition
+
+    private final PriceSource source;
+    private final Portfolio portfolio;
+    private final TickIngestionQueue queue;
+    private volatile boolean running = false;
+    private volatile Exception failure;
+    private Thread producer;
+    private Thread applier;
+    private long startNanos;
+    private long endNanos;
+    private long unknownSymbols = 0;  // Ticks for symbols the portfolio does not hold
+
+    /**
+     * This creates a feed from a source into a portfolio.
+     *
+     * @param source        The price source to read.
+     * @param portfolio     The portfolio to apply prices to.
+     * @param queueCapacity The maximum number of distinct symbols waiting to be applied.
+     */
+    public PriceFeed(PriceSource source, Portfolio portfolio, int queueCapacity) {
+        this.source = source;
+        this.portfolio = portfolio;
+        this.queue = new TickIngestionQueue(queueCapacity);
+    }
+
+    /**
+     * This starts the producer and applier threads.
+     *
+     * @throws IllegalStateException if the feed was already started.
+     */
+    public synchronized void start() {
+        if (producer != null) {
+            throw new IllegalStateException("Price feed already started.");
+        }
+        running = true;
+        startNanos = System.nanoTime();
+        producer = new Thread(this::produce, "price-feed-producer");
+        applier = new Thread(this::apply, "price-feed-applier");
+        producer.setDaemon(true);
+        applier.setDaemon(true);
+        applier.start();
+        producer.start();
+    }
+
+    /**
+     * This reads the source until it is exhausted or the feed is stopped, batching ticks into the queue.
+     */
+    private void produce() {
+        String[] symbols = new String[PRODUCER_BATCH];
+        double[] prices = new double[PRODUCER_BATCH];
+        int[] count = {0};
+        PriceSource.Sink batcher = (symbol, price) -> {
+            symbols[count[0]] = symbol;
+            prices[count[0]] = price;
+            count[0]++;
+        };
+        try {
+            while (running && source.nextTick(batcher)) {
+                if (count[0] == PRODUCER_BATCH) {
+                    queue.offerAll(symbols, prices, count[0]);
+                    count[0] = 0;
+                }
+            }
+            queue.offerAll(symbols, prices, count[0]);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (failure == null) {
+                failure = e;  // This keeps the applier's error if the applier closed the queue first
+            }
+        } finally {
+            queue.close();
+        }
+    }
+
+    /**
+     * This drains coalesced batches and applies them to the portfolio until the queue is finished.
+     */
+    private void apply() {
+        PriceSource.Sink updater = (symbol, price) -> {
+            if (!portfolio.updatePrice(symbol, price)) {
+                unknownSymbols++;
+            }
+        };
+        try {
+            while (!queue.isFinished()) {
+                if (queue.awaitTicks(10, TimeUnit.MILLISECONDS)) {
+                    synchronized (portfolio) {
+                        queue.drainTo(updater, 0, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            failure = e;
+            queue.close();  // This stops the producer, which would otherwise wait forever for room
+        } finally {
+            endNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * This waits for the source to be exhausted and every tick to be applied.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void awaitCompletion() throws InterruptedException {
+        producer.join();
+        applier.join();
+    }
+
+    /**
+     * This stops the feed early and waits for both threads to finish.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        awaitCompletion();
+    }
+
+    /**
+     * This gets the error that stopped the feed, if any: a source that could not be read, or a tick the
+     * portfolio refused.
+     *
+     * @return The failure, or null if the source was read and applied without errors.
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * This gets the ingestion queue, for its tick counters.
+     *
+     * @return The queue used by this feed.
+     */
+    public TickIngestionQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * This summarises the run: ticks received, applied, coalesced, revaluations and throughput.
+     *
+     * @return A short report of the feed statistics.
+     */
+    public String getReport() {
+        long end = endNanos == 0 ? System.nanoTime() : endNanos;
+        double seconds = (end - startNanos) / 1e9;
+        long received = queue.getReceived();
+        return String.format("Ticks received: %d, applied: %d, coalesced: %d, revaluations: %d, unknown symbols: %d%n"
+                + "Elapsed: %.3f s, throughput: %.0f ticks/s",
+                received, queue.getApplied(), queue.getCoalesced(), queue.getBatches(), unknownSymbols,
+                seconds, seconds > 0 ? received / seconds : 0.0);
+    }
+}
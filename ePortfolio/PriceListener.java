@@ -0,0 +1,39 @@
+package ePortfolio;
+
+/**
+ * This is notified when the price, quantity or book value of an investment changes. Old and new values are passed
+ * as primitives so no event object is allocated or boxed per tick.
+ * <p>
+ * Listeners run on the thread that changed the investment and should return quickly.
+ */
+@FunctionalInterface
+public interface PriceListener {
+
+    /**
+     * This is called after the price of an investment changes.
+     *
+     * @param investment The investment whose price changed.
+     * @param oldPrice   The price before the change.
+     * @param newPrice   The price after the change.
+     */
+    void priceChanged(Investment investment, double oldPrice, double newPrice);
+
+    /**
+     * This is called after the quantity of an investment changes. The default does nothing.
+     *
+     * @param investment  The investment whose quantity changed.
+     * @param oldQuantity The quantity before the change.
+     * @param newQuantity The quantity after the change.
+     */
+    default void quantityChanged(Investment investment, int oldQuantity, int newQuantity) {
+    }
+
+    /**
+     * This is called after the book value or realized gain of an investment changes other than with its
+     * quantity, e.g. by a buy at a new price or a sale. The default does nothing.
+     *
+     * @param investment The investment that changed.
+     */
+    default void bookChanged(Investment investment) {
+    }
+}
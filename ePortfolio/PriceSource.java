@@ -0,0 +1,42 @@
+package ePortfolio;
+
+import java.io.IOException;
+
+/**
+ * This is a source of market price ticks, such as a simulator or a recorded file.
+ * Ticks are pushed into a {@link Sink} one at a time so no tick object is allocated.
+ */
+public interface PriceSource extends AutoCloseable {
+
+    /**
+     * This receives ticks from a price source.
+     */
+    @FunctionalInterface
+    interface Sink {
+        /**
+         * This is called once per tick.
+         *
+         * @param symbol The symbol the tick is for.
+         * @param price  The new price.
+         */
+        void onTick(String symbol, double price);
+    }
+
+    /**
+     * This emits the next tick to the sink.
+     *
+     * @param sink The sink to receive the tick.
+     * @return True if a tick was emitted, false once the source is exhausted.
+     * @throws IOException if the underlying data cannot be read.
+     */
+    boolean nextTick(Sink sink) throws IOException;
+
+    /**
+     * This releases anything the source holds open. The default does nothing.
+     *
+     * @throws IOException if the source cannot be closed.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
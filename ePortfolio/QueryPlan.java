@@ -0,0 +1,159 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This is an execution plan for an {@link InvestmentQuery} against one portfolio.
+ * The planner looks at the top level AND terms of the query and picks the most selective index
+ * available (symbol, keyword or price) to produce candidate positions, then checks the whole query
+ * against each candidate. If no term can use an index the plan falls back to a full scan.
+ */
+public class QueryPlan {
+    private final Portfolio portfolio;
+    private final InvestmentQuery query;
+    private final String indexName;  // "symbol", "keyword", "price" or "scan"
+    private final String indexDetail;  // The term the index was used for
+    private final int[] candidates;  // Positions to check, or null for a full scan
+    private final int scanSize;  // Number of holdings when planned
+
+    private QueryPlan(Portfolio portfolio, InvestmentQuery query, String indexName, String indexDetail, int[] candidates) {
+        this.portfolio = portfolio;
+        this.query = query;
+        this.indexName = indexName;
+        this.indexDetail = indexDetail;
+        this.candidates = candidates;
+        this.scanSize = portfolio.heldInvestments().size();
+    }
+
+    /**
+     * This plans a query against a portfolio, choosing the index with the fewest candidate rows.
+     *
+     * @param portfolio The portfolio to search.
+     * @param query     The query to run.
+     * @return The chosen plan.
+     */
+    public static QueryPlan plan(Portfolio portfolio, InvestmentQuery query) {
+        List<InvestmentQuery> terms = new ArrayList<>();
+        if (query instanceof InvestmentQuery.And) {
+            terms.addAll(((InvestmentQuery.And) query).terms);
+        } else {
+            terms.add(query);
+        }
+
+        int[] best = null;
+        String bestName = "scan";
+        String bestDetail = "";
+        boolean priceRebuilt = false;
+
+        for (InvestmentQuery term : terms) {
+            int[] positions = null;
+            String name = null;
+            if (term instanceof InvestmentQuery.SymbolTerm) {
+                int position = portfolio.positionOfSymbol(((InvestmentQuery.SymbolTerm) term).symbol);
+                positions = position < 0 ? new int[0] : new int[] {position};
+                name = "symbol";
+            } else if (term instanceof InvestmentQuery.KeywordTerm) {
+                positions = keywordCandidates(portfolio, ((InvestmentQuery.KeywordTerm) term).keywords);
+                name = "keyword";
+            } else if (term instanceof InvestmentQuery.RangeTerm
+                    && ((InvestmentQuery.RangeTerm) term).field == InvestmentQuery.Field.PRICE
+                    && (best == null || best.length > 1)) {  // One candidate row cannot be beaten by much
+                priceRebuilt |= portfolio.refreshPriceIndex();
+                InvestmentQuery.RangeTerm range = (InvestmentQuery.RangeTerm) term;
+                int from = portfolio.priceIndexLowerBound(range.min);
+                int to = portfolio.priceIndexUpperBound(range.max);
+                if (best != null && to - from >= best.length) {
+                    continue;  // This skips building and sorting candidates that would not be used
+                }
+                positions = new int[Math.max(0, to - from)];
+                for (int slot = from; slot < to; slot++) {
+                    positions[slot - from] = portfolio.priceIndexPosition(slot);
+                }
+                Arrays.sort(positions); // This keeps results in portfolio order
+                name = priceRebuilt ? "price (rebuilt)" : "price";
+            }
+            if (positions != null && (best == null || positions.length < best.length)) {
+                best = positions;
+                bestName = name;
+                bestDetail = term.toString();
+            }
+        }
+        return new QueryPlan(portfolio, query, bestName, bestDetail, best);
+    }
+
+    /**
+     * This intersects the keyword index lists for every keyword, smallest list first.
+     */
+    private static int[] keywordCandidates(Portfolio portfolio, String[] keywords) {
+        List<IntList> lists = new ArrayList<>();
+        for (String keyword : keywords) {
+            lists.add(portfolio.keywordPositions(keyword));
+        }
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+        IntList smallest = lists.get(0);
+        int[] result = new int[smallest.size()];
+        int count = 0;
+        for (int i = 0; i < smallest.size(); i++) {
+            int position = smallest.get(i);
+            boolean inAll = true;
+            for (int j = 1; j < lists.size() && inAll; j++) {
+                inAll = lists.get(j).containsSorted(position); // Index lists are kept in position order
+            }
+            if (inAll) {
+                result[count++] = position;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * This runs the plan and returns the matching investments in portfolio order.
+     *
+     * @return The matching investments.
+     */
+    public List<Investment> execute() {
+        List<Investment> investments = portfolio.heldInvestments();
+        double totalValue = query.usesWeight() ? portfolio.getTotalMarketValue() : 0.0;
+        List<Investment> results = new ArrayList<>();
+        if (candidates == null) {
+            for (Investment investment : investments) {
+                if (query.matches(investment, totalValue)) {
+                    results.add(investment);
+                }
+            }
+        } else {
+            for (int position : candidates) {
+                Investment investment = investments.get(position);
+                if (query.matches(investment, totalValue)) {
+                    results.add(investment);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * This gets the name of the index the planner picked.
+     *
+     * @return "symbol", "keyword", "price" or "scan".
+     */
+    public String getIndexName() {
+        return indexName.startsWith("price") ? "price" : indexName;
+    }
+
+    /**
+     * This describes the plan, including which index was used and how many rows it has to check.
+     *
+     * @return A one line explanation of the plan.
+     */
+    public String explain() {
+        if (candidates == null) {
+            return "Full scan of " + scanSize + " holdings, filter: " + query;
+        }
+        return "Index: " + indexName + " on " + indexDetail + ", candidates: " + candidates.length
+                + " of " + scanSize + ", filter: " + query;
+    }
+}
@@ -0,0 +1,79 @@
+package ePortfolio;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * This is a deterministic price simulator where each symbol follows a geometric random walk.
+ * The same seed always produces the same sequence of ticks, which makes load tests repeatable.
+ */
+public class RandomWalkPriceSource implements PriceSource {
+    private static final double MIN_PRICE = 0.01;  // Prices never walk below one cent
+
+    private final String[] symbols;
+    private final double[] prices;
+    private final double volatility;  // Standard deviation of the log return per tick
+    private final long maxTicks;  // Negative means the walk never ends
+    private final SplittableRandom random;
+    private long emitted = 0;
+
+    /**
+     * This creates a random walk over the given symbols and starting prices.
+     *
+     * @param symbols     The symbols to tick.
+     * @param startPrices The starting price of each symbol.
+     * @param volatility  The standard deviation of the log return per tick, e.g. 0.001.
+     * @param seed        The seed for the random number generator.
+     * @param maxTicks    The number of ticks to emit, or a negative value for no limit.
+     */
+    public RandomWalkPriceSource(String[] symbols, double[] startPrices, double volatility, long seed, long maxTicks) {
+        if (symbols.length == 0 || symbols.length != startPrices.length) {
+            throw new IllegalArgumentException("Symbols and start prices must be non-empty and the same length.");
+        }
+        if (volatility < 0) {
+            throw new IllegalArgumentException("Volatility must be zero or a positive value.");
+        }
+        this.symbols = symbols.clone();
+        this.prices = startPrices.clone();
+        this.volatility = volatility;
+        this.random = new SplittableRandom(seed);
+        this.maxTicks = maxTicks;
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = Math.max(MIN_PRICE, prices[i]);
+        }
+    }
+
+    /**
+     * This creates a random walk starting from the current prices of every holding in a portfolio.
+     *
+     * @param portfolio  The portfolio whose holdings are simulated.
+     * @param volatility The standard deviation of the log return per tick.
+     * @param seed       The seed for the random number generator.
+     * @param maxTicks   The number of ticks to emit, or a negative value for no limit.
+     * @return The simulator.
+     */
+    public static RandomWalkPriceSource forPortfolio(Portfolio portfolio, double volatility, long seed, long maxTicks) {
+        List<Investment> investments = portfolio.getInvestments();
+        String[] symbols = new String[investments.size()];
+        double[] startPrices = new double[investments.size()];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = investments.get(i).getSymbol();
+            startPrices[i] = investments.get(i).getPrice();
+        }
+        return new RandomWalkPriceSource(symbols, startPrices, volatility, seed, maxTicks);
+    }
+
+    @Override
+    public boolean nextTick(Sink sink) {
+        if (maxTicks >= 0 && emitted >= maxTicks) {
+            return false;
+        }
+        int i = random.nextInt(symbols.length);
+        double price = prices[i] * Math.exp(volatility * random.nextGaussian());
+        price = Math.max(MIN_PRICE, Math.round(price * 100.0) / 100.0);  // Prices tick in cents
+        prices[i] = price;
+        emitted++;
+        sink.onTick(symbols[i], price);
+        return true;
+    }
+}
@@ -0,0 +1,499 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This plans the buys and sells that bring a portfolio to target weights, and can then execute them.
+ * <p>
+ * A weight can be set for a symbol, or for a type ("stock" or "mutualfund"). A type weight is shared by
+ * the holdings of that type without a weight of their own, in proportion to their current value, so the
+ * mix within the type is kept. Holdings with no weight at all are left alone. Weights are fractions of
+ * the market value plus any new cash, less the fees of the plan.
+ * <p>
+ * The plan has at most one order per symbol, with whole quantities. An order is left out when the drift
+ * it would fix is within the tolerance (except selling out a zero weight), or when it is worth no more
+ * than its own commission or redemption fee. Buys are rounded down and, if the sales and cash cannot pay
+ * for them, scaled back, so a plan never spends more than it raises. Planning reads the holdings into
+ * primitive arrays once and is linear in the number of holdings.
+ */
+public class Rebalancer {
+    private final Portfolio portfolio;
+    private final Map<String, Double> symbolWeights = new HashMap<>();  // Upper case symbol to weight
+    private final Map<String, String[]> newInstruments = new HashMap<>();  // Upper case symbol to name and type
+    private final Map<String, Double> newPrices = new HashMap<>();
+    private final Map<String, Double> typeWeights = new HashMap<>();  // "stock" or "mutualfund" to weight
+    private double cash = 0.0;
+    private double tolerance = 0.0;
+
+    /**
+     * This creates a rebalancer for a portfolio, with no targets yet.
+     *
+     * @param portfolio The portfolio to rebalance.
+     */
+    public Rebalancer(Portfolio portfolio) {
+        this.portfolio = portfolio;
+    }
+
+    /**
+     * This sets the target weight of a held symbol.
+     *
+     * @param symbol The symbol (case insensitive).
+     * @param weight The weight, from 0 (sell it all) to 1.
+     * @throws IllegalArgumentException if the weight is outside 0 to 1.
+     */
+    public void setSymbolWeight(String symbol, double weight) {
+        checkWeight(weight);
+        symbolWeights.put(symbol.toUpperCase(), weight);
+    }
+
+    /**
+     * This sets the target weight of a symbol that may not be held yet, with what is needed to buy it.
+     *
+     * @param symbol The symbol (case insensitive).
+     * @param weight The weight, from 0 to 1.
+     * @param name   The investment name.
+     * @param type   "stock" or "mutualfund".
+     * @param price  The price to buy at.
+     * @throws IllegalArgumentException if the weight is outside 0 to 1, the type is unknown or the price is not positive.
+     */
+    public void setSymbolWeight(String symbol, double weight, String name, String type, double price) {
+        checkWeight(weight);
+        checkType(type);
+        if (price <= 0) {
+            throw new IllegalArgumentException("Price must be positive.");
+        }
+        symbolWeights.put(symbol.toUpperCase(), weight);
+        newInstruments.put(symbol.toUpperCase(), new String[] {name, type.toLowerCase()});
+        newPrices.put(symbol.toUpperCase(), price);
+    }
+
+    /**
+     * This sets the target weight of a type, shared by its holdings without a symbol weight.
+     *
+     * @param type   "stock" or "mutualfund".
+     * @param weight The weight, from 0 to 1.
+     * @throws IllegalArgumentException if the weight is outside 0 to 1 or the type is unknown.
+     */
+    public void setTypeWeight(String type, double weight) {
+        checkWeight(weight);
+        checkType(type);
+        typeWeights.put(type.toLowerCase(), weight);
+    }
+
+    /**
+     * This sets new cash to invest along with the holdings.
+     *
+     * @param cash The cash, 0 or more.
+     * @throws IllegalArgumentException if the cash is negative.
+     */
+    public void setCash(double cash) {
+        if (cash < 0) {
+            throw new IllegalArgumentException("Cash cannot be negative.");
+        }
+        this.cash = cash;
+    }
+
+    /**
+     * This sets how far a holding may drift from its target before it is traded.
+     *
+     * @param tolerance The tolerance as a weight, e.g. 0.005 for half a percent.
+     * @throws IllegalArgumentException if the tolerance is outside 0 to 1.
+     */
+    public void setTolerance(double tolerance) {
+        checkWeight(tolerance);
+        this.tolerance = tolerance;
+    }
+
+    private static void checkWeight(double weight) {
+        if (!(weight >= 0 && weight <= 1)) {
+            throw new IllegalArgumentException("Weight must be between 0 and 1.");
+        }
+    }
+
+    private static void checkType(String type) {
+        if (!type.equalsIgnoreCase("stock") && !type.equalsIgnoreCase("mutualfund")) {
+            throw new IllegalArgumentException("Type must be stock or mutualfund.");
+        }
+    }
+
+    /**
+     * This parses targets written as {@code symbol=weight} or {@code type=weight} pairs separated by
+     * commas, spaces or new lines, e.g. {@code stock=60%, mutualfund=0.3, XYZ=10%}, and sets them.
+     *
+     * @param targets The target text.
+     * @throws IllegalArgumentException if a pair cannot be read.
+     */
+    public void setWeights(String targets) {
+        for (String pair : targets.trim().split("[,\\s]+")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            if (equals <= 0 || equals == pair.length() - 1) {
+                throw new IllegalArgumentException("Expected symbol=weight or type=weight, got '" + pair + "'.");
+            }
+            String key = pair.substring(0, equals);
+            String text = pair.substring(equals + 1);
+            double weight;
+            try {
+                weight = text.endsWith("%") ? Double.parseDouble(text.substring(0, text.length() - 1)) / 100
+                        : Double.parseDouble(text);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid weight '" + text + "' for " + key + ".");
+            }
+            if (key.equalsIgnoreCase("stock") || key.equalsIgnoreCase("mutualfund")) {
+                setTypeWeight(key, weight);
+            } else {
+                setSymbolWeight(key, weight);
+            }
+        }
+    }
+
+    /**
+     * This plans the orders without executing anything.
+     *
+     * @return The plan, which can be reported and then applied.
+     * @throws IllegalArgumentException if a symbol weight is for a symbol that is not held and has no price,
+     *                                  or the weights add up to more than 100%.
+     */
+    public Plan plan() {
+        synchronized (portfolio) {  // This is the lock price feeds hold while applying ticks
+            Book book = new Book();
+            double total = book.value + cash;
+            Plan plan = book.plan(total);
+            return book.plan(total - plan.fees);  // This plans again with the fees taken out of what is invested
+        }
+    }
+
+    /**
+     * This is the holdings and their targets in primitive arrays, one entry per holding and then one per
+     * new symbol, read once under the portfolio's monitor.
+     */
+    private final class Book {
+        final int size;
+        final String[] symbols;
+        final String[] names;
+        final boolean[] funds;
+        final int[] quantities;
+        final double[] prices;
+        final double[] values;
+        final double[] weights;  // Symbol weight, or NaN
+        double value = 0.0;
+        final double stockValue;  // Current value of stocks with no symbol weight
+        final double fundValue;
+        final int stockCount;
+        final int fundCount;
+
+        Book() {
+            List<Investment> investments = portfolio.getInvestments();
+            int held = investments.size();
+            List<String> added = new ArrayList<>();
+            for (String symbol : newInstruments.keySet()) {
+                if (portfolio.findInvestmentBySymbol(symbol) == null) {
+                    added.add(symbol);
+                }
+            }
+            Collections.sort(added);  // This keeps plans in the same order from run to run
+            size = held + added.size();
+            symbols = new String[size];
+            names = new String[size];
+            funds = new boolean[size];
+            quantities = new int[size];
+            prices = new double[size];
+            values = new double[size];
+            weights = new double[size];
+            double stocks = 0.0;
+            double fundsTotal = 0.0;
+            int stockHoldings = 0;
+            int fundHoldings = 0;
+            int targeted = 0;
+            for (int i = 0; i < size; i++) {
+                if (i < held) {
+                    Investment investment = investments.get(i);
+                    symbols[i] = investment.getSymbol();
+                    names[i] = investment.getName();
+                    funds[i] = investment instanceof MutualFund;
+                    quantities[i] = investment.getQuantity();
+                    prices[i] = investment.getPrice();
+                } else {
+                    String symbol = added.get(i - held);
+                    symbols[i] = symbol;
+                    names[i] = newInstruments.get(symbol)[0];
+                    funds[i] = newInstruments.get(symbol)[1].equals("mutualfund");
+                    prices[i] = newPrices.get(symbol);
+                }
+                values[i] = quantities[i] * prices[i];
+                value += values[i];
+                Double weight = symbolWeights.isEmpty() ? null : symbolWeights.get(symbols[i].toUpperCase());
+                weights[i] = weight == null ? Double.NaN : weight;
+                if (weight != null) {
+                    targeted++;
+                } else if (funds[i]) {
+                    fundsTotal += values[i];
+                    fundHoldings++;
+                } else {
+                    stocks += values[i];
+                    stockHoldings++;
+                }
+            }
+            if (targeted < symbolWeights.size()) {
+                for (String symbol : symbolWeights.keySet()) {
+                    if (portfolio.findInvestmentBySymbol(symbol) == null && !newInstruments.containsKey(symbol)) {
+                        throw new IllegalArgumentException(symbol + " is not held; give its name, type and price to buy it.");
+                    }
+                }
+            }
+            stockValue = stocks;
+            fundValue = fundsTotal;
+            stockCount = stockHoldings;
+            fundCount = fundHoldings;
+        }
+
+        /**
+         * This plans the orders for a total to invest.
+         */
+        Plan plan(double total) {
+            double[] targets = new double[size];
+            double weightSum = 0.0;
+            for (double weight : symbolWeights.values()) {
+                weightSum += weight;
+            }
+            Double stockWeight = typeWeights.get("stock");
+            Double fundWeight = typeWeights.get("mutualfund");
+            weightSum += stockWeight == null ? (value > 0 ? stockValue / value : 0) : stockWeight;
+            weightSum += fundWeight == null ? (value > 0 ? fundValue / value : 0) : fundWeight;
+            if (weightSum > 1 + 1e-9) {
+                throw new IllegalArgumentException(String.format(
+                        "Target weights, with untargeted holdings at their current weight, add up to %.2f%%.", weightSum * 100));
+            }
+            for (int i = 0; i < size; i++) {
+                if (!Double.isNaN(weights[i])) {
+                    targets[i] = weights[i] * total;
+                } else {
+                    Double typeWeight = funds[i] ? fundWeight : stockWeight;
+                    double typeValue = funds[i] ? fundValue : stockValue;
+                    int typeCount = funds[i] ? fundCount : stockCount;
+                    if (typeWeight == null) {
+                        targets[i] = values[i];  // This holding has no target and is left alone
+                    } else {
+                        double share = typeValue > 0 ? values[i] / typeValue : 1.0 / typeCount;
+                        targets[i] = typeWeight * total * share;
+                    }
+                }
+            }
+
+            // Below it will size every order, sells first so their proceeds are known
+            int[] deltas = new int[size];
+            double raised = cash;
+            double fees = 0.0;
+            double band = tolerance * total;
+            for (int i = 0; i < size; i++) {
+                double drift = targets[i] - values[i];
+                if (drift >= 0 || (-drift <= band && targets[i] > 0) || prices[i] <= 0) {
+                    continue;  // This always sells out a zero target, however small the holding
+                }
+                int quantity = targets[i] <= 0 ? quantities[i]
+                        : (int) Math.min(quantities[i], Math.round(-drift / prices[i]));
+                double fee = Order.feeOf(type(i), Order.Side.SELL);
+                if (quantity > 0 && quantity * prices[i] > fee) {
+                    deltas[i] = -quantity;
+                    raised += quantity * prices[i] - fee;
+                    fees += fee;
+                }
+            }
+            double wanted = 0.0;
+            for (int i = 0; i < size; i++) {
+                double drift = targets[i] - values[i];
+                if (drift <= band || prices[i] <= 0) {
+                    continue;
+                }
+                int quantity = (int) Math.min(Integer.MAX_VALUE - quantities[i], Math.floor(drift / prices[i]));
+                double fee = Order.feeOf(type(i), Order.Side.BUY);
+                if (quantity > 0 && quantity * prices[i] > fee) {
+                    deltas[i] = quantity;
+                    wanted += quantity * prices[i] + fee;
+                }
+            }
+            if (wanted > raised) {
+                double scale = Math.max(0.0, raised / wanted);  // This shrinks every buy alike to what the sales raised
+                wanted = 0.0;
+                for (int i = 0; i < size; i++) {
+                    if (deltas[i] > 0) {
+                        int quantity = (int) Math.floor(deltas[i] * scale);
+                        double fee = Order.feeOf(type(i), Order.Side.BUY);
+                        deltas[i] = quantity * prices[i] > fee ? quantity : 0;
+                        wanted += deltas[i] == 0 ? 0.0 : deltas[i] * prices[i] + fee;
+                    }
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                if (deltas[i] > 0) {
+                    fees += Order.feeOf(type(i), Order.Side.BUY);
+                }
+            }
+            return new Plan(this, targets, deltas, total, fees, raised - wanted);
+        }
+
+        String type(int i) {
+            return funds[i] ? "mutualfund" : "stock";
+        }
+    }
+
+    /**
+     * This is a planned set of orders, sells before buys, with a report of what they will do.
+     */
+    public final class Plan {
+        private final List<Order> orders = new ArrayList<>();
+        private final int[] heldBefore;  // Quantity held when planned, by order
+        private final double total;
+        private final double fees;
+        private final double cashLeft;
+        private final double sold;
+        private final double bought;
+        private final double maxDrift;  // Largest distance from target after the orders, as a weight
+        private boolean applied = false;
+
+        Plan(Book book, double[] targets, int[] deltas, double total, double fees, double cashLeft) {
+            int count = 0;
+            for (int delta : deltas) {
+                count += delta != 0 ? 1 : 0;
+            }
+            heldBefore = new int[count];
+            double soldValue = 0.0;
+            double boughtValue = 0.0;
+            for (int pass = 0; pass < 2; pass++) {  // This lists every sell before any buy
+                for (int i = 0; i < book.size; i++) {
+                    if (pass == 0 && deltas[i] < 0) {
+                        heldBefore[orders.size()] = book.quantities[i];
+                        orders.add(Order.sell(book.symbols[i], book.type(i), -deltas[i], book.prices[i]));
+                        soldValue -= deltas[i] * book.prices[i];
+                    } else if (pass == 1 && deltas[i] > 0) {
+                        heldBefore[orders.size()] = book.quantities[i];
+                        orders.add(Order.buy(book.symbols[i], book.names[i], book.type(i), deltas[i], book.prices[i]));
+                        boughtValue += deltas[i] * book.prices[i];
+                    }
+                }
+            }
+            double drift = 0.0;
+            if (total > 0) {
+                for (int i = 0; i < book.size; i++) {
+                    double after = (book.quantities[i] + deltas[i]) * book.prices[i];
+                    drift = Math.max(drift, Math.abs(after - targets[i]) / total);
+                }
+            }
+            this.total = total;
+            this.fees = fees;
+            this.cashLeft = cashLeft;
+            this.sold = soldValue;
+            this.bought = boughtValue;
+            this.maxDrift = drift;
+        }
+
+        /**
+         * This gets the orders, every sell before any buy.
+         *
+         * @return The orders, which must not be changed.
+         */
+        public List<Order> getOrders() {
+            return Collections.unmodifiableList(orders);
+        }
+
+        /**
+         * This gets the commissions and redemption fees the orders will be charged.
+         *
+         * @return The total fees.
+         */
+        public double getFees() {
+            return fees;
+        }
+
+        /**
+         * This gets the new cash plus sale proceeds, less buys and fees, left once the orders are done.
+         *
+         * @return The cash left, never negative.
+         */
+        public double getCashLeft() {
+            return cashLeft;
+        }
+
+        /**
+         * This gets the largest distance of any holding from its target after the orders, which is what
+         * tolerance, fees and whole quantities leave.
+         *
+         * @return The distance as a weight, e.g. 0.001 for a tenth of a percent.
+         */
+        public double getMaxDrift() {
+            return maxDrift;
+        }
+
+        /**
+         * This describes the plan: totals, then the largest orders.
+         *
+         * @param maxOrders The most orders to list.
+         * @return The report text.
+         */
+        public String getReport(int maxOrders) {
+            StringBuilder report = new StringBuilder();
+            int sells = 0;
+            for (Order order : orders) {
+                sells += order.getSide() == Order.Side.SELL ? 1 : 0;
+            }
+            report.append(String.format("%d orders (%d sells, %d buys) on $%,.2f invested%n",
+                    orders.size(), sells, orders.size() - sells, total));
+            report.append(String.format("Sold $%,.2f, bought $%,.2f, fees $%,.2f, cash left $%,.2f%n",
+                    sold, bought, fees, cashLeft));
+            report.append(String.format("Largest drift from target afterwards: %.3f%%%n", maxDrift * 100));
+            List<Order> largest = new ArrayList<>(orders);
+            largest.sort((a, b) -> Double.compare(b.getValue(), a.getValue()));
+            for (int i = 0; i < Math.min(maxOrders, largest.size()); i++) {
+                report.append("  ").append(largest.get(i)).append('\n');
+            }
+            if (largest.size() > maxOrders) {
+                report.append(String.format("  ... and %d smaller orders%n", largest.size() - maxOrders));
+            }
+            return report.toString();
+        }
+
+        /**
+         * This executes the orders through {@link Portfolio#sellInvestment} and {@link Portfolio#buyInvestment}
+         * as one batch under the portfolio's monitor, after checking that nothing was traded since planning.
+         *
+         * @return The message of each trade, in order.
+         * @throws IllegalStateException if the plan was applied already or a holding changed since planning.
+         */
+        public List<String> apply() {
+            synchronized (portfolio) {
+                if (applied) {
+                    throw new IllegalStateException("This plan has already been applied.");
+                }
+                for (int i = 0; i < orders.size(); i++) {
+                    Investment investment = portfolio.findInvestmentBySymbol(orders.get(i).getSymbol());
+                    int held = investment == null ? 0 : investment.getQuantity();
+                    if (held != heldBefore[i]) {
+                        throw new IllegalStateException(orders.get(i).getSymbol() + " was traded since the plan was made; plan again.");
+                    }
+                }
+                applied = true;
+                List<String> messages = new ArrayList<>(orders.size());
+                portfolio.beginBatch();
+                try {
+                    for (Order order : orders) {
+                        if (order.getSide() == Order.Side.SELL) {
+                            messages.add(portfolio.sellInvestment(order.getSymbol(), order.getQuantity(), order.getPrice()));
+                        } else {
+                            messages.add(portfolio.buyInvestment(order.getSymbol(), order.getName(), order.getQuantity(),
+                                    order.getPrice(), order.getType()));
+                        }
+                    }
+                } finally {
+                    portfolio.endBatch();
+                }
+                return messages;
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package ePortfolio;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This is a recorded stream of price ticks and trade instructions, in time order, for
+ * {@link Backtester}. It is stored column by column in primitive arrays with each symbol kept once, and
+ * never changes once built, so any number of backtests can replay it at the same time.
+ * <p>
+ * In a CSV file each line is one event:
+ * <pre>
+ * timestamp,symbol,price                          a price tick (symbol,price also works)
+ * timestamp,buy,symbol,quantity,price,type,name   a buy of a stock or mutualfund
+ * timestamp,sell,symbol,quantity,price            a sell
+ * </pre>
+ * Timestamps are epoch milliseconds or ISO-8601 instants. Blank lines, lines starting with '#' and a
+ * header line before the first event are skipped, so a recorded price feed file replays as it is.
+ */
+public final class ReplayTape {
+    /** This is the kind of a price tick. */
+    public static final byte TICK = 0;
+    /** This is the kind of a buy instruction. */
+    public static final byte BUY = 1;
+    /** This is the kind of a sell instruction. */
+    public static final byte SELL = 2;
+
+    private final long[] times;
+    private final byte[] kinds;
+    private final int[] symbolIndexes;  // Positions in symbols
+    private final double[] prices;
+    private final int[] quantities;  // Zero for ticks
+    private final int[] details;  // Positions in names and types for buys, -1 otherwise
+    private final String[] symbols;
+    private final String[] names;
+    private final String[] types;
+    private final int size;
+
+    private ReplayTape(Builder builder) {
+        size = builder.size;
+        times = Arrays.copyOf(builder.times, size);
+        kinds = Arrays.copyOf(builder.kinds, size);
+        symbolIndexes = Arrays.copyOf(builder.symbolIndexes, size);
+        prices = Arrays.copyOf(builder.prices, size);
+        quantities = Arrays.copyOf(builder.quantities, size);
+        details = Arrays.copyOf(builder.details, size);
+        symbols = Arrays.copyOf(builder.symbols, builder.symbolCount);
+        names = Arrays.copyOf(builder.names, builder.detailCount);
+        types = Arrays.copyOf(builder.types, builder.detailCount);
+    }
+
+    /**
+     * This reads a tape from a CSV file.
+     *
+     * @param filename The file to read.
+     * @return The tape, in file order.
+     * @throws IOException if the file cannot be read or a line is not a valid event.
+     */
+    public static ReplayTape readCsv(String filename) throws IOException {
+        Builder builder = new Builder();
+        long time = 0;  // This carries the last timestamp to lines without one
+        long lineNumber = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                try {
+                    if (fields.length >= 5 && fields[1].trim().equalsIgnoreCase("buy")) {
+                        if (fields.length < 7) {
+                            throw new IllegalArgumentException("expected timestamp,buy,symbol,quantity,price,type,name");
+                        }
+                        time = parseTime(fields[0], time);
+                        String name = String.join(",", Arrays.copyOfRange(fields, 6, fields.length)).trim();
+                        builder.buy(time, fields[2].trim(), name, fields[5].trim(),
+                                Integer.parseInt(fields[3].trim()), Double.parseDouble(fields[4].trim()));
+                    } else if (fields.length >= 5 && fields[1].trim().equalsIgnoreCase("sell")) {
+                        time = parseTime(fields[0], time);
+                        builder.sell(time, fields[2].trim(), Integer.parseInt(fields[3].trim()),
+                                Double.parseDouble(fields[4].trim()));
+                    } else if (fields.length == 2 || fields.length == 3) {
+                        double price;
+                        try {
+                            price = Double.parseDouble(fields[fields.length - 1].trim());
+                        } catch (NumberFormatException e) {
+                            if (builder.size == 0) {
+                                continue;  // This is the header line, before any event
+                            }
+                            throw e;
+                        }
+                        if (fields.length == 3) {
+                            time = parseTime(fields[0], time);
+                        }
+                        builder.tick(time, fields[fields.length - 2].trim(), price);
+                    } else {
+                        throw new IllegalArgumentException("expected a tick, buy or sell");
+                    }
+                } catch (IllegalArgumentException | DateTimeParseException e) {
+                    throw new IOException(filename + " line " + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * This parses a timestamp, which may not go back in time.
+     */
+    private static long parseTime(String text, long previous) {
+        text = text.trim();
+        long time;
+        try {
+            time = Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            time = Instant.parse(text).toEpochMilli();
+        }
+        if (time < previous) {
+            throw new IllegalArgumentException("timestamp " + text + " is before the previous line");
+        }
+        return time;
+    }
+
+    /**
+     * This gets the number of events.
+     *
+     * @return The event count.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * This gets the time of an event.
+     *
+     * @param i The event position.
+     * @return The time in milliseconds since the epoch.
+     */
+    public long time(int i) {
+        return times[i];
+    }
+
+    /**
+     * This gets the kind of an event.
+     *
+     * @param i The event position.
+     * @return {@link #TICK}, {@link #BUY} or {@link #SELL}.
+     */
+    public byte kind(int i) {
+        return kinds[i];
+    }
+
+    /**
+     * This gets the symbol position of an event, for tables indexed by {@link #symbol(int)} position.
+     *
+     * @param i The event position.
+     * @return The position of the symbol, from 0 to {@link #symbolCount()} - 1.
+     */
+    public int symbolIndex(int i) {
+        return symbolIndexes[i];
+    }
+
+    /**
+     * This gets the price of a tick, or the trade price of a buy or sell.
+     *
+     * @param i The event position.
+     * @return The price.
+     */
+    public double price(int i) {
+        return prices[i];
+    }
+
+    /**
+     * This gets the quantity of a buy or sell.
+     *
+     * @param i The event position.
+     * @return The quantity, 0 for a tick.
+     */
+    public int quantity(int i) {
+        return quantities[i];
+    }
+
+    /**
+     * This gets the name given by a buy.
+     *
+     * @param i The event position.
+     * @return The investment name, or null if the event is not a buy.
+     */
+    public String name(int i) {
+        return details[i] < 0 ? null : names[details[i]];
+    }
+
+    /**
+     * This gets the investment type given by a buy.
+     *
+     * @param i The event position.
+     * @return "stock" or "mutualfund" as recorded, or null if the event is not a buy.
+     */
+    public String type(int i) {
+        return details[i] < 0 ? null : types[details[i]];
+    }
+
+    /**
+     * This gets the number of distinct symbols on the tape.
+     *
+     * @return The symbol count.
+     */
+    public int symbolCount() {
+        return symbols.length;
+    }
+
+    /**
+     * This gets a symbol by its position.
+     *
+     * @param symbolIndex The symbol position.
+     * @return The symbol as first recorded.
+     */
+    public String symbol(int symbolIndex) {
+        return symbols[symbolIndex];
+    }
+
+    /**
+     * This builds a tape one event at a time, for recordings that do not come from a file.
+     * Events must be added in time order.
+     */
+    public static final class Builder {
+        private long[] times = new long[1024];
+        private byte[] kinds = new byte[1024];
+        private int[] symbolIndexes = new int[1024];
+        private double[] prices = new double[1024];
+        private int[] quantities = new int[1024];
+        private int[] details = new int[1024];
+        private int size = 0;
+        private final HashMap<String, Integer> symbolIds = new HashMap<>();  // Upper case symbol to position
+        private String[] symbols = new String[64];
+        private int symbolCount = 0;
+        private String[] names = new String[64];
+        private String[] types = new String[64];
+        private int detailCount = 0;
+
+        /**
+         * This adds a price tick.
+         *
+         * @param time   The time in milliseconds since the epoch.
+         * @param symbol The symbol.
+         * @param price  The new price.
+         * @return This builder.
+         */
+        public Builder tick(long time, String symbol, double price) {
+            add(time, TICK, symbol, price, 0, -1);
+            return this;
+        }
+
+        /**
+         * This adds a buy instruction.
+         *
+         * @param time     The time in milliseconds since the epoch.
+         * @param symbol   The symbol.
+         * @param name     The investment name.
+         * @param type     "stock" or "mutualfund".
+         * @param quantity The quantity to buy.
+         * @param price    The price per unit.
+         * @return This builder.
+         */
+        public Builder buy(long time, String symbol, String name, String type, int quantity, double price) {
+            if (detailCount == names.length) {
+                names = Arrays.copyOf(names, detailCount * 2);
+                types = Arrays.copyOf(types, detailCount * 2);
+            }
+            names[detailCount] = name;
+            types[detailCount] = type;
+            add(time, BUY, symbol, price, quantity, detailCount++);
+            return this;
+        }
+
+        /**
+         * This adds a sell instruction.
+         *
+         * @param time     The time in milliseconds since the epoch.
+         * @param symbol   The symbol.
+         * @param quantity The quantity to sell.
+         * @param price    The price per unit.
+         * @return This builder.
+         */
+        public Builder sell(long time, String symbol, int quantity, double price) {
+            add(time, SELL, symbol, price, quantity, -1);
+            return this;
+        }
+
+        private void add(long time, byte kind, String symbol, double price, int quantity, int detail) {
+            if (size > 0 && time < times[size - 1]) {
+                throw new IllegalArgumentException("Events must be added in time order.");
+            }
+            if (size == times.length) {
+                int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                kinds = Arrays.copyOf(kinds, capacity);
+                symbolIndexes = Arrays.copyOf(symbolIndexes, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+                quantities = Arrays.copyOf(quantities, capacity);
+                details = Arrays.copyOf(details, capacity);
+            }
+            Integer symbolIndex = symbolIds.get(symbol.toUpperCase());
+            if (symbolIndex == null) {
+                if (symbolCount == symbols.length) {
+                    symbols = Arrays.copyOf(symbols, symbolCount * 2);
+                }
+                symbols[symbolCount] = symbol;
+                symbolIndex = symbolCount++;
+                symbolIds.put(symbol.toUpperCase(), symbolIndex);
+            }
+            times[size] = time;
+            kinds[size] = kind;
+            symbolIndexes[size] = symbolIndex;
+            prices[size] = price;
+            quantities[size] = quantity;
+            details[size] = detail;
+            size++;
+        }
+
+        /**
+         * This builds the tape. The builder may keep adding events for a longer tape afterwards.
+         *
+         * @return The tape of every event added so far.
+         */
+        public ReplayTape build() {
+            return new ReplayTape(this);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package ePortfolio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * This estimates the Value-at-Risk and expected shortfall of a portfolio's current holdings by Monte
+ * Carlo simulation. Each path draws correlated normal shocks and moves every price by geometric Brownian
+ * motion over the horizon, with no drift; the loss of the path is the fall in market value.
+ * <p>
+ * Correlation is one number for every pair by default, which needs one shared factor and one shock per
+ * holding per path. Setting a pair explicitly switches to the full correlation matrix and its Cholesky
+ * factor, which costs a row of the matrix per holding per path instead.
+ * <p>
+ * Paths are split into fixed chunks, each with its own {@link SplittableRandom} split from the seed in
+ * chunk order, and every chunk writes its losses to its own range of one primitive array. The chunks run
+ * on parallel workers, and the result is the same for a given seed whatever the number of workers.
+ */
+public class RiskSimulator {
+    private static final int CHUNK_PATHS = 8192;
+
+    private final Portfolio portfolio;
+    private double volatility = 0.25;
+    private double correlation = 0.3;
+    private int horizonDays = 1;
+    private double tradingDays = 252;
+    private final Map<String, Double> volatilities = new HashMap<>();  // Upper case symbol to override
+    private final Map<String, Double> pairCorrelations = new HashMap<>();  // "A|B" upper case, A < B
+
+    /**
+     * This creates a simulator over a portfolio's holdings, read again at every simulation.
+     *
+     * @param portfolio The portfolio to assess.
+     */
+    public RiskSimulator(Portfolio portfolio) {
+        this.portfolio = portfolio;
+    }
+
+    /**
+     * This sets the annual volatility used for holdings without their own.
+     *
+     * @param volatility The annual volatility, e.g. 0.25 for 25%.
+     * @throws IllegalArgumentException if the volatility is negative.
+     */
+    public void setVolatility(double volatility) {
+        if (volatility < 0) {
+            throw new IllegalArgumentException("Volatility cannot be negative.");
+        }
+        this.volatility = volatility;
+    }
+
+    /**
+     * This sets the annual volatility of one symbol.
+     *
+     * @param symbol     The symbol (case insensitive).
+     * @param volatility The annual volatility, e.g. 0.25 for 25%.
+     * @throws IllegalArgumentException if the volatility is negative.
+     */
+    public void setVolatility(String symbol, double volatility) {
+        if (volatility < 0) {
+            throw new IllegalArgumentException("Volatility cannot be negative.");
+        }
+        volatilities.put(symbol.toUpperCase(), volatility);
+    }
+
+    /**
+     * This sets the correlation between every pair of holdings without their own.
+     *
+     * @param correlation The correlation, from 0 to 1.
+     * @throws IllegalArgumentException if the correlation is outside 0 to 1.
+     */
+    public void setCorrelation(double correlation) {
+        if (correlation < 0 || correlation > 1) {
+            throw new IllegalArgumentException("Correlation must be between 0 and 1.");
+        }
+        this.correlation = correlation;
+    }
+
+    /**
+     * This sets the correlation between two symbols. The correlation matrix must stay positive definite.
+     *
+     * @param symbol      One symbol (case insensitive).
+     * @param other       The other symbol (case insensitive).
+     * @param correlation The correlation, from -1 to 1.
+     * @throws IllegalArgumentException if the correlation is outside -1 to 1 or the symbols are the same.
+     */
+    public void setCorrelation(String symbol, String other, double correlation) {
+        if (correlation < -1 || correlation > 1) {
+            throw new IllegalArgumentException("Correlation must be between -1 and 1.");
+        }
+        if (symbol.equalsIgnoreCase(other)) {
+            throw new IllegalArgumentException("A symbol is always fully correlated with itself.");
+        }
+        pairCorrelations.put(pairKey(symbol, other), correlation);
+    }
+
+    private static String pairKey(String symbol, String other) {
+        String a = symbol.toUpperCase();
+        String b = other.toUpperCase();
+        return a.compareTo(b) < 0 ? a + "|" + b : b + "|" + a;
+    }
+
+    /**
+     * This sets the horizon the losses are measured over.
+     *
+     * @param horizonDays The number of trading days, at least 1.
+     * @throws IllegalArgumentException if the horizon is less than a day.
+     */
+    public void setHorizonDays(int horizonDays) {
+        if (horizonDays < 1) {
+            throw new IllegalArgumentException("Horizon must be at least one day.");
+        }
+        this.horizonDays = horizonDays;
+    }
+
+    /**
+     * This runs a simulation on the common fork join pool.
+     *
+     * @param paths The number of paths.
+     * @param seed  The random seed; the same seed and holdings give the same result.
+     * @return The simulated loss distribution.
+     */
+    public Result simulate(int paths, long seed) {
+        return simulate(paths, seed, 0);
+    }
+
+    /**
+     * This runs a simulation on a given number of workers.
+     *
+     * @param paths   The number of paths, at least 1.
+     * @param seed    The random seed; the same seed and holdings give the same result.
+     * @param workers The number of worker threads, or 0 for the common fork join pool.
+     * @return The simulated loss distribution.
+     * @throws IllegalArgumentException if there are no paths.
+     * @throws IllegalStateException if the portfolio has a correlation matrix that is not positive definite.
+     */
+    public Result simulate(int paths, long seed, int workers) {
+        if (paths < 1) {
+            throw new IllegalArgumentException("At least one path is needed.");
+        }
+        long started = System.nanoTime();
+        Model model = snapshot();
+        double[] losses = new double[paths];
+        int chunks = (paths + CHUNK_PATHS - 1) / CHUNK_PATHS;
+        SplittableRandom root = new SplittableRandom(seed);
+        List<Callable<Void>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            SplittableRandom random = root.split();  // This is split in chunk order, so the paths never depend on the workers
+            int from = c * CHUNK_PATHS;
+            int to = Math.min(paths, from + CHUNK_PATHS);
+            tasks.add(() -> {
+                model.simulate(random, losses, from, to);
+                return null;
+            });
+        }
+        ForkJoinPool pool = workers > 0 ? new ForkJoinPool(workers) : ForkJoinPool.commonPool();
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Simulation interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Simulation failed.", e.getCause());
+        } finally {
+            if (workers > 0) {
+                pool.shutdown();
+            }
+        }
+        return new Result(losses, model.value, horizonDays, model.symbols.length, System.nanoTime() - started);
+    }
+
+    /**
+     * This copies the holdings and settings into primitive arrays for the workers.
+     */
+    private Model snapshot() {
+        synchronized (portfolio) {  // This is the lock price feeds hold while applying ticks
+            List<Investment> investments = portfolio.getInvestments();
+            int n = investments.size();
+            Model model = new Model(n);
+            double years = horizonDays / tradingDays;
+            for (int i = 0; i < n; i++) {
+                Investment investment = investments.get(i);
+                model.symbols[i] = investment.getSymbol();
+                model.values[i] = investment.getPrice() * investment.getQuantity();
+                model.value += model.values[i];
+                double sigma = volatilities.getOrDefault(model.symbols[i].toUpperCase(), volatility) * Math.sqrt(years);
+                model.scales[i] = sigma;
+                model.drifts[i] = -0.5 * sigma * sigma;  // This keeps the expected price unchanged
+            }
+            if (!pairCorrelations.isEmpty()) {
+                model.cholesky = cholesky(model.symbols);
+            }
+            model.factorWeight = Math.sqrt(correlation);
+            model.ownWeight = Math.sqrt(1 - correlation);
+            return model;
+        }
+    }
+
+    /**
+     * This builds the correlation matrix of the holdings and factors it as L times L transposed.
+     */
+    private double[][] cholesky(String[] symbols) {
+        int n = symbols.length;
+        double[][] l = new double[n][];
+        for (int i = 0; i < n; i++) {
+            l[i] = new double[i + 1];
+            for (int j = 0; j <= i; j++) {
+                double sum = i == j ? 1.0 : pairCorrelations.getOrDefault(pairKey(symbols[i], symbols[j]), correlation);
+                for (int k = 0; k < j; k++) {
+                    sum -= l[i][k] * l[j][k];
+                }
+                if (i == j) {
+                    if (sum <= 0) {
+                        throw new IllegalStateException("The correlations are not consistent (matrix not positive definite at "
+                                + symbols[i] + ").");
+                    }
+                    l[i][i] = Math.sqrt(sum);
+                } else {
+                    l[i][j] = sum / l[j][j];
+                }
+            }
+        }
+        return l;
+    }
+
+    /**
+     * This is the read only state the workers share: one entry per holding, in portfolio order.
+     */
+    private static final class Model {
+        final String[] symbols;
+        final double[] values;  // Market value now
+        final double[] scales;  // Volatility over the horizon
+        final double[] drifts;  // Log drift over the horizon
+        double value = 0.0;
+        double[][] cholesky;  // Lower triangle, or null for the one factor model
+        double factorWeight;
+        double ownWeight;
+
+        Model(int n) {
+            symbols = new String[n];
+            values = new double[n];
+            scales = new double[n];
+            drifts = new double[n];
+        }
+
+        /**
+         * This simulates the paths from one position to another, writing each path's loss.
+         */
+        void simulate(SplittableRandom random, double[] losses, int from, int to) {
+            int n = values.length;
+            double[] shocks = new double[n];
+            double[] normals = new double[n];
+            for (int path = from; path < to; path++) {
+                if (cholesky == null) {
+                    double factor = factorWeight * random.nextGaussian();
+                    for (int i = 0; i < n; i++) {
+                        shocks[i] = factor + ownWeight * random.nextGaussian();
+                    }
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        normals[i] = random.nextGaussian();
+                        double[] row = cholesky[i];
+                        double sum = 0.0;
+                        for (int k = 0; k <= i; k++) {
+                            sum += row[k] * normals[k];
+                        }
+                        shocks[i] = sum;
+                    }
+                }
+                double end = 0.0;
+                for (int i = 0; i < n; i++) {
+                    end += values[i] * Math.exp(drifts[i] + scales[i] * shocks[i]);
+                }
+                losses[path] = value - end;
+            }
+        }
+    }
+
+    /**
+     * This is a simulated loss distribution, from which VaR and expected shortfall are read at any
+     * confidence level.
+     */
+    public static final class Result {
+        private final double[] losses;  // Partially reordered by each query, never changed in value
+        private final double portfolioValue;
+        private final int horizonDays;
+        private final int holdings;
+        private final long elapsedNanos;
+
+        Result(double[] losses, double portfolioValue, int horizonDays, int holdings, long elapsedNanos) {
+            this.losses = losses;
+            this.portfolioValue = portfolioValue;
+            this.horizonDays = horizonDays;
+            this.holdings = holdings;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * This gets the Value-at-Risk: the loss that is not exceeded with the given confidence.
+         *
+         * @param confidence The confidence, e.g. 0.99.
+         * @return The VaR in dollars; negative would mean a gain even in the tail.
+         */
+        public synchronized double getValueAtRisk(double confidence) {
+            return select(tailStart(confidence));
+        }
+
+        /**
+         * This gets the expected shortfall: the average loss in the tail beyond the VaR.
+         *
+         * @param confidence The confidence, e.g. 0.99.
+         * @return The expected shortfall in dollars.
+         */
+        public synchronized double getExpectedShortfall(double confidence) {
+            int start = tailStart(confidence);
+            select(start);
+            double[] tail = Arrays.copyOfRange(losses, start, losses.length);
+            Arrays.sort(tail);  // This fixes the summation order, so the result never depends on the partition
+            double sum = 0.0;
+            for (double loss : tail) {
+                sum += loss;
+            }
+            return sum / tail.length;
+        }
+
+        /**
+         * This gets the position of the VaR in ascending loss order.
+         */
+        private int tailStart(double confidence) {
+            if (!(confidence > 0 && confidence < 1)) {
+                throw new IllegalArgumentException("Confidence must be between 0 and 1.");
+            }
+            return Math.min(losses.length - 1, (int) Math.floor(confidence * losses.length));
+        }
+
+        /**
+         * This moves the k-th smallest loss to position k, smaller ones before it and larger ones after.
+         */
+        private double select(int k) {
+            int low = 0;
+            int high = losses.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;  // This uses the median of three as the pivot
+                if (losses[mid] < losses[low]) {
+                    swap(mid, low);
+                }
+                if (losses[high] < losses[low]) {
+                    swap(high, low);
+                }
+                if (losses[high] < losses[mid]) {
+                    swap(high, mid);
+                }
+                double pivot = losses[mid];
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (losses[i] < pivot) {
+                        i++;
+                    }
+                    while (losses[j] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(i++, j--);
+                    }
+                }
+                if (k <= j) {
+                    high = j;
+                } else if (k >= i) {
+                    low = i;
+                } else {
+                    break;
+                }
+            }
+            return losses[k];
+        }
+
+        private void swap(int a, int b) {
+            double t = losses[a];
+            losses[a] = losses[b];
+            losses[b] = t;
+        }
+
+        /**
+         * This gets the number of paths simulated.
+         *
+         * @return The path count.
+         */
+        public int getPaths() {
+            return losses.length;
+        }
+
+        /**
+         * This gets the market value the losses are measured from.
+         *
+         * @return The portfolio value at the start of the horizon.
+         */
+        public double getPortfolioValue() {
+            return portfolioValue;
+        }
+
+        /**
+         * This gets the time the simulation took.
+         *
+         * @return The elapsed time in nanoseconds.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * This describes the 95% and 99% VaR and expected shortfall in a few lines.
+         *
+         * @return The report text.
+         */
+        public String getReport() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("%,d paths, %d holdings, %d day horizon, market value $%,.2f (%.0f ms)%n",
+                    losses.length, holdings, horizonDays, portfolioValue, elapsedNanos / 1e6));
+            for (double confidence : new double[] {0.95, 0.99}) {
+                double var = getValueAtRisk(confidence);
+                double es = getExpectedShortfall(confidence);
+                report.append(String.format("%.0f%%: VaR $%,.2f (%.2f%%), expected shortfall $%,.2f (%.2f%%)%n",
+                        confidence * 100, var, percentOf(var), es, percentOf(es)));
+            }
+            return report.toString();
+        }
+
+        private double percentOf(double amount) {
+            return portfolioValue == 0 ? 0.0 : amount / portfolioValue * 100;
+        }
+    }
+}
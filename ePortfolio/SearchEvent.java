@@ -0,0 +1,65 @@
+package ePortfolio;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * This is the Java Flight Recorder event emitted for each search on a {@link Portfolio}, including the
+ * index the planner picked.
+ */
+@Name("ePortfolio.Search")
+@Label("Portfolio Search")
+@Category({"ePortfolio"})
+@Description("A searchInvestment or query language search")
+@StackTrace(false)
+@Threshold("0 ms")
+class SearchEvent extends jdk.jfr.Event {
+    private static final EventType TYPE = EventType.getEventType(SearchEvent.class);
+
+    @Label("Criteria")
+    String criteria;
+
+    @Label("Index")
+    @Description("symbol, keyword, price or scan")
+    String index;
+
+    @Label("Result Count")
+    int resultCount;
+
+    /**
+     * This starts timing a search if a recording wants the event. When none does, no event is allocated,
+     * so the hot path costs one flag read.
+     *
+     * @return The started event, or null if the event is not being recorded.
+     */
+    static SearchEvent start() {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * This ends the event and commits it if the recording wants it.
+     *
+     * @param query   The query that ran.
+     * @param plan    The plan used, or null if planning failed.
+     * @param results The number of results.
+     */
+    void finish(InvestmentQuery query, QueryPlan plan, int results) {
+        end();
+        if (shouldCommit()) {
+            this.criteria = query.toString();
+            this.index = plan == null ? null : plan.getIndexName();
+            this.resultCount = results;
+            commit();
+        }
+    }
+}
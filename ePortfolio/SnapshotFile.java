@@ -0,0 +1,269 @@
+package ePortfolio;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This is a binary portfolio file that is memory-mapped and read one holding at a time, for
+ * {@link Portfolio#openSnapshotFile(String)}. Opening one reads only its header, so it takes the same time
+ * whatever the number of holdings, and a holding is decoded only when asked for by symbol or position.
+ * <p>
+ * The file is a 64 byte header, the records in portfolio order, the offset of each record, and a symbol
+ * index of 8 byte entries (the hash of the lower case symbol in the high half, the record position in the
+ * low half) sorted so a symbol is found by binary search. A record is a type byte, the symbol and name
+ * as UTF-8 with an unsigned 16 bit length, then quantity, price and book value. Files are limited to
+ * 2 GB, as they are mapped as one buffer.
+ */
+final class SnapshotFile {
+    private static final int MAGIC = 0x45505346;  // "EPSF"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final byte STOCK = 0;
+    private static final byte MUTUAL_FUND = 1;
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private final int offsetsPosition;
+    private final int indexPosition;
+    private final double marketValue;
+
+    private SnapshotFile(MappedByteBuffer buffer, int size, int offsetsPosition, int indexPosition, double marketValue) {
+        this.buffer = buffer;
+        this.size = size;
+        this.offsetsPosition = offsetsPosition;
+        this.indexPosition = indexPosition;
+        this.marketValue = marketValue;
+    }
+
+    /**
+     * This maps a snapshot file and checks its header.
+     *
+     * @param file The snapshot file.
+     * @return The open snapshot. The file may be replaced afterwards but must not be written in place.
+     * @throws IOException if the file cannot be mapped or is not a snapshot.
+     */
+    static SnapshotFile open(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not a portfolio snapshot.");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);  // This stays valid after the channel closes
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a portfolio snapshot.");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " is a snapshot of unsupported version " + buffer.getInt(4) + ".");
+        }
+        int size = buffer.getInt(8);
+        long offsetsPosition = buffer.getLong(16);
+        long indexPosition = buffer.getLong(24);
+        if (size < 0 || offsetsPosition < HEADER_BYTES || indexPosition != offsetsPosition + 4L * size
+                || indexPosition + 8L * size != buffer.capacity()) {
+            throw new IOException(file + " is a damaged portfolio snapshot.");
+        }
+        return new SnapshotFile(buffer, size, (int) offsetsPosition, (int) indexPosition, buffer.getDouble(32));
+    }
+
+    /**
+     * This writes investments to a snapshot file, through a temporary file that replaces it when complete,
+     * so a snapshot open on the old file is never written under.
+     *
+     * @param file        The snapshot file.
+     * @param investments The investments, in portfolio order.
+     * @throws IOException if the file cannot be written or would pass 2 GB.
+     */
+    static void write(Path file, List<Investment> investments) throws IOException {
+        int size = investments.size();
+        int[] offsets = new int[size];
+        long[] index = new long[size];
+        double marketValue = 0.0;
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            long position = HEADER_BYTES;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+                out.write(new byte[HEADER_BYTES]);  // This is filled in once the sections are placed
+                for (int i = 0; i < size; i++) {
+                    Investment investment = investments.get(i);
+                    byte[] symbol = bytesOf(investment.getSymbol());
+                    byte[] name = bytesOf(investment.getName());
+                    offsets[i] = (int) position;
+                    index[i] = ((long) keyOf(investment.getSymbol()) << 32) | i;
+                    out.writeByte(investment instanceof MutualFund ? MUTUAL_FUND : STOCK);
+                    out.writeShort(symbol.length);
+                    out.write(symbol);
+                    out.writeShort(name.length);
+                    out.write(name);
+                    out.writeInt(investment.getQuantity());
+                    out.writeDouble(investment.getPrice());
+                    out.writeDouble(investment.getBookValue());
+                    marketValue += investment.getPrice() * investment.getQuantity();
+                    position += 1 + 2 + symbol.length + 2 + name.length + 4 + 8 + 8;
+                    if (position + 12L * size > Integer.MAX_VALUE) {
+                        throw new IOException("The portfolio is too large for a snapshot file (over 2 GB).");
+                    }
+                }
+                for (int offset : offsets) {
+                    out.writeInt(offset);
+                }
+                Arrays.sort(index);
+                for (long entry : index) {
+                    out.writeLong(entry);
+                }
+            }
+            try (RandomAccessFile header = new RandomAccessFile(temporary.toFile(), "rw")) {
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeInt(size);
+                header.writeInt(0);
+                header.writeLong(position);
+                header.writeLong(position + 4L * size);
+                header.writeDouble(marketValue);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * This tells whether a file name is that of a snapshot file, by its .snap extension.
+     *
+     * @param filename The file name.
+     * @return True for a snapshot file.
+     */
+    static boolean isSnapshotName(String filename) {
+        return filename.toLowerCase().endsWith(".snap");
+    }
+
+    private static byte[] bytesOf(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("A symbol or name is too long for a snapshot file: " + text.substring(0, 20) + "...");
+        }
+        return bytes;
+    }
+
+    /**
+     * This hashes a symbol the way it is looked up, ignoring case.
+     */
+    private static int keyOf(String symbol) {
+        return symbol.toLowerCase().hashCode();
+    }
+
+    /**
+     * This gets the number of holdings in the snapshot.
+     *
+     * @return The record count.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * This gets the market value of every holding as saved.
+     *
+     * @return The sum of price times quantity.
+     */
+    double getMarketValue() {
+        return marketValue;
+    }
+
+    /**
+     * This finds the records with a symbol, by binary search of the symbol index.
+     *
+     * @param symbol The symbol (case insensitive).
+     * @return The record positions, in ascending order, or an empty array.
+     */
+    int[] find(String symbol) {
+        long key = (long) keyOf(symbol) << 32;
+        int low = 0;
+        int high = size;
+        while (low < high) {  // This finds the first entry at or after the key
+            int middle = (low + high) >>> 1;
+            if (entry(middle) < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int[] found = new int[0];
+        String wanted = symbol.toLowerCase();
+        for (int i = low; i < size && (entry(i) & 0xFFFFFFFF00000000L) == key; i++) {
+            int ordinal = (int) entry(i);
+            if (symbolOf(ordinal).toLowerCase().equals(wanted)) {  // This skips other symbols with the same hash
+                found = Arrays.copyOf(found, found.length + 1);
+                found[found.length - 1] = ordinal;
+            }
+        }
+        return found;
+    }
+
+    private long entry(int i) {
+        return buffer.getLong(indexPosition + 8 * i);
+    }
+
+    private String symbolOf(int ordinal) {
+        int offset = buffer.getInt(offsetsPosition + 4 * ordinal);
+        return text(offset + 1);
+    }
+
+    private String text(int offset) {
+        int length = buffer.getShort(offset) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(offset + 2, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * This decodes one record into a new investment, which is not yet in any portfolio.
+     *
+     * @param ordinal The record position, from 0 to {@link #size()} - 1.
+     * @return The investment with its saved quantity, price and book value.
+     * @throws IllegalStateException if the record is damaged.
+     */
+    Investment read(int ordinal) {
+        PortfolioDiff.Holding holding = readHolding(ordinal);
+        Investment investment;
+        try {
+            investment = holding.isMutualFund()
+                    ? new MutualFund(holding.getSymbol(), holding.getName(), holding.getQuantity(), holding.getPrice())
+                    : new Stock(holding.getSymbol(), holding.getName(), holding.getQuantity(), holding.getPrice());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Snapshot record " + ordinal + " is damaged: " + e.getMessage(), e);
+        }
+        investment.setBookValue(holding.getBookValue());
+        return investment;
+    }
+
+    /**
+     * This decodes one record's fields only, without registering the instrument, for reading a whole
+     * snapshot through as {@link PortfolioDiff} does.
+     *
+     * @param ordinal The record position, from 0 to {@link #size()} - 1.
+     * @return The holding as saved.
+     */
+    PortfolioDiff.Holding readHolding(int ordinal) {
+        int offset = buffer.getInt(offsetsPosition + 4 * ordinal);
+        byte type = buffer.get(offset);
+        String symbol = text(offset + 1);
+        offset += 3 + (buffer.getShort(offset + 1) & 0xFFFF);
+        String name = text(offset);
+        offset += 2 + (buffer.getShort(offset) & 0xFFFF);
+        return new PortfolioDiff.Holding(type == MUTUAL_FUND, symbol, name, buffer.getInt(offset),
+                buffer.getDouble(offset + 4), buffer.getDouble(offset + 12));
+    }
+}
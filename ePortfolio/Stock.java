@@ -23,6 +23,15 @@ public class Stock extends Investment {
         this.bookValue = calculateInitialBookValue(quantity, price);  // Initial book value with commission
     }
 
+    /**
+     * This copies a stock without its listeners, e.g. to try trades on before making them.
+     *
+     * @param other The stock to copy.
+     */
+    public Stock(Stock other) {
+        super(other);
+    }
+
     /**
      * This calculates the initial book value when buying stocks, including commission.
      * 
@@ -53,6 +62,7 @@ public class Stock extends Investment {
     */
     public void updateBookValue(double price, int quantity) {
         this.bookValue += (quantity * price) + COMMISSION;
+        bookChanged();
     }
 
 
@@ -72,14 +82,13 @@ public class Stock extends Investment {
         
         double payment = quantity * price - COMMISSION;  // Calculate payment after commission
         double gain = payment - (bookValue * ((double) quantity / this.quantity));  // Calculate gain
-        this.quantity -= quantity;  // Reduce the quantity of shares
+        reduceBookValue(quantity);  // Adjust the book value proportionally, while the quantity is still the one held before
+        changeQuantity(this.quantity - quantity);  // Reduce the quantity of shares
 
-        // This will check if all shares are sold, if so reset the book value to 0
+        // This will check if all shares are sold, if so reset the book value to exactly 0
         if (this.quantity == 0) {
             this.bookValue = 0;
-        } else {
-            // Adjust the book value proportionally if some shares remain
-            reduceBookValue(quantity);
+            bookChanged();
         }
 
         return gain;  // This will Return the gain from the sale
@@ -106,8 +115,8 @@ public class Stock extends Investment {
 
     @Override
     public String toDisplayString() {
-        return "Symbol: " + symbol + 
-               ", Name: " + name + 
+        return "Symbol: " + getSymbol() + 
+               ", Name: " + getName() + 
                ", Quantity: " + quantity + 
                ", Price: $" + String.format("%.2f", price) + 
                ", Book Value: $" + String.format("%.2f", bookValue);
@@ -0,0 +1,63 @@
+package ePortfolio;
+
+import java.io.IOException;
+
+/**
+ * This is the {@link PortfolioStore} for the original text format of
+ * {@link Portfolio#saveInvestmentsToFile(String)}. The file can only be rewritten whole, so single trades
+ * are not written and transactions do nothing; the file is written by {@link #saveAll(Portfolio)}.
+ */
+public class TextPortfolioStore implements PortfolioStore {
+    private final String filename;
+
+    /**
+     * This creates a store for a text portfolio file, which need not exist yet.
+     *
+     * @param filename The file.
+     */
+    public TextPortfolioStore(String filename) {
+        this.filename = filename;
+    }
+
+    @Override
+    public int loadInto(Portfolio portfolio) {
+        int before = portfolio.size();
+        portfolio.loadInvestmentsFromFile(filename, 0);
+        return portfolio.size() - before;
+    }
+
+    @Override
+    public int saveAll(Portfolio portfolio) {
+        portfolio.saveInvestmentsToFile(filename);
+        return portfolio.size();
+    }
+
+    @Override
+    public void begin() {
+    }
+
+    @Override
+    public void put(Investment investment) {
+    }
+
+    @Override
+    public void remove(String symbol) {
+    }
+
+    @Override
+    public void commit() {
+    }
+
+    @Override
+    public void rollback() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return filename;
+    }
+}
@@ -0,0 +1,278 @@
+package ePortfolio;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This is a bounded queue of price ticks that coalesces ticks per symbol. While a symbol is waiting
+ * to be applied, a newer tick for it simply overwrites the pending price, so the consumer only ever
+ * sees the latest price per symbol for each batch. The bound is on distinct pending symbols;
+ * producers block once it is reached until the consumer drains a batch.
+ * <p>
+ * Any number of producers may offer ticks, but only one thread should drain the queue.
+ */
+public class TickIngestionQueue {
+    private final int capacity;  // Maximum number of distinct symbols pending at once
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+
+    private HashMap<String, Integer> slots;  // Pending symbol to its slot in the pending arrays
+    private HashMap<String, Integer> spareSlots;
+    private String[] pendingSymbols;
+    private double[] pendingPrices;
+    private String[] drainSymbols;  // The batch being applied, swapped with the pending arrays
+    private double[] drainPrices;
+    private int pendingCount = 0;
+    private boolean closed = false;
+
+    private long received = 0;  // Ticks offered
+    private long coalesced = 0;  // Ticks that overwrote a pending tick for the same symbol
+    private long applied = 0;  // Ticks handed to the consumer
+    private long batches = 0;  // Non-empty batches drained
+
+    /**
+     * This creates a queue holding at most {@code capacity} distinct pending symbols.
+     *
+     * @param capacity The maximum number of distinct pending symbols.
+     */
+    public TickIngestionQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be a positive value.");
+        }
+        this.capacity = capacity;
+        this.slots = new HashMap<>(capacity * 2);
+        this.spareSlots = new HashMap<>(capacity * 2);
+        this.pendingSymbols = new String[capacity];
+        this.pendingPrices = new double[capacity];
+        this.drainSymbols = new String[capacity];
+        this.drainPrices = new double[capacity];
+    }
+
+    /**
+     * This offers a single tick, blocking while the queue is full of other symbols.
+     *
+     * @param symbol The symbol the tick is for.
+     * @param price  The new price.
+     * @throws InterruptedException if interrupted while waiting for space.
+     * @throws IllegalStateException if the queue has been closed.
+     */
+    public void offer(String symbol, double price) throws InterruptedException {
+        lock.lock();
+        try {
+            put(symbol, price);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This offers a batch of ticks under a single lock acquisition, blocking while the queue is full.
+     *
+     * @param symbols The symbols of the ticks.
+     * @param prices  The prices of the ticks.
+     * @param count   The number of ticks to take from the arrays.
+     * @throws InterruptedException if interrupted while waiting for space.
+     * @throws IllegalStateException if the queue has been closed.
+     */
+    public void offerAll(String[] symbols, double[] prices, int count) throws InterruptedException {
+        lock.lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                put(symbols[i], prices[i]);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This stores one tick, coalescing it with a pending tick for the same symbol. Caller holds the lock.
+     */
+    private void put(String symbol, double price) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Tick queue is closed.");
+        }
+        received++;
+        Integer slot = slots.get(symbol);
+        if (slot != null) {
+            pendingPrices[slot] = price;
+            coalesced++;
+            return;
+        }
+        while (pendingCount == capacity) {
+            notFull.await();
+            if (closed) {
+                throw new IllegalStateException("Tick queue is closed.");
+            }
+            slot = slots.get(symbol);  // The symbol may have been re-added while we waited
+            if (slot != null) {
+                pendingPrices[slot] = price;
+                coalesced++;
+                return;
+            }
+        }
+        slots.put(symbol, pendingCount);
+        pendingSymbols[pendingCount] = symbol;
+        pendingPrices[pendingCount] = price;
+        pendingCount++;
+        notEmpty.signal();
+    }
+
+    /**
+     * This waits up to the given time for ticks, then hands the whole pending batch to the sink.
+     * The sink runs outside the lock, so producers keep filling the next batch meanwhile.
+     *
+     * @param sink    The consumer of the batch, called once per pending symbol.
+     * @param timeout The longest time to wait for a tick.
+     * @param unit    The unit of the timeout.
+     * @return The number of ticks delivered, 0 if none arrived in time or the queue is closed and empty.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public int drainTo(PriceSource.Sink sink, long timeout, TimeUnit unit) throws InterruptedException {
+        int count;
+        String[] symbols;
+        double[] prices;
+        lock.lock();
+        try {
+            long nanos = unit.toNanos(timeout);
+            while (pendingCount == 0 && !closed && nanos > 0) {
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            count = pendingCount;
+            if (count == 0) {
+                return 0;
+            }
+            // This swaps the pending and drain buffers so producers can continue immediately
+            symbols = pendingSymbols;
+            prices = pendingPrices;
+            pendingSymbols = drainSymbols;
+            pendingPrices = drainPrices;
+            drainSymbols = symbols;
+            drainPrices = prices;
+            HashMap<String, Integer> full = slots;
+            slots = spareSlots;
+            spareSlots = full;
+            pendingCount = 0;
+            applied += count;
+            batches++;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        for (int i = 0; i < count; i++) {
+            sink.onTick(symbols[i], prices[i]);
+            symbols[i] = null;
+        }
+        spareSlots.clear();  // Only the single consumer touches the spare map
+        return count;
+    }
+
+    /**
+     * This waits up to the given time until at least one tick is pending or the queue is closed.
+     *
+     * @param timeout The longest time to wait.
+     * @param unit    The unit of the timeout.
+     * @return True if ticks are pending.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitTicks(long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = unit.toNanos(timeout);
+            while (pendingCount == 0 && !closed && nanos > 0) {
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return pendingCount > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This closes the queue. Pending ticks can still be drained, but no more can be offered.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This tells whether the queue is closed and fully drained.
+     *
+     * @return True once no more ticks will ever be delivered.
+     */
+    public boolean isFinished() {
+        lock.lock();
+        try {
+            return closed && pendingCount == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This gets the number of ticks offered so far.
+     *
+     * @return The received tick count.
+     */
+    public long getReceived() {
+        lock.lock();
+        try {
+            return received;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This gets the number of ticks that were merged into an already pending tick.
+     *
+     * @return The coalesced tick count.
+     */
+    public long getCoalesced() {
+        lock.lock();
+        try {
+            return coalesced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This gets the number of ticks handed to the consumer.
+     *
+     * @return The applied tick count.
+     */
+    public long getApplied() {
+        lock.lock();
+        try {
+            return applied;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * This gets the number of non-empty batches drained, i.e. the number of revaluations.
+     *
+     * @return The batch count.
+     */
+    public long getBatches() {
+        lock.lock();
+        try {
+            return batches;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package ePortfolio;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This is a compressed, append only series of (time, value) points. Points are kept in blocks of up to
+ * 4096, each with its time range, and every block stores its timestamps and values as two separate bit
+ * streams: timestamps as the delta of their deltas, so regular sampling costs one bit per point, and
+ * values as the XOR with the previous value, so unchanged or slowly moving prices cost a few bits.
+ * A range query skips every block outside the range without decoding it.
+ * <p>
+ * Times are expected in ascending order (equal times are allowed). The series is not thread safe;
+ * {@link PortfolioHistory} guards it.
+ */
+public class TimeSeries {
+    private static final int BLOCK_POINTS = 4096;
+
+    /**
+     * This receives the points of a range query.
+     */
+    @FunctionalInterface
+    public interface PointConsumer {
+        /**
+         * This is called once per point, in time order.
+         *
+         * @param time  The point time, in milliseconds since the epoch.
+         * @param value The point value.
+         */
+        void accept(long time, double value);
+    }
+
+    /**
+     * This is a growable bit stream on a long array.
+     */
+    private static final class Bits {
+        long[] words;
+        long length;  // Number of bits written
+
+        Bits(int words) {
+            this.words = new long[words];
+        }
+
+        void write(long value, int bits) {
+            if (bits == 0) {
+                return;
+            }
+            int word = (int) (length >>> 6);
+            int offset = (int) (length & 63);
+            if (word + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2 + 2);
+            }
+            long masked = bits == 64 ? value : value & ((1L << bits) - 1);
+            int free = 64 - offset;
+            if (bits <= free) {
+                words[word] |= masked << (free - bits);
+            } else {
+                words[word] |= masked >>> (bits - free);
+                words[word + 1] |= masked << (64 - (bits - free));
+            }
+            length += bits;
+        }
+
+        void trim() {
+            words = Arrays.copyOf(words, (int) ((length + 63) >>> 6));
+        }
+    }
+
+    /**
+     * This reads a bit stream written by {@link Bits}.
+     */
+    private static final class BitReader {
+        final long[] words;
+        long position;
+
+        BitReader(long[] words) {
+            this.words = words;
+        }
+
+        long read(int bits) {
+            if (bits == 0) {
+                return 0;
+            }
+            int word = (int) (position >>> 6);
+            int offset = (int) (position & 63);
+            position += bits;
+            int available = 64 - offset;
+            long value;
+            if (bits <= available) {
+                value = words[word] >>> (available - bits);
+            } else {
+                value = (words[word] << (bits - available)) | (words[word + 1] >>> (64 - (bits - available)));
+            }
+            return bits == 64 ? value : value & ((1L << bits) - 1);
+        }
+
+        boolean readBit() {
+            return read(1) == 1;
+        }
+    }
+
+    /**
+     * This is one block of points with its own encoder state.
+     */
+    private static final class Block {
+        final Bits times = new Bits(8);
+        final Bits values = new Bits(16);
+        int count;
+        long firstTime;
+        long lastTime;
+        long lastDelta;
+        long lastBits;  // Raw bits of the previous value
+        int lastLeading = -1;  // Window of the previous XOR, -1 before the first one
+        int lastTrailing;
+
+        void append(long time, double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            if (count == 0) {
+                firstTime = time;
+                times.write(time, 64);
+                values.write(bits, 64);
+            } else {
+                long delta = time - lastTime;
+                writeDeltaOfDelta(delta - lastDelta);
+                lastDelta = delta;
+                writeXor(bits ^ lastBits);
+            }
+            lastTime = time;
+            lastBits = bits;
+            count++;
+        }
+
+        private void writeDeltaOfDelta(long dod) {
+            if (dod == 0) {
+                times.write(0, 1);
+            } else if (dod >= -64 && dod <= 63) {
+                times.write(0b10, 2);
+                times.write(dod, 7);
+            } else if (dod >= -256 && dod <= 255) {
+                times.write(0b110, 3);
+                times.write(dod, 9);
+            } else if (dod >= -2048 && dod <= 2047) {
+                times.write(0b1110, 4);
+                times.write(dod, 12);
+            } else {
+                times.write(0b1111, 4);
+                times.write(dod, 64);
+            }
+        }
+
+        private void writeXor(long xor) {
+            if (xor == 0) {
+                values.write(0, 1);
+                return;
+            }
+            int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (lastLeading >= 0 && leading >= lastLeading && trailing >= lastTrailing) {
+                values.write(0b10, 2);  // This reuses the previous window
+                values.write(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                values.write(0b11, 2);
+                values.write(leading, 5);
+                values.write(meaningful - 1, 6);
+                values.write(xor >>> trailing, meaningful);
+                lastLeading = leading;
+                lastTrailing = trailing;
+            }
+        }
+
+        /**
+         * This decodes the block, passing on the points between from and to inclusive.
+         */
+        void decode(long from, long to, PointConsumer consumer) {
+            BitReader timeBits = new BitReader(times.words);
+            BitReader valueBits = new BitReader(values.words);
+            long time = timeBits.read(64);
+            long bits = valueBits.read(64);
+            long delta = 0;
+            int leading = 0;
+            int trailing = 0;
+            for (int i = 0; ; ) {
+                if (time > to) {
+                    return;  // The rest of the block is after the range
+                }
+                if (time >= from) {
+                    consumer.accept(time, Double.longBitsToDouble(bits));
+                }
+                if (++i == count) {
+                    return;
+                }
+                delta += readDeltaOfDelta(timeBits);
+                time += delta;
+                if (valueBits.readBit()) {
+                    if (valueBits.readBit()) {
+                        leading = (int) valueBits.read(5);
+                        int meaningful = (int) valueBits.read(6) + 1;
+                        trailing = 64 - leading - meaningful;
+                    }
+                    bits ^= valueBits.read(64 - leading - trailing) << trailing;
+                }
+            }
+        }
+
+        private static long readDeltaOfDelta(BitReader in) {
+            if (!in.readBit()) {
+                return 0;
+            }
+            if (!in.readBit()) {
+                return signed(in.read(7), 7);
+            }
+            if (!in.readBit()) {
+                return signed(in.read(9), 9);
+            }
+            if (!in.readBit()) {
+                return signed(in.read(12), 12);
+            }
+            return in.read(64);
+        }
+
+        /**
+         * This sign extends a value written in the given number of bits.
+         */
+        private static long signed(long value, int bits) {
+            return (value << (64 - bits)) >> (64 - bits);
+        }
+
+        long bytes() {
+            return 8L * (times.words.length + values.words.length) + 40;
+        }
+    }
+
+    private final ArrayList<Block> blocks = new ArrayList<>();
+    private long count;
+
+    /**
+     * This appends a point. A point older than the last one is moved up to the last time, so the series
+     * always stays in time order.
+     *
+     * @param time  The point time, in milliseconds since the epoch.
+     * @param value The point value.
+     */
+    public void append(long time, double value) {
+        Block block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        if (block != null && time < block.lastTime) {
+            time = block.lastTime;
+        }
+        if (block == null || block.count == BLOCK_POINTS) {
+            if (block != null) {
+                block.times.trim();
+                block.values.trim();
+            }
+            block = new Block();
+            blocks.add(block);
+        }
+        block.append(time, value);
+        count++;
+    }
+
+    /**
+     * This passes every point between two times, inclusive, to a consumer in time order.
+     *
+     * @param from     The earliest time wanted.
+     * @param to       The latest time wanted.
+     * @param consumer The consumer of the points.
+     */
+    public void range(long from, long to, PointConsumer consumer) {
+        int low = 0;
+        int high = blocks.size();
+        while (low < high) {  // This finds the first block that ends at or after from
+            int middle = (low + high) >>> 1;
+            if (blocks.get(middle).lastTime < from) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < blocks.size() && blocks.get(i).firstTime <= to; i++) {
+            blocks.get(i).decode(from, to, consumer);
+        }
+    }
+
+    /**
+     * This reduces a range to at most a given number of points for a chart, keeping the last point of
+     * each equal width time bucket.
+     *
+     * @param from    The earliest time wanted.
+     * @param to      The latest time wanted.
+     * @param buckets The most points wanted.
+     * @return The sampled points.
+     */
+    public Points sample(long from, long to, int buckets) {
+        Points points = new Points(buckets);
+        if (blocks.isEmpty()) {
+            return points;
+        }
+        long start = Math.max(from, getFirstTime());  // This keeps open ended ranges from overflowing
+        long end = Math.min(to, getLastTime());
+        if (start > end) {
+            return points;
+        }
+        double width = Math.max(1.0, ((double) end - start + 1) / buckets);
+        int[] lastBucket = {-1};
+        range(start, end, (time, value) -> {
+            int bucket = (int) Math.min(buckets - 1, (time - start) / width);
+            if (bucket != lastBucket[0]) {
+                points.size++;
+                lastBucket[0] = bucket;
+            }
+            points.times[points.size - 1] = time;  // This keeps the latest point in the bucket
+            points.values[points.size - 1] = value;
+        });
+        return points;
+    }
+
+    /**
+     * These are points returned by {@link #sample(long, long, int)}.
+     */
+    public static final class Points {
+        private final long[] times;
+        private final double[] values;
+        private int size;
+
+        Points(int capacity) {
+            times = new long[capacity];
+            values = new double[capacity];
+        }
+
+        /**
+         * This gets the number of points.
+         *
+         * @return The point count.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * This gets the time of a point.
+         *
+         * @param i The point index.
+         * @return The time in milliseconds since the epoch.
+         */
+        public long time(int i) {
+            return times[i];
+        }
+
+        /**
+         * This gets the value of a point.
+         *
+         * @param i The point index.
+         * @return The value.
+         */
+        public double value(int i) {
+            return values[i];
+        }
+    }
+
+    /**
+     * This gets the number of points stored.
+     *
+     * @return The point count.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * This gets the time of the first point.
+     *
+     * @return The first time, or Long.MIN_VALUE if the series is empty.
+     */
+    public long getFirstTime() {
+        return blocks.isEmpty() ? Long.MIN_VALUE : blocks.get(0).firstTime;
+    }
+
+    /**
+     * This gets the time of the last point.
+     *
+     * @return The last time, or Long.MIN_VALUE if the series is empty.
+     */
+    public long getLastTime() {
+        return blocks.isEmpty() ? Long.MIN_VALUE : blocks.get(blocks.size() - 1).lastTime;
+    }
+
+    /**
+     * This gets the last value appended.
+     *
+     * @return The last value, or NaN if the series is empty.
+     */
+    public double getLastValue() {
+        return blocks.isEmpty() ? Double.NaN : Double.longBitsToDouble(blocks.get(blocks.size() - 1).lastBits);
+    }
+
+    /**
+     * This gets the memory used by the compressed points.
+     *
+     * @return The approximate size in bytes.
+     */
+    public long getCompressedBytes() {
+        long bytes = 0;
+        for (Block block : blocks) {
+            bytes += block.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * This writes the series, keeping its compressed form.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if the stream cannot be written.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(blocks.size());
+        for (Block block : blocks) {
+            out.writeInt(block.count);
+            out.writeLong(block.firstTime);
+            out.writeLong(block.lastTime);
+            out.writeLong(block.lastDelta);
+            out.writeLong(block.lastBits);
+            out.writeInt(block.lastLeading);
+            out.writeInt(block.lastTrailing);
+            writeBits(out, block.times);
+            writeBits(out, block.values);
+        }
+    }
+
+    private static void writeBits(DataOutputStream out, Bits bits) throws IOException {
+        int words = (int) ((bits.length + 63) >>> 6);
+        out.writeLong(bits.length);
+        for (int i = 0; i < words; i++) {
+            out.writeLong(bits.words[i]);
+        }
+    }
+
+    /**
+     * This reads a series written by {@link #writeTo(DataOutputStream)}. Appending can carry on from it.
+     *
+     * @param in The stream to read from.
+     * @return The series.
+     * @throws IOException if the stream cannot be read.
+     */
+    public static TimeSeries readFrom(DataInputStream in) throws IOException {
+        TimeSeries series = new TimeSeries();
+        int blocks = in.readInt();
+        for (int b = 0; b < blocks; b++) {
+            Block block = new Block();
+            block.count = in.readInt();
+            block.firstTime = in.readLong();
+            block.lastTime = in.readLong();
+            block.lastDelta = in.readLong();
+            block.lastBits = in.readLong();
+            block.lastLeading = in.readInt();
+            block.lastTrailing = in.readInt();
+            readBits(in, block.times);
+            readBits(in, block.values);
+            series.blocks.add(block);
+            series.count += block.count;
+        }
+        return series;
+    }
+
+    private static void readBits(DataInputStream in, Bits bits) throws IOException {
+        bits.length = in.readLong();
+        int words = (int) ((bits.length + 63) >>> 6);
+        bits.words = new long[words + 2];  // This leaves room to keep appending
+        for (int i = 0; i < words; i++) {
+            bits.words[i] = in.readLong();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ePortfolio;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * This is the Java Flight Recorder event emitted for each buy or sell on a {@link Portfolio}.
+ * Its duration covers the whole call. The default threshold of 0 ms records every trade; raise it in
+ * the recording settings (see jfr/eportfolio.jfc) to keep only slow ones.
+ */
+@Name("ePortfolio.Trade")
+@Label("Portfolio Trade")
+@Category({"ePortfolio"})
+@Description("A buyInvestment or sellInvestment call")
+@StackTrace(false)
+@Threshold("0 ms")
+class TradeEvent extends jdk.jfr.Event {
+    private static final EventType TYPE = EventType.getEventType(TradeEvent.class);
+
+    @Label("Side")
+    @Description("buy or sell")
+    String side;
+
+    @Label("Symbol")
+    String symbol;
+
+    @Label("Quantity")
+    int quantity;
+
+    @Label("Price")
+    double price;
+
+    @Label("Result")
+    @Description("The message returned by the trade, empty if it threw")
+    String result;
+
+    /**
+     * This starts timing a trade if a recording wants the event. When none does, no event is allocated,
+     * so the hot path costs one flag read.
+     *
+     * @return The started event, or null if the event is not being recorded.
+     */
+    static TradeEvent start() {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        TradeEvent event = new TradeEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * This ends the event and commits it if the recording wants it.
+     *
+     * @param side     "buy" or "sell".
+     * @param symbol   The symbol traded.
+     * @param quantity The quantity traded.
+     * @param price    The price per unit.
+     * @param result   The message returned by the trade, or null if it threw.
+     */
+    void finish(String side, String symbol, int quantity, double price, String result) {
+        end();
+        if (shouldCommit()) {
+            this.side = side;
+            this.symbol = symbol;
+            this.quantity = quantity;
+            this.price = price;
+            this.result = result == null ? "" : result;
+            commit();
+        }
+    }
+}
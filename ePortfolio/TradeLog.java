@@ -0,0 +1,311 @@
+package ePortfolio;
+
+/**
+ * This is the log of buys and sells behind {@link Portfolio#undo()} and {@link Portfolio#redo()}, and behind
+ * rolling back a {@link Portfolio#transaction(Runnable)}.
+ * <p>
+ * Each trade is one fixed-size record of {@value #RECORD_LONGS} longs (72 bytes) in a single ring array,
+ * holding the instrument and the quantity, price, book value and realized gain of its holding before and
+ * after the trade, so undoing a sell that emptied a holding brings its book value and realized gain back.
+ * Consecutive records form a step, undone and redone together: a single trade, or every trade of a batch
+ * such as a transaction or an applied rebalance. Records before the cursor can be undone, those after it
+ * redone, and a new trade drops the ones after it. The array grows as needed up to the capacity, after
+ * which the oldest steps are dropped.
+ * <p>
+ * The log is not thread safe; the portfolio uses it under its own monitor or from the one thread trading.
+ */
+final class TradeLog {
+    static final int RECORD_LONGS = 9;
+
+    private static final int HEADER = 0;  // Instrument id in the low 32 bits, flags above
+    private static final int QUANTITIES = 1;  // Quantity before in the high 32 bits, after in the low
+    private static final int PRICE = 2;  // Before, then after
+    private static final int BOOK_VALUE = 4;  // Before, then after
+    private static final int REALIZED_GAIN = 6;  // Before, then after, unrounded as the holding keeps it
+    private static final int PORTFOLIO_GAIN = 8;  // What the trade added to the portfolio's realized gain
+
+    private static final long SELL = 1L << 32;
+    private static final long MUTUAL_FUND = 1L << 33;
+    private static final long STEP_START = 1L << 34;
+
+    private final int capacity;  // Most records kept
+    private long[] records = new long[16 * RECORD_LONGS];
+    private int first = 0;  // Ring slot of the oldest record
+    private int size = 0;  // Records held
+    private int applied = 0;  // Records in effect; those from here to size can be redone
+    private long dropped = 0;  // Records dropped to make room, so marks survive drops
+    private boolean grouping = false;  // Set between startStep and endStep
+    private boolean stepStarted = false;  // Set once the grouped step has its first record
+
+    // This is the holding as it was before the trade being recorded
+    private int quantityBefore;
+    private double priceBefore;
+    private double bookValueBefore;
+    private double realizedGainBefore;
+
+    /**
+     * This creates an empty log.
+     *
+     * @param capacity The most trades kept, at least 1.
+     */
+    TradeLog(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The trade log must keep at least one trade.");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * This makes the following records one step, until {@link #endStep()}.
+     */
+    void startStep() {
+        grouping = true;
+        stepStarted = false;
+    }
+
+    /**
+     * This ends the step started by {@link #startStep()}, so the next record starts a step of its own.
+     */
+    void endStep() {
+        grouping = false;
+        stepStarted = false;
+    }
+
+    /**
+     * This notes the state of a holding before a trade on it.
+     *
+     * @param held The holding, or null if there is none yet.
+     */
+    void before(Investment held) {
+        quantityBefore = held == null ? 0 : held.getQuantity();
+        priceBefore = held == null ? 0 : held.getPrice();
+        bookValueBefore = held == null ? 0 : held.getBookValue();
+        realizedGainBefore = held == null ? 0 : held.realizedGain;
+    }
+
+    /**
+     * This records a trade, from the state noted by {@link #before(Investment)} to the holding's state now,
+     * unless the trade changed nothing.
+     *
+     * @param sell          True for a sell, false for a buy.
+     * @param held          The holding traded, even if now sold out, or null if there is none.
+     * @param portfolioGain What the trade added to the portfolio's realized gain.
+     * @return True if a record was added.
+     */
+    boolean after(boolean sell, Investment held, double portfolioGain) {
+        if (held == null || (held.getQuantity() == quantityBefore && held.getPrice() == priceBefore
+                && held.getBookValue() == bookValueBefore && held.realizedGain == realizedGainBefore)) {
+            return false;
+        }
+        size = applied;  // A new trade cannot be followed by the ones undone before it
+        if (size >= capacity) {
+            dropOldestStep();  // The step being recorded is never dropped, so it may pass the capacity
+        }
+        if (size * RECORD_LONGS == records.length) {
+            grow(size >= capacity ? size + size / 2 : Math.min(capacity, size * 2));
+        }
+        int at = slot(size) * RECORD_LONGS;
+        long flags = (sell ? SELL : 0) | (held instanceof MutualFund ? MUTUAL_FUND : 0)
+                | (grouping && stepStarted && size > 0 ? 0 : STEP_START);
+        records[at + HEADER] = flags | (held.getInstrumentId() & 0xFFFFFFFFL);
+        records[at + QUANTITIES] = ((long) quantityBefore << 32) | (held.getQuantity() & 0xFFFFFFFFL);
+        records[at + PRICE] = Double.doubleToRawLongBits(priceBefore);
+        records[at + PRICE + 1] = Double.doubleToRawLongBits(held.getPrice());
+        records[at + BOOK_VALUE] = Double.doubleToRawLongBits(bookValueBefore);
+        records[at + BOOK_VALUE + 1] = Double.doubleToRawLongBits(held.getBookValue());
+        records[at + REALIZED_GAIN] = Double.doubleToRawLongBits(realizedGainBefore);
+        records[at + REALIZED_GAIN + 1] = Double.doubleToRawLongBits(held.realizedGain);
+        records[at + PORTFOLIO_GAIN] = Double.doubleToRawLongBits(portfolioGain);
+        stepStarted = grouping;
+        applied = ++size;
+        return true;
+    }
+
+    /**
+     * This marks the cursor, for rolling back to it with {@link #truncate(long)}.
+     *
+     * @return The mark, which stays valid while older steps are dropped.
+     */
+    long mark() {
+        return dropped + applied;
+    }
+
+    /**
+     * This gets the record at a mark.
+     *
+     * @param mark A mark from {@link #mark()}.
+     * @return The record now at the mark.
+     */
+    int recordAt(long mark) {
+        return (int) (mark - dropped);
+    }
+
+    /**
+     * This gets the number of records in effect.
+     *
+     * @return The record after the last one in effect.
+     */
+    int applied() {
+        return applied;
+    }
+
+    /**
+     * This gets the record the step ending at the cursor starts with, for an undo.
+     *
+     * @return The record, or -1 if there is nothing to undo.
+     */
+    int undoStart() {
+        if (applied == 0) {
+            return -1;
+        }
+        int record = applied - 1;
+        while (!startsStep(record)) {
+            record--;
+        }
+        return record;
+    }
+
+    /**
+     * This gets the record after the step starting at the cursor, for a redo.
+     *
+     * @return The record, or -1 if there is nothing to redo.
+     */
+    int redoEnd() {
+        if (applied == size) {
+            return -1;
+        }
+        int record = applied + 1;
+        while (record < size && !startsStep(record)) {
+            record++;
+        }
+        return record;
+    }
+
+    /**
+     * This moves the cursor after an undo or redo.
+     *
+     * @param applied The records now in effect.
+     */
+    void setApplied(int applied) {
+        this.applied = applied;
+    }
+
+    /**
+     * This drops every record from a point on, after they were rolled back.
+     *
+     * @param mark The cursor as {@link #mark()} gave it before the rolled back trades.
+     */
+    void truncate(long mark) {
+        size = applied = Math.min(recordAt(mark), size);
+        stepStarted = false;
+    }
+
+    int instrumentId(int record) {
+        return (int) longAt(record, HEADER);
+    }
+
+    boolean isSell(int record) {
+        return (longAt(record, HEADER) & SELL) != 0;
+    }
+
+    boolean isMutualFund(int record) {
+        return (longAt(record, HEADER) & MUTUAL_FUND) != 0;
+    }
+
+    int quantity(int record, boolean before) {
+        long quantities = longAt(record, QUANTITIES);
+        return before ? (int) (quantities >>> 32) : (int) quantities;
+    }
+
+    double price(int record, boolean before) {
+        return Double.longBitsToDouble(longAt(record, before ? PRICE : PRICE + 1));
+    }
+
+    double bookValue(int record, boolean before) {
+        return Double.longBitsToDouble(longAt(record, before ? BOOK_VALUE : BOOK_VALUE + 1));
+    }
+
+    double realizedGain(int record, boolean before) {
+        return Double.longBitsToDouble(longAt(record, before ? REALIZED_GAIN : REALIZED_GAIN + 1));
+    }
+
+    double portfolioGain(int record) {
+        return Double.longBitsToDouble(longAt(record, PORTFOLIO_GAIN));
+    }
+
+    /**
+     * This describes the trades of a step, e.g. "sell 10 XYZ, buy 5 ABC".
+     *
+     * @param from The first record.
+     * @param to   The record after the last.
+     * @return The description.
+     */
+    String describe(int from, int to) {
+        StringBuilder description = new StringBuilder();
+        InstrumentRegistry registry = InstrumentRegistry.get();
+        for (int record = from; record < to; record++) {
+            if (record - from == 5) {
+                description.append(", and ").append(to - record).append(" more");
+                break;
+            }
+            if (record > from) {
+                description.append(", ");
+            }
+            description.append(isSell(record) ? "sell " : "buy ")
+                    .append(Math.abs(quantity(record, false) - quantity(record, true))).append(' ')
+                    .append(registry.symbol(instrumentId(record)));
+        }
+        return description.toString();
+    }
+
+    /**
+     * This gets the number of records held, in effect or undone.
+     *
+     * @return The number of records.
+     */
+    int size() {
+        return size;
+    }
+
+    private boolean startsStep(int record) {
+        return (longAt(record, HEADER) & STEP_START) != 0;
+    }
+
+    private long longAt(int record, int field) {
+        return records[slot(record) * RECORD_LONGS + field];
+    }
+
+    private int slot(int record) {
+        int slot = first + record;
+        int slots = records.length / RECORD_LONGS;
+        return slot >= slots ? slot - slots : slot;
+    }
+
+    /**
+     * This drops the oldest step to make room, unless it is the step being recorded.
+     */
+    private void dropOldestStep() {
+        int end = 1;
+        while (end < size && !startsStep(end)) {
+            end++;
+        }
+        if (end < size) {
+            first = slot(end);
+            size -= end;
+            applied -= end;
+            dropped += end;
+        }
+    }
+
+    /**
+     * This moves the records to a larger array, oldest first.
+     */
+    private void grow(int slots) {
+        long[] grown = new long[Math.max(slots, size + 1) * RECORD_LONGS];
+        for (int record = 0; record < size; record++) {
+            System.arraycopy(records, slot(record) * RECORD_LONGS, grown, record * RECORD_LONGS, RECORD_LONGS);
+        }
+        records = grown;
+        first = 0;
+    }
+}
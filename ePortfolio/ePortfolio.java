@@ -2,7 +2,17 @@
 
 package ePortfolio;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.TreeMap;
 
 /**
  * This is main class for the ePortfolio application, providing a command line interface
@@ -14,18 +24,44 @@ public class ePortfolio {
      * Main entry point for the ePortfolio application. Loads investments from a file
      * if specified and allows users to manage investments interactively.
      *
-     * @param args Command-line arguments where the first argument should be the filename to load/save investments.
+     * @param args Command-line arguments where the first argument should be the filename to load/save investments,
+     *             or a directory of account files to manage many portfolios.
      */
     public static void main(String[] args) {
         // Below it will check if a filename argument is provided to load/save investments
         if (args.length != 1) {
-            System.out.println("Usage: java ePortfolio.ePortfolio <filename>");
+            System.out.println("Usage: java ePortfolio.ePortfolio <filename | account directory>");
             return;
         }
 
         String filename = args[0];  // This is the filename for loading and saving investments
+        if (new File(filename).isDirectory()) {
+            handlingAccounts(new Scanner(System.in), new PortfolioManager(new File(filename)));
+            return;
+        }
         Portfolio portfolio = new Portfolio();  // Here I Created Portfolio instance
-        portfolio.loadInvestmentsFromFile(filename);  // This will load investments from file
+        if (SnapshotFile.isSnapshotName(filename)) {
+            try {
+                portfolio.openSnapshotFile(filename);  // This will read holdings only as they are used
+            } catch (java.nio.file.NoSuchFileException e) {
+                System.out.println("File not found. A new file will be created when saving.");
+            } catch (IOException e) {
+                System.out.println("Error reading file: " + e.getMessage());
+            }
+        } else if (filename.toLowerCase().endsWith(".db")) {
+            try {
+                PortfolioStore store = PortfolioStore.open(filename);  // This will create the database if needed
+                store.loadInto(portfolio);
+                portfolio.setStore(store);  // This will write each trade to the database as it happens
+            } catch (IOException e) {
+                System.out.println("Error opening database: " + e.getMessage());
+                return;
+            }
+            portfolio.getAnalytics();
+        } else {
+            portfolio.loadInvestmentsFromFile(filename, 0);  // This will load investments from file, parsed on every core
+            portfolio.getAnalytics();  // This will measure returns from the start of the session
+        }
 
          // Launch the GUI and pass the portfolio and filename
         javax.swing.SwingUtilities.invokeLater(() -> {
@@ -33,12 +69,39 @@ public class ePortfolio {
             gui.setVisible(true);
         });
 
-        Scanner scanner = new Scanner(System.in);
+        runCommands(new Scanner(System.in), portfolio, filename);
+        System.out.println("Exiting the program.");  // This will confirm program exit
+    }
+
+    /**
+     * This runs the command loop on one portfolio until the user quits, then saves it.
+     *
+     * @param scanner   The scanner for user input.
+     * @param portfolio The portfolio the commands act on.
+     * @param filename  The file the portfolio is saved to on quit.
+     */
+    private static void runCommands(Scanner scanner, Portfolio portfolio, String filename) {
+        // This will print price alerts as they fire, from the alert delivery thread
+        AlertEngine.AlertListener alertPrinter = (alert, price) ->
+                System.out.printf("%nALERT: %s triggered at $%.2f%n", alert, price);
+        portfolio.getAlertEngine().addAlertListener(alertPrinter);
+
+        // This will carry on the value history saved next to the portfolio file, if there is one
+        PortfolioHistory history = new PortfolioHistory(portfolio);
+        File historyFile = new File(filename + ".history");
+        if (historyFile.exists()) {
+            try {
+                history.load(historyFile);
+            } catch (IOException e) {
+                System.out.println("Error reading history: " + e.getMessage());
+            }
+        }
+
         String command = "";  // This will initialize command to avoid uninitialized variable error
 
         // Below is the main command loop
         while (!command.equalsIgnoreCase("quit")) {
-            System.out.print("\nEnter command (buy, sell, update, getGain, search, quit): ");
+            System.out.print("\nEnter command (buy, sell, update, getGain, search, query, feed, backtest, risk, rebalance, import, export, diff, patch, alert, analytics, history, metrics, undo, redo, serve, quit): ");
             command = scanner.nextLine().toLowerCase().trim();  // It will read user input and trim spaces
 
             // Below it will handle ambiguous input for s and se
@@ -57,14 +120,117 @@ public class ePortfolio {
                 portfolio.getGain();  // This will calculate and display the total gain of the portfolio
             } else if (matchesCommand(command, "search")) {
                 handlingSearch(scanner, portfolio);  // This will search for investments based on criteria
+            } else if (matchesCommand(command, "query") && command.length() > 2) {  // This leaves q, qu and qui to quit
+                handlingQuery(scanner, portfolio);  // This will search using the query language
+            } else if (matchesCommand(command, "feed")) {
+                handlingFeed(scanner, portfolio);  // This will stream simulated or replayed prices into the portfolio
+            } else if (matchesCommand(command, "backtest")) {
+                handlingBacktest(scanner);  // This will replay a recorded tape against a fresh portfolio
+            } else if (matchesCommand(command, "risk")) {
+                handlingRisk(scanner, portfolio);  // This will simulate Value-at-Risk over the current holdings
+            } else if (matchesCommand(command, "rebalance")) {
+                handlingRebalance(scanner, portfolio);  // This will plan and optionally apply trades to target weights
+            } else if (matchesCommand(command, "import")) {
+                handlingImport(scanner, portfolio);  // This will add holdings from a CSV or JSON Lines statement
+            } else if (matchesCommand(command, "export")) {
+                handlingExport(scanner, portfolio);  // This will write the holdings as CSV or JSON Lines
+            } else if (matchesCommand(command, "diff")) {
+                handlingDiff(scanner);  // This will compare two saved portfolio files
+            } else if (matchesCommand(command, "patch")) {
+                handlingPatch(scanner, portfolio);  // This will apply a diff file to the open portfolio
+            } else if (matchesCommand(command, "alert")) {
+                handlingAlert(scanner, portfolio);  // This will add a stop-loss, take-profit or percentage move alert
+            } else if (matchesCommand(command, "analytics")) {
+                System.out.print(portfolio.getAnalytics().getReport());  // This will show returns, volatility and drawdown
+            } else if (matchesCommand(command, "history")) {
+                handlingHistory(scanner, history);  // This will record or show the value history
+            } else if (matchesCommand(command, "metrics")) {
+                handlingMetrics(scanner);  // This will show or control the operation metrics
+            } else if (matchesCommand(command, "undo") && command.length() > 1) {
+                handlingUndo(scanner, portfolio, true);  // This will undo the last trades
+            } else if (matchesCommand(command, "redo") && command.length() > 2) {
+                handlingUndo(scanner, portfolio, false);  // This will redo trades undone
+            } else if (matchesCommand(command, "serve") && command.length() > 2) {
+                handlingServe(scanner, portfolio);  // This will serve orders to local clients until Enter
             } else if (matchesCommand(command, "quit")) { 
-                portfolio.saveInvestmentsToFile(filename);  // This will save investments to file on exit
-                System.out.println("Exiting the program.");  // This will confirm program exit
+                synchronized (portfolio) {
+                    if (SnapshotFile.isSnapshotName(filename)) {
+                        try {
+                            portfolio.saveSnapshotFile(filename);
+                        } catch (IOException e) {
+                            System.out.println("Error saving to file: " + e.getMessage());
+                        }
+                    } else if (portfolio.getStore() != null) {
+                        try (PortfolioStore store = portfolio.getStore()) {
+                            store.saveAll(portfolio);  // This will write price updates, the trades are there already
+                        } catch (IOException e) {
+                            System.out.println("Error saving to database: " + e.getMessage());
+                        }
+                    } else {
+                        portfolio.saveInvestmentsToFile(filename);  // This will save investments to file on exit
+                    }
+                }
+                history.stop();
+                if (history.getPointCount() > 0) {
+                    try {
+                        history.save(historyFile);  // This will keep the history for the next session
+                    } catch (IOException e) {
+                        System.out.println("Error saving history: " + e.getMessage());
+                    }
+                }
                 break;  // This will exit the loop
             } else {
                 System.out.println("Invalid command.");  // This will print error for invalid command
             }
         }
+        portfolio.getAlertEngine().removeAlertListener(alertPrinter);
+    }
+
+    /**
+     * This runs the account console used when the program is given a directory of account files.
+     * Each account is opened with the normal command loop; exposure totals every account in parallel.
+     *
+     * @param scanner The scanner for user input.
+     * @param manager The manager hosting the accounts.
+     */
+    private static void handlingAccounts(Scanner scanner, PortfolioManager manager) {
+        while (true) {
+            System.out.print("\nEnter account command (list, open <account>, exposure, evict <minutes>, stats, quit): ");
+            String[] parts = scanner.nextLine().trim().split("\\s+", 2);
+            String command = parts[0].toLowerCase();
+            try {
+                if (command.equals("list")) {
+                    List<String> ids = manager.getAccountIds();
+                    for (String id : ids) {
+                        System.out.println(id + (manager.isResident(id) ? " (loaded)" : ""));
+                    }
+                    System.out.println(ids.size() + " account(s), " + manager.getResidentCount() + " loaded, "
+                            + InstrumentRegistry.get().size() + " instrument(s).");
+                } else if (command.equals("open") && parts.length == 2) {
+                    String id = parts[1].trim();
+                    runCommands(scanner, manager.getPortfolio(id), manager.getAccountFile(id).getPath());
+                    System.out.println("Closed account " + id + ".");
+                } else if (command.equals("exposure")) {
+                    long start = System.nanoTime();
+                    Map<String, PortfolioManager.Exposure> exposure = manager.getExposureBySymbol();
+                    new TreeMap<>(exposure).values().forEach(System.out::println);
+                    System.out.printf("%d symbol(s) in %.1f ms%n", exposure.size(), (System.nanoTime() - start) / 1e6);
+                } else if (command.equals("evict")) {
+                    long minutes = parts.length == 2 ? Long.parseLong(parts[1].trim()) : 0;
+                    System.out.println("Evicted " + manager.evictIdle(minutes * 60_000L) + " account(s).");
+                } else if (command.equals("stats")) {
+                    System.out.print(manager.getStatistics());
+                } else if (command.equals("quit")) {
+                    manager.saveAll();
+                    System.out.println("Exiting the program.");
+                    return;
+                } else {
+                    System.out.println("Invalid command.");
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+        }
     }
 
     /**
@@ -132,14 +298,11 @@ public class ePortfolio {
                         throw new IllegalArgumentException("Price must be greater than zero. Please re-enter.");
                     }
 
-                    // This will update the investment
-                    existingInvestment.setQuantity(existingInvestment.getQuantity() + additionalQuantity);
-                    existingInvestment.setPrice(newPrice);
+                    // This will update the investment through the portfolio so the trade is recorded
+                    portfolio.buyInvestment(symbol, existingInvestment.getName(), additionalQuantity, newPrice, type);
                     if (existingInvestment instanceof Stock) {
-                        ((Stock) existingInvestment).updateBookValue(newPrice, additionalQuantity);
                     System.out.println("Success!! " + additionalQuantity + " shares added to " + symbol + " at $" + newPrice + " per share.");
                     } else if (existingInvestment instanceof MutualFund) {
-                        ((MutualFund) existingInvestment).updateBookValue(newPrice, additionalQuantity);
                         System.out.println("Success!! " + additionalQuantity + " units added to " + symbol + " at $" + newPrice + " per unit.");
                     }
             } else {
@@ -166,13 +329,7 @@ public class ePortfolio {
                 System.out.println("Price must be greater than zero. Please re-enter.");
             }
 
-            Investment newInvestment;
-            if (type.equals("stock")) {
-                newInvestment = new Stock(symbol, name, quantity, price);
-            } else {
-                newInvestment = new MutualFund(symbol, name, quantity, price);
-            }
-            portfolio.addInvestment(newInvestment);
+            portfolio.buyInvestment(symbol, name, quantity, price, type);  // This will create and add the investment
             System.out.println("Success!! Bought " + quantity + " of " + name + " (" + symbol + ") at $" + price + " each.");
         }
     }
@@ -212,23 +369,464 @@ public class ePortfolio {
         System.out.print("Enter price range: ");
         String priceRange = scanner.nextLine();  // This will read the price range
 
-        double minPrice = Double.NEGATIVE_INFINITY;  // This is the default minimum price
-        double maxPrice = Double.POSITIVE_INFINITY;  // This is the default maximum price
-
-        // The following below will parse the price range if provided
-        if (!priceRange.isEmpty()) {
-            if (priceRange.endsWith("-")) {
-                minPrice = Double.parseDouble(priceRange.replace("-", "").trim());
-            } else if (priceRange.startsWith("-")) {
-                maxPrice = Double.parseDouble(priceRange.replace("-", "").trim());
-            } else if (priceRange.contains("-")) {
-                String[] prices = priceRange.split("-");
-                minPrice = Double.parseDouble(prices[0].trim());
-                maxPrice = Double.parseDouble(prices[1].trim());
+        double minPrice;
+        double maxPrice;
+        try {
+            double[] range = InvestmentQuery.parsePriceRange(priceRange);  // This handles negative bounds too
+            minPrice = range[0];
+            maxPrice = range[1];
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid price range format.");
+            return;
+        }
+
+        printResults(portfolio.searchInvestment(symbol, keywords, minPrice, maxPrice));
+    }
+
+    /**
+     * This handles a search written in the query language, printing the plan followed by the results.
+     *
+     * @param scanner   The scanner for user input.
+     * @param portfolio The portfolio instance to search within.
+     */
+    private static void handlingQuery(Scanner scanner, Portfolio portfolio) {
+        System.out.print("Enter query (e.g. type = stock and price in [10, 50]): ");
+        String query = scanner.nextLine();
+        try {
+            System.out.println(portfolio.explain(query));  // This shows which index the planner picked
+            printResults(portfolio.search(query));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid query: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This streams ticks from a random walk simulator or a CSV replay file into the portfolio and reports throughput.
+     *
+     * @param scanner   The scanner for user input.
+     * @param portfolio The portfolio to apply prices to.
+     */
+    private static void handlingFeed(Scanner scanner, Portfolio portfolio) {
+        System.out.print("Enter CSV file to replay (leave blank for a random walk): ");
+        String csvFile = scanner.nextLine().trim();
+        PriceSource source;
+        try {
+            if (csvFile.isEmpty()) {
+                if (portfolio.getInvestments().isEmpty()) {
+                    System.out.println("No investments to simulate.");
+                    return;
+                }
+                System.out.print("Enter number of ticks: ");
+                long ticks = Long.parseLong(scanner.nextLine().trim());
+                source = RandomWalkPriceSource.forPortfolio(portfolio, 0.001, 42L, ticks);  // Fixed seed keeps runs repeatable
+            } else {
+                source = new CsvReplayPriceSource(csvFile);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number of ticks.");
+            return;
+        } catch (IOException e) {
+            System.out.println("Error opening file: " + e.getMessage());
+            return;
+        }
+
+        try (PriceSource feedSource = source) {
+            PriceFeed feed = new PriceFeed(feedSource, portfolio, 4096);
+            feed.start();
+            feed.awaitCompletion();
+            if (feed.getFailure() != null) {
+                System.out.println("Feed stopped early: " + feed.getFailure().getMessage());
             }
+            System.out.println(feed.getReport());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("Error closing file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This replays a recorded tape of ticks and trades against a fresh portfolio and prints the result.
+     * The current portfolio is not touched.
+     *
+     * @param scanner The scanner for user input.
+     */
+    private static void handlingBacktest(Scanner scanner) {
+        System.out.print("Enter tape CSV file to replay: ");
+        String tapeFile = scanner.nextLine().trim();
+        ReplayTape tape;
+        try {
+            tape = ReplayTape.readCsv(tapeFile);
+        } catch (IOException e) {
+            System.out.println("Error reading tape: " + e.getMessage());
+            return;
+        }
+        long start = System.nanoTime();
+        Backtester.Result result = new Backtester(tape).run(Backtester.REPLAY_ONLY);
+        System.out.println(result);
+        System.out.printf("Replayed %,d events in %.1f ms%n", tape.size(), (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * This imports holdings from a CSV or JSON Lines file, chosen by its extension, and prints what was
+     * added and which records were rejected.
+     *
+     * @param scanner   The scanner for user input.
+     * @param portfolio The portfolio to add the holdings to.
+     */
+    private static void handlingImport(Scanner scanner, Portfolio portfolio) {
+        System.out.print("Enter CSV or JSON Lines (.jsonl) file to import: ");
+        String file = scanner.nextLine().trim();
+        long start = System.nanoTime();
+        try {
+            System.out.print(BulkTransfer.importFile(portfolio, file).getReport());
+        } catch (IOException e) {
+            System.out.println("Error importing: " + e.getMessage());
+            return;
+        }
+        System.out.printf("Imported in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * This exports the holdings to a CSV or JSON Lines file, chosen by its extension.
+     *
+     * @param scanner   The scanner for user input.
+     * @param portfolio The portfolio to export.
+     */
+    private static void handlingExport(Scanner scanner, Portfolio portfolio) {
+        System.out.print("Enter CSV or JSON Lines (.jsonl) file to export to: ");
+        String file = scanner.nextLine().trim();
+        try {
+            System.out.println("Exported " + BulkTransfer.exportFile(portfolio, file) + " holdings to " + file + ".");
+        } catch (IOException e) {
+            System.out.println("Error exporting: " + e.getMessage());
         }
+    }
 
-        portfolio.searchInvestment(symbol, keywords, minPrice, maxPrice);
+    /**
+     * This compares two saved portfolio files, printing the differences or writing them to a diff file.
+     *
+     * @param scanner The scanner for user input.
+     */
+    private static void handlingDiff(Scanner scanner) {
+        System.out.print("Enter the older portfolio file: ");
+        String before = scanner.nextLine().trim();
+        System.out.print("Enter the newer portfolio file: ");
+        String after = scanner.nextLine().trim();
+        System.out.print("Enter diff file to write (blank to print the differences): ");
+        String diffFile = scanner.nextLine().trim();
+        long start = System.nanoTime();
+        try {
+            PortfolioDiff.Summary summary = diffFile.isEmpty()
+                    ? PortfolioDiff.compare(before, after, change -> System.out.println(change))
+                    : PortfolioDiff.writeDiff(before, after, diffFile);
+            System.out.println(summary);
+        } catch (IOException e) {
+            System.out.println("Error comparing: " + e.getMessage());
+            return;
+        }
+        System.out.printf("Compared in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * This applies a diff file to the open portfolio.
+     *
+     * @param scanner   The scanner for user input.
+     * @param portfolio The portfolio to change.
+     */
+    private static void handlingPatch(Scanner scanner, Portfolio portfolio) {
+        System.out.print("Enter diff file to apply: ");
+        String diffFile = scanner.nextLine().trim();
+        try {
+            System.out.print(PortfolioDiff.applyFile(portfolio, diffFile).getReport());
+        } catch (IOException e) {
+            System.out.println("Error applying diff: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This simulates the Value-at-Risk and expected shortfall of the current holdings and prints them.
+     * Blank answers keep the defaults shown.
+     *
+     * @param scanner   The scanner for user input.
+     * @param portfolio The portfolio to assess.
+     */
+    private static void handlingRisk(Scanner scanner, Portfolio portfolio) {
+        if (portfolio.getInvestments().isEmpty()) {
+            System.out.println("No investments to assess.");
+            return;
+        }
+        RiskSimulator simulator = new RiskSimulator(portfolio);
+        try {
+            System.out.print("Enter number of paths (default 1000000): ");
+            String paths = scanner.nextLine().trim();
+            System.out.print("Enter horizon in trading days (default 1): ");
+            String days = scanner.nextLine().trim();
+            if (!days.isEmpty()) {
+                simulator.setHorizonDays(Integer.parseInt(days));
+            }
+            System.out.print("Enter annual volatility in percent (default 25): ");
+            String volatility = scanner.nextLine().trim();
+            if (!volatility.isEmpty()) {
+                simulator.setVolatility(Double.parseDouble(volatility) / 100);
+            }
+            System.out.print("Enter correlation between holdings, 0 to 1 (default 0.3): ");
+            String correlation = scanner.nextLine().trim();
+            if (!correlation.isEmpty()) {
+                simulator.setCorrelation(Double.parseDouble(correlation));
+            }
+            RiskSimulator.Result result = simulator.simulate(paths.isEmpty() ? 1_000_000 : Integer.parseInt(paths), 42L);
+            System.out.print(result.getReport());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number.");
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * This plans the trades that bring the portfolio to target weights, prints the plan and applies it
+     * if the user confirms.
+     *
+     * @param scanner   The scanner for user input.
+     * @param portfolio The portfolio to rebalance.
+     */
+    private static void handlingRebalance(Scanner scanner, Portfolio portfolio) {
+        System.out.print("Enter targets (e.g. stock=60%, mutualfund=30%, XYZ=10%) or a file of them: ");
+        String targets = scanner.nextLine().trim();
+        Rebalancer rebalancer = new Rebalancer(portfolio);
+        Rebalancer.Plan plan;
+        try {
+            File file = new File(targets);
+            rebalancer.setWeights(file.isFile() ? new String(Files.readAllBytes(file.toPath())) : targets);
+            System.out.print("Enter new cash to invest (default 0): ");
+            String cash = scanner.nextLine().trim();
+            if (!cash.isEmpty()) {
+                rebalancer.setCash(Double.parseDouble(cash));
+            }
+            System.out.print("Enter drift tolerance in percent (default 0): ");
+            String tolerance = scanner.nextLine().trim();
+            if (!tolerance.isEmpty()) {
+                rebalancer.setTolerance(Double.parseDouble(tolerance) / 100);
+            }
+            plan = rebalancer.plan();
+        } catch (IOException e) {
+            System.out.println("Error reading targets: " + e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {  // This includes an invalid number
+            System.out.println(e.getMessage());
+            return;
+        }
+        System.out.print(plan.getReport(20));
+        if (plan.getOrders().isEmpty()) {
+            return;
+        }
+        System.out.print("Apply these orders? (yes/no): ");
+        if (scanner.nextLine().trim().toLowerCase().startsWith("y")) {
+            try {
+                List<String> messages = plan.apply();
+                System.out.println("Applied " + messages.size() + " orders.");
+            } catch (IllegalStateException e) {
+                System.out.println(e.getMessage());
+            }
+        } else {
+            System.out.println("Dry run only, nothing traded.");
+        }
+    }
+
+    /**
+     * This handles adding a price alert on a held investment, or listing the pending alerts.
+     *
+     * @param scanner   The scanner for user input.
+     * @param portfolio The portfolio whose alert engine receives the alert.
+     */
+    private static void handlingAlert(Scanner scanner, Portfolio portfolio) {
+        AlertEngine engine = portfolio.getAlertEngine();
+        System.out.print("Enter alert type (stoploss/takeprofit/percent/list): ");
+        String type = scanner.nextLine().toLowerCase().trim();
+        if (matchesCommand(type, "list") && !type.isEmpty()) {
+            List<PriceAlert> alerts = engine.getAlerts();
+            if (alerts.isEmpty()) {
+                System.out.println("No pending alerts.");
+            }
+            for (PriceAlert alert : alerts) {
+                System.out.println(alert);
+            }
+            return;
+        }
+
+        PriceAlert.Kind kind;
+        if (matchesCommand(type, "stoploss") && !type.isEmpty()) {
+            kind = PriceAlert.Kind.STOP_LOSS;
+        } else if (matchesCommand(type, "takeprofit") && !type.isEmpty()) {
+            kind = PriceAlert.Kind.TAKE_PROFIT;
+        } else if (matchesCommand(type, "percent") && !type.isEmpty()) {
+            kind = PriceAlert.Kind.PERCENT_MOVE;
+        } else {
+            System.out.println("Invalid alert type.");
+            return;
+        }
+
+        System.out.print("Enter symbol: ");
+        String symbol = scanner.nextLine().trim().toUpperCase();
+        System.out.print(kind == PriceAlert.Kind.PERCENT_MOVE ? "Enter percentage: " : "Enter threshold price: ");
+        try {
+            double value = Double.parseDouble(scanner.nextLine().trim());
+            PriceAlert alert = engine.addAlert(symbol, kind, value);
+            System.out.println("Alert added: " + alert);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This handles recording the value history and showing it for the total or one holding.
+     *
+     * @param scanner The scanner for user input.
+     * @param history The history of the current portfolio.
+     */
+    private static void handlingHistory(Scanner scanner, PortfolioHistory history) {
+        System.out.print("Enter history action (changes/sample/stop/snapshot/show/stats): ");
+        String action = scanner.nextLine().toLowerCase().trim();
+        try {
+            if (action.isEmpty() || matchesCommand(action, "stats")) {
+                System.out.println(history.getStatistics());
+            } else if (matchesCommand(action, "changes")) {
+                history.recordChanges();
+                System.out.println("Recording on every price or quantity change.");
+            } else if (matchesCommand(action, "sample")) {
+                System.out.print("Enter interval in seconds: ");
+                double seconds = Double.parseDouble(scanner.nextLine().trim());
+                history.startSampling(Math.max(1, Math.round(seconds * 1000)));
+                System.out.println("Recording every " + seconds + " second(s).");
+            } else if (matchesCommand(action, "stop") && action.length() > 2) {
+                history.stop();
+                System.out.println("Recording stopped.");
+            } else if (matchesCommand(action, "snapshot") && action.length() > 1) {
+                history.snapshot();
+                System.out.println("Snapshot recorded.");
+            } else if (matchesCommand(action, "show") && action.length() > 1) {
+                System.out.print("Enter symbol, or leave blank for the total: ");
+                String symbol = scanner.nextLine().trim();
+                System.out.print("Enter number of days to show (blank for all): ");
+                String days = scanner.nextLine().trim();
+                long from = days.isEmpty() ? Long.MIN_VALUE
+                        : System.currentTimeMillis() - Math.round(Double.parseDouble(days) * 86_400_000L);
+                TimeSeries.Points points = symbol.isEmpty() ? history.getTotal(from, Long.MAX_VALUE, 20)
+                        : history.getHolding(symbol, from, Long.MAX_VALUE, 20);
+                if (points == null || points.size() == 0) {
+                    System.out.println("No history recorded.");
+                    return;
+                }
+                for (int i = 0; i < points.size(); i++) {
+                    System.out.printf("%tF %<tT  $%,.2f%n", points.time(i), points.value(i));
+                }
+            } else {
+                System.out.println("Invalid history action.");
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number.");
+        }
+    }
+
+    /**
+     * This undoes or redoes a number of steps of trades, each a buy, a sell or a batch such as an applied
+     * rebalance, printing each one.
+     *
+     * @param scanner   The scanner for user input.
+     * @param portfolio The portfolio to undo or redo trades in.
+     * @param undo      True to undo, false to redo.
+     */
+    private static void handlingUndo(Scanner scanner, Portfolio portfolio, boolean undo) {
+        System.out.print("Enter number of steps to " + (undo ? "undo" : "redo") + " (default 1): ");
+        String steps = scanner.nextLine().trim();
+        try {
+            int count = steps.isEmpty() ? 1 : Integer.parseInt(steps);
+            for (int i = 0; i < count; i++) {
+                String trades = undo ? portfolio.undo() : portfolio.redo();
+                if (trades == null) {
+                    System.out.println("Nothing more to " + (undo ? "undo." : "redo."));
+                    break;
+                }
+                System.out.println((undo ? "Undid: " : "Redid: ") + trades);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number of steps.");
+        } catch (IllegalStateException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This serves the portfolio to local clients over a loopback port or a Unix domain socket until Enter
+     * is pressed.
+     *
+     * @param scanner   The scanner for user input.
+     * @param portfolio The portfolio to serve.
+     */
+    private static void handlingServe(Scanner scanner, Portfolio portfolio) {
+        System.out.print("Enter port or socket file path (default 7070): ");
+        String where = scanner.nextLine().trim();
+        SocketAddress address;
+        try {
+            address = where.isEmpty() || where.chars().allMatch(Character::isDigit)
+                    ? new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                            where.isEmpty() ? 7070 : Integer.parseInt(where))
+                    : UnixDomainSocketAddress.of(where);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid port or path.");
+            return;
+        }
+        try (OrderServer server = OrderServer.open(portfolio, address)) {
+            System.out.println("Serving on " + server.getAddress() + ". Press Enter to stop.");
+            scanner.nextLine();
+            System.out.println("Served " + server.getRequestCount() + " requests.");
+        } catch (IOException e) {
+            System.out.println("Error serving: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This shows the operation metrics, or turns recording on, off or resets it.
+     *
+     * @param scanner The scanner for user input.
+     */
+    private static void handlingMetrics(Scanner scanner) {
+        PortfolioMetrics metrics = PortfolioMetrics.get();
+        System.out.print("Enter metrics action (dump/on/off/reset): ");
+        String action = scanner.nextLine().toLowerCase().trim();
+        if (action.isEmpty() || matchesCommand(action, "dump")) {
+            System.out.print(metrics.dump());
+        } else if (action.equals("on")) {
+            metrics.setEnabled(true);
+            System.out.println("Metrics enabled.");
+        } else if (action.equals("off")) {
+            metrics.setEnabled(false);
+            System.out.println("Metrics disabled.");
+        } else if (matchesCommand(action, "reset")) {
+            metrics.reset();
+            System.out.println("Metrics reset.");
+        } else {
+            System.out.println("Invalid metrics action.");
+        }
+    }
+
+    /**
+     * This prints search results, one investment per line.
+     *
+     * @param results The investments to print.
+     */
+    private static void printResults(List<Investment> results) {
+        if (results.isEmpty()) {
+            System.out.println("No matching investments found.");
+            return;
+        }
+        System.out.println("Search Results:");
+        for (Investment investment : results) {
+            System.out.println(investment.toDisplayString());
+        }
     }
 
     /**